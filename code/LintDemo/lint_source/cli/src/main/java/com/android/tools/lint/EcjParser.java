@@ -192,7 +192,7 @@ public class EcjParser extends JavaParser {
         }
     }
 
-    private Parser getParser() {
+    private synchronized Parser getParser() {
         if (mParser == null) {
             CompilerOptions options = createCompilerOptions();
             ProblemReporter problemReporter = new ProblemReporter(
@@ -438,12 +438,14 @@ public class EcjParser extends JavaParser {
             @NonNull JavaContext context,
             @NonNull String code) {
         ICompilationUnit sourceUnit = null;
-        if (mSourceUnits != null && mCompiled != null) {
-            sourceUnit = mSourceUnits.get(context.file);
-            if (sourceUnit != null) {
-                CompilationUnitDeclaration unit = mCompiled.get(sourceUnit);
-                if (unit != null) {
-                    return unit;
+        synchronized (this) {
+            if (mSourceUnits != null && mCompiled != null) {
+                sourceUnit = mSourceUnits.get(context.file);
+                if (sourceUnit != null) {
+                    CompilationUnitDeclaration unit = mCompiled.get(sourceUnit);
+                    if (unit != null) {
+                        return unit;
+                    }
                 }
             }
         }
@@ -453,7 +455,13 @@ public class EcjParser extends JavaParser {
         }
         try {
             CompilationResult compilationResult = new CompilationResult(sourceUnit, 0, 0, 0);
-            return getParser().parse(sourceUnit, compilationResult);
+            // The ECJ parser is stateful; files are parsed from several threads when
+            // lint pipelines parsing with the detectors
+            Parser parser = getParser();
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (parser) {
+                return parser.parse(sourceUnit, compilationResult);
+            }
         } catch (AbortCompilation e) {
             // No need to report Java parsing errors while running in Eclipse.
             // Eclipse itself will already provide problem markers for these files,
@@ -479,7 +487,7 @@ public class EcjParser extends JavaParser {
     }
 
     @Override
-    public void dispose(@NonNull JavaContext context,
+    public synchronized void dispose(@NonNull JavaContext context,
             @NonNull Node compilationUnit) {
         if (mSourceUnits != null && mCompiled != null) {
             ICompilationUnit sourceUnit = mSourceUnits.get(context.file);
@@ -490,6 +498,13 @@ public class EcjParser extends JavaParser {
         }
     }
 
+    @Override
+    public boolean supportsConcurrentParsing() {
+        // The ECJ units are all attributed up front in prepareJavaParse; parseJava
+        // only converts them to Lombok trees, which is safe to do in parallel
+        return true;
+    }
+
     @Override
     public void dispose() {
         if (mEnvironment != null) {
@@ -623,7 +638,7 @@ public class EcjParser extends JavaParser {
         return null;
     }
 
-    private TypeDeclaration findTypeDeclaration(@NonNull String signature) {
+    private synchronized TypeDeclaration findTypeDeclaration(@NonNull String signature) {
         if (mTypeUnits == null) {
             mTypeUnits = Maps.newHashMapWithExpectedSize(mCompiled.size());
             for (CompilationUnitDeclaration unit : mCompiled.values()) {
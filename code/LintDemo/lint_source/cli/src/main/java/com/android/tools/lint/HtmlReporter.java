@@ -24,6 +24,7 @@ import static com.android.tools.lint.detector.api.TextFormat.RAW;
 
 import com.android.tools.lint.checks.BuiltinIssueRegistry;
 import com.android.tools.lint.client.api.Configuration;
+import com.android.tools.lint.client.api.DetectorProfiler;
 import com.android.tools.lint.detector.api.Category;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
@@ -333,6 +334,7 @@ public class HtmlReporter extends Reporter {
         } else {
             mWriter.write("Congratulations!");
         }
+        writeProfile();
         mWriter.write("\n</body>\n</html>");                             //$NON-NLS-1$
         mWriter.close();
 
@@ -516,6 +518,48 @@ public class HtmlReporter extends Reporter {
         }
     }
 
+    private void writeProfile() throws IOException {
+        DetectorProfiler profiler = mClient.getDriver().getProfiler();
+        if (profiler == null) {
+            return;
+        }
+
+        mWriter.write("\n<a name=\"Profile\"></a>\n");              //$NON-NLS-1$
+        mWriter.write("<div class=\"category\">");                  //$NON-NLS-1$
+        mWriter.write("Detector Performance");
+        mWriter.write("<div class=\"categorySeparator\"></div>\n"); //$NON-NLS-1$
+        mWriter.write("</div>\n");                                  //$NON-NLS-1$
+
+        mWriter.write(
+                "The time and memory spent in the callbacks of each detector, slowest " +
+                "first. Measurements which are not supported by the JVM are shown as -.");
+        mWriter.write("\n<br/><br/>\n"); //$NON-NLS-1$
+
+        mWriter.write("<table class=\"overview\">\n");              //$NON-NLS-1$
+        mWriter.write("<tr><td class=\"countColumn\">Wall (ms)</td>" //$NON-NLS-1$
+                + "<td class=\"countColumn\">CPU (ms)</td>"          //$NON-NLS-1$
+                + "<td class=\"countColumn\">Allocated (KB)</td>"    //$NON-NLS-1$
+                + "<td class=\"countColumn\">Calls</td>"             //$NON-NLS-1$
+                + "<td class=\"issueColumn\">Detector</td></tr>\n"); //$NON-NLS-1$
+        for (DetectorProfiler.Entry entry : profiler.getEntries()) {
+            mWriter.write("<tr>");                                   //$NON-NLS-1$
+            writeProfileCell(entry.getWallTime(), 1000000);
+            writeProfileCell(entry.getCpuTime(), 1000000);
+            writeProfileCell(entry.getAllocatedBytes(), 1024);
+            writeProfileCell(entry.getCalls(), 1);
+            mWriter.write("<td class=\"issueColumn\">");             //$NON-NLS-1$
+            mWriter.write(entry.getDetectorName());
+            mWriter.write("</td></tr>\n");                           //$NON-NLS-1$
+        }
+        mWriter.write("</table>\n");                                 //$NON-NLS-1$
+    }
+
+    private void writeProfileCell(long value, long unit) throws IOException {
+        mWriter.write("<td class=\"countColumn\">");                //$NON-NLS-1$
+        mWriter.write(value < 0 ? "-" : Long.toString(value / unit));
+        mWriter.write("</td>");                                      //$NON-NLS-1$
+    }
+
     protected void writeStyleSheet() throws IOException {
         if (USE_HOLO_STYLE) {
             mWriter.write(
@@ -624,6 +668,15 @@ public class HtmlReporter extends Reporter {
             mWriter.write("</td></tr>");                             //$NON-NLS-1$
         }
 
+        if (mClient.getDriver().getProfiler() != null) {
+            mWriter.write("<tr><td></td>");                          //$NON-NLS-1$
+            mWriter.write("<td class=\"categoryColumn\">");          //$NON-NLS-1$
+            mWriter.write("<a href=\"#Profile\">");                  //$NON-NLS-1$
+            mWriter.write("Detector Performance");
+            mWriter.write("</a>\n");                                 //$NON-NLS-1$
+            mWriter.write("</td></tr>");                             //$NON-NLS-1$
+        }
+
         mWriter.write("</table>\n");                                 //$NON-NLS-1$
         mWriter.write("<br/>");                                      //$NON-NLS-1$
     }
@@ -0,0 +1,604 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.SdkConstants.DOT_JAR;
+import static com.android.SdkConstants.DOT_JAVA;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.lint.client.api.DefaultConfiguration;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.DefaultPosition;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.Project;
+import com.android.tools.lint.detector.api.Severity;
+import com.android.tools.lint.detector.api.TextFormat;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of the warnings reported by the file-local detectors (see
+ * {@link IssueRegistry#getFileLocalScope(Class)}) in a previous lint run, which lets
+ * the {@link LintCliClient} skip those detectors on files whose contents have not
+ * changed, and report the cached warnings instead.
+ * <p>
+ * Each file is keyed by a hash of its contents along with the lint configuration,
+ * the registered detectors (including their class files), and the project settings
+ * (lint.xml, manifest and SDK versions); changing any of these invalidates the
+ * cached results. Java and class file detectors also resolve symbols in other files,
+ * such as the super classes and the annotations of called methods, so Java and class
+ * files are also keyed by all the code of their project and its libraries. Detectors
+ * which look at more than a single file always run.
+ */
+class IncrementalCache {
+    private static final String FILE_HEADER = "Incremental results of Android lint\000";
+    private static final int BINARY_FORMAT_VERSION = 1;
+
+    private final LintCliClient mClient;
+    private final File mFile;
+    private final Map<String, Entry> mCurrent = Maps.newHashMap();
+    private final Map<Project, Long> mProjectKeys = new IdentityHashMap<Project, Long>();
+    private final Map<Project, Long> mCodeKeys = new IdentityHashMap<Project, Long>();
+    private Map<String, Entry> mPrevious;
+    private Long mKey;
+    private boolean mCanceled;
+    private boolean mReplaying;
+
+    private IncrementalCache(@NonNull LintCliClient client, @NonNull File file) {
+        mClient = client;
+        mFile = file;
+    }
+
+    /**
+     * Creates a cache for lint runs on the given files (typically project directories)
+     *
+     * @param client the client the cached warnings are reported to
+     * @param files the files lint is run on
+     * @return a new cache, or null if there is no cache directory
+     */
+    @Nullable
+    static IncrementalCache create(@NonNull LintCliClient client, @NonNull List<File> files) {
+        File cacheDir = client.getCacheDir(true /*create*/);
+        if (cacheDir == null) {
+            return null;
+        }
+
+        List<String> paths = Lists.newArrayListWithExpectedSize(files.size());
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        Collections.sort(paths);
+        String name = "lint-incremental-" //$NON-NLS-1$
+                + Hashing.sha1().hashString(Joiner.on(File.pathSeparatorChar).join(paths),
+                        Charsets.UTF_8)
+                + ".bin"; //$NON-NLS-1$
+
+        return new IncrementalCache(client, new File(cacheDir, name));
+    }
+
+    /**
+     * Returns true if the given file has not changed since the previous run. The
+     * cached warnings of such files are reported by {@link #reportCachedWarnings()}.
+     *
+     * @param project the project containing the file
+     * @param file the file to check
+     * @return true if the file-local detectors do not need to run on the file
+     */
+    boolean isUpToDate(@NonNull Project project, @NonNull File file) {
+        String path = file.getAbsolutePath();
+        Entry entry = mCurrent.get(path);
+        if (entry != null) {
+            return entry.mProject != null;
+        }
+
+        long hash;
+        try {
+            Hasher hasher = Hashing.sha1().newHasher();
+            hasher.putLong(getProjectKey(project));
+            if (isCodeFile(file)) {
+                hasher.putLong(getCodeKey(project));
+            }
+            hasher.putBytes(Files.toByteArray(file));
+            hash = hasher.hash().asLong();
+        } catch (IOException e) {
+            // Not tracked: the file will be analyzed, and its warnings not cached
+            return false;
+        }
+
+        Entry previous = getPreviousEntries().get(path);
+        if (previous != null && previous.mHash == hash) {
+            previous.mProject = project;
+            mCurrent.put(path, previous);
+            return true;
+        }
+
+        mCurrent.put(path, new Entry(hash));
+        return false;
+    }
+
+    /**
+     * Reports the cached warnings of the files found to be up to date to the client.
+     * This is done once lint has analyzed the files, since the warnings of the
+     * file-local detectors on these files would otherwise be missing.
+     */
+    void reportCachedWarnings() {
+        mReplaying = true;
+        try {
+            for (Map.Entry<String, Entry> pair : mCurrent.entrySet()) {
+                Entry entry = pair.getValue();
+                if (entry.mProject == null || entry.mWarnings.isEmpty()) {
+                    continue;
+                }
+                Context context = new Context(mClient.getDriver(), entry.mProject, null,
+                        new File(pair.getKey()));
+                for (CachedWarning warning : entry.mWarnings) {
+                    mClient.report(context, warning.mIssue, warning.mSeverity,
+                            warning.mLocation, warning.mMessage, TextFormat.RAW);
+                }
+            }
+        } finally {
+            mReplaying = false;
+        }
+    }
+
+    /**
+     * Records a warning reported to the client
+     *
+     * @return false if the warning is reported from the cache, and should be dropped
+     */
+    boolean record(
+            @NonNull Context context,
+            @NonNull Issue issue,
+            @NonNull Severity severity,
+            @Nullable Location location,
+            @NonNull String rawMessage) {
+        if (mReplaying || mCurrent.isEmpty()) {
+            return true;
+        }
+        Entry entry = mCurrent.get(context.file.getAbsolutePath());
+        if (entry == null || !isCacheable(issue)) {
+            return true;
+        }
+        if (entry.mProject != null) {
+            // Up to date: reported from the cache instead
+            return false;
+        }
+
+        entry.mWarnings.add(new CachedWarning(issue, severity, location, rawMessage));
+        return true;
+    }
+
+    /** Marks the lint run as canceled, such that the results are not written */
+    void cancel() {
+        mCanceled = true;
+    }
+
+    /** Writes the results of the current lint run, replacing the previous ones */
+    void write() {
+        if (mCanceled || mKey == null) {
+            return;
+        }
+
+        DataOutputStream output = null;
+        boolean ok = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mFile)));
+            output.write(FILE_HEADER.getBytes(Charsets.US_ASCII));
+            output.writeByte(BINARY_FORMAT_VERSION);
+            output.writeLong(mKey);
+            output.writeInt(mCurrent.size());
+            for (Map.Entry<String, Entry> pair : mCurrent.entrySet()) {
+                Entry entry = pair.getValue();
+                writeString(output, pair.getKey());
+                output.writeLong(entry.mHash);
+                output.writeInt(entry.mWarnings.size());
+                for (CachedWarning warning : entry.mWarnings) {
+                    writeString(output, warning.mIssue.getId());
+                    writeString(output, warning.mSeverity.name());
+                    writeString(output, warning.mMessage);
+                    writeLocation(output, warning.mLocation);
+                }
+            }
+            ok = true;
+        } catch (IOException e) {
+            mClient.log(e, "Could not write lint cache %1$s", mFile);
+        } finally {
+            try {
+                Closeables.close(output, true /* swallowIOException */);
+            } catch (IOException e) {
+                // cannot happen
+            }
+            if (!ok) {
+                //noinspection ResultOfMethodCallIgnored
+                mFile.delete();
+            }
+        }
+    }
+
+    private boolean isCacheable(@NonNull Issue issue) {
+        return issue == IssueRegistry.PARSER_ERROR
+                || mClient.getDriver().getRegistry().getFileLocalScope(
+                        issue.getImplementation().getDetectorClass()) != null;
+    }
+
+    /**
+     * Returns the key identifying the lint setup: a change in the enabled issues, the
+     * detector implementations or the configuration invalidates all cached results
+     */
+    private long getKey() {
+        if (mKey == null) {
+            LintDriver driver = mClient.getDriver();
+            LintCliFlags flags = mClient.getFlags();
+            Hasher hasher = Hashing.sha1().newHasher();
+            hasher.putInt(BINARY_FORMAT_VERSION);
+            putString(hasher, mClient.getRevision());
+            putStrings(hasher, flags.getSuppressedIds());
+            putStrings(hasher, flags.getEnabledIds());
+            putStrings(hasher, flags.getExactCheckedIds());
+            putStrings(hasher, flags.getSeverityOverrides().keySet());
+            putStrings(hasher, flags.getSeverityOverrides().values());
+            hasher.putBoolean(flags.isFatalOnly());
+            hasher.putBoolean(flags.isCheckAllWarnings());
+            hasher.putBoolean(flags.isIgnoreWarnings());
+            hasher.putBoolean(flags.isWarningsAsErrors());
+            putFile(hasher, flags.getDefaultConfiguration());
+
+            List<Issue> issues = new ArrayList<Issue>(driver.getRegistry().getIssues());
+            Collections.sort(issues, new Comparator<Issue>() {
+                @Override
+                public int compare(Issue issue1, Issue issue2) {
+                    return issue1.getId().compareTo(issue2.getId());
+                }
+            });
+            Set<Class<?>> seen = new HashSet<Class<?>>();
+            for (Issue issue : issues) {
+                Class<?> detectorClass = issue.getImplementation().getDetectorClass();
+                putString(hasher, issue.getId());
+                putString(hasher, detectorClass.getName());
+                if (seen.add(detectorClass)) {
+                    putClass(hasher, detectorClass);
+                }
+            }
+
+            mKey = hasher.hash().asLong();
+        }
+
+        return mKey;
+    }
+
+    /** Returns the key of the project settings which the file-local detectors may read */
+    private long getProjectKey(@NonNull Project project) {
+        Long key = mProjectKeys.get(project);
+        if (key == null) {
+            Hasher hasher = Hashing.sha1().newHasher();
+            hasher.putLong(getKey());
+            putFile(hasher, new File(project.getDir(), DefaultConfiguration.CONFIG_FILE_NAME));
+            for (File manifest : project.getManifestFiles()) {
+                putFile(hasher, manifest);
+            }
+            hasher.putInt(project.getMinSdk());
+            hasher.putInt(project.getTargetSdk());
+            hasher.putInt(project.getBuildSdk());
+            hasher.putBoolean(project.getReportIssues());
+            key = hasher.hash().asLong();
+            mProjectKeys.put(project, key);
+        }
+
+        return key;
+    }
+
+    /**
+     * Returns the key of the code which the Java and class file detectors can resolve
+     * symbols in: the sources, classes and jars of the project and of its libraries
+     */
+    private long getCodeKey(@NonNull Project project) throws IOException {
+        Long key = mCodeKeys.get(project);
+        if (key == null) {
+            Hasher hasher = Hashing.sha1().newHasher();
+            List<Project> projects = new ArrayList<Project>();
+            projects.add(project);
+            projects.addAll(project.getAllLibraries());
+            for (Project p : projects) {
+                for (File folder : p.getJavaSourceFolders()) {
+                    putTree(hasher, folder);
+                }
+                for (File folder : p.getTestSourceFolders()) {
+                    putTree(hasher, folder);
+                }
+                for (File folder : p.getJavaClassFolders()) {
+                    putTree(hasher, folder);
+                }
+                for (File jar : p.getJavaLibraries()) {
+                    putTree(hasher, jar);
+                }
+            }
+            key = hasher.hash().asLong();
+            mCodeKeys.put(project, key);
+        }
+
+        return key;
+    }
+
+    private static boolean isCodeFile(@NonNull File file) {
+        String name = file.getName();
+        return name.endsWith(DOT_JAVA) || name.endsWith(DOT_CLASS) || name.endsWith(DOT_JAR);
+    }
+
+    /** Adds the paths and contents of the given file, or of the files below a folder */
+    private static void putTree(@NonNull Hasher hasher, @NonNull File file) throws IOException {
+        putString(hasher, file.getPath());
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    putTree(hasher, child);
+                }
+            }
+        } else if (file.isFile()) {
+            hasher.putBytes(Files.toByteArray(file));
+        }
+    }
+
+    @NonNull
+    private Map<String, Entry> getPreviousEntries() {
+        if (mPrevious == null) {
+            mPrevious = Maps.newHashMap();
+            if (mFile.exists()) {
+                try {
+                    readEntries(mPrevious);
+                } catch (IOException e) {
+                    // Corrupt or truncated: start over
+                    mPrevious.clear();
+                }
+            }
+        }
+
+        return mPrevious;
+    }
+
+    private void readEntries(@NonNull Map<String, Entry> entries) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mFile)));
+        try {
+            byte[] expectedHeader = FILE_HEADER.getBytes(Charsets.US_ASCII);
+            byte[] header = new byte[expectedHeader.length];
+            input.readFully(header);
+            if (!Arrays.equals(expectedHeader, header)
+                    || input.readByte() != BINARY_FORMAT_VERSION
+                    || input.readLong() != getKey()) {
+                return;
+            }
+
+            IssueRegistry registry = mClient.getDriver().getRegistry();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(input);
+                Entry entry = new Entry(input.readLong());
+                int warningCount = input.readInt();
+                for (int j = 0; j < warningCount; j++) {
+                    Issue issue = registry.getIssue(readString(input));
+                    Severity severity = Severity.valueOf(readString(input));
+                    String message = readString(input);
+                    Location location = readLocation(input);
+                    if (issue == null) {
+                        throw new IOException("Unknown issue in lint cache");
+                    }
+                    entry.mWarnings.add(new CachedWarning(issue, severity, location, message));
+                }
+                entries.put(path, entry);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        } finally {
+            Closeables.close(input, true /* swallowIOException */);
+        }
+    }
+
+    private static void writeLocation(@NonNull DataOutputStream output,
+            @Nullable Location location) throws IOException {
+        // Location and its chain of secondary locations
+        while (location != null) {
+            output.writeBoolean(true);
+            writeString(output, location.getFile().getPath());
+            writePosition(output, location.getStart());
+            writePosition(output, location.getEnd());
+            output.writeBoolean(location.getMessage() != null);
+            if (location.getMessage() != null) {
+                writeString(output, location.getMessage());
+            }
+            location = location.getSecondary();
+        }
+        output.writeBoolean(false);
+    }
+
+    @Nullable
+    private static Location readLocation(@NonNull DataInputStream input) throws IOException {
+        Location first = null;
+        Location last = null;
+        while (input.readBoolean()) {
+            File file = new File(readString(input));
+            Position start = readPosition(input);
+            Position end = readPosition(input);
+            Location location = start != null
+                    ? Location.create(file, start, end) : Location.create(file);
+            if (input.readBoolean()) {
+                location.setMessage(readString(input));
+            }
+            if (last == null) {
+                first = location;
+            } else {
+                last.setSecondary(location);
+            }
+            last = location;
+        }
+
+        return first;
+    }
+
+    private static void writePosition(@NonNull DataOutputStream output,
+            @Nullable Position position) throws IOException {
+        output.writeBoolean(position != null);
+        if (position != null) {
+            output.writeInt(position.getLine());
+            output.writeInt(position.getColumn());
+            output.writeInt(position.getOffset());
+        }
+    }
+
+    @Nullable
+    private static Position readPosition(@NonNull DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        int line = input.readInt();
+        int column = input.readInt();
+        int offset = input.readInt();
+        return new DefaultPosition(line, column, offset);
+    }
+
+    // Not writeUTF: messages and paths are not limited to 64K bytes
+    private static void writeString(@NonNull DataOutputStream output, @NonNull String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(Charsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    @NonNull
+    private static String readString(@NonNull DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static void putString(@NonNull Hasher hasher, @Nullable String s) {
+        if (s != null) {
+            hasher.putString(s, Charsets.UTF_8);
+        }
+        hasher.putByte((byte) 0);
+    }
+
+    private static void putStrings(@NonNull Hasher hasher, @Nullable Collection<?> values) {
+        if (values == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        List<String> sorted = Lists.newArrayListWithExpectedSize(values.size());
+        for (Object value : values) {
+            sorted.add(value.toString());
+        }
+        Collections.sort(sorted);
+        hasher.putInt(sorted.size());
+        for (String s : sorted) {
+            putString(hasher, s);
+        }
+    }
+
+    private static void putFile(@NonNull Hasher hasher, @Nullable File file) {
+        if (file != null && file.isFile()) {
+            try {
+                hasher.putBoolean(true);
+                hasher.putBytes(Files.toByteArray(file));
+                return;
+            } catch (IOException e) {
+                // Treat as missing
+            }
+        }
+        hasher.putBoolean(false);
+    }
+
+    private static void putClass(@NonNull Hasher hasher, @NonNull Class<?> c) {
+        String name = c.getName();
+        InputStream stream = c.getResourceAsStream(
+                name.substring(name.lastIndexOf('.') + 1) + ".class"); //$NON-NLS-1$
+        if (stream != null) {
+            try {
+                hasher.putBytes(ByteStreams.toByteArray(stream));
+            } catch (IOException e) {
+                // Only the class name then
+            } finally {
+                try {
+                    Closeables.close(stream, true /* swallowIOException */);
+                } catch (IOException e) {
+                    // cannot happen
+                }
+            }
+        }
+    }
+
+    /** The cached results for a single file */
+    private static class Entry {
+        private final long mHash;
+        private final List<CachedWarning> mWarnings = new ArrayList<CachedWarning>();
+        /** The project containing the file, if the file is up to date */
+        private Project mProject;
+
+        private Entry(long hash) {
+            mHash = hash;
+        }
+    }
+
+    private static class CachedWarning {
+        private final Issue mIssue;
+        private final Severity mSeverity;
+        private final Location mLocation;
+        private final String mMessage;
+
+        private CachedWarning(@NonNull Issue issue, @NonNull Severity severity,
+                @Nullable Location location, @NonNull String message) {
+            mIssue = issue;
+            mSeverity = severity;
+            mLocation = location;
+            mMessage = message;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.android.annotations.VisibleForTesting;
 import com.android.tools.lint.checks.HardcodedValuesDetector;
 import com.android.tools.lint.client.api.Configuration;
 import com.android.tools.lint.client.api.DefaultConfiguration;
+import com.android.tools.lint.client.api.DetectorProfiler;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.JavaParser;
 import com.android.tools.lint.client.api.LintClient;
@@ -43,10 +44,12 @@ import com.android.tools.lint.detector.api.Project;
 import com.android.tools.lint.detector.api.Severity;
 import com.android.tools.lint.detector.api.TextFormat;
 import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -89,6 +92,7 @@ public class LintCliClient extends LintClient {
     protected final LintCliFlags mFlags;
     private Configuration mConfiguration;
     private boolean mValidatedIds;
+    private IncrementalCache mIncrementalCache;
 
     /** Creates a CLI driver */
     public LintCliClient() {
@@ -112,6 +116,9 @@ public class LintCliClient extends LintClient {
         mDriver = new LintDriver(registry, this);
 
         mDriver.setAbbreviating(!mFlags.isShowEverything());
+        if (mFlags.isIncremental()) {
+            mIncrementalCache = IncrementalCache.create(this, files);
+        }
         addProgressPrinter();
         mDriver.addLintListener(new LintListener() {
             @Override
@@ -121,12 +128,29 @@ public class LintCliClient extends LintClient {
                     // Make sure all the id's are valid once the driver is all set up and
                     // ready to run (such that custom rules are available in the registry etc)
                     validateIssueIds(context != null ? context.getProject() : null);
+                } else if (type == EventType.CANCELED && mIncrementalCache != null) {
+                    mIncrementalCache.cancel();
                 }
             }
         });
 
+        File profileFile = mFlags.getProfileFile();
+        if (profileFile != null) {
+            mDriver.setProfiler(new DetectorProfiler());
+        }
+
         mDriver.analyze(createLintRequest(files));
 
+        if (mIncrementalCache != null) {
+            mIncrementalCache.reportCachedWarnings();
+            mIncrementalCache.write();
+        }
+
+        DetectorProfiler profiler = mDriver.getProfiler();
+        if (profileFile != null && profiler != null) {
+            writeProfile(profiler, profileFile);
+        }
+
         Collections.sort(mWarnings);
 
         boolean hasConsoleOutput = false;
@@ -145,6 +169,34 @@ public class LintCliClient extends LintClient {
         return mFlags.isSetExitCode() ? (mHasErrors ? ERRNO_ERRORS : ERRNO_SUCCESS) : ERRNO_SUCCESS;
     }
 
+    /**
+     * Writes the time and memory spent in each detector to the given file as JSON, in
+     * decreasing order of wall time. Times are in nanoseconds, and measurements which
+     * are not supported by the JVM are written as -1.
+     */
+    private static void writeProfile(@NonNull DetectorProfiler profiler, @NonNull File file)
+            throws IOException {
+        StringBuilder sb = new StringBuilder(4000);
+        sb.append("{\n  \"detectors\": [");
+        boolean first = true;
+        for (DetectorProfiler.Entry entry : profiler.getEntries()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            // Detector class names never contain characters which need JSON escapes
+            sb.append("\n    {");
+            sb.append("\"detector\": \"").append(entry.getDetectorName()).append("\", ");
+            sb.append("\"calls\": ").append(entry.getCalls()).append(", ");
+            sb.append("\"wallTimeNs\": ").append(entry.getWallTime()).append(", ");
+            sb.append("\"cpuTimeNs\": ").append(entry.getCpuTime()).append(", ");
+            sb.append("\"allocatedBytes\": ").append(entry.getAllocatedBytes());
+            sb.append('}');
+        }
+        sb.append("\n  ]\n}\n");
+        Files.write(sb.toString(), file, Charsets.UTF_8);
+    }
+
     protected void addProgressPrinter() {
         if (!mFlags.isQuiet()) {
             mDriver.addLintListener(new ProgressPrinter());
@@ -207,6 +259,11 @@ public class LintCliClient extends LintClient {
         return new EcjParser(this, project);
     }
 
+    @Override
+    public boolean isUpToDate(@NonNull Project project, @NonNull File file) {
+        return mIncrementalCache != null && mIncrementalCache.isUpToDate(project, file);
+    }
+
     @Override
     public void report(
             @NonNull Context context,
@@ -221,6 +278,17 @@ public class LintCliClient extends LintClient {
             return;
         }
 
+        // Store the message in the raw format internally such that we can
+        // convert it to text for the text reporter, HTML for the HTML reporter
+        // and so on.
+        message = format.convertTo(message, TextFormat.RAW);
+
+        if (mIncrementalCache != null
+                && !mIncrementalCache.record(context, issue, severity, location, message)) {
+            // Already reported from the cache
+            return;
+        }
+
         if (severity == Severity.ERROR || severity == Severity.FATAL) {
             mHasErrors = true;
             mErrorCount++;
@@ -228,10 +296,6 @@ public class LintCliClient extends LintClient {
             mWarningCount++;
         }
 
-        // Store the message in the raw format internally such that we can
-        // convert it to text for the text reporter, HTML for the HTML reporter
-        // and so on.
-        message = format.convertTo(message, TextFormat.RAW);
         Warning warning = new Warning(issue, message, severity, context.getProject());
         mWarnings.add(warning);
 
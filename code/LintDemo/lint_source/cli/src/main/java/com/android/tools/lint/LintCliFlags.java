@@ -53,6 +53,8 @@ public class LintCliFlags {
     private boolean mAllErrors;
     private boolean mFatalOnly;
     private boolean mExplainIssues;
+    private boolean mIncremental;
+    private File mProfileFile;
     private List<File> mSources;
     private List<File> mClasses;
     private List<File> mLibraries;
@@ -395,4 +397,46 @@ public class LintCliFlags {
     public void setExplainIssues(boolean explainText) {
         mExplainIssues = explainText;
     }
+
+    /**
+     * Returns true if lint should cache the results of the single file checks between
+     * runs, and skip those checks on files which have not changed since the previous run
+     *
+     * @return true if lint should run incrementally
+     */
+    public boolean isIncremental() {
+        return mIncremental;
+    }
+
+    /**
+     * Sets whether lint should cache the results of the single file checks between
+     * runs, and skip those checks on files which have not changed since the previous run
+     *
+     * @param incremental true if lint should run incrementally
+     */
+    public void setIncremental(boolean incremental) {
+        mIncremental = incremental;
+    }
+
+    /**
+     * Returns the file to write the time and memory spent in each detector to, as JSON,
+     * or null if the detectors should not be profiled. When set, the HTML and XML reports
+     * also include the measurements.
+     *
+     * @return the profile output file, or null
+     */
+    @Nullable
+    public File getProfileFile() {
+        return mProfileFile;
+    }
+
+    /**
+     * Sets the file to write the time and memory spent in each detector to, as JSON,
+     * or null to not profile the detectors (the default)
+     *
+     * @param profileFile the profile output file, or null
+     */
+    public void setProfileFile(@Nullable File profileFile) {
+        mProfileFile = profileFile;
+    }
 }
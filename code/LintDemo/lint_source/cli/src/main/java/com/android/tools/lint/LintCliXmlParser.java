@@ -18,6 +18,7 @@ package com.android.tools.lint;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.ide.common.blame.SourcePosition;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.XmlParser;
 import com.android.tools.lint.detector.api.DefaultPosition;
@@ -31,19 +32,43 @@ import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * A customization of the {@link PositionXmlParser} which creates position
  * objects that directly extend the lint
  * {@link com.android.tools.lint.detector.api.Position} class.
  * <p>
- * It also catches and reports parser errors as lint errors.
+ * It also catches and reports parser errors as lint errors, and supports
+ * {@link #streamXml(XmlContext, StreamHandler) streaming} documents, in which case
+ * it records the node positions itself.
  */
 public class LintCliXmlParser extends XmlParser {
+    /** User data key of the {@link StreamedRange} of nodes created when streaming */
+    private static final String STREAMED_RANGE = "lint.range"; //$NON-NLS-1$
+
+    private SAXParserFactory mSaxFactory;
+    private DocumentBuilder mDocumentBuilder;
+
     @Override
     public Document parseXml(@NonNull XmlContext context) {
         String xml = null;
@@ -54,49 +79,99 @@ public class LintCliXmlParser extends XmlParser {
                 return PositionXmlParser.parse(xml);
             }
         } catch (UnsupportedEncodingException e) {
-            context.report(
-                    // Must provide an issue since API guarantees that the issue parameter
-                    // is valid
-                    IssueRegistry.PARSER_ERROR, Location.create(context.file),
-                    e.getCause() != null ? e.getCause().getLocalizedMessage() :
-                            e.getLocalizedMessage()
-            );
+            reportEncodingError(context, e);
         } catch (SAXException e) {
-            Location location = Location.create(context.file);
-            String message = e.getCause() != null ? e.getCause().getLocalizedMessage() :
-                    e.getLocalizedMessage();
-            if (message.startsWith("The processing instruction target matching "
-                    + "\"[xX][mM][lL]\" is not allowed.")) {
-                int prologue = xml.indexOf("<?xml ");
-                int comment = xml.indexOf("<!--");
-                if (prologue != -1 && comment != -1 && comment < prologue) {
-                    message = "The XML prologue should appear before, not after, the first XML "
-                            + "header/copyright comment. " + message;
-                }
-            }
-            context.report(
-                    // Must provide an issue since API guarantees that the issue parameter
-                    // is valid
-                    IssueRegistry.PARSER_ERROR, location,
-                    message
-            );
+            reportParserError(context, xml, e);
         } catch (Throwable t) {
             context.log(t, null);
         }
         return null;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean streamXml(@NonNull XmlContext context, @NonNull StreamHandler handler) {
+        String xml = context.getContents();
+        if (xml == null) {
+            return false;
+        }
+        try {
+            if (mSaxFactory == null) {
+                SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+                saxFactory.setNamespaceAware(true);
+                // Report xmlns attributes too, like the DOM parser
+                saxFactory.setFeature(
+                        "http://xml.org/sax/features/namespace-prefixes", true); //$NON-NLS-1$
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                mDocumentBuilder = factory.newDocumentBuilder();
+                mSaxFactory = saxFactory;
+            }
+            SAXParser parser = mSaxFactory.newSAXParser();
+            StreamingDomBuilder builder = new StreamingDomBuilder(context, xml,
+                    mDocumentBuilder.newDocument(), handler);
+            parser.setProperty("http://xml.org/sax/properties/lexical-handler", //$NON-NLS-1$
+                    builder);
+            parser.parse(new InputSource(new StringReader(xml)), builder);
+            return true;
+        } catch (SAXException e) {
+            reportParserError(context, xml, e);
+        } catch (ParserConfigurationException e) {
+            context.log(e, null);
+        } catch (IOException e) {
+            context.log(e, null);
+        }
+        return false;
+    }
+
+    private static void reportEncodingError(@NonNull XmlContext context,
+            @NonNull UnsupportedEncodingException e) {
+        context.report(
+                // Must provide an issue since API guarantees that the issue parameter
+                // is valid
+                IssueRegistry.PARSER_ERROR, Location.create(context.file),
+                e.getCause() != null ? e.getCause().getLocalizedMessage() :
+                        e.getLocalizedMessage()
+        );
+    }
+
+    private static void reportParserError(@NonNull XmlContext context, @Nullable String xml,
+            @NonNull SAXException e) {
+        Location location = Location.create(context.file);
+        String message = e.getCause() != null ? e.getCause().getLocalizedMessage() :
+                e.getLocalizedMessage();
+        if (xml != null && message.startsWith("The processing instruction target matching "
+                + "\"[xX][mM][lL]\" is not allowed.")) {
+            int prologue = xml.indexOf("<?xml ");
+            int comment = xml.indexOf("<!--");
+            if (prologue != -1 && comment != -1 && comment < prologue) {
+                message = "The XML prologue should appear before, not after, the first XML "
+                        + "header/copyright comment. " + message;
+            }
+        }
+        context.report(
+                // Must provide an issue since API guarantees that the issue parameter
+                // is valid
+                IssueRegistry.PARSER_ERROR, location,
+                message
+        );
+    }
+
     @NonNull
     @Override
     public Location getLocation(@NonNull XmlContext context, @NonNull Node node) {
-        return Location.create(context.file, PositionXmlParser.getPosition(node));
+        return Location.create(context.file, getPosition(node));
     }
 
     @NonNull
     @Override
     public Location getLocation(@NonNull XmlContext context, @NonNull Node node,
             int start, int end) {
-        return Location.create(context.file, PositionXmlParser.getPosition(node, start, end));
+        return Location.create(context.file, getPosition(node, start, end));
     }
 
     @Override
@@ -144,12 +219,328 @@ public class LintCliXmlParser extends XmlParser {
 
     @Override
     public int getNodeStartOffset(@NonNull XmlContext context, @NonNull Node node) {
-        return  PositionXmlParser.getPosition(node).getStartOffset();
+        return getPosition(node).getStartOffset();
     }
 
     @Override
     public int getNodeEndOffset(@NonNull XmlContext context, @NonNull Node node) {
-        return  PositionXmlParser.getPosition(node).getEndOffset();
+        return getPosition(node).getEndOffset();
+    }
+
+    @NonNull
+    private static SourcePosition getPosition(@NonNull Node node) {
+        StreamedRange range = StreamedRange.get(node);
+        if (range != null) {
+            return range.getPosition(0, range.end - range.start);
+        }
+        return PositionXmlParser.getPosition(node);
+    }
+
+    @NonNull
+    private static SourcePosition getPosition(@NonNull Node node, int start, int end) {
+        StreamedRange range = StreamedRange.get(node);
+        if (range != null) {
+            return range.getPosition(start, end);
+        }
+        return PositionXmlParser.getPosition(node, start, end);
+    }
+
+    /**
+     * The source range of a node created by {@link #streamXml}. Attribute ranges are
+     * only computed when asked for, from the start tag of the owner element.
+     */
+    private static class StreamedRange {
+        private final StreamedSource source;
+        private final int start;
+        /** End of the start tag, for elements */
+        private final int tagEnd;
+        private int end;
+
+        StreamedRange(@NonNull StreamedSource source, int start, int tagEnd, int end) {
+            this.source = source;
+            this.start = start;
+            this.tagEnd = tagEnd;
+            this.end = end;
+        }
+
+        @NonNull
+        SourcePosition getPosition(int startDelta, int endDelta) {
+            int startOffset = start + startDelta;
+            int endOffset = start + endDelta;
+            int startLine = source.getLine(startOffset);
+            int endLine = source.getLine(endOffset);
+            return new SourcePosition(
+                    startLine, startOffset - source.lineStarts[startLine], startOffset,
+                    endLine, endOffset - source.lineStarts[endLine], endOffset);
+        }
+
+        @Nullable
+        static StreamedRange get(@NonNull Node node) {
+            Object range = node.getUserData(STREAMED_RANGE);
+            if (range != null) {
+                return (StreamedRange) range;
+            }
+            if (node instanceof Attr) {
+                Attr attribute = (Attr) node;
+                Element owner = attribute.getOwnerElement();
+                if (owner != null) {
+                    StreamedRange ownerRange = (StreamedRange) owner.getUserData(STREAMED_RANGE);
+                    if (ownerRange != null) {
+                        StreamedRange attributeRange = ownerRange.findAttribute(attribute);
+                        attribute.setUserData(STREAMED_RANGE, attributeRange, null);
+                        return attributeRange;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Finds the {@code name="value"} range of the given attribute in the start tag.
+         * Walks the attributes one at a time such that a name which happens to occur
+         * within the value of another attribute is not mistaken for the attribute.
+         */
+        @NonNull
+        private StreamedRange findAttribute(@NonNull Attr attribute) {
+            String xml = source.xml;
+            String name = attribute.getName();
+
+            // Skip the < and the tag name
+            int offset = start + 1;
+            while (offset < tagEnd && !isTagNameEnd(xml.charAt(offset))) {
+                offset++;
+            }
+
+            while (offset < tagEnd) {
+                char c = xml.charAt(offset);
+                if (Character.isWhitespace(c)) {
+                    offset++;
+                    continue;
+                }
+                if (c == '/' || c == '>') {
+                    break;
+                }
+                int nameStart = offset;
+                while (offset < tagEnd && xml.charAt(offset) != '='
+                        && !Character.isWhitespace(xml.charAt(offset))) {
+                    offset++;
+                }
+                int nameEnd = offset;
+                while (offset < tagEnd && Character.isWhitespace(xml.charAt(offset))) {
+                    offset++;
+                }
+                if (offset == tagEnd || xml.charAt(offset) != '=') {
+                    break;
+                }
+                offset++;
+                while (offset < tagEnd && Character.isWhitespace(xml.charAt(offset))) {
+                    offset++;
+                }
+                if (offset == tagEnd) {
+                    break;
+                }
+                int valueEnd = xml.indexOf(xml.charAt(offset), offset + 1);
+                if (valueEnd == -1 || valueEnd >= tagEnd) {
+                    break;
+                }
+                if (nameEnd - nameStart == name.length()
+                        && xml.startsWith(name, nameStart)) {
+                    return new StreamedRange(source, nameStart, valueEnd + 1, valueEnd + 1);
+                }
+                offset = valueEnd + 1;
+            }
+
+            // Shouldn't happen; point to the whole start tag
+            return new StreamedRange(source, start, tagEnd, tagEnd);
+        }
+
+        private static boolean isTagNameEnd(char c) {
+            return Character.isWhitespace(c) || c == '/' || c == '>';
+        }
+    }
+
+    /** The text of a streamed document, along with its line start offsets */
+    private static class StreamedSource {
+        private final String xml;
+        private final int[] lineStarts;
+
+        StreamedSource(@NonNull String xml) {
+            this.xml = xml;
+            int[] starts = new int[64];
+            int count = 1;
+            for (int i = 0, n = xml.length(); i < n; i++) {
+                char c = xml.charAt(i);
+                if (c == '\n' || c == '\r' && (i == n - 1 || xml.charAt(i + 1) != '\n')) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+            lineStarts = Arrays.copyOf(starts, count);
+        }
+
+        /** Returns the 0-based line containing the given offset */
+        int getLine(int offset) {
+            int index = Arrays.binarySearch(lineStarts, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        /** Returns the offset of the given 1-based SAX line and column */
+        int getOffset(int line, int column) {
+            if (line < 1) {
+                return 0;
+            }
+            int offset = line <= lineStarts.length ? lineStarts[line - 1] + column - 1
+                    : xml.length();
+            return Math.max(0, Math.min(offset, xml.length()));
+        }
+    }
+
+    /**
+     * SAX handler building the DOM for {@link #streamXml}: the document element, and
+     * the subtree of one of its children at a time
+     */
+    private static class StreamingDomBuilder extends DefaultHandler2 {
+        private final XmlContext mContext;
+        private final StreamedSource mSource;
+        private final Document mDocument;
+        private final StreamHandler mHandler;
+        private final Deque<Element> mStack = new ArrayDeque<Element>();
+        private final StringBuilder mText = new StringBuilder();
+        private Locator mLocator;
+        /** Offset of the end of the last markup or text seen */
+        private int mOffset;
+        private int mTextStart;
+        private boolean mInCdata;
+
+        StreamingDomBuilder(@NonNull XmlContext context, @NonNull String xml,
+                @NonNull Document document, @NonNull StreamHandler handler) {
+            mContext = context;
+            mSource = new StreamedSource(xml);
+            mDocument = document;
+            mHandler = handler;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            mLocator = locator;
+        }
+
+        private int getLocatorOffset() {
+            return mLocator != null
+                    ? mSource.getOffset(mLocator.getLineNumber(), mLocator.getColumnNumber())
+                    : mOffset;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) throws SAXException {
+            flushText();
+            int tagEnd = getLocatorOffset();
+            int start = mSource.xml.lastIndexOf("<" + qName, tagEnd - 1);
+            if (start == -1) {
+                start = mOffset;
+            }
+            mOffset = tagEnd;
+
+            Element element = mDocument.createElementNS(uri.isEmpty() ? null : uri, qName);
+            for (int i = 0, n = attributes.getLength(); i < n; i++) {
+                String name = attributes.getQName(i);
+                String attributeUri = attributes.getURI(i);
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)
+                        || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ':')) {
+                    attributeUri = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+                }
+                element.setAttributeNS(attributeUri.isEmpty() ? null : attributeUri, name,
+                        attributes.getValue(i));
+            }
+            element.setUserData(STREAMED_RANGE,
+                    new StreamedRange(mSource, start, tagEnd, tagEnd), null);
+
+            Element parent = mStack.peek();
+            if (parent == null) {
+                mDocument.appendChild(element);
+                mStack.push(element);
+                mContext.document = mDocument;
+                mHandler.documentElementStarted(element);
+            } else {
+                parent.appendChild(element);
+                mStack.push(element);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            flushText();
+            mOffset = getLocatorOffset();
+            Element element = mStack.pop();
+            StreamedRange range = (StreamedRange) element.getUserData(STREAMED_RANGE);
+            range.end = mOffset;
+
+            Element parent = mStack.peek();
+            if (parent == null) {
+                mHandler.documentElementEnded(element);
+            } else if (mStack.size() == 1) {
+                mHandler.childElementParsed(element);
+                // Also drop the text and comments between the children
+                while (parent.getFirstChild() != null) {
+                    parent.removeChild(parent.getFirstChild());
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            // Text directly below the document element is dropped along with the
+            // children anyway
+            if (mStack.size() > 1) {
+                if (mText.length() == 0) {
+                    mTextStart = mOffset;
+                }
+                mText.append(ch, start, length);
+            }
+            mOffset = getLocatorOffset();
+        }
+
+        @Override
+        public void startCDATA() throws SAXException {
+            flushText();
+            mInCdata = true;
+        }
+
+        @Override
+        public void endCDATA() throws SAXException {
+            flushText();
+            mInCdata = false;
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) throws SAXException {
+            flushText();
+            int end = getLocatorOffset();
+            if (mStack.size() > 1) {
+                Node comment = mDocument.createComment(new String(ch, start, length));
+                int commentStart = mSource.xml.lastIndexOf("<!--", end - 1);
+                comment.setUserData(STREAMED_RANGE, new StreamedRange(mSource,
+                        commentStart != -1 ? commentStart : mOffset, end, end), null);
+                mStack.peek().appendChild(comment);
+            }
+            mOffset = end;
+        }
+
+        private void flushText() {
+            if (mText.length() > 0) {
+                String text = mText.toString();
+                mText.setLength(0);
+                Node node = mInCdata ? mDocument.createCDATASection(text)
+                        : mDocument.createTextNode(text);
+                node.setUserData(STREAMED_RANGE,
+                        new StreamedRange(mSource, mTextStart, mOffset, mOffset), null);
+                mStack.peek().appendChild(node);
+            }
+        }
     }
 
     /* Handle for creating DOM positions cheaply and returning full fledged locations later */
@@ -166,7 +557,7 @@ public class LintCliXmlParser extends XmlParser {
         @NonNull
         @Override
         public Location resolve() {
-            return Location.create(mFile, PositionXmlParser.getPosition(mNode));
+            return Location.create(mFile, getPosition(mNode));
         }
 
         @Override
@@ -92,6 +92,8 @@ public class Main {
     private static final String ARG_SOURCES    = "--sources";      //$NON-NLS-1$
     private static final String ARG_RESOURCES  = "--resources";    //$NON-NLS-1$
     private static final String ARG_LIBRARIES  = "--libraries";    //$NON-NLS-1$
+    private static final String ARG_INCREMENTAL= "--incremental";  //$NON-NLS-1$
+    private static final String ARG_PROFILE    = "--profile";      //$NON-NLS-1$
 
     private static final String ARG_NO_WARN_2  = "--nowarn";       //$NON-NLS-1$
     // GCC style flag names for options
@@ -282,6 +284,19 @@ public class Main {
                 mFlags.setShowSourceLines(false);
             } else if (arg.equals(ARG_EXIT_CODE)) {
                 mFlags.setSetExitCode(true);
+            } else if (arg.equals(ARG_INCREMENTAL)) {
+                mFlags.setIncremental(true);
+            } else if (arg.equals(ARG_PROFILE)) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing profile output file name");
+                    System.exit(ERRNO_INVALID_ARGS);
+                }
+                File output = getOutArgumentPath(args[++index]).getAbsoluteFile();
+                if (output.getParentFile() != null && !output.getParentFile().canWrite()) {
+                    System.err.println("Cannot write profile output file " + output);
+                    System.exit(ERRNO_EXISTS);
+                }
+                mFlags.setProfileFile(output);
             } else if (arg.equals(ARG_VERSION)) {
                 printVersion(client);
                 System.exit(ERRNO_SUCCESS);
@@ -962,6 +977,11 @@ public class Main {
             ARG_LIST_IDS, "List the available issue id's and exit.",
             ARG_VERSION, "Output version information and exit.",
             ARG_EXIT_CODE, "Set the exit code to " + ERRNO_ERRORS + " if errors are found.",
+            ARG_INCREMENTAL, "Cache the results of the single file checks, and only " +
+                "run them on files which have changed since the previous incremental run.",
+            ARG_PROFILE + " <filename>", "Record the time and memory spent in each " +
+                "detector, write it to the given JSON file, and include it in the HTML and " +
+                "XML reports.",
             ARG_SHOW, "List available issues along with full explanations.",
             ARG_SHOW + " <ids>", "Show full explanations for the given list of issue id's.",
 
@@ -19,6 +19,7 @@ package com.android.tools.lint;
 import static com.android.tools.lint.detector.api.TextFormat.RAW;
 
 import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.client.api.DetectorProfiler;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.Position;
@@ -161,6 +162,8 @@ public class XmlReporter extends Reporter {
             }
         }
 
+        writeProfile();
+
         mWriter.write("\n</issues>\n");       //$NON-NLS-1$
         mWriter.close();
 
@@ -171,6 +174,38 @@ public class XmlReporter extends Reporter {
         }
     }
 
+    /**
+     * Writes the time and memory spent in each detector, if the detectors were profiled.
+     * Times are in nanoseconds, and measurements which are not supported by the JVM are
+     * written as -1.
+     */
+    private void writeProfile() throws IOException {
+        DetectorProfiler profiler = mClient.getDriver().getProfiler();
+        if (profiler == null) {
+            return;
+        }
+
+        mWriter.write('\n');
+        indent(mWriter, 1);
+        mWriter.write("<profile>\n");                                         //$NON-NLS-1$
+        for (DetectorProfiler.Entry entry : profiler.getEntries()) {
+            indent(mWriter, 2);
+            mWriter.write("<detector");                                        //$NON-NLS-1$
+            writeAttribute(mWriter, 3, "name", entry.getDetectorName());       //$NON-NLS-1$
+            writeAttribute(mWriter, 3, "calls",                                //$NON-NLS-1$
+                    Long.toString(entry.getCalls()));
+            writeAttribute(mWriter, 3, "wallTimeNs",                           //$NON-NLS-1$
+                    Long.toString(entry.getWallTime()));
+            writeAttribute(mWriter, 3, "cpuTimeNs",                            //$NON-NLS-1$
+                    Long.toString(entry.getCpuTime()));
+            writeAttribute(mWriter, 3, "allocatedBytes",                       //$NON-NLS-1$
+                    Long.toString(entry.getAllocatedBytes()));
+            mWriter.write("/>\n");                                             //$NON-NLS-1$
+        }
+        indent(mWriter, 1);
+        mWriter.write("</profile>\n");                                        //$NON-NLS-1$
+    }
+
     private static void writeAttribute(Writer writer, int indent, String name, String value)
             throws IOException {
         writer.write('\n');
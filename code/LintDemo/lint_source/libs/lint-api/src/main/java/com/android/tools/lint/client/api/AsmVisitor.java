@@ -30,6 +30,7 @@ import org.objectweb.asm.tree.MethodNode;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,14 +70,23 @@ class AsmVisitor {
             new HashMap<String, List<ClassScanner>>();
     private final List<Detector> mFullClassChecks = new ArrayList<Detector>();
 
+    private final LintClient mClient;
     private final List<? extends Detector> mAllDetectors;
     private List<ClassScanner>[] mNodeTypeDetectors;
 
+    /**
+     * Visitors for the individual detectors, used by
+     * {@link #runClassDetectorsExclusively(ClassContext)}; computed lazily
+     */
+    private List<AsmVisitor> mDetectorVisitors;
+    private DetectorProfiler mProfiler;
+
     // Really want this:
     //<T extends List<Detector> & Detector.ClassScanner> ClassVisitor(T xmlDetectors) {
     // but it makes client code tricky and ugly.
     @SuppressWarnings("unchecked")
     AsmVisitor(@NonNull LintClient client, @NonNull List<? extends Detector> classDetectors) {
+        mClient = client;
         mAllDetectors = classDetectors;
 
         // TODO: Check appliesTo() for files, and find a quick way to enable/disable
@@ -143,15 +153,33 @@ class AsmVisitor {
     @SuppressWarnings("rawtypes") // ASM API uses raw types
     void runClassDetectors(ClassContext context) {
         ClassNode classNode = context.getClassNode();
+        mProfiler = context.getDriver().getProfiler();
+        if (mProfiler != null) {
+            mProfiler.beginFile();
+        }
+        try {
+            visitClass(context, classNode);
+        } finally {
+            if (mProfiler != null) {
+                mProfiler.endFile();
+            }
+        }
+    }
 
+    @SuppressWarnings("rawtypes") // ASM API uses raw types
+    private void visitClass(ClassContext context, ClassNode classNode) {
         for (Detector detector : mAllDetectors) {
+            startProfiling();
             detector.beforeCheckFile(context);
+            stopProfiling(detector);
         }
 
         for (Detector detector : mFullClassChecks) {
+            startProfiling();
             Detector.ClassScanner scanner = (Detector.ClassScanner) detector;
             scanner.checkClass(context, classNode);
             detector.afterCheckFile(context);
+            stopProfiling(detector);
         }
 
         if (!mMethodNameToChecks.isEmpty() || !mMethodOwnerToChecks.isEmpty() ||
@@ -170,7 +198,9 @@ class AsmVisitor {
                         List<ClassScanner> scanners = mMethodOwnerToChecks.get(owner);
                         if (scanners != null) {
                             for (ClassScanner scanner : scanners) {
+                                startProfiling();
                                 scanner.checkCall(context, classNode, method, call);
+                                stopProfiling((Detector) scanner);
                             }
                         }
 
@@ -178,7 +208,9 @@ class AsmVisitor {
                         scanners = mMethodNameToChecks.get(name);
                         if (scanners != null) {
                             for (ClassScanner scanner : scanners) {
+                                startProfiling();
                                 scanner.checkCall(context, classNode, method, call);
+                                stopProfiling((Detector) scanner);
                             }
                         }
                     }
@@ -187,7 +219,9 @@ class AsmVisitor {
                         List<ClassScanner> scanners = mNodeTypeDetectors[type];
                         if (scanners != null) {
                             for (ClassScanner scanner : scanners) {
+                                startProfiling();
                                 scanner.checkInstruction(context, classNode, method, instruction);
+                                stopProfiling((Detector) scanner);
                             }
                         }
                     }
@@ -196,7 +230,49 @@ class AsmVisitor {
         }
 
         for (Detector detector : mAllDetectors) {
+            startProfiling();
             detector.afterCheckFile(context);
+            stopProfiling(detector);
+        }
+    }
+
+    /**
+     * Like {@link #runClassDetectors(ClassContext)}, but runs one detector at a time
+     * over the whole class while holding that detector's monitor. Each detector sees
+     * exactly the same sequence of callbacks for the class as in a serial run, so
+     * detectors which keep per-file state between {@link Detector#beforeCheckFile}
+     * and {@link Detector#afterCheckFile} stay correct even when several threads
+     * scan different classes with the same detector instances.
+     */
+    void runClassDetectorsExclusively(ClassContext context) {
+        if (mDetectorVisitors == null) {
+            mDetectorVisitors = new ArrayList<AsmVisitor>(mAllDetectors.size());
+            for (Detector detector : mAllDetectors) {
+                mDetectorVisitors.add(new AsmVisitor(mClient,
+                        Collections.singletonList(detector)));
+            }
+        }
+
+        for (int i = 0, n = mAllDetectors.size(); i < n; i++) {
+            Detector detector = mAllDetectors.get(i);
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (detector) {
+                mDetectorVisitors.get(i).runClassDetectors(context);
+            }
+        }
+    }
+
+    /** Marks the start of a detector callback if the detectors are being profiled */
+    private void startProfiling() {
+        if (mProfiler != null) {
+            mProfiler.begin();
+        }
+    }
+
+    /** Marks the end of a callback to the given detector started by {@link #startProfiling} */
+    private void stopProfiling(@NonNull Detector detector) {
+        if (mProfiler != null) {
+            mProfiler.end(detector);
         }
     }
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.tools.lint.detector.api.Detector;
+import com.google.common.annotations.Beta;
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the wall time, CPU time and allocated bytes spent in the callbacks of each
+ * detector, such as the {@link Detector.JavaScanner}, {@link Detector.ClassScanner},
+ * {@link Detector.XmlScanner} and {@link Detector.OtherFileScanner} methods. Install it
+ * with {@link LintDriver#setProfiler(DetectorProfiler)} before analyzing.
+ * <p>
+ * Each callback is bracketed by {@link #begin()} and {@link #end(Detector)} on the thread
+ * invoking it, so callbacks run concurrently on multiple threads are measured separately.
+ * The CPU time and allocations are only recorded when the JVM supports measuring them
+ * for the current thread, and are otherwise reported as -1.
+ * <p>
+ * Reading the CPU time and allocations of a thread costs far more than a typical
+ * callback for a single AST, DOM or bytecode node. The visitors therefore bracket
+ * each file with {@link #beginFile()} and {@link #endFile()}: within a file, each
+ * callback only reads {@link System#nanoTime()}, and the CPU time and allocations of
+ * the whole file are divided among the detectors called for it in proportion to their
+ * wall time. For those detectors the CPU time and allocations are estimates. Callbacks
+ * outside of a file, such as the per project ones, are measured individually.
+ * <p>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+@Beta
+public class DetectorProfiler {
+    private final ThreadMXBean mThreadBean;
+    private final boolean mMeasureCpu;
+    private final boolean mMeasureAllocations;
+    private final ConcurrentMap<Class<? extends Detector>, Entry> mEntries =
+            Maps.newConcurrentMap();
+    private final ThreadLocal<ThreadState> mState = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    /** Creates a new profiler */
+    public DetectorProfiler() {
+        mThreadBean = ManagementFactory.getThreadMXBean();
+        boolean measureCpu = false;
+        boolean measureAllocations = false;
+        try {
+            if (mThreadBean.isCurrentThreadCpuTimeSupported()) {
+                if (!mThreadBean.isThreadCpuTimeEnabled()) {
+                    mThreadBean.setThreadCpuTimeEnabled(true);
+                }
+                measureCpu = true;
+            }
+            if (mThreadBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean =
+                        (com.sun.management.ThreadMXBean) mThreadBean;
+                if (bean.isThreadAllocatedMemorySupported()) {
+                    if (!bean.isThreadAllocatedMemoryEnabled()) {
+                        bean.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    measureAllocations = true;
+                }
+            }
+        } catch (UnsupportedOperationException ignore) {
+            // Measure what we can
+        } catch (SecurityException ignore) {
+            // Measure what we can
+        } catch (NoClassDefFoundError ignore) {
+            // Not a HotSpot based VM: no allocation counters
+        }
+        mMeasureCpu = measureCpu;
+        mMeasureAllocations = measureAllocations;
+    }
+
+    /** Marks the start of a detector callback on the current thread */
+    public void begin() {
+        ThreadState state = mState.get();
+        if (state.mFileDepth == 0) {
+            state.mCallCpuTime = mMeasureCpu ? mThreadBean.getCurrentThreadCpuTime() : 0;
+            state.mCallAllocatedBytes = mMeasureAllocations ? getAllocatedBytes() : 0;
+        }
+        // Last, such that the wall time doesn't include the other measurements
+        state.mCallStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a detector callback started with {@link #begin()} on the current
+     * thread, and records its cost
+     *
+     * @param detector the detector which was called
+     */
+    public void end(@NonNull Detector detector) {
+        long wallTime = System.nanoTime();
+        ThreadState state = mState.get();
+        wallTime -= state.mCallStart;
+        Entry entry = getEntry(detector.getClass());
+        entry.mCalls.incrementAndGet();
+        entry.mWallTime.addAndGet(wallTime);
+        if (state.mFileDepth > 0) {
+            long[] fileWallTime = state.mFileWallTimes.get(entry);
+            if (fileWallTime == null) {
+                fileWallTime = new long[1];
+                state.mFileWallTimes.put(entry, fileWallTime);
+            }
+            fileWallTime[0] += wallTime;
+            return;
+        }
+        if (mMeasureCpu) {
+            entry.mCpuTime.addAndGet(
+                    mThreadBean.getCurrentThreadCpuTime() - state.mCallCpuTime);
+        }
+        if (mMeasureAllocations) {
+            entry.mAllocatedBytes.addAndGet(getAllocatedBytes() - state.mCallAllocatedBytes);
+        }
+    }
+
+    /**
+     * Marks the start of the callbacks for a file on the current thread. Until the
+     * matching {@link #endFile()}, the callbacks only measure their wall time. Calls
+     * may be nested, in which case only the outermost ones count.
+     */
+    public void beginFile() {
+        ThreadState state = mState.get();
+        if (state.mFileDepth++ == 0) {
+            state.mFileCpuTime = mMeasureCpu ? mThreadBean.getCurrentThreadCpuTime() : 0;
+            state.mFileAllocatedBytes = mMeasureAllocations ? getAllocatedBytes() : 0;
+            state.mFileStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the end of the callbacks for a file started with {@link #beginFile()} on
+     * the current thread, and divides the CPU time and allocations of the file among
+     * the detectors called for it
+     */
+    public void endFile() {
+        ThreadState state = mState.get();
+        if (--state.mFileDepth > 0) {
+            return;
+        }
+        long fileWallTime = System.nanoTime() - state.mFileStart;
+        long cpuTime = mMeasureCpu
+                ? mThreadBean.getCurrentThreadCpuTime() - state.mFileCpuTime : 0;
+        long allocatedBytes = mMeasureAllocations
+                ? getAllocatedBytes() - state.mFileAllocatedBytes : 0;
+        if (fileWallTime > 0) {
+            for (Map.Entry<Entry, long[]> fileEntry : state.mFileWallTimes.entrySet()) {
+                Entry entry = fileEntry.getKey();
+                double share = (double) fileEntry.getValue()[0] / fileWallTime;
+                if (mMeasureCpu) {
+                    entry.mCpuTime.addAndGet(Math.round(cpuTime * share));
+                }
+                if (mMeasureAllocations) {
+                    entry.mAllocatedBytes.addAndGet(Math.round(allocatedBytes * share));
+                }
+            }
+        }
+        state.mFileWallTimes.clear();
+    }
+
+    private long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    @NonNull
+    private Entry getEntry(@NonNull Class<? extends Detector> detectorClass) {
+        Entry entry = mEntries.get(detectorClass);
+        if (entry == null) {
+            entry = new Entry(detectorClass, mMeasureCpu, mMeasureAllocations);
+            Entry previous = mEntries.putIfAbsent(detectorClass, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the recorded measurements of each detector which has been called, in
+     * decreasing order of wall time
+     *
+     * @return the measurements
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                long delta = entry2.getWallTime() - entry1.getWallTime();
+                return delta < 0 ? -1 : delta > 0 ? 1
+                        : entry1.getDetectorName().compareTo(entry2.getDetectorName());
+            }
+        });
+        return entries;
+    }
+
+    /** The measurements in progress on a thread */
+    private static class ThreadState {
+        /** The wall time, CPU time and allocated bytes at the start of the current callback */
+        private long mCallStart;
+        private long mCallCpuTime;
+        private long mCallAllocatedBytes;
+
+        /** The nesting depth of {@link DetectorProfiler#beginFile()} calls */
+        private int mFileDepth;
+        /** The wall time, CPU time and allocated bytes at the start of the current file */
+        private long mFileStart;
+        private long mFileCpuTime;
+        private long mFileAllocatedBytes;
+        /** The wall time of the callbacks of each detector in the current file */
+        private final Map<Entry, long[]> mFileWallTimes = new IdentityHashMap<Entry, long[]>();
+    }
+
+    /** The accumulated cost of the callbacks of a single detector */
+    public static class Entry {
+        private final Class<? extends Detector> mDetectorClass;
+        private final AtomicLong mCalls = new AtomicLong();
+        private final AtomicLong mWallTime = new AtomicLong();
+        private final AtomicLong mCpuTime = new AtomicLong();
+        private final AtomicLong mAllocatedBytes = new AtomicLong();
+        private final boolean mMeasureCpu;
+        private final boolean mMeasureAllocations;
+
+        private Entry(@NonNull Class<? extends Detector> detectorClass, boolean measureCpu,
+                boolean measureAllocations) {
+            mDetectorClass = detectorClass;
+            mMeasureCpu = measureCpu;
+            mMeasureAllocations = measureAllocations;
+        }
+
+        /** Returns the fully qualified class name of the detector */
+        @NonNull
+        public String getDetectorName() {
+            return mDetectorClass.getName();
+        }
+
+        /** Returns the number of callbacks made to the detector */
+        public long getCalls() {
+            return mCalls.get();
+        }
+
+        /** Returns the total wall time spent in the detector, in nanoseconds */
+        public long getWallTime() {
+            return mWallTime.get();
+        }
+
+        /**
+         * Returns the total CPU time spent in the detector, in nanoseconds, or -1 if
+         * the CPU time could not be measured
+         */
+        public long getCpuTime() {
+            return mMeasureCpu ? mCpuTime.get() : -1;
+        }
+
+        /**
+         * Returns the total number of bytes allocated by the detector, or -1 if the
+         * allocations could not be measured
+         */
+        public long getAllocatedBytes() {
+            return mMeasureAllocations ? mAllocatedBytes.get() : -1;
+        }
+    }
+}
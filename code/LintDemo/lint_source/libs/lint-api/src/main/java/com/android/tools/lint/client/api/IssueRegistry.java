@@ -20,6 +20,7 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.lint.detector.api.Category;
+import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Implementation;
 import com.android.tools.lint.detector.api.Issue;
@@ -48,6 +49,15 @@ public abstract class IssueRegistry {
     private static List<Category> sCategories;
     private static Map<String, Issue> sIdToIssue;
     private static Map<EnumSet<Scope>, List<Issue>> sScopeIssues = Maps.newHashMap();
+    private Map<Class<? extends Detector>, Scope> mFileLocalScopes;
+
+    /** Names of the {@link Detector} callbacks made once per project */
+    private static final String[] PROJECT_CALLBACKS = new String[] {
+            "beforeCheckProject",           //$NON-NLS-1$
+            "afterCheckProject",            //$NON-NLS-1$
+            "beforeCheckLibraryProject",    //$NON-NLS-1$
+            "afterCheckLibraryProject"      //$NON-NLS-1$
+    };
 
     /**
      * Creates a new {@linkplain IssueRegistry}
@@ -241,6 +251,81 @@ public abstract class IssueRegistry {
         return detectors;
     }
 
+    /**
+     * Returns the single file scope ({@link Scope#JAVA_FILE}, {@link Scope#RESOURCE_FILE},
+     * {@link Scope#BINARY_RESOURCE_FILE} or {@link Scope#CLASS_FILE}) that all the issues
+     * of the given detector class are limited to, or null if any of its issues looks at
+     * more than one file (or at other kinds of files), or if the detector has
+     * {@link #hasProjectCallbacks project level callbacks}, since it may then gather
+     * state across files even though its issues are limited to single files. The results
+     * of such file-local detectors for a file depend only on the contents of that file,
+     * and for Java and class files on the code they resolve symbols in, so they can be
+     * cached between lint runs; see {@link LintClient#isUpToDate}.
+     *
+     * @param detectorClass the detector class
+     * @return the single file scope of the detector, or null
+     */
+    @Nullable
+    public final Scope getFileLocalScope(@NonNull Class<? extends Detector> detectorClass) {
+        if (mFileLocalScopes == null) {
+            Map<Class<? extends Detector>, EnumSet<Scope>> detectorToScope =
+                    new HashMap<Class<? extends Detector>, EnumSet<Scope>>();
+            for (Issue issue : getIssues()) {
+                Implementation implementation = issue.getImplementation();
+                Class<? extends Detector> detector = implementation.getDetectorClass();
+                EnumSet<Scope> scope = detectorToScope.get(detector);
+                if (scope == null) {
+                    scope = EnumSet.noneOf(Scope.class);
+                    detectorToScope.put(detector, scope);
+                }
+                scope.addAll(implementation.getScope());
+            }
+
+            mFileLocalScopes = new HashMap<Class<? extends Detector>, Scope>();
+            for (Map.Entry<Class<? extends Detector>, EnumSet<Scope>> entry
+                    : detectorToScope.entrySet()) {
+                EnumSet<Scope> scope = entry.getValue();
+                // Running on test sources too does not make a detector look at other files
+                scope.remove(Scope.TEST_SOURCES);
+                if (scope.size() == 1 && !hasProjectCallbacks(entry.getKey())) {
+                    Scope single = scope.iterator().next();
+                    if (single == Scope.JAVA_FILE || single == Scope.RESOURCE_FILE
+                            || single == Scope.BINARY_RESOURCE_FILE
+                            || single == Scope.CLASS_FILE) {
+                        mFileLocalScopes.put(entry.getKey(), single);
+                    }
+                }
+            }
+        }
+
+        return mFileLocalScopes.get(detectorClass);
+    }
+
+    /**
+     * Returns true if the given detector class overrides any of the project level
+     * callbacks: {@link Detector#beforeCheckProject}, {@link Detector#afterCheckProject}
+     * or their library project counterparts. Such detectors typically gather state
+     * across files and report, or {@link LintDriver#requestRepeat request another pass},
+     * once the whole project has been seen.
+     *
+     * @param detectorClass the detector class
+     * @return true if the detector has project level callbacks
+     */
+    public static boolean hasProjectCallbacks(@NonNull Class<? extends Detector> detectorClass) {
+        for (String name : PROJECT_CALLBACKS) {
+            try {
+                if (detectorClass.getMethod(name, Context.class).getDeclaringClass()
+                        != Detector.class) {
+                    return true;
+                }
+            } catch (NoSuchMethodException e) {
+                // Can't happen: declared by Detector
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Returns true if the given id represents a valid issue id
      *
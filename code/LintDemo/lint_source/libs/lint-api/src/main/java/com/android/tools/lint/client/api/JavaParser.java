@@ -105,6 +105,18 @@ public abstract class JavaParser {
     public abstract Location.Handle createLocationHandle(@NonNull JavaContext context,
             @NonNull Node node);
 
+    /**
+     * Returns true if {@link #parseJava(JavaContext)} (and
+     * {@link #dispose(JavaContext, Node)}) may be called from several threads at the
+     * same time once {@link #prepareJavaParse(List)} has returned. If so, lint may parse
+     * files on worker threads ahead of the detectors visiting them.
+     *
+     * @return true if this parser supports concurrent calls to {@link #parseJava}
+     */
+    public boolean supportsConcurrentParsing() {
+        return false;
+    }
+
     /**
      * Dispose any data structures held for the given context.
      * @param context information about the file previously parsed
@@ -20,6 +20,7 @@ import static com.android.SdkConstants.ANDROID_PKG;
 import static com.android.SdkConstants.R_CLASS;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.tools.lint.client.api.JavaParser.ResolvedClass;
 import com.android.tools.lint.client.api.JavaParser.ResolvedMethod;
 import com.android.tools.lint.client.api.JavaParser.ResolvedNode;
@@ -148,6 +149,9 @@ public class JavaVisitor {
     private final Map<Class<? extends Node>, List<VisitingDetector>> mNodeTypeDetectors =
             new HashMap<Class<? extends Node>, List<VisitingDetector>>(16);
     private final JavaParser mParser;
+    /** The profiler recording the detector callbacks for the current file, if any */
+    @Nullable
+    private DetectorProfiler mProfiler;
     private final Map<String, List<VisitingDetector>> mSuperClassDetectors =
             new HashMap<String, List<VisitingDetector>>();
 
@@ -240,20 +244,42 @@ public class JavaVisitor {
     }
 
     void visitFile(@NonNull JavaContext context) {
-        Node compilationUnit = null;
+        Node compilationUnit;
         try {
             compilationUnit = mParser.parseJava(context);
-            if (compilationUnit == null) {
-                // No need to log this; the parser should be reporting
-                // a full warning (such as IssueRegistry#PARSER_ERROR)
-                // with details, location, etc.
-                return;
-            }
+        } catch (RuntimeException e) {
+            reportFailure(context, e);
+            return;
+        }
+
+        visitFile(context, compilationUnit);
+    }
+
+    /**
+     * Runs the detectors on a compilation unit previously returned by the parser's
+     * {@link JavaParser#parseJava(JavaContext)}, possibly on another thread, and
+     * disposes it afterwards
+     */
+    void visitFile(@NonNull JavaContext context, @Nullable Node compilationUnit) {
+        if (compilationUnit == null) {
+            // No need to log this; the parser should be reporting
+            // a full warning (such as IssueRegistry#PARSER_ERROR)
+            // with details, location, etc.
+            return;
+        }
+
+        mProfiler = context.getDriver().getProfiler();
+        if (mProfiler != null) {
+            mProfiler.beginFile();
+        }
+        try {
             context.setCompilationUnit(compilationUnit);
 
             for (VisitingDetector v : mAllDetectors) {
                 v.setContext(context);
+                startProfiling();
                 v.getDetector().beforeCheckFile(context);
+                stopProfiling(v);
             }
 
             if (!mSuperClassDetectors.isEmpty()) {
@@ -262,8 +288,10 @@ public class JavaVisitor {
             }
 
             for (VisitingDetector v : mFullTreeDetectors) {
+                startProfiling();
                 AstVisitor visitor = v.getVisitor();
                 compilationUnit.accept(visitor);
+                stopProfiling(v);
             }
 
             if (!mMethodDetectors.isEmpty() || !mResourceFieldDetectors.isEmpty() ||
@@ -276,52 +304,74 @@ public class JavaVisitor {
             }
 
             for (VisitingDetector v : mAllDetectors) {
+                startProfiling();
                 v.getDetector().afterCheckFile(context);
+                stopProfiling(v);
             }
         } catch (RuntimeException e) {
-            if (sExceptionCount++ > MAX_REPORTED_CRASHES) {
-                // No need to keep spamming the user that a lot of the files
-                // are tripping up ECJ, they get the picture.
-                return;
-            }
-
-            // Work around ECJ bugs; see https://code.google.com/p/android/issues/detail?id=172268
-            // Don't allow lint bugs to take down the whole build. TRY to log this as a
-            // lint error instead!
-            StringBuilder sb = new StringBuilder(100);
-            sb.append("Unexpected failure during lint analysis of ");
-            sb.append(context.file.getName());
-            sb.append(" (this is a bug in lint or one of the libraries it depends on)\n");
-
-            StackTraceElement[] stackTrace = e.getStackTrace();
-            int count = 0;
-            for (StackTraceElement frame : stackTrace) {
-                if (count > 0) {
-                    sb.append("->");
-                }
-
-                String className = frame.getClassName();
-                sb.append(className.substring(className.lastIndexOf('.') + 1));
-                sb.append('.').append(frame.getMethodName());
-                sb.append('(');
-                sb.append(frame.getFileName()).append(':').append(frame.getLineNumber());
-                sb.append(')');
-                count++;
-                // Only print the top 3-4 frames such that we can identify the bug
-                if (count == 4) {
-                    break;
-                }
-            }
-            Throwable throwable = null; // NOT e: this makes for very noisy logs
-            //noinspection ConstantConditions
-            context.log(throwable, sb.toString());
+            reportFailure(context, e);
         } finally {
-            if (compilationUnit != null) {
-                mParser.dispose(context, compilationUnit);
+            if (mProfiler != null) {
+                mProfiler.endFile();
             }
+            mParser.dispose(context, compilationUnit);
+        }
+    }
+
+    /** Marks the start of a detector callback if the detectors are being profiled */
+    private void startProfiling() {
+        if (mProfiler != null) {
+            mProfiler.begin();
         }
     }
 
+    /** Marks the end of a callback to the given detector started by {@link #startProfiling} */
+    private void stopProfiling(@NonNull VisitingDetector v) {
+        if (mProfiler != null) {
+            mProfiler.end(v.getDetector());
+        }
+    }
+
+    /** Logs an unexpected failure while parsing or analyzing the given file */
+    void reportFailure(@NonNull JavaContext context, @NonNull RuntimeException e) {
+        if (sExceptionCount++ > MAX_REPORTED_CRASHES) {
+            // No need to keep spamming the user that a lot of the files
+            // are tripping up ECJ, they get the picture.
+            return;
+        }
+
+        // Work around ECJ bugs; see https://code.google.com/p/android/issues/detail?id=172268
+        // Don't allow lint bugs to take down the whole build. TRY to log this as a
+        // lint error instead!
+        StringBuilder sb = new StringBuilder(100);
+        sb.append("Unexpected failure during lint analysis of ");
+        sb.append(context.file.getName());
+        sb.append(" (this is a bug in lint or one of the libraries it depends on)\n");
+
+        StackTraceElement[] stackTrace = e.getStackTrace();
+        int count = 0;
+        for (StackTraceElement frame : stackTrace) {
+            if (count > 0) {
+                sb.append("->");
+            }
+
+            String className = frame.getClassName();
+            sb.append(className.substring(className.lastIndexOf('.') + 1));
+            sb.append('.').append(frame.getMethodName());
+            sb.append('(');
+            sb.append(frame.getFileName()).append(':').append(frame.getLineNumber());
+            sb.append(')');
+            count++;
+            // Only print the top 3-4 frames such that we can identify the bug
+            if (count == 4) {
+                break;
+            }
+        }
+        Throwable throwable = null; // NOT e: this makes for very noisy logs
+        //noinspection ConstantConditions
+        context.log(throwable, sb.toString());
+    }
+
     public void prepare(@NonNull List<JavaContext> contexts) {
         mParser.prepareJavaParse(contexts);
     }
@@ -392,7 +442,9 @@ public class JavaVisitor {
                 List<VisitingDetector> list = mSuperClassDetectors.get(cls.getName());
                 if (list != null) {
                     for (VisitingDetector v : list) {
+                        startProfiling();
                         v.getJavaScanner().checkClass(mContext, node, node, resolvedClass);
+                        stopProfiling(v);
                     }
                 }
 
@@ -420,8 +472,10 @@ public class JavaVisitor {
                     List<VisitingDetector> list = mSuperClassDetectors.get(cls.getName());
                     if (list != null) {
                         for (VisitingDetector v : list) {
+                            startProfiling();
                             v.getJavaScanner().checkClass(mContext, null, anonymous,
                                     resolvedClass);
+                            stopProfiling(v);
                         }
                     }
 
@@ -449,7 +503,9 @@ public class JavaVisitor {
         @Override
         public void endVisit(Node node) {
             for (VisitingDetector v : mAllDetectors) {
+                startProfiling();
                 v.getVisitor().endVisit(node);
+                stopProfiling(v);
             }
         }
 
@@ -459,7 +515,9 @@ public class JavaVisitor {
                     mNodeTypeDetectors.get(AlternateConstructorInvocation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAlternateConstructorInvocation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -470,7 +528,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Annotation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAnnotation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -481,7 +541,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(AnnotationDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAnnotationDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -492,7 +554,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(AnnotationElement.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAnnotationElement(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -504,7 +568,9 @@ public class JavaVisitor {
                     mNodeTypeDetectors.get(AnnotationMethodDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAnnotationMethodDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -515,7 +581,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(AnnotationValueArray.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAnnotationValueArray(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -526,7 +594,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ArrayAccess.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitArrayAccess(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -537,7 +607,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ArrayCreation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitArrayCreation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -548,7 +620,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ArrayDimension.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitArrayDimension(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -559,7 +633,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ArrayInitializer.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitArrayInitializer(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -570,7 +646,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Assert.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitAssert(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -581,7 +659,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(BinaryExpression.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitBinaryExpression(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -592,7 +672,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Block.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitBlock(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -603,7 +685,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(BooleanLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitBooleanLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -614,7 +698,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Break.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitBreak(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -625,7 +711,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Case.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitCase(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -636,7 +724,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Cast.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitCast(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -647,7 +737,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Catch.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitCatch(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -658,7 +750,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(CharLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitCharLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -669,7 +763,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ClassDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitClassDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -680,7 +776,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ClassLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitClassLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -691,7 +789,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Comment.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitComment(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -702,7 +802,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(CompilationUnit.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitCompilationUnit(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -713,7 +815,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ConstructorDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitConstructorDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -724,7 +828,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ConstructorInvocation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitConstructorInvocation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -735,7 +841,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Continue.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitContinue(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -746,7 +854,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Default.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitDefault(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -757,7 +867,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(DoWhile.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitDoWhile(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -768,7 +880,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(EmptyDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitEmptyDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -779,7 +893,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(EmptyStatement.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitEmptyStatement(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -790,7 +906,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(EnumConstant.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitEnumConstant(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -801,7 +919,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(EnumDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitEnumDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -812,7 +932,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(EnumTypeBody.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitEnumTypeBody(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -823,7 +945,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ExpressionStatement.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitExpressionStatement(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -834,7 +958,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(FloatingPointLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitFloatingPointLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -845,7 +971,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(For.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitFor(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -856,7 +984,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ForEach.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitForEach(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -867,7 +997,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Identifier.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitIdentifier(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -878,7 +1010,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(If.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitIf(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -889,7 +1023,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(ImportDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitImportDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -900,7 +1036,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(InlineIfExpression.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitInlineIfExpression(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -911,7 +1049,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(InstanceInitializer.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitInstanceInitializer(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -922,7 +1062,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(InstanceOf.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitInstanceOf(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -933,7 +1075,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(IntegralLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitIntegralLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -944,7 +1088,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(InterfaceDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitInterfaceDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -955,7 +1101,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(KeywordModifier.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitKeywordModifier(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -966,7 +1114,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(LabelledStatement.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitLabelledStatement(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -977,7 +1127,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(MethodDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitMethodDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -988,7 +1140,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(MethodInvocation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitMethodInvocation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -999,7 +1153,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Modifiers.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitModifiers(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1010,7 +1166,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(NormalTypeBody.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitNormalTypeBody(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1021,7 +1179,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(NullLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitNullLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1032,7 +1192,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(PackageDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitPackageDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1043,7 +1205,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Node.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitParseArtefact(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1054,7 +1218,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Return.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitReturn(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1065,7 +1231,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Select.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitSelect(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1076,7 +1244,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(StaticInitializer.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitStaticInitializer(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1087,7 +1257,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(StringLiteral.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitStringLiteral(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1098,7 +1270,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Super.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitSuper(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1109,7 +1283,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(SuperConstructorInvocation.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitSuperConstructorInvocation(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1120,7 +1296,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Switch.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitSwitch(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1131,7 +1309,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Synchronized.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitSynchronized(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1142,7 +1322,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(This.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitThis(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1153,7 +1335,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Throw.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitThrow(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1164,7 +1348,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(Try.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitTry(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1175,7 +1361,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(TypeReference.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitTypeReference(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1186,7 +1374,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(TypeReferencePart.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitTypeReferencePart(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1197,7 +1387,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(TypeVariable.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitTypeVariable(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1208,7 +1400,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(UnaryExpression.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitUnaryExpression(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1219,7 +1413,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(VariableDeclaration.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitVariableDeclaration(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1230,7 +1426,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(VariableDefinition.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitVariableDefinition(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1241,7 +1439,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(VariableDefinitionEntry.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitVariableDefinitionEntry(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1252,7 +1452,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(VariableReference.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitVariableReference(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1263,7 +1465,9 @@ public class JavaVisitor {
             List<VisitingDetector> list = mNodeTypeDetectors.get(While.class);
             if (list != null) {
                 for (VisitingDetector v : list) {
+                    startProfiling();
                     v.getVisitor().visitWhile(node);
+                    stopProfiling(v);
                 }
             }
             return false;
@@ -1305,10 +1509,12 @@ public class JavaVisitor {
                             boolean isFramework = false;
 
                             for (VisitingDetector v : mResourceFieldDetectors) {
+                                startProfiling();
                                 JavaScanner detector = v.getJavaScanner();
                                 //noinspection ConstantConditions
                                 detector.visitResourceReference(mContext, v.getVisitor(),
                                         node, type, name, isFramework);
+                                stopProfiling(v);
                             }
 
                             return super.visitSelect(node);
@@ -1331,9 +1537,11 @@ public class JavaVisitor {
                                 boolean isFramework = node.astOperand().toString().equals(
                                         ANDROID_PKG);
                                 for (VisitingDetector v : mResourceFieldDetectors) {
+                                    startProfiling();
                                     JavaScanner detector = v.getJavaScanner();
                                     detector.visitResourceReference(mContext, v.getVisitor(),
                                             node, type, name, isFramework);
+                                    stopProfiling(v);
                                 }
                             }
                         }
@@ -1351,7 +1559,9 @@ public class JavaVisitor {
                 List<VisitingDetector> list = mMethodDetectors.get(methodName);
                 if (list != null) {
                     for (VisitingDetector v : list) {
+                        startProfiling();
                         v.getJavaScanner().visitMethod(mContext, v.getVisitor(), node);
+                        stopProfiling(v);
                     }
                 }
             }
@@ -1375,8 +1585,10 @@ public class JavaVisitor {
                                 List<VisitingDetector> list = mConstructorDetectors.get(type);
                                 if (list != null) {
                                     for (VisitingDetector v : list) {
+                                        startProfiling();
                                         v.getJavaScanner().visitConstructor(mContext,
                                                 v.getVisitor(), node, method);
+                                        stopProfiling(v);
                                     }
                                 }
 
@@ -306,6 +306,30 @@ public abstract class LintClient {
         return dir;
     }
 
+    /**
+     * Returns true if the results of the file-local detectors for the given file are
+     * already known to the client, for example from an incremental cache written by a
+     * previous lint run, and the file has not changed since. Lint will then only run
+     * the detectors which need to see every file of the given type (such as
+     * {@link com.android.tools.lint.detector.api.Scope#ALL_JAVA_FILES} detectors) on the
+     * file, and skip it entirely if there are none. The client is responsible for
+     * reporting the known warnings of the detectors whose issues are limited to single
+     * files; see {@link IssueRegistry#getFileLocalScope(Class)}. Java and class file
+     * detectors may resolve symbols in other files, so Java and class files should
+     * only be reported as up to date if the code they can see has not changed either.
+     * <p>
+     * This is only consulted for Java source files, resource files and class files, and
+     * may be called more than once for the same file, so it should not have side effects
+     * such as reporting the known warnings.
+     *
+     * @param project the project containing the file
+     * @param file the file to be analyzed
+     * @return true if the file-local detectors do not need to run on the file
+     */
+    public boolean isUpToDate(@NonNull Project project, @NonNull File file) {
+        return false;
+    }
+
     /**
      * Returns the File corresponding to the system property or the environment variable
      * for {@link #PROP_BIN_DIR}.
@@ -35,6 +35,7 @@ import static java.io.File.separator;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.res2.AbstractResourceRepository;
 import com.android.ide.common.res2.ResourceItem;
 import com.android.resources.ResourceFolderType;
@@ -57,11 +58,15 @@ import com.android.tools.lint.detector.api.TextFormat;
 import com.android.tools.lint.detector.api.XmlContext;
 import com.google.common.annotations.Beta;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
@@ -96,6 +101,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -130,6 +143,11 @@ public class LintDriver {
     private static final String SUPPRESS_LINT_VMSIG = '/' + SUPPRESS_LINT + ';';
     /** Prefix used by the comment suppress mechanism in Studio/IntelliJ */
     private static final String STUDIO_ID_PREFIX = "AndroidLint";
+    /**
+     * Number of Java files per parser thread which may be parsed ahead of the
+     * detectors when Java parsing is pipelined
+     */
+    private static final int JAVA_PARSE_QUEUE_FACTOR = 2;
 
     private final LintClient mClient;
     private LintRequest mRequest;
@@ -147,6 +165,15 @@ public class LintDriver {
     private boolean mAbbreviating = true;
     private boolean mParserErrors;
     private Map<Object,Object> mProperties;
+    private int mClassScanParallelism = 1;
+    private int mJavaParseParallelism = 1;
+    private DetectorProfiler mProfiler;
+    /**
+     * Reports made on the current thread while scanning a class family in parallel,
+     * or null when reports should be passed straight to the client
+     */
+    private final ThreadLocal<List<DeferredReport>> mReportBuffer =
+            new ThreadLocal<List<DeferredReport>>();
 
     /**
      * Creates a new {@link LintDriver}
@@ -217,7 +244,7 @@ public class LintDriver {
      * @param key the key to associate the value with
      * @param value the value, or null to remove a previous binding
      */
-    public void putProperty(@NonNull Object key, @Nullable Object value) {
+    public synchronized void putProperty(@NonNull Object key, @Nullable Object value) {
         if (mProperties == null) {
             mProperties = Maps.newHashMap();
         }
@@ -235,7 +262,7 @@ public class LintDriver {
      * @return the value or null if not found
      */
     @Nullable
-    public Object getProperty(@NonNull Object key) {
+    public synchronized Object getProperty(@NonNull Object key) {
         if (mProperties != null) {
             return mProperties.get(key);
         }
@@ -306,6 +333,91 @@ public class LintDriver {
         return mAbbreviating;
     }
 
+    /**
+     * Sets the number of threads to use when running the class file detectors.
+     * The default, 1, scans all classes on the calling thread. With a larger value
+     * the classes are split into outer class families which are scanned on a
+     * work-stealing pool; each detector instance is still only invoked by one
+     * thread at a time, and the reports are passed to the client in the same
+     * per-family order as in a serial scan. Detectors with project level callbacks
+     * (see {@link IssueRegistry#hasProjectCallbacks}) usually depend on the order
+     * they see the classes in, so they are still run serially, after the others.
+     *
+     * @param parallelism the number of threads to scan classes with, at least 1
+     */
+    public void setClassScanParallelism(int parallelism) {
+        assert parallelism >= 1 : parallelism;
+        mClassScanParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the number of threads used to run the class file detectors
+     *
+     * @return the class scan parallelism, 1 when classes are scanned serially
+     */
+    public int getClassScanParallelism() {
+        return mClassScanParallelism;
+    }
+
+    /**
+     * Sets the number of threads to parse Java files on. The default, 1, parses each
+     * file right before the detectors visit it. With a larger value, and a
+     * {@link JavaParser} which {@link JavaParser#supportsConcurrentParsing() supports it},
+     * files are parsed on a pool of worker threads into a bounded queue, in file order,
+     * while the detectors visit the already parsed files on the calling thread. The
+     * detectors and listeners therefore see the same sequence of files and events as
+     * in a serial run.
+     *
+     * @param parallelism the number of threads to parse Java files with, at least 1
+     */
+    public void setJavaParseParallelism(int parallelism) {
+        assert parallelism >= 1 : parallelism;
+        mJavaParseParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the number of threads used to parse Java files
+     *
+     * @return the Java parse parallelism, 1 when files are parsed on demand
+     */
+    public int getJavaParseParallelism() {
+        return mJavaParseParallelism;
+    }
+
+    /**
+     * Sets a profiler which records the time and memory spent in each detector
+     * during the next analysis, or null to not profile the detectors (the default)
+     *
+     * @param profiler the profiler to record the detector callbacks with, or null
+     */
+    public void setProfiler(@Nullable DetectorProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    /**
+     * Returns the profiler recording the time and memory spent in each detector, if any
+     *
+     * @return the profiler, or null if the detectors are not being profiled
+     */
+    @Nullable
+    public DetectorProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    /** Marks the start of a detector callback if the detectors are being profiled */
+    private void startProfiling() {
+        if (mProfiler != null) {
+            mProfiler.begin();
+        }
+    }
+
+    /** Marks the end of a callback to the given detector started by {@link #startProfiling} */
+    private void stopProfiling(@NonNull Detector detector) {
+        if (mProfiler != null) {
+            mProfiler.end(detector);
+        }
+    }
+
     /**
      * Returns whether lint has encountered any files with fatal parser errors
      * (e.g. broken source code, or even broken parsers)
@@ -544,6 +656,8 @@ public class LintDriver {
         // Ensure that the current visitor is recomputed
         mCurrentFolderType = null;
         mCurrentVisitor = null;
+        mCurrentUpToDateVisitor = null;
+        mHaveUpToDateVisitor = false;
         mCurrentXmlDetectors = null;
         mCurrentBinaryDetectors = null;
 
@@ -623,6 +737,8 @@ public class LintDriver {
         // Ensure that the current visitor is recomputed
         mCurrentFolderType = null;
         mCurrentVisitor = null;
+        mCurrentUpToDateVisitor = null;
+        mHaveUpToDateVisitor = false;
 
         Configuration configuration = project.getConfiguration(this);
         mScopeDetectors = new EnumMap<Scope, List<Detector>>(Scope.class);
@@ -894,7 +1010,9 @@ public class LintDriver {
         mCurrentProject = project;
 
         for (Detector check : mApplicableDetectors) {
+            startProfiling();
             check.beforeCheckProject(projectContext);
+            stopProfiling(check);
             if (mCanceled) {
                 return;
             }
@@ -911,7 +1029,9 @@ public class LintDriver {
                 mCurrentProject = library;
 
                 for (Detector check : mApplicableDetectors) {
+                    startProfiling();
                     check.beforeCheckLibraryProject(libraryContext);
+                    stopProfiling(check);
                     if (mCanceled) {
                         return;
                     }
@@ -926,7 +1046,9 @@ public class LintDriver {
                 assert mCurrentProject == library;
 
                 for (Detector check : mApplicableDetectors) {
+                    startProfiling();
                     check.afterCheckLibraryProject(libraryContext);
+                    stopProfiling(check);
                     if (mCanceled) {
                         return;
                     }
@@ -937,7 +1059,9 @@ public class LintDriver {
         mCurrentProject = project;
 
         for (Detector check : mApplicableDetectors) {
+            startProfiling();
             check.afterCheckProject(projectContext);
+            stopProfiling(check);
             if (mCanceled) {
                 return;
             }
@@ -1118,9 +1242,11 @@ public class LintDriver {
                 fireEvent(EventType.SCANNING_FILE, context);
                 for (Detector detector : detectors) {
                     if (detector.appliesTo(context, file)) {
+                        startProfiling();
                         detector.beforeCheckFile(context);
                         detector.visitBuildScript(context, Maps.<String, Object>newHashMap());
                         detector.afterCheckFile(context);
+                        stopProfiling(detector);
                     }
                 }
             }
@@ -1136,9 +1262,11 @@ public class LintDriver {
                 fireEvent(EventType.SCANNING_FILE, context);
                 for (Detector detector : detectors) {
                     if (detector.appliesTo(context, file)) {
+                        startProfiling();
                         detector.beforeCheckFile(context);
                         detector.run(context);
                         detector.afterCheckFile(context);
+                        stopProfiling(detector);
                     }
                 }
             }
@@ -1162,9 +1290,11 @@ public class LintDriver {
             fireEvent(EventType.SCANNING_FILE, context);
             for (Detector detector : detectors) {
                 if (detector.appliesTo(context, file)) {
+                    startProfiling();
                     detector.beforeCheckFile(context);
                     detector.run(context);
                     detector.afterCheckFile(context);
+                    stopProfiling(detector);
                 }
             }
         }
@@ -1312,95 +1442,353 @@ public class LintDriver {
      * Stack of {@link ClassNode} nodes for outer classes of the currently
      * processed class, including that class itself. Populated by
      * {@link #runClassDetectors(Scope, List, Project, Project)} and used by
-     * {@link #getOuterClassNode(ClassNode)}
+     * {@link #getOuterClassNode(ClassNode)}. This is per thread since in
+     * parallel class scanning mode each worker processes its own class families.
      */
-    private Deque<ClassNode> mOuterClasses;
+    private final ThreadLocal<Deque<ClassNode>> mOuterClasses =
+            new ThreadLocal<Deque<ClassNode>>();
 
     private void runClassDetectors(Scope scope, List<ClassEntry> entries,
             Project project, Project main) {
         if (mScope.contains(scope)) {
             List<Detector> classDetectors = mScopeDetectors.get(scope);
             if (classDetectors != null && !classDetectors.isEmpty() && !entries.isEmpty()) {
-                AsmVisitor visitor = new AsmVisitor(mClient, classDetectors);
-
-                String sourceContents = null;
-                String sourceName = "";
-                mOuterClasses = new ArrayDeque<ClassNode>();
-                ClassEntry prev = null;
-                for (ClassEntry entry : entries) {
-                    if (prev != null && prev.compareTo(entry) == 0) {
-                        // Duplicate entries for some reason: ignore
-                        continue;
-                    }
-                    prev = entry;
-
-                    ClassReader reader;
-                    ClassNode classNode;
-                    try {
-                        reader = new ClassReader(entry.bytes);
-                        classNode = new ClassNode();
-                        reader.accept(classNode, 0 /* flags */);
-                    } catch (Throwable t) {
-                        mClient.log(null, "Error processing %1$s: broken class file?",
-                                entry.path());
-                        continue;
+                // Class files which are up to date only need to be seen by the
+                // detectors which look beyond the individual class file
+                boolean[] upToDate = null;
+                List<Detector> crossFileDetectors = null;
+                if (scope == Scope.CLASS_FILE) {
+                    for (int i = 0, n = entries.size(); i < n; i++) {
+                        if (mClient.isUpToDate(project, entries.get(i).file)) {
+                            if (upToDate == null) {
+                                upToDate = new boolean[n];
+                                crossFileDetectors = getCrossFileDetectors(classDetectors,
+                                        Scope.CLASS_FILE);
+                            }
+                            upToDate[i] = true;
+                        }
                     }
+                }
 
-                    ClassNode peek;
-                    while ((peek = mOuterClasses.peek()) != null) {
-                        if (classNode.name.startsWith(peek.name)) {
-                            break;
+                if (mClassScanParallelism > 1 && entries.size() > 1) {
+                    // Detectors with project level callbacks gather state across
+                    // classes, so they are run serially to see the classes in the
+                    // same order in every run
+                    List<Detector> fileDetectors = new ArrayList<Detector>();
+                    List<Detector> projectDetectors = new ArrayList<Detector>();
+                    for (Detector detector : classDetectors) {
+                        if (IssueRegistry.hasProjectCallbacks(detector.getClass())) {
+                            projectDetectors.add(detector);
                         } else {
-                            mOuterClasses.pop();
+                            fileDetectors.add(detector);
                         }
                     }
-                    mOuterClasses.push(classNode);
 
-                    if (isSuppressed(null, classNode)) {
-                        // Class was annotated with suppress all -- no need to look any further
-                        continue;
+                    if (!fileDetectors.isEmpty()) {
+                        runClassDetectorsInParallel(scope, entries, fileDetectors, upToDate,
+                                retain(crossFileDetectors, fileDetectors), project, main);
                     }
-
-                    if (sourceContents != null) {
-                        // Attempt to reuse the source buffer if initialized
-                        // This means making sure that the source files
-                        //    foo/bar/MyClass and foo/bar/MyClass$Bar
-                        //    and foo/bar/MyClass$3 and foo/bar/MyClass$3$1 have the same prefix.
-                        String newName = classNode.name;
-                        int newRootLength = newName.indexOf('$');
-                        if (newRootLength == -1) {
-                            newRootLength = newName.length();
-                        }
-                        int oldRootLength = sourceName.indexOf('$');
-                        if (oldRootLength == -1) {
-                            oldRootLength = sourceName.length();
-                        }
-                        if (newRootLength != oldRootLength ||
-                                !sourceName.regionMatches(0, newName, 0, newRootLength)) {
-                            sourceContents = null;
-                        }
+                    if (!projectDetectors.isEmpty() && !mCanceled) {
+                        runClassDetectorsSerially(scope, entries, projectDetectors, upToDate,
+                                retain(crossFileDetectors, projectDetectors), project, main);
                     }
+                    return;
+                }
 
-                    ClassContext context = new ClassContext(this, project, main,
-                            entry.file, entry.jarFile, entry.binDir, entry.bytes,
-                            classNode, scope == Scope.JAVA_LIBRARIES /*fromLibrary*/,
-                            sourceContents);
+                runClassDetectorsSerially(scope, entries, classDetectors, upToDate,
+                        crossFileDetectors, project, main);
+            }
+        }
+    }
 
-                    try {
-                        visitor.runClassDetectors(context);
-                    } catch (Exception e) {
-                        mClient.log(e, null);
-                    }
+    /** Returns the detectors from the given list which are also in the other list, if any */
+    @Nullable
+    private static List<Detector> retain(@Nullable List<Detector> detectors,
+            @NonNull List<Detector> retained) {
+        if (detectors == null) {
+            return null;
+        }
+        List<Detector> result = new ArrayList<Detector>(detectors);
+        result.retainAll(retained);
+        return result;
+    }
+
+    /** Runs the given detectors on all the entries, on the current thread */
+    private void runClassDetectorsSerially(
+            @NonNull Scope scope,
+            @NonNull List<ClassEntry> entries,
+            @NonNull List<Detector> classDetectors,
+            @Nullable boolean[] upToDate,
+            @Nullable List<Detector> crossFileDetectors,
+            @NonNull Project project,
+            @Nullable Project main) {
+        AsmVisitor visitor = new AsmVisitor(mClient, classDetectors);
+        AsmVisitor upToDateVisitor = crossFileDetectors != null
+                && !crossFileDetectors.isEmpty()
+                ? new AsmVisitor(mClient, crossFileDetectors) : null;
+        mOuterClasses.set(new ArrayDeque<ClassNode>());
+        try {
+            runClassDetectors(scope, entries, 0, entries.size(), visitor,
+                    upToDate, upToDateVisitor, false, project, main);
+        } finally {
+            mOuterClasses.remove();
+        }
+    }
 
-                    if (mCanceled) {
-                        return;
-                    }
+    /**
+     * Runs the given visitor on the entries in the range {@code [from, to)}, using the
+     * outer class stack registered for the current thread. Entries flagged in
+     * {@code upToDate} are run through {@code upToDateVisitor} instead, if any.
+     */
+    private void runClassDetectors(Scope scope, List<ClassEntry> entries, int from, int to,
+            AsmVisitor visitor, @Nullable boolean[] upToDate,
+            @Nullable AsmVisitor upToDateVisitor, boolean exclusive,
+            Project project, Project main) {
+        Deque<ClassNode> outerClasses = mOuterClasses.get();
+        String sourceContents = null;
+        String sourceName = "";
+        ClassEntry prev = null;
+        for (int i = from; i < to; i++) {
+            ClassEntry entry = entries.get(i);
+            if (prev != null && prev.compareTo(entry) == 0) {
+                // Duplicate entries for some reason: ignore
+                continue;
+            }
+            prev = entry;
 
-                    sourceContents = context.getSourceContents(false/*read*/);
-                    sourceName = classNode.name;
+            ClassReader reader;
+            ClassNode classNode;
+            try {
+                reader = new ClassReader(entry.bytes);
+                classNode = new ClassNode();
+                reader.accept(classNode, 0 /* flags */);
+            } catch (Throwable t) {
+                mClient.log(null, "Error processing %1$s: broken class file?",
+                        entry.path());
+                continue;
+            }
+
+            ClassNode peek;
+            while ((peek = outerClasses.peek()) != null) {
+                if (classNode.name.startsWith(peek.name)) {
+                    break;
+                } else {
+                    outerClasses.pop();
                 }
+            }
+            outerClasses.push(classNode);
+
+            AsmVisitor entryVisitor = visitor;
+            if (upToDate != null && upToDate[i]) {
+                entryVisitor = upToDateVisitor;
+                if (entryVisitor == null) {
+                    // Still on the outer class stack for the inner classes, but
+                    // nothing left to check
+                    sourceContents = null;
+                    continue;
+                }
+            }
+
+            if (isSuppressed(null, classNode)) {
+                // Class was annotated with suppress all -- no need to look any further
+                continue;
+            }
 
-                mOuterClasses = null;
+            if (sourceContents != null) {
+                // Attempt to reuse the source buffer if initialized
+                // This means making sure that the source files
+                //    foo/bar/MyClass and foo/bar/MyClass$Bar
+                //    and foo/bar/MyClass$3 and foo/bar/MyClass$3$1 have the same prefix.
+                String newName = classNode.name;
+                int newRootLength = newName.indexOf('$');
+                if (newRootLength == -1) {
+                    newRootLength = newName.length();
+                }
+                int oldRootLength = sourceName.indexOf('$');
+                if (oldRootLength == -1) {
+                    oldRootLength = sourceName.length();
+                }
+                if (newRootLength != oldRootLength ||
+                        !sourceName.regionMatches(0, newName, 0, newRootLength)) {
+                    sourceContents = null;
+                }
+            }
+
+            ClassContext context = new ClassContext(this, project, main,
+                    entry.file, entry.jarFile, entry.binDir, entry.bytes,
+                    classNode, scope == Scope.JAVA_LIBRARIES /*fromLibrary*/,
+                    sourceContents);
+
+            try {
+                if (exclusive) {
+                    entryVisitor.runClassDetectorsExclusively(context);
+                } else {
+                    entryVisitor.runClassDetectors(context);
+                }
+            } catch (Exception e) {
+                mClient.log(e, null);
+            }
+
+            if (mCanceled) {
+                return;
+            }
+
+            sourceContents = context.getSourceContents(false/*read*/);
+            sourceName = classNode.name;
+        }
+    }
+
+    /**
+     * Scans the given (sorted) class entries on a fork-join pool. The entries are
+     * split into class families: runs of entries whose outer class stack would be
+     * emptied when a serial scan reaches the first entry of the next run. Each family
+     * is scanned by a single worker with its own {@link AsmVisitor} and outer class
+     * stack, so {@link #getOuterClassNode(ClassNode)} sees exactly the same stack as
+     * in a serial scan. Reports are buffered per family and handed to the client in
+     * entry order once all workers are done.
+     */
+    private void runClassDetectorsInParallel(
+            @NonNull Scope scope,
+            @NonNull List<ClassEntry> entries,
+            @NonNull List<Detector> classDetectors,
+            @Nullable boolean[] upToDate,
+            @Nullable List<Detector> crossFileDetectors,
+            @NonNull Project project,
+            @Nullable Project main) {
+        int[] families = computeClassFamilies(entries);
+        int familyCount = families.length - 1;
+        @SuppressWarnings("unchecked")
+        List<DeferredReport>[] reports = new List[familyCount];
+
+        ForkJoinPool pool = new ForkJoinPool(mClassScanParallelism);
+        try {
+            pool.invoke(new ClassFamilyScanner(scope, entries, families, 0, familyCount,
+                    classDetectors, upToDate, crossFileDetectors, reports, project, main));
+        } finally {
+            pool.shutdown();
+        }
+
+        for (List<DeferredReport> familyReports : reports) {
+            if (familyReports != null) {
+                for (DeferredReport report : familyReports) {
+                    report.replay(mClient);
+                }
+            }
+            if (mCanceled) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the start offsets of the class families in the given sorted list of
+     * entries, followed by the size of the list. A new family starts whenever no class
+     * on the (simulated) outer class stack is a prefix of the next class name. Like
+     * the serial scan, this uses the names of the classes read from the class files,
+     * and leaves class files which cannot be read off the stack.
+     */
+    @VisibleForTesting
+    @NonNull
+    static int[] computeClassFamilies(@NonNull List<ClassEntry> entries) {
+        int[] starts = new int[entries.size() + 1];
+        int count = 0;
+        if (!entries.isEmpty()) {
+            starts[count++] = 0;
+        }
+        Deque<String> stack = new ArrayDeque<String>();
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            String name;
+            try {
+                name = new ClassReader(entries.get(i).bytes).getClassName();
+            } catch (Throwable t) {
+                // Broken class file: skipped (and logged) by the scan
+                continue;
+            }
+            boolean first = stack.isEmpty();
+            String peek;
+            while ((peek = stack.peek()) != null && !name.startsWith(peek)) {
+                stack.pop();
+            }
+            if (stack.isEmpty() && !first) {
+                starts[count++] = i;
+            }
+            stack.push(name);
+        }
+        starts[count++] = entries.size();
+        return Arrays.copyOf(starts, count);
+    }
+
+    /** Scans a range of class families, splitting the range while it is large */
+    private class ClassFamilyScanner extends RecursiveAction {
+        /** Number of class families a task scans without forking further */
+        private static final int FAMILIES_PER_TASK = 8;
+
+        private final Scope mScanScope;
+        private final List<ClassEntry> mEntries;
+        private final int[] mFamilies;
+        private final int mFrom;
+        private final int mTo;
+        private final List<Detector> mDetectors;
+        private final boolean[] mUpToDate;
+        private final List<Detector> mCrossFileDetectors;
+        private final List<DeferredReport>[] mReports;
+        private final Project mProject;
+        private final Project mMain;
+
+        ClassFamilyScanner(Scope scope, List<ClassEntry> entries, int[] families,
+                int from, int to, List<Detector> detectors, boolean[] upToDate,
+                List<Detector> crossFileDetectors, List<DeferredReport>[] reports,
+                Project project, Project main) {
+            mScanScope = scope;
+            mEntries = entries;
+            mFamilies = families;
+            mFrom = from;
+            mTo = to;
+            mDetectors = detectors;
+            mUpToDate = upToDate;
+            mCrossFileDetectors = crossFileDetectors;
+            mReports = reports;
+            mProject = project;
+            mMain = main;
+        }
+
+        @Override
+        protected void compute() {
+            if (mCanceled) {
+                return;
+            }
+
+            if (mTo - mFrom > FAMILIES_PER_TASK) {
+                int mid = (mFrom + mTo) >>> 1;
+                invokeAll(
+                        new ClassFamilyScanner(mScanScope, mEntries, mFamilies, mFrom, mid,
+                                mDetectors, mUpToDate, mCrossFileDetectors, mReports,
+                                mProject, mMain),
+                        new ClassFamilyScanner(mScanScope, mEntries, mFamilies, mid, mTo,
+                                mDetectors, mUpToDate, mCrossFileDetectors, mReports,
+                                mProject, mMain));
+                return;
+            }
+
+            AsmVisitor visitor = new AsmVisitor(mClient, mDetectors);
+            AsmVisitor upToDateVisitor = mCrossFileDetectors != null
+                    && !mCrossFileDetectors.isEmpty()
+                    ? new AsmVisitor(mClient, mCrossFileDetectors) : null;
+            for (int family = mFrom; family < mTo && !mCanceled; family++) {
+                List<DeferredReport> reports = new ArrayList<DeferredReport>();
+                mOuterClasses.set(new ArrayDeque<ClassNode>());
+                mReportBuffer.set(reports);
+                try {
+                    runClassDetectors(mScanScope, mEntries, mFamilies[family],
+                            mFamilies[family + 1], visitor, mUpToDate, upToDateVisitor, true,
+                            mProject, mMain);
+                } finally {
+                    mReportBuffer.remove();
+                    mOuterClasses.remove();
+                }
+                if (!reports.isEmpty()) {
+                    mReports[family] = reports;
+                }
             }
         }
     }
@@ -1411,7 +1799,11 @@ public class LintDriver {
     public ClassNode getOuterClassNode(@NonNull ClassNode classNode) {
         String outerName = classNode.outerClass;
 
-        Iterator<ClassNode> iterator = mOuterClasses.iterator();
+        Deque<ClassNode> outerClasses = mOuterClasses.get();
+        if (outerClasses == null) {
+            return null;
+        }
+        Iterator<ClassNode> iterator = outerClasses.iterator();
         while (iterator.hasNext()) {
             ClassNode node = iterator.next();
             if (outerName != null) {
@@ -1514,23 +1906,63 @@ public class LintDriver {
         if (!sources.isEmpty()) {
             JavaVisitor visitor = new JavaVisitor(javaParser, checks);
             List<JavaContext> contexts = Lists.newArrayListWithExpectedSize(sources.size());
+            List<JavaVisitor> visitors = Lists.newArrayListWithExpectedSize(sources.size());
+            JavaVisitor upToDateVisitor = null;
+            boolean haveUpToDateVisitor = false;
+            boolean visitAny = false;
             for (File file : sources) {
                 JavaContext context = new JavaContext(this, project, main, file, javaParser);
                 contexts.add(context);
+
+                JavaVisitor fileVisitor = visitor;
+                if (mClient.isUpToDate(project, file)) {
+                    if (!haveUpToDateVisitor) {
+                        List<Detector> crossFileChecks = getCrossFileDetectors(checks,
+                                Scope.JAVA_FILE);
+                        if (!crossFileChecks.isEmpty()) {
+                            upToDateVisitor = new JavaVisitor(javaParser, crossFileChecks);
+                        }
+                        haveUpToDateVisitor = true;
+                    }
+                    fileVisitor = upToDateVisitor;
+                }
+                visitors.add(fileVisitor);
+                visitAny |= fileVisitor != null;
             }
 
+            if (!visitAny) {
+                // Everything is known from a previous run: no need to even parse
+                return;
+            }
+
+            // All files take part in the preparation (for type attribution),
+            // even those which are not visited
             visitor.prepare(contexts);
-            for (JavaContext context : contexts) {
-                fireEvent(EventType.SCANNING_FILE, context);
-                visitor.visitFile(context);
-                if (mCanceled) {
-                    return;
-                }
+            if (!visitJavaFiles(contexts, visitors, javaParser)) {
+                return;
             }
             visitor.dispose();
         }
     }
 
+    /**
+     * Returns the detectors from the given list which must also run on files that the
+     * client reports as {@link LintClient#isUpToDate up to date}: those which are not
+     * limited to single files of the given scope.
+     */
+    @NonNull
+    private <T extends Detector> List<T> getCrossFileDetectors(
+            @NonNull List<T> detectors,
+            @NonNull Scope fileScope) {
+        List<T> crossFile = new ArrayList<T>(detectors.size());
+        for (T detector : detectors) {
+            if (mRegistry.getFileLocalScope(detector.getClass()) != fileScope) {
+                crossFile.add(detector);
+            }
+        }
+        return crossFile;
+    }
+
     private void checkIndividualJavaFiles(
             @NonNull Project project,
             @Nullable Project main,
@@ -1562,15 +1994,155 @@ public class LintDriver {
             return;
         }
 
-        for (JavaContext context : contexts) {
+        if (!visitJavaFiles(contexts, Collections.nCopies(contexts.size(), visitor),
+                javaParser)) {
+            return;
+        }
+
+        visitor.dispose();
+    }
+
+    /**
+     * Parses and visits the given (prepared) Java contexts in order, each with the
+     * corresponding visitor. Contexts whose visitor is null are skipped.
+     *
+     * @return false if lint was canceled before all files were visited
+     */
+    private boolean visitJavaFiles(
+            @NonNull List<JavaContext> contexts,
+            @NonNull List<JavaVisitor> visitors,
+            @NonNull JavaParser javaParser) {
+        if (mJavaParseParallelism > 1 && contexts.size() > 1
+                && javaParser.supportsConcurrentParsing()) {
+            return visitJavaFilesPipelined(contexts, visitors, javaParser);
+        }
+
+        for (int i = 0, n = contexts.size(); i < n; i++) {
+            JavaVisitor visitor = visitors.get(i);
+            if (visitor == null) {
+                continue;
+            }
+            JavaContext context = contexts.get(i);
             fireEvent(EventType.SCANNING_FILE, context);
             visitor.visitFile(context);
             if (mCanceled) {
-                return;
+                return false;
             }
         }
 
-        visitor.dispose();
+        return true;
+    }
+
+    /**
+     * Parses the given contexts on a pool of {@link #mJavaParseParallelism} threads,
+     * keeping at most {@link #JAVA_PARSE_QUEUE_FACTOR} parsed or in-flight files per
+     * thread ahead of the detectors, which visit the files in order on this thread.
+     *
+     * @return false if lint was canceled before all files were visited
+     */
+    private boolean visitJavaFilesPipelined(
+            @NonNull List<JavaContext> contexts,
+            @NonNull List<JavaVisitor> visitors,
+            @NonNull final JavaParser javaParser) {
+        ExecutorService executor = Executors.newFixedThreadPool(mJavaParseParallelism,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lint-java-parser-%d")
+                        .setDaemon(true)
+                        .build());
+        int capacity = JAVA_PARSE_QUEUE_FACTOR * mJavaParseParallelism;
+        Deque<Future<Node>> pending = new ArrayDeque<Future<Node>>(capacity);
+        int submitted = 0;
+        try {
+            for (int i = 0, n = contexts.size(); i < n; i++) {
+                while (pending.size() < capacity && submitted < n) {
+                    final JavaContext next = contexts.get(submitted);
+                    if (visitors.get(submitted) == null) {
+                        pending.add(Futures.<Node>immediateFuture(null));
+                    } else {
+                        pending.add(executor.submit(new Callable<Node>() {
+                            @Override
+                            public Node call() throws Exception {
+                                return mCanceled ? null : javaParser.parseJava(next);
+                            }
+                        }));
+                    }
+                    submitted++;
+                }
+
+                Future<Node> parsed = pending.remove();
+                JavaVisitor visitor = visitors.get(i);
+                if (visitor == null) {
+                    continue;
+                }
+                JavaContext context = contexts.get(i);
+                fireEvent(EventType.SCANNING_FILE, context);
+                try {
+                    visitor.visitFile(context, Uninterruptibles.getUninterruptibly(parsed));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        visitor.reportFailure(context, (RuntimeException) cause);
+                    } else {
+                        throw Throwables.propagate(cause);
+                    }
+                }
+
+                if (mCanceled) {
+                    return false;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            disposeParsedJavaFiles(executor, javaParser, pending,
+                    contexts.subList(submitted - pending.size(), submitted));
+        }
+
+        return true;
+    }
+
+    /**
+     * Disposes the compilation units which were parsed ahead of the detectors but
+     * will not be visited, since lint was canceled or failed. Waits for the given
+     * (shut down) executor to finish the files it is still parsing first.
+     */
+    private static void disposeParsedJavaFiles(
+            @NonNull ExecutorService executor,
+            @NonNull JavaParser javaParser,
+            @NonNull Collection<Future<Node>> pending,
+            @NonNull List<JavaContext> pendingContexts) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Iterator<JavaContext> contexts = pendingContexts.iterator();
+        for (Future<Node> future : pending) {
+            JavaContext context = contexts.next();
+            // Files which were never started have not been parsed
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    Node compilationUnit = Uninterruptibles.getUninterruptibly(future);
+                    if (compilationUnit != null) {
+                        javaParser.dispose(context, compilationUnit);
+                    }
+                } catch (ExecutionException ignore) {
+                    // Failed to parse: nothing to dispose
+                }
+            }
+        }
     }
 
     private static void gatherJavaFiles(@NonNull File dir, @NonNull List<File> result) {
@@ -1590,6 +2162,8 @@ public class LintDriver {
     private List<ResourceXmlDetector> mCurrentXmlDetectors;
     private List<Detector> mCurrentBinaryDetectors;
     private ResourceVisitor mCurrentVisitor;
+    private ResourceVisitor mCurrentUpToDateVisitor;
+    private boolean mHaveUpToDateVisitor;
 
     @Nullable
     private ResourceVisitor getVisitor(
@@ -1625,6 +2199,8 @@ public class LintDriver {
 
             mCurrentXmlDetectors = applicableXmlChecks;
             mCurrentBinaryDetectors = applicableBinaryChecks;
+            mCurrentUpToDateVisitor = null;
+            mHaveUpToDateVisitor = false;
 
             if (applicableXmlChecks.isEmpty()
                     && (applicableBinaryChecks == null || applicableBinaryChecks.isEmpty())) {
@@ -1644,6 +2220,37 @@ public class LintDriver {
         return mCurrentVisitor;
     }
 
+    /**
+     * Returns the visitor to use for resource files in the current folder which the
+     * client reports as {@link LintClient#isUpToDate up to date}, or null if none of
+     * the current detectors need to see them. Must be called after
+     * {@link #getVisitor(ResourceFolderType, List, List)}.
+     */
+    @Nullable
+    private ResourceVisitor getUpToDateVisitor(@NonNull ResourceVisitor visitor) {
+        if (!mHaveUpToDateVisitor) {
+            mHaveUpToDateVisitor = true;
+            List<ResourceXmlDetector> xmlChecks = getCrossFileDetectors(mCurrentXmlDetectors,
+                    Scope.RESOURCE_FILE);
+            List<Detector> binaryChecks = null;
+            if (mCurrentBinaryDetectors != null) {
+                binaryChecks = getCrossFileDetectors(mCurrentBinaryDetectors,
+                        Scope.BINARY_RESOURCE_FILE);
+            }
+            if (xmlChecks.size() == mCurrentXmlDetectors.size()
+                    && Objects.equal(binaryChecks, mCurrentBinaryDetectors)) {
+                mCurrentUpToDateVisitor = visitor;
+            } else if (xmlChecks.isEmpty() && (binaryChecks == null || binaryChecks.isEmpty())) {
+                mCurrentUpToDateVisitor = null;
+            } else {
+                mCurrentUpToDateVisitor = new ResourceVisitor(visitor.getParser(), xmlChecks,
+                        binaryChecks);
+            }
+        }
+
+        return mCurrentUpToDateVisitor;
+    }
+
     private void checkResFolder(
             @NonNull Project project,
             @Nullable Project main,
@@ -1691,9 +2298,11 @@ public class LintDriver {
             fireEvent(EventType.SCANNING_FILE, context);
             for (Detector check : dirChecks) {
                 if (check.appliesTo(type)) {
+                    startProfiling();
                     check.beforeCheckFile(context);
                     check.checkFolder(context, folderName);
                     check.afterCheckFile(context);
+                    stopProfiling(check);
                 }
             }
             if (binaryChecks == null && xmlChecks.isEmpty()) {
@@ -1712,15 +2321,26 @@ public class LintDriver {
             // (for example for the duplicate resource detector)
             Arrays.sort(files);
             for (File file : files) {
-                if (LintUtils.isXmlFile(file)) {
+                boolean isXml = LintUtils.isXmlFile(file);
+                if (!isXml && (binaryChecks == null || !LintUtils.isBitmapFile(file))) {
+                    continue;
+                }
+                ResourceVisitor fileVisitor = visitor;
+                if (mClient.isUpToDate(project, file)) {
+                    fileVisitor = getUpToDateVisitor(visitor);
+                    if (fileVisitor == null) {
+                        continue;
+                    }
+                }
+                if (isXml) {
                     XmlContext context = new XmlContext(this, project, main, file, type,
-                            visitor.getParser());
+                            fileVisitor.getParser());
                     fireEvent(EventType.SCANNING_FILE, context);
-                    visitor.visitFile(context, file);
-                } else if (binaryChecks != null && LintUtils.isBitmapFile(file)) {
+                    fileVisitor.visitFile(context, file);
+                } else {
                     ResourceContext context = new ResourceContext(this, project, main, file, type);
                     fireEvent(EventType.SCANNING_FILE, context);
-                    visitor.visitBinaryResource(context);
+                    fileVisitor.visitBinaryResource(context);
                 }
                 if (mCanceled) {
                     return;
@@ -1818,6 +2438,35 @@ public class LintDriver {
         }
     }
 
+    /** A report made while scanning classes in parallel, handed to the client later */
+    private static class DeferredReport {
+        private final Context mContext;
+        private final Issue mIssue;
+        private final Severity mSeverity;
+        private final Location mLocation;
+        private final String mMessage;
+        private final TextFormat mFormat;
+
+        DeferredReport(
+                @NonNull Context context,
+                @NonNull Issue issue,
+                @NonNull Severity severity,
+                @Nullable Location location,
+                @NonNull String message,
+                @NonNull TextFormat format) {
+            mContext = context;
+            mIssue = issue;
+            mSeverity = severity;
+            mLocation = location;
+            mMessage = message;
+            mFormat = format;
+        }
+
+        void replay(@NonNull LintClient client) {
+            client.report(mContext, mIssue, mSeverity, mLocation, mMessage, mFormat);
+        }
+    }
+
     /**
      * Wrapper around the lint client. This sits in the middle between a
      * detector calling for example {@link LintClient#report} and
@@ -1841,6 +2490,13 @@ public class LintDriver {
                 @Nullable Location location,
                 @NonNull String message,
                 @NonNull TextFormat format) {
+            List<DeferredReport> buffer = mReportBuffer.get();
+            if (buffer != null) {
+                buffer.add(new DeferredReport(context, issue, severity, location, message,
+                        format));
+                return;
+            }
+
             assert mCurrentProject != null;
             if (!mCurrentProject.getReportIssues()) {
                 return;
@@ -1878,13 +2534,20 @@ public class LintDriver {
         @Override
         public void log(@NonNull Severity severity, @Nullable Throwable exception,
                 @Nullable String format, @Nullable Object... args) {
-            mDelegate.log(exception, format, args);
+            synchronized (mDelegate) {
+                mDelegate.log(exception, format, args);
+            }
         }
 
         @Override
         @NonNull
         public String readFile(@NonNull File file) {
-            return mDelegate.readFile(file);
+            // Clients typically cache file contents in unsynchronized maps, and
+            // detectors may read files from several threads when classes are
+            // scanned in parallel
+            synchronized (mDelegate) {
+                return mDelegate.readFile(file);
+            }
         }
 
         @Override
@@ -1959,6 +2622,11 @@ public class LintDriver {
             return mDelegate.getCacheDir(create);
         }
 
+        @Override
+        public boolean isUpToDate(@NonNull Project project, @NonNull File file) {
+            return mDelegate.isUpToDate(project, file);
+        }
+
         @Override
         @NonNull
         protected ClassPathInfo getClassPath(@NonNull Project project) {
@@ -1968,7 +2636,9 @@ public class LintDriver {
         @Override
         public void log(@Nullable Throwable exception, @Nullable String format,
                 @Nullable Object... args) {
-            mDelegate.log(exception, format, args);
+            synchronized (mDelegate) {
+                mDelegate.log(exception, format, args);
+            }
         }
 
         @Override
@@ -2003,7 +2673,10 @@ public class LintDriver {
         @Override
         @Nullable
         public String getSuperClass(@NonNull Project project, @NonNull String name) {
-            return mDelegate.getSuperClass(project, name);
+            // The super class maps are computed lazily
+            synchronized (mDelegate) {
+                return mDelegate.getSuperClass(project, name);
+            }
         }
 
         @Override
@@ -2108,7 +2781,8 @@ public class LintDriver {
      *       scopes as well (since they may have been requested by other detectors).
      *       You can pall null to indicate "all".
      */
-    public void requestRepeat(@NonNull Detector detector, @Nullable EnumSet<Scope> scope) {
+    public synchronized void requestRepeat(@NonNull Detector detector,
+            @Nullable EnumSet<Scope> scope) {
         if (mRepeatingDetectors == null) {
             mRepeatingDetectors = new ArrayList<Detector>();
         }
@@ -46,6 +46,7 @@ import java.util.Map;
 class OtherFileVisitor {
     @NonNull
     private final List<Detector> mDetectors;
+    private DetectorProfiler mProfiler;
 
     @NonNull
     private Map<Scope, List<File>> mFiles = new EnumMap<Scope, List<File>>(Scope.class);
@@ -177,12 +178,15 @@ class OtherFileVisitor {
                 }
             }
             if (!applicable.isEmpty()) {
+                mProfiler = driver.getProfiler();
                 for (File file : files) {
                     Context context = new Context(driver, project, main, file);
                     for (Detector detector : applicable) {
+                        startProfiling();
                         detector.beforeCheckFile(context);
                         detector.run(context);
                         detector.afterCheckFile(context);
+                        stopProfiling(detector);
                     }
                     if (driver.isCanceled()) {
                         return;
@@ -204,4 +208,18 @@ class OtherFileVisitor {
             files.add(file);
         }
     }
+
+    /** Marks the start of a detector callback if the detectors are being profiled */
+    private void startProfiling() {
+        if (mProfiler != null) {
+            mProfiler.begin();
+        }
+    }
+
+    /** Marks the end of a callback to the given detector started by {@link #startProfiling} */
+    private void stopProfiling(@NonNull Detector detector) {
+        if (mProfiler != null) {
+            mProfiler.end(detector);
+        }
+    }
 }
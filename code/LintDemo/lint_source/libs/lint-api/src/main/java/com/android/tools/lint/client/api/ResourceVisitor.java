@@ -18,10 +18,12 @@ package com.android.tools.lint.client.api;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.resources.ResourceFolderType;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Detector.XmlScanner;
 import com.android.tools.lint.detector.api.LintUtils;
 import com.android.tools.lint.detector.api.ResourceContext;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
 import com.android.tools.lint.detector.api.XmlContext;
 import com.google.common.annotations.Beta;
 
@@ -34,6 +36,7 @@ import org.w3c.dom.NodeList;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +59,10 @@ import java.util.RandomAccess;
  * It also notifies all the detectors before and after the document is processed
  * such that they can do pre- and post-processing.
  * <p>
+ * If the parser and all the detectors support it for the folder type of a file,
+ * the file is streamed rather than parsed into a full DOM up front; see
+ * {@link ResourceXmlDetector#supportsStreaming(ResourceFolderType)}.
+ * <p>
  * <b>NOTE: This is not a public or final API; if you rely on this be prepared
  * to adjust your code for the next tools release.</b>
  */
@@ -74,6 +81,9 @@ class ResourceVisitor {
     private final List<? extends Detector> mAllDetectors;
     private final List<? extends Detector> mBinaryDetectors;
     private final XmlParser mParser;
+    private final Map<ResourceFolderType, Boolean> mStreamingFolderTypes =
+            new EnumMap<ResourceFolderType, Boolean>(ResourceFolderType.class);
+    private DetectorProfiler mProfiler;
 
     // Really want this:
     //<T extends List<Detector> & Detector.XmlScanner> XmlVisitor(IDomParser parser,
@@ -130,6 +140,25 @@ class ResourceVisitor {
     void visitFile(@NonNull XmlContext context, @NonNull File file) {
         assert LintUtils.isXmlFile(file);
 
+        mProfiler = context.getDriver().getProfiler();
+        if (mProfiler != null) {
+            mProfiler.beginFile();
+        }
+        try {
+            visitXmlFile(context);
+        } finally {
+            if (mProfiler != null) {
+                mProfiler.endFile();
+            }
+        }
+    }
+
+    private void visitXmlFile(@NonNull XmlContext context) {
+        if (context.document == null && isStreaming(context)) {
+            streamFile(context);
+            return;
+        }
+
         try {
             if (context.document == null) {
                 context.document = mParser.parseXml(context);
@@ -146,20 +175,25 @@ class ResourceVisitor {
             }
 
             for (Detector check : mAllDetectors) {
+                startProfiling();
                 check.beforeCheckFile(context);
+                stopProfiling(check);
             }
 
             for (Detector.XmlScanner check : mDocumentDetectors) {
+                startProfiling();
                 check.visitDocument(context, context.document);
+                stopProfiling((Detector) check);
             }
 
-            if (!mElementToCheck.isEmpty() || !mAttributeToCheck.isEmpty()
-                    || !mAllAttributeDetectors.isEmpty() || !mAllElementDetectors.isEmpty()) {
+            if (visitsElements()) {
                 visitElement(context, context.document.getDocumentElement());
             }
 
             for (Detector check : mAllDetectors) {
+                startProfiling();
                 check.afterCheckFile(context);
+                stopProfiling(check);
             }
         } finally {
             if (context.document != null) {
@@ -169,17 +203,130 @@ class ResourceVisitor {
         }
     }
 
+    private void streamFile(@NonNull final XmlContext context) {
+        final boolean visitElements = visitsElements();
+        final boolean[] started = new boolean[1];
+        try {
+            mParser.streamXml(context, new XmlParser.StreamHandler() {
+                @Override
+                public void documentElementStarted(@NonNull Element root) {
+                    started[0] = true;
+                    for (Detector check : mAllDetectors) {
+                        startProfiling();
+                        check.beforeCheckFile(context);
+                        stopProfiling(check);
+                    }
+
+                    for (Detector.XmlScanner check : mDocumentDetectors) {
+                        startProfiling();
+                        check.visitDocument(context, context.document);
+                        stopProfiling((Detector) check);
+                    }
+
+                    if (visitElements) {
+                        visitElementStart(context, root);
+                    }
+                }
+
+                @Override
+                public void childElementParsed(@NonNull Element element) {
+                    if (visitElements) {
+                        visitElement(context, element);
+                    }
+                }
+
+                @Override
+                public void documentElementEnded(@NonNull Element root) {
+                    if (visitElements) {
+                        visitElementEnd(context, root);
+                    }
+                }
+            });
+
+            // Also after a parser error in the middle of the document, such that
+            // the detectors which have seen the start of the file see its end too
+            if (started[0]) {
+                for (Detector check : mAllDetectors) {
+                    startProfiling();
+                    check.afterCheckFile(context);
+                    stopProfiling(check);
+                }
+            }
+        } finally {
+            if (context.document != null) {
+                mParser.dispose(context, context.document);
+                context.document = null;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given file can be streamed: the parser supports it, and so
+     * do all the detectors for the folder type of the file (or for any folder type,
+     * for files outside of resource folders such as the manifest)
+     */
+    private boolean isStreaming(@NonNull XmlContext context) {
+        if (!mParser.supportsStreaming()) {
+            return false;
+        }
+        ResourceFolderType folderType = context.getResourceFolderType();
+        Boolean streaming = folderType != null ? mStreamingFolderTypes.get(folderType) : null;
+        if (streaming == null) {
+            streaming = true;
+            for (Detector detector : mAllDetectors) {
+                if (!(detector instanceof ResourceXmlDetector)) {
+                    streaming = false;
+                    break;
+                }
+                ResourceXmlDetector xmlDetector = (ResourceXmlDetector) detector;
+                if (folderType != null ? !xmlDetector.supportsStreaming(folderType)
+                        : !xmlDetector.supportsStreaming()) {
+                    streaming = false;
+                    break;
+                }
+            }
+            if (folderType != null) {
+                mStreamingFolderTypes.put(folderType, streaming);
+            }
+        }
+        return streaming;
+    }
+
+    private boolean visitsElements() {
+        return !mElementToCheck.isEmpty() || !mAttributeToCheck.isEmpty()
+                || !mAllAttributeDetectors.isEmpty() || !mAllElementDetectors.isEmpty();
+    }
+
     private void visitElement(@NonNull XmlContext context, @NonNull Element element) {
+        visitElementStart(context, element);
+
+        // Visit children
+        NodeList childNodes = element.getChildNodes();
+        for (int i = 0, n = childNodes.getLength(); i < n; i++) {
+            Node child = childNodes.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                visitElement(context, (Element) child);
+            }
+        }
+
+        visitElementEnd(context, element);
+    }
+
+    private void visitElementStart(@NonNull XmlContext context, @NonNull Element element) {
         List<Detector.XmlScanner> elementChecks = mElementToCheck.get(element.getTagName());
         if (elementChecks != null) {
             assert elementChecks instanceof RandomAccess;
             for (XmlScanner check : elementChecks) {
+                startProfiling();
                 check.visitElement(context, element);
+                stopProfiling((Detector) check);
             }
         }
         if (!mAllElementDetectors.isEmpty()) {
             for (XmlScanner check : mAllElementDetectors) {
+                startProfiling();
                 check.visitElement(context, element);
+                stopProfiling((Detector) check);
             }
         }
 
@@ -194,35 +341,37 @@ class ResourceVisitor {
                 List<Detector.XmlScanner> list = mAttributeToCheck.get(name);
                 if (list != null) {
                     for (XmlScanner check : list) {
+                        startProfiling();
                         check.visitAttribute(context, attribute);
+                        stopProfiling((Detector) check);
                     }
                 }
                 if (!mAllAttributeDetectors.isEmpty()) {
                     for (XmlScanner check : mAllAttributeDetectors) {
+                        startProfiling();
                         check.visitAttribute(context, attribute);
+                        stopProfiling((Detector) check);
                     }
                 }
             }
         }
+    }
 
-        // Visit children
-        NodeList childNodes = element.getChildNodes();
-        for (int i = 0, n = childNodes.getLength(); i < n; i++) {
-            Node child = childNodes.item(i);
-            if (child.getNodeType() == Node.ELEMENT_NODE) {
-                visitElement(context, (Element) child);
-            }
-        }
-
+    private void visitElementEnd(@NonNull XmlContext context, @NonNull Element element) {
         // Post hooks
+        List<Detector.XmlScanner> elementChecks = mElementToCheck.get(element.getTagName());
         if (elementChecks != null) {
             for (XmlScanner check : elementChecks) {
+                startProfiling();
                 check.visitElementAfter(context, element);
+                stopProfiling((Detector) check);
             }
         }
         if (!mAllElementDetectors.isEmpty()) {
             for (XmlScanner check : mAllElementDetectors) {
+                startProfiling();
                 check.visitElementAfter(context, element);
+                stopProfiling((Detector) check);
             }
         }
     }
@@ -236,10 +385,27 @@ class ResourceVisitor {
         if (mBinaryDetectors == null) {
             return;
         }
+        mProfiler = context.getDriver().getProfiler();
         for (Detector check : mBinaryDetectors) {
+            startProfiling();
             check.beforeCheckFile(context);
             check.checkBinaryResource(context);
             check.afterCheckFile(context);
+            stopProfiling(check);
+        }
+    }
+
+    /** Marks the start of a detector callback if the detectors are being profiled */
+    private void startProfiling() {
+        if (mProfiler != null) {
+            mProfiler.begin();
+        }
+    }
+
+    /** Marks the end of a callback to the given detector started by {@link #startProfiling} */
+    private void stopProfiling(@NonNull Detector detector) {
+        if (mProfiler != null) {
+            mProfiler.end(detector);
         }
     }
 }
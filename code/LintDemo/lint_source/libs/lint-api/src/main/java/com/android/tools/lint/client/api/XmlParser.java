@@ -25,8 +25,12 @@ import com.google.common.annotations.Beta;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A wrapper for an XML parser. This allows tools integrating lint to map directly
  * to builtin services, such as already-parsed data structures in XML editors.
@@ -48,6 +52,91 @@ public abstract class XmlParser {
     @Nullable
     public abstract Document parseXml(@NonNull XmlContext context);
 
+    /**
+     * Returns true if this parser can parse documents incrementally with
+     * {@link #streamXml(XmlContext, StreamHandler)}
+     *
+     * @return true if this parser supports streaming
+     */
+    public boolean supportsStreaming() {
+        return false;
+    }
+
+    /**
+     * Parses the file pointed to by the given context incrementally, without ever
+     * holding on to the whole DOM. Once the start tag of the document element has
+     * been parsed, {@link XmlContext#document} is set to a document containing just
+     * that element, and the handler is notified. From then on, each child element of
+     * the document element is added to it along with its complete subtree, handed to
+     * the handler, and removed again. The nodes must support the same location
+     * lookups as the nodes returned by {@link #parseXml(XmlContext)}.
+     * <p>
+     * The default implementation parses the whole document with
+     * {@link #parseXml(XmlContext)}, and then hands its elements to the handler in
+     * the same way. Parsers which can parse documents incrementally should override
+     * this method along with {@link #supportsStreaming()}.
+     *
+     * @param context the context pointing to the file to be parsed
+     * @param handler the handler to notify
+     * @return true if the whole document was parsed, false if parsing fails (the
+     *         handler may have been notified about the part which was parsed)
+     */
+    public boolean streamXml(@NonNull XmlContext context, @NonNull StreamHandler handler) {
+        Document document = parseXml(context);
+        if (document == null || document.getDocumentElement() == null) {
+            return false;
+        }
+
+        Element root = document.getDocumentElement();
+        List<Element> children = new ArrayList<Element>();
+        Node child = root.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) child);
+            }
+            root.removeChild(child);
+            child = next;
+        }
+
+        context.document = document;
+        handler.documentElementStarted(root);
+        for (Element element : children) {
+            root.appendChild(element);
+            handler.childElementParsed(element);
+            root.removeChild(element);
+        }
+        handler.documentElementEnded(root);
+        return true;
+    }
+
+    /** Receives the elements of a document parsed by {@link #streamXml} */
+    public interface StreamHandler {
+        /**
+         * The start tag of the document element has been parsed; it has its
+         * attributes, but no children yet
+         *
+         * @param root the document element
+         */
+        void documentElementStarted(@NonNull Element root);
+
+        /**
+         * A child of the document element has been parsed, along with all its
+         * descendants. It is removed from the document when this method returns.
+         *
+         * @param element the child element
+         */
+        void childElementParsed(@NonNull Element element);
+
+        /**
+         * The end tag of the document element has been parsed. Its children
+         * have all been removed again.
+         *
+         * @param root the document element
+         */
+        void documentElementEnded(@NonNull Element root);
+    }
+
     /**
      * Returns a {@link Location} for the given DOM node
      *
@@ -52,6 +52,44 @@ public abstract class ResourceXmlDetector extends Detector implements Detector.X
         return true;
     }
 
+    /**
+     * Returns whether this detector can run on documents which are
+     * {@link com.android.tools.lint.client.api.XmlParser#streamXml streamed}
+     * rather than fully parsed. If all the detectors for a file support this, lint
+     * will avoid building the DOM for the whole file at once, which matters for
+     * large files such as translated string resources.
+     * <p>
+     * When streaming, the document only contains the document element and its
+     * child element currently being visited. Detectors which return true here must
+     * therefore only look at the element or attribute being visited, its
+     * ancestors and the subtree of the document element child containing it; in
+     * particular they must not iterate over the children of the document element.
+     * {@link #visitDocument} and {@link #beforeCheckFile} are called when the
+     * document element has been parsed but none of its children, and
+     * {@link #afterCheckFile} when they have all been removed again.
+     *
+     * @return true if this detector supports streamed documents
+     */
+    public boolean supportsStreaming() {
+        return false;
+    }
+
+    /**
+     * Returns whether this detector can run on streamed documents in folders of
+     * the given type; see {@link #supportsStreaming()}. Lint decides whether to
+     * stream a file from the detectors which apply to its folder type, so detectors
+     * which only need the whole document for some folder types can still let files
+     * in the other folders be streamed.
+     * <p>
+     * The default implementation returns {@link #supportsStreaming()}.
+     *
+     * @param folderType the folder type of the file to be visited
+     * @return true if this detector supports streamed documents in the given folder type
+     */
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        return supportsStreaming();
+    }
+
     @Override
     public void run(@NonNull Context context) {
         // The infrastructure should never call this method on an xml detector since
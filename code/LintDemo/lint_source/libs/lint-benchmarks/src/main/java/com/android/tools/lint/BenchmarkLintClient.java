@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintRequest;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.android.tools.lint.detector.api.TextFormat;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumSet;
+
+/**
+ * Lint client used by the benchmarks: it checks all issues, and only counts the reported
+ * warnings rather than collecting them for reporters, such that the measurements
+ * consist of the analysis itself.
+ */
+public class BenchmarkLintClient extends LintCliClient {
+    private int mReportCount;
+
+    public BenchmarkLintClient() {
+        super(createFlags());
+    }
+
+    private static LintCliFlags createFlags() {
+        LintCliFlags flags = new LintCliFlags();
+        flags.setQuiet(true);
+        flags.setCheckAllWarnings(true);
+        return flags;
+    }
+
+    /**
+     * Runs lint on the given project with a new client
+     *
+     * @param registry the issues to check
+     * @param project the project directory
+     * @param scope the scope to analyze, or null to infer it from the project
+     * @return the number of reported warnings
+     */
+    public static int analyze(@NonNull IssueRegistry registry, @NonNull File project,
+            @Nullable EnumSet<Scope> scope) {
+        BenchmarkLintClient client = new BenchmarkLintClient();
+        client.mDriver = new LintDriver(registry, client);
+        LintRequest request = new LintRequest(client, Collections.singletonList(project));
+        request.setScope(scope);
+        client.mDriver.analyze(request);
+        return client.mReportCount;
+    }
+
+    @Override
+    public void report(
+            @NonNull Context context,
+            @NonNull Issue issue,
+            @NonNull Severity severity,
+            @Nullable Location location,
+            @NonNull String message,
+            @NonNull TextFormat format) {
+        if (severity != Severity.IGNORE) {
+            mReportCount++;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import com.android.annotations.NonNull;
+import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Issue;
+import com.google.common.io.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single detector in isolation: lint runs on a {@link SyntheticProject} with
+ * only the issues implemented by that detector, such that the driver only visits the
+ * files the detector applies to.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DetectorBenchmark {
+    @Param({"100"})
+    public int javaFiles;
+
+    @Param({"50"})
+    public int layouts;
+
+    @Param({"100"})
+    public int classFiles;
+
+    /** The simple name of a detector in {@code com.android.tools.lint.checks} */
+    @Param({"ApiDetector", "StringFormatDetector", "IconDetector", "UnusedResourceDetector"})
+    public String detector;
+
+    private File mProjectDir;
+    private IssueRegistry mRegistry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ClassNotFoundException {
+        mProjectDir = Files.createTempDir();
+        SyntheticProject.create(mProjectDir, javaFiles, layouts, classFiles);
+        mRegistry = new DetectorIssueRegistry(
+                Class.forName("com.android.tools.lint.checks." + detector)); //$NON-NLS-1$
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticProject.delete(mProjectDir);
+    }
+
+    @Benchmark
+    public int analyze() {
+        return BenchmarkLintClient.analyze(mRegistry, mProjectDir, null);
+    }
+
+    /** Registry with the builtin issues implemented by a given detector */
+    private static class DetectorIssueRegistry extends IssueRegistry {
+        private final List<Issue> mIssues;
+
+        DetectorIssueRegistry(@NonNull Class<?> detectorClass) {
+            mIssues = new ArrayList<Issue>();
+            for (Issue issue : new BuiltinIssueRegistry().getIssues()) {
+                if (issue.getImplementation().getDetectorClass() == detectorClass) {
+                    mIssues.add(issue);
+                }
+            }
+            if (mIssues.isEmpty()) {
+                throw new IllegalArgumentException("No issues found for " + detectorClass);
+            }
+
+            // The issues for each scope are cached across registries
+            reset();
+        }
+
+        @NonNull
+        @Override
+        public List<Issue> getIssues() {
+            return mIssues;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Scope;
+import com.google.common.io.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link com.android.tools.lint.client.api.LintDriver#analyze} with all the
+ * builtin issues on a {@link SyntheticProject}, either end to end or restricted to a
+ * single scope.
+ * <p>
+ * The API database and typo dictionaries are located through the SDK pointed to by
+ * {@code ANDROID_HOME}; without them the corresponding detectors do no work.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LintDriverBenchmark {
+    @Param({"100"})
+    public int javaFiles;
+
+    @Param({"50"})
+    public int layouts;
+
+    @Param({"100"})
+    public int classFiles;
+
+    /** A {@link Scope} name, or "ALL" to infer the scope from the project */
+    @Param({"ALL", "JAVA_FILE", "RESOURCE_FILE", "CLASS_FILE", "MANIFEST"})
+    public String scope;
+
+    private File mProjectDir;
+    private IssueRegistry mRegistry;
+    private EnumSet<Scope> mScope;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mProjectDir = Files.createTempDir();
+        SyntheticProject.create(mProjectDir, javaFiles, layouts, classFiles);
+        mRegistry = new BuiltinIssueRegistry();
+        mScope = "ALL".equals(scope) ? null : EnumSet.of(Scope.valueOf(scope));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticProject.delete(mProjectDir);
+    }
+
+    @Benchmark
+    public int analyze() {
+        return BenchmarkLintClient.analyze(mRegistry, mProjectDir, mScope);
+    }
+}
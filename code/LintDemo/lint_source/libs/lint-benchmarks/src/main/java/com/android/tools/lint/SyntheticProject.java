@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates a synthetic Android project of a given size for the lint benchmarks: a
+ * manifest, Java source files, layouts (along with the strings and icons they refer to)
+ * and compiled class files. The generated code and resources are similar to typical
+ * application code such that the common detectors, and in particular the API, string
+ * format, icon and unused resource checks, have realistic work to do.
+ */
+public class SyntheticProject {
+    private static final String PACKAGE = "com.example.bench"; //$NON-NLS-1$
+    private static final String PACKAGE_PATH = PACKAGE.replace('.', '/');
+    private static final String ACTIVITY_PREFIX = "SampleActivity"; //$NON-NLS-1$
+
+    /** Icon densities along with the launcher icon size in pixels at each density */
+    private static final String[] DENSITIES = new String[] { "mdpi", "hdpi", "xhdpi" };
+    private static final int[] ICON_SIZES = new int[] { 48, 72, 96 };
+
+    private final File mDir;
+    private final int mJavaFiles;
+    private final int mLayouts;
+    private final int mClassFiles;
+
+    private SyntheticProject(@NonNull File dir, int javaFiles, int layouts, int classFiles) {
+        mDir = dir;
+        mJavaFiles = javaFiles;
+        mLayouts = Math.max(1, layouts);
+        mClassFiles = classFiles;
+    }
+
+    /**
+     * Generates a project into the given directory
+     *
+     * @param dir the project directory to write
+     * @param javaFiles the number of Java source files
+     * @param layouts the number of layout files; the project also gets a string for each
+     *            layout, and an icon for every fourth layout in each density
+     * @param classFiles the number of class files
+     * @throws IOException if the project cannot be written
+     */
+    public static void create(@NonNull File dir, int javaFiles, int layouts, int classFiles)
+            throws IOException {
+        new SyntheticProject(dir, javaFiles, layouts, classFiles).write();
+    }
+
+    /** Recursively deletes the given file or directory */
+    public static void delete(@NonNull File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private int getIconCount() {
+        return Math.max(1, mLayouts / 4);
+    }
+
+    private void write() throws IOException {
+        writeManifest();
+        writeFile("project.properties", "target=android-21\n");
+        writeStrings();
+        for (int i = 0; i < mLayouts; i++) {
+            writeLayout(i);
+        }
+        for (int i = 0; i < getIconCount(); i++) {
+            for (int j = 0; j < DENSITIES.length; j++) {
+                writeIcon(i, DENSITIES[j], ICON_SIZES[j]);
+            }
+        }
+        for (int i = 0; i < mJavaFiles; i++) {
+            writeJavaFile(i);
+        }
+        for (int i = 0; i < mClassFiles; i++) {
+            writeClassFile(i);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder(1000);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n");
+        sb.append("    package=\"").append(PACKAGE).append("\">\n");
+        sb.append("    <uses-sdk android:minSdkVersion=\"8\" android:targetSdkVersion=\"21\" />\n");
+        sb.append("    <application android:icon=\"@drawable/icon0\"\n");
+        sb.append("        android:label=\"@string/title0\">\n");
+        int activities = Math.max(mJavaFiles, mClassFiles);
+        for (int i = 0; i < activities; i++) {
+            sb.append("        <activity android:name=\".").append(ACTIVITY_PREFIX).append(i)
+                    .append("\" />\n");
+        }
+        sb.append("    </application>\n");
+        sb.append("</manifest>\n");
+        writeFile("AndroidManifest.xml", sb.toString());
+    }
+
+    private void writeStrings() throws IOException {
+        StringBuilder sb = new StringBuilder(mLayouts * 150);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<resources>\n");
+        for (int i = 0; i < mLayouts; i++) {
+            sb.append("    <string name=\"title").append(i)
+                    .append("\">Title %1$s with %2$d items</string>\n");
+            sb.append("    <string name=\"label").append(i).append("\">Label ").append(i)
+                    .append("</string>\n");
+            // Never referenced: work for the unused resource detector
+            sb.append("    <string name=\"unused").append(i).append("\">Unused</string>\n");
+        }
+        sb.append("</resources>\n");
+        writeFile("res/values/strings.xml", sb.toString());
+    }
+
+    private void writeLayout(int index) throws IOException {
+        StringBuilder sb = new StringBuilder(2000);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n");
+        sb.append("    android:layout_width=\"match_parent\"\n");
+        sb.append("    android:layout_height=\"match_parent\"\n");
+        sb.append("    android:orientation=\"vertical\" >\n");
+        for (int i = 0; i < 5; i++) {
+            sb.append("    <TextView\n");
+            sb.append("        android:id=\"@+id/text").append(index).append('_').append(i)
+                    .append("\"\n");
+            sb.append("        android:layout_width=\"wrap_content\"\n");
+            sb.append("        android:layout_height=\"wrap_content\"\n");
+            sb.append("        android:text=\"@string/label").append(index).append("\" />\n");
+            sb.append("    <ImageView\n");
+            sb.append("        android:layout_width=\"wrap_content\"\n");
+            sb.append("        android:layout_height=\"wrap_content\"\n");
+            sb.append("        android:src=\"@drawable/icon").append(index % getIconCount())
+                    .append("\" />\n");
+        }
+        sb.append("    <Button\n");
+        sb.append("        android:layout_width=\"wrap_content\"\n");
+        sb.append("        android:layout_height=\"wrap_content\"\n");
+        sb.append("        android:text=\"Hardcoded\" />\n");
+        sb.append("</LinearLayout>\n");
+        writeFile("res/layout/layout" + index + ".xml", sb.toString());
+    }
+
+    private void writeIcon(int index, String density, int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 255 / size) << 16 | (y * 255 / size) << 8
+                        | index & 0xFF);
+            }
+        }
+        File file = getFile("res/drawable-" + density + "/icon" + index + ".png");
+        ImageIO.write(image, "PNG", file); //$NON-NLS-1$
+    }
+
+    private void writeJavaFile(int index) throws IOException {
+        String name = ACTIVITY_PREFIX + index;
+        int layout = index % mLayouts;
+        StringBuilder sb = new StringBuilder(2000);
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("import android.app.Activity;\n");
+        sb.append("import android.os.Bundle;\n");
+        sb.append("import android.view.View;\n");
+        sb.append("import android.widget.TextView;\n\n");
+        sb.append("public class ").append(name).append(" extends Activity {\n");
+        sb.append("    private int mCount;\n\n");
+        sb.append("    @Override\n");
+        sb.append("    protected void onCreate(Bundle savedInstanceState) {\n");
+        sb.append("        super.onCreate(savedInstanceState);\n");
+        sb.append("        setContentView(R.layout.layout").append(layout).append(");\n");
+        sb.append("        TextView text = (TextView) findViewById(R.id.text").append(layout)
+                .append("_0);\n");
+        sb.append("        text.setText(getString(R.string.title").append(layout)
+                .append(", \"name\", mCount));\n");
+        sb.append("        getActionBar().setTitle(String.format(\"%1$d items\", mCount));\n");
+        sb.append("        text.setLayerType(View.LAYER_TYPE_HARDWARE, null);\n");
+        sb.append("    }\n\n");
+        for (int i = 0; i < 10; i++) {
+            sb.append("    public int compute").append(i).append("(int value) {\n");
+            sb.append("        if (value > ").append(i).append(") {\n");
+            sb.append("            return value * ").append(i + 1).append(" + mCount;\n");
+            sb.append("        }\n");
+            sb.append("        return compute").append((i + 1) % 10).append("(value + 1);\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("}\n");
+        writeFile("src/" + PACKAGE_PATH + '/' + name + ".java", sb.toString());
+    }
+
+    private void writeClassFile(int index) throws IOException {
+        String name = PACKAGE_PATH + '/' + ACTIVITY_PREFIX + index;
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null,
+                "android/app/Activity", null);
+        writer.visitSource(ACTIVITY_PREFIX + index + ".java", null);
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null,
+                null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESPECIAL, "android/app/Activity", "<init>", "()V",
+                false);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        method = writer.visitMethod(Opcodes.ACC_PROTECTED, "onCreate", "(Landroid/os/Bundle;)V",
+                null, null);
+        method.visitCode();
+        Label start = new Label();
+        method.visitLabel(start);
+        method.visitLineNumber(12, start);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitMethodInsn(Opcodes.INVOKESPECIAL, "android/app/Activity", "onCreate",
+                "(Landroid/os/Bundle;)V", false);
+        // API 11 calls, flagged with the minSdkVersion of 8
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "getActionBar",
+                "()Landroid/app/ActionBar;", false);
+        method.visitInsn(Opcodes.POP);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "getFragmentManager",
+                "()Landroid/app/FragmentManager;", false);
+        method.visitInsn(Opcodes.POP);
+        for (int i = 0; i < 10; i++) {
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitLdcInsn(i);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "findViewById",
+                    "(I)Landroid/view/View;", false);
+            method.visitInsn(Opcodes.POP);
+        }
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        Files.write(writer.toByteArray(), getFile("bin/classes/" + name + ".class"));
+    }
+
+    private void writeFile(@NonNull String path, @NonNull String contents) throws IOException {
+        Files.write(contents, getFile(path), Charsets.UTF_8);
+    }
+
+    @NonNull
+    private File getFile(@NonNull String path) throws IOException {
+        File file = new File(mDir, path.replace('/', File.separatorChar));
+        Files.createParentDirs(file);
+        return file;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.checks;
+
+import com.android.tools.lint.LintCliClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ApiLookup} perfect hash index with binary searching the sorted
+ * database entries. Each benchmark invocation performs a mix of lookups of known and
+ * unknown classes and members, similar to what the {@link ApiDetector} performs.
+ * <p>
+ * The API database is located through the SDK pointed to by {@code ANDROID_HOME}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ApiLookupBenchmark {
+    private static final String[][] CALLS = new String[][] {
+            { "android/graphics/drawable/BitmapDrawable", "<init>",
+                    "(Landroid/content/res/Resources;Ljava/lang/String;)V" },
+            { "android/graphics/drawable/BitmapDrawable", "setTargetDensity",
+                    "(Landroid/util/DisplayMetrics;)V" },
+            { "android/app/Activity", "getActionBar", "()Landroid/app/ActionBar;" },
+            { "android/app/Activity", "onCreate", "(Landroid/os/Bundle;)V" },
+            { "android/view/View", "setLayerType", "(ILandroid/graphics/Paint;)V" },
+            { "android/widget/TextView", "setText", "(Ljava/lang/CharSequence;)V" },
+            { "java/lang/String", "isEmpty", "()Z" },
+            { "java/io/IOException", "<init>", "(Ljava/lang/Throwable;)V" },
+            { "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z" },
+            { "com/example/app/MainActivity", "onCreate", "(Landroid/os/Bundle;)V" },
+    };
+
+    private static final String[][] FIELDS = new String[][] {
+            { "android/Manifest$permission", "AUTHENTICATE_ACCOUNTS" },
+            { "android/R$attr", "actionMenuTextAppearance" },
+            { "android/R$attr", "absListViewStyle" },
+            { "android/os/Build$VERSION_CODES", "KITKAT" },
+            { "android/view/View", "SYSTEM_UI_FLAG_IMMERSIVE" },
+            { "com/example/app/R$id", "button" },
+    };
+
+    private static final String[] CLASSES = new String[] {
+            "android/app/WallpaperInfo",
+            "android/widget/StackView",
+            "android/app/Activity",
+            "android/app/Fragment",
+            "java/lang/String",
+            "com/example/app/MainActivity",
+    };
+
+    /** Whether to use the perfect hash index or binary search the entries */
+    @Param({"true", "false"})
+    public boolean useHashIndex;
+
+    private ApiLookup mLookup;
+
+    @Setup
+    public void setUp() {
+        mLookup = ApiLookup.get(new LintCliClient());
+        if (mLookup == null) {
+            throw new IllegalStateException("Could not find the API database; "
+                    + "set $ANDROID_HOME to an SDK with platform-tools installed");
+        }
+        mLookup.setUseHashIndex(useHashIndex);
+    }
+
+    @Benchmark
+    public int callVersion() {
+        int sum = 0;
+        for (String[] call : CALLS) {
+            sum += mLookup.getCallVersion(call[0], call[1], call[2]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int fieldVersion() {
+        int sum = 0;
+        for (String[] field : FIELDS) {
+            sum += mLookup.getFieldVersion(field[0], field[1]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int classVersion() {
+        int sum = 0;
+        for (String cls : CLASSES) {
+            sum += mLookup.getClassVersion(cls);
+        }
+        return sum;
+    }
+}
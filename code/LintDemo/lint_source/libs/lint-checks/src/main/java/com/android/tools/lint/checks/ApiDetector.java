@@ -333,6 +333,11 @@ public class ApiDetector extends ResourceXmlDetector
         return true;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return ALL;
@@ -44,7 +44,9 @@ import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -76,23 +78,39 @@ import java.util.Set;
  *      classes, methods and fields that have an API level *higher* than 1. This drops
  *      the memory use down from 4.0M to 1.7M.
  * </ul>
+ * The binary cache is memory mapped and accessed in place rather than copied onto the
+ * heap. It contains minimal perfect hash tables over the class names and the member
+ * signatures, so looking up a class, method or field takes a constant number of hash
+ * computations and a single comparison with the database entry, without allocating.
  */
 public class ApiLookup {
     /** Relative path to the api-versions.xml database file within the Lint installation */
     private static final String XML_FILE_PATH = "platform-tools/api/api-versions.xml"; //$NON-NLS-1$
     private static final String FILE_HEADER = "API database used by Android lint\000";
-    private static final int BINARY_FORMAT_VERSION = 6;
+    private static final int BINARY_FORMAT_VERSION = 8;
     private static final boolean DEBUG_FORCE_REGENERATE_BINARY = false;
     private static final boolean DEBUG_SEARCH = false;
     private static final boolean WRITE_STATS = false;
     /** Default size to reserve for each API entry when creating byte buffer to build up data */
     private static final int BYTES_PER_ENTRY = 36;
 
+    /** Default size to reserve for the two perfect hash table entries of each class/member */
+    private static final int BYTES_PER_HASH_ENTRY = 8;
+    /** Maximum number of seeds to try for each bucket when building a perfect hash table */
+    private static final int MAX_HASH_SEED = 1 << 20;
+
     private final Api mInfo;
-    private byte[] mData;
-    private int[] mIndices;
+    /** The memory mapped database, only accessed with absolute (thread safe) reads */
+    private ByteBuffer mData;
     private int mClassCount;
+    private int mMemberCount;
+    private int mClassOffsetTable;
+    private int mMemberOffsetTable;
+    private int mClassHashTable;
+    private int mMemberHashTable;
     private String[] mJavaPackages;
+    private boolean mHasHashIndex;
+    private boolean mUseHashIndex = true;
 
     private static WeakReference<ApiLookup> sInstance =
             new WeakReference<ApiLookup>(null);
@@ -265,22 +283,33 @@ public class ApiLookup {
      *     is for, for anyone attempting to open the file.
      * 2. A file version number. If the binary file does not match the reader's expected
      *     version, it can ignore it (and regenerate the cache from XML).
-     * 3. The number of classes [1 int]
-     * 4. The number of members (across all classes) [1 int].
-     * 5. The number of java/javax packages [1 int]
-     * 6. The java/javax package name table. Each item consists of a byte count for
+     * 3. The size of the file in bytes [1 int], such that a truncated file is detected
+     *    up front rather than on the first lookup which reaches the missing data.
+     * 4. The number of classes [1 int]
+     * 5. The number of members (across all classes) [1 int].
+     * 6. Whether the file contains the hash tables [1 byte], 1 if it does and 0 if no
+     *    perfect hash function could be found for the keys, in which case the hash
+     *    tables are left out and lookups binary search the sorted offset tables instead.
+     * 7. The number of java/javax packages [1 int]
+     * 8. The java/javax package name table. Each item consists of a byte count for
      *    the package string (as 1 byte) followed by the UTF-8 encoded bytes for each package.
      *    These are in sorted order.
-     * 7. Class offset table (one integer per class, pointing to the byte offset in the
+     * 9. Class offset table (one integer per class, pointing to the byte offset in the
      *      file (relative to the beginning of the file) where each class begins.
      *      The classes are always sorted alphabetically by fully qualified name.
-     * 8. Member offset table (one integer per member, pointing to the byte offset in the
+     * 10. Member offset table (one integer per member, pointing to the byte offset in the
      *      file (relative to the beginning of the file) where each member entry begins.
      *      The members are always sorted alphabetically.
-     * 9. Class entry table. Each class entry consists of the fully qualified class name,
+     * 11. Class hash table: a minimal perfect hash over the class names, see
+     *      {@link #buildPerfectHash}. It consists of one displacement integer per class
+     *      followed by one integer per class with the class number stored in each slot.
+     * 12. Member hash table: the same for the members, hashing the class number along with
+     *      the member signature, and storing the member number (the index in the member
+     *      offset table) in each slot.
+     * 13. Class entry table. Each class entry consists of the fully qualified class name,
      *       in JVM format (using / instead of . in package names and $ for inner classes),
      *       followed by the byte 0 as a terminator, followed by the API version as a byte.
-     * 10. Member entry table. Each member entry consists of the class number (as a short),
+     * 14. Member entry table. Each member entry consists of the class number (as a short),
      *      followed by the JVM method/field signature, encoded as UTF-8, followed by a 0 byte
      *      signature terminator, followed by the API level as a byte.
      * <p>
@@ -322,8 +351,15 @@ public class ApiLookup {
                 return;
             }
 
-            mClassCount = buffer.getInt();
-            int methodCount = buffer.getInt();
+            int size = buffer.getInt();
+            if (size != buffer.limit()) {
+                throw new IOException("Expected " + size + " bytes but found "
+                        + buffer.limit());
+            }
+
+            int classCount = buffer.getInt();
+            int memberCount = buffer.getInt();
+            boolean hasHashIndex = buffer.get() != 0;
 
             int javaPackageCount = buffer.getInt();
             // Read in the Java packages
@@ -335,42 +371,28 @@ public class ApiLookup {
                 mJavaPackages[i] = new String(bytes, Charsets.UTF_8);
             }
 
-            // Read in the class table indices;
-            int count = mClassCount + methodCount;
-            int[] offsets = new int[count];
-
-            // Another idea: I can just store the DELTAS in the file (and add them up
-            // when reading back in) such that it takes just ONE byte instead of four!
-
-            for (int i = 0; i < count; i++) {
-                offsets[i] = buffer.getInt();
-            }
-
-            // No need to read in the rest -- we'll just keep the whole byte array in memory
-            // TODO: Make this code smarter/more efficient.
-            int size = buffer.limit();
-            byte[] b = new byte[size];
-            buffer.rewind();
-            buffer.get(b);
-            mData = b;
-            mIndices = offsets;
-
-            // TODO: We only need to keep the data portion here since we've initialized
-            // the offset array separately.
-            // TODO: Investigate (profile) accessing the byte buffer directly instead of
-            // accessing a byte array.
+            // No need to read in the rest: the offset tables, hash tables and entries
+            // are all accessed directly in the mapped buffer
+            mClassOffsetTable = buffer.position();
+            mMemberOffsetTable = mClassOffsetTable + 4 * classCount;
+            mClassHashTable = mMemberOffsetTable + 4 * memberCount;
+            mMemberHashTable = mClassHashTable + 8 * classCount;
+            mHasHashIndex = hasHashIndex;
+            mClassCount = classCount;
+            mMemberCount = memberCount;
+            mData = buffer;
         } catch (Throwable e) {
             client.log(null, "Failure reading binary cache file %1$s", binaryFile.getPath());
             client.log(null, "Please delete the file and restart the IDE/lint: %1$s",
                     binaryFile.getPath());
             client.log(e, null);
         }
-        if (WRITE_STATS) {
+        if (WRITE_STATS && mData != null) {
             long end = System.currentTimeMillis();
             System.out.println("\nRead API database in " + (end - start)
                     + " milliseconds.");
-            System.out.println("Size of data table: " + mData.length + " bytes ("
-                    + Integer.toString(mData.length / 1024) + "k)\n");
+            System.out.println("Size of data table: " + mData.limit() + " bytes ("
+                    + Integer.toString(mData.limit() / 1024) + "k)\n");
         }
     }
 
@@ -460,8 +482,55 @@ public class ApiLookup {
         Collections.sort(javaPackages);
         int javaPackageCount = javaPackages.size();
 
+        // Build the perfect hash tables up front. The members are numbered in the same
+        // order as they are written to the member entry table below.
+        final List<String> classKeys = classes;
+        final int[] memberClasses = new int[memberCount];
+        final String[] memberNames = new String[memberCount];
+        final String[] memberArguments = new String[memberCount];
+        int memberNumber = 0;
+        for (int classNumber = 0, n = classes.size(); classNumber < n; classNumber++) {
+            List<String> members = memberMap.get(classMap.get(classes.get(classNumber)));
+            Collections.sort(members);
+            for (String member : members) {
+                memberClasses[memberNumber] = classNumber;
+                int argsBegin = member.indexOf('(');
+                if (argsBegin != -1) {
+                    memberNames[memberNumber] = member.substring(0, argsBegin);
+                    memberArguments[memberNumber] = member.substring(argsBegin,
+                            member.indexOf(')') + 1);
+                } else {
+                    memberNames[memberNumber] = member;
+                }
+                memberNumber++;
+            }
+        }
+        int[][] classHash;
+        int[][] memberHash;
+        try {
+            classHash = buildPerfectHash(classes.size(), new KeyHasher() {
+                @Override
+                public int hash(int key, int seed) {
+                    String className = classKeys.get(key);
+                    return ApiLookup.hash(seed, 0, className, null, 0);
+                }
+            });
+            memberHash = buildPerfectHash(memberCount, new KeyHasher() {
+                @Override
+                public int hash(int key, int seed) {
+                    String arguments = memberArguments[key];
+                    return ApiLookup.hash(seed, memberClasses[key], memberNames[key],
+                            arguments, arguments != null ? arguments.length() : 0);
+                }
+            });
+        } catch (IllegalStateException e) {
+            // No seed placed some bucket: leave out the hash tables, and binary search
+            classHash = null;
+            memberHash = null;
+        }
+
         int entryCount = classMap.size() + memberCount;
-        int capacity = entryCount * BYTES_PER_ENTRY;
+        int capacity = entryCount * (BYTES_PER_ENTRY + BYTES_PER_HASH_ENTRY);
         ByteBuffer buffer = ByteBuffer.allocate(capacity);
         buffer.order(ByteOrder.BIG_ENDIAN);
         //  1. A file header, which is the exact contents of {@link FILE_HEADER} encoded
@@ -474,16 +543,23 @@ public class ApiLookup {
         //      version, it can ignore it (and regenerate the cache from XML).
         buffer.put((byte) BINARY_FORMAT_VERSION);
 
-        //  3. The number of classes [1 int]
+        //  3. The size of the file [1 int]; backfilled below
+        int sizePosition = buffer.position();
+        buffer.putInt(0);
+
+        //  4. The number of classes [1 int]
         buffer.putInt(classes.size());
 
-        //  4. The number of members (across all classes) [1 int].
+        //  5. The number of members (across all classes) [1 int].
         buffer.putInt(memberCount);
 
-        //  5. The number of Java packages [1 int].
+        //  6. Whether the file contains the hash tables [1 byte].
+        buffer.put((byte) (classHash != null ? 1 : 0));
+
+        //  7. The number of Java packages [1 int].
         buffer.putInt(javaPackageCount);
 
-        //  6. The Java package table. There are javaPackage.size() entries, where each entry
+        //  8. The Java package table. There are javaPackage.size() entries, where each entry
         //     consists of a string length, as a byte, followed by the bytes in the package.
         //     There is no terminating 0.
         for (String pkg : javaPackages) {
@@ -493,7 +569,7 @@ public class ApiLookup {
             buffer.put(bytes);
         }
 
-        //  7. Class offset table (one integer per class, pointing to the byte offset in the
+        //  9. Class offset table (one integer per class, pointing to the byte offset in the
         //       file (relative to the beginning of the file) where each class begins.
         //       The classes are always sorted alphabetically by fully qualified name.
         int classOffsetTable = buffer.position();
@@ -504,7 +580,7 @@ public class ApiLookup {
             buffer.putInt(0);
         }
 
-        //  8. Member offset table (one integer per member, pointing to the byte offset in the
+        // 10. Member offset table (one integer per member, pointing to the byte offset in the
         //       file (relative to the beginning of the file) where each member entry begins.
         //       The members are always sorted alphabetically.
         int methodOffsetTable = buffer.position();
@@ -512,10 +588,25 @@ public class ApiLookup {
             buffer.putInt(0);
         }
 
+        // 11. Class hash table
+        // 12. Member hash table
+        if (classHash != null) {
+            for (int[] table : classHash) {
+                for (int value : table) {
+                    buffer.putInt(value);
+                }
+            }
+            for (int[] table : memberHash) {
+                for (int value : table) {
+                    buffer.putInt(value);
+                }
+            }
+        }
+
         int nextEntry = buffer.position();
         int nextOffset = classOffsetTable;
 
-        // 9. Class entry table. Each class entry consists of the fully qualified class name,
+        // 13. Class entry table. Each class entry consists of the fully qualified class name,
         //      in JVM format (using / instead of . in package names and $ for inner classes),
         //      followed by the byte 0 as a terminator, followed by the API version as a byte.
         for (String clz : classes) {
@@ -535,7 +626,7 @@ public class ApiLookup {
             nextEntry = buffer.position();
         }
 
-        //  10. Member entry table. Each member entry consists of the class number (as a short),
+        // 14. Member entry table. Each member entry consists of the class number (as a short),
         //       followed by the JVM method/field signature, encoded as UTF-8, followed by a 0 byte
         //       signature terminator, followed by the API level as a byte.
         assert nextOffset == methodOffsetTable;
@@ -544,8 +635,7 @@ public class ApiLookup {
             String clz = classes.get(classNumber);
             ApiClass apiClass = classMap.get(clz);
             assert apiClass != null : clz;
-            List<String> members = memberMap.get(apiClass);
-            Collections.sort(members);
+            List<String> members = memberMap.get(apiClass); // sorted above
 
             for (String member : members) {
                 buffer.position(nextOffset);
@@ -588,7 +678,7 @@ public class ApiLookup {
 
         int size = buffer.position();
         assert size <= buffer.limit();
-        buffer.mark();
+        buffer.putInt(sizePosition, size);
 
         if (WRITE_STATS) {
             System.out.println("Wrote " + classes.size() + " classes and "
@@ -600,28 +690,202 @@ public class ApiLookup {
             System.out.println("Required bytes per entry: " + (size/ entryCount) + " bytes");
         }
 
-        // Now dump this out as a file
-        // There's probably an API to do this more efficiently; TODO: Look into this.
-        byte[] b = new byte[size];
-        buffer.rewind();
-        buffer.get(b);
-        if (file.exists()) {
-            file.delete();
+        // Now dump this out as a file. Write it to a uniquely named temporary file next
+        // to it first and rename it into place, such that another lint process never
+        // maps a partially written database, and two processes writing the database
+        // at the same time don't write into the same temporary file.
+        File temp = File.createTempFile(file.getName(), ".tmp", //$NON-NLS-1$
+                file.getParentFile());
+        try {
+            FileOutputStream output = Files.newOutputStreamSupplier(temp).getOutput();
+            try {
+                output.write(buffer.array(), 0, size);
+            } finally {
+                output.close();
+            }
+            // Renaming within a folder atomically replaces the file, except on Windows
+            // which won't rename onto an existing file
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                if (!temp.renameTo(file) && !file.exists()) {
+                    throw new IOException("Could not create " + file);
+                }
+            }
+        } finally {
+            if (temp.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    /** Computes the hash of a key in a perfect hash table for the given seed */
+    private interface KeyHasher {
+        int hash(int key, int seed);
+    }
+
+    /**
+     * Builds a minimal perfect hash table over the keys 0 to {@code count - 1} using the
+     * "hash and displace" scheme: each key is first hashed with seed 0 into one of
+     * {@code count} buckets. For each bucket a seed (the displacement) is then searched
+     * for which hashes all the keys in the bucket into distinct free slots, starting with
+     * the largest buckets. Buckets with a single key are instead stored directly in one
+     * of the remaining free slots, encoded as a negative displacement.
+     * <p>
+     * To look up a key, hash it with seed 0 to find its bucket, and then hash it with the
+     * bucket displacement (or decode the negative displacement) to find its slot. Keys
+     * which are not in the table hash to an arbitrary slot, so the caller must compare the
+     * key with the entry stored in the slot.
+     *
+     * @param count the number of keys
+     * @param hasher the hash function
+     * @return the displacement table and the slot table, each with {@code count} entries,
+     *     where the slot table stores the key in each slot
+     */
+    private static int[][] buildPerfectHash(int count, @NonNull KeyHasher hasher) {
+        int[] displacements = new int[count];
+        int[] slots = new int[count];
+        if (count == 0) {
+            return new int[][] { displacements, slots };
+        }
+        Arrays.fill(slots, -1);
+
+        // Bucket the keys: the keys of each bucket are chained through next
+        int[] first = new int[count];
+        int[] sizes = new int[count];
+        int[] next = new int[count];
+        Arrays.fill(first, -1);
+        for (int key = 0; key < count; key++) {
+            int bucket = getSlot(hasher.hash(key, 0), count);
+            next[key] = first[bucket];
+            first[bucket] = key;
+            sizes[bucket]++;
+        }
+
+        // Place the largest buckets first, while most slots are still free
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final int[] bucketSizes = sizes;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer bucket1, Integer bucket2) {
+                return bucketSizes[bucket2] - bucketSizes[bucket1];
+            }
+        });
+
+        int[] candidates = new int[count];
+        int nextFree = 0;
+        for (int bucket : order) {
+            int size = sizes[bucket];
+            if (size == 0) {
+                break;
+            } else if (size == 1) {
+                while (slots[nextFree] != -1) {
+                    nextFree++;
+                }
+                slots[nextFree] = first[bucket];
+                displacements[bucket] = -nextFree - 1;
+                continue;
+            }
+
+            boolean placed = false;
+            for (int seed = 1; seed < MAX_HASH_SEED && !placed; seed++) {
+                placed = true;
+                int index = 0;
+                for (int key = first[bucket]; key != -1; key = next[key], index++) {
+                    int slot = getSlot(hasher.hash(key, seed), count);
+                    if (slots[slot] != -1) {
+                        placed = false;
+                        break;
+                    }
+                    for (int i = 0; i < index; i++) {
+                        if (candidates[i] == slot) {
+                            placed = false;
+                            break;
+                        }
+                    }
+                    if (!placed) {
+                        break;
+                    }
+                    candidates[index] = slot;
+                }
+                if (placed) {
+                    index = 0;
+                    for (int key = first[bucket]; key != -1; key = next[key], index++) {
+                        slots[candidates[index]] = key;
+                    }
+                    displacements[bucket] = seed;
+                }
+            }
+            if (!placed) {
+                throw new IllegalStateException("Could not build perfect hash table");
+            }
+        }
+
+        return new int[][] { displacements, slots };
+    }
+
+    /** Returns the slot (or bucket) in a table of the given size for the given hash */
+    private static int getSlot(int hash, int count) {
+        return (hash & 0x7FFFFFFF) % count;
+    }
+
+    /**
+     * Hashes a class name (with class number 0) or a member of the given class. Methods
+     * include their argument list, up to and including the closing parenthesis, in
+     * {@code arguments}. Characters are hashed as single bytes, which the database uses
+     * for the ASCII signatures.
+     */
+    private static int hash(int seed, int classNumber, @NonNull String name,
+            @Nullable String arguments, int argumentsLength) {
+        // FNV-1a, followed by the MurmurHash3 finalizer such that all bits depend on
+        // both the seed and the key
+        int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        h = (h ^ (classNumber >>> 8)) * 0x01000193;
+        h = (h ^ (classNumber & 0xFF)) * 0x01000193;
+        for (int i = 0, n = name.length(); i < n; i++) {
+            h = (h ^ (name.charAt(i) & 0xFF)) * 0x01000193;
+        }
+        if (arguments != null) {
+            for (int i = 0; i < argumentsLength; i++) {
+                h = (h ^ (arguments.charAt(i) & 0xFF)) * 0x01000193;
+            }
         }
-        FileOutputStream output = Files.newOutputStreamSupplier(file).getOutput();
-        output.write(b);
-        output.close();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Looks up the key stored in the slot for the given hash function in a hash table */
+    private int getHashSlot(int table, int count, int seed0Hash, int classNumber,
+            @NonNull String name, @Nullable String arguments, int argumentsLength) {
+        int bucket = getSlot(seed0Hash, count);
+        int displacement = mData.getInt(table + 4 * bucket);
+        int slot;
+        if (displacement < 0) {
+            slot = -displacement - 1;
+        } else {
+            slot = getSlot(hash(displacement, classNumber, name, arguments, argumentsLength),
+                    count);
+        }
+        return mData.getInt(table + 4 * (count + slot));
     }
 
     // For debugging only
     private String dumpEntry(int offset) {
         if (DEBUG_SEARCH) {
             StringBuilder sb = new StringBuilder(200);
-            for (int i = offset; i < mData.length; i++) {
-                if (mData[i] == 0) {
+            for (int i = offset; i < mData.limit(); i++) {
+                if (mData.get(i) == 0) {
                     break;
                 }
-                char c = (char) UnsignedBytes.toInt(mData[i]);
+                char c = (char) UnsignedBytes.toInt(mData.get(i));
                 sb.append(c);
             }
 
@@ -631,11 +895,12 @@ public class ApiLookup {
         }
     }
 
-    private static int compare(byte[] data, int offset, byte terminator, String s, int max) {
+    private static int compare(ByteBuffer data, int offset, byte terminator, String s,
+            int max) {
         int i = offset;
         int j = 0;
         for (; j < max; i++, j++) {
-            byte b = data[i];
+            byte b = data.get(i);
             char c = s.charAt(j);
             // TODO: Check somewhere that the strings are purely in the ASCII range; if not
             // they're not a match in the database
@@ -646,7 +911,7 @@ public class ApiLookup {
             }
         }
 
-        return data[i] - terminator;
+        return data.get(i) - terminator;
     }
 
     /**
@@ -685,12 +950,12 @@ public class ApiLookup {
         if (mData != null) {
             int classNumber = findClass(className);
             if (classNumber != -1) {
-                int offset = mIndices[classNumber];
-                while (mData[offset] != 0) {
+                int offset = getClassOffset(classNumber);
+                while (mData.get(offset) != 0) {
                     offset++;
                 }
                 offset++;
-                return UnsignedBytes.toInt(mData[offset]);
+                return UnsignedBytes.toInt(mData.get(offset));
             }
         }  else {
            ApiClass clz = mInfo.getClass(className);
@@ -836,8 +1101,6 @@ public class ApiLookup {
             return false;
         }
 
-        // The index array contains class indexes from 0 to classCount and
-        //   member indices from classCount to mIndices.length.
         int low = 0;
         int high = mJavaPackages.length - 1;
         while (low <= high) {
@@ -887,19 +1150,55 @@ public class ApiLookup {
         return 0;
     }
 
+    /** Returns the offset of the entry of the given class */
+    private int getClassOffset(int classNumber) {
+        return mData.getInt(mClassOffsetTable + 4 * classNumber);
+    }
+
+    /** Returns the offset of the entry of the given member */
+    private int getMemberOffset(int memberNumber) {
+        return mData.getInt(mMemberOffsetTable + 4 * memberNumber);
+    }
+
+    /**
+     * Sets whether lookups should use the perfect hash tables rather than binary search
+     * the sorted entries. Used to compare the two in tests and benchmarks.
+     */
+    @VisibleForTesting
+    void setUseHashIndex(boolean useHashIndex) {
+        mUseHashIndex = useHashIndex;
+    }
+
     /** Returns the class number of the given class, or -1 if it is unknown */
     private int findClass(@NonNull String owner) {
         assert owner.indexOf('.') == -1 : "Should use / instead of . in owner: " + owner;
 
-        // The index array contains class indexes from 0 to classCount and
-        //   member indices from classCount to mIndices.length.
+        if (!mUseHashIndex || !mHasHashIndex) {
+            return searchClass(owner);
+        }
+        if (mClassCount == 0) {
+            return -1;
+        }
+
+        int classNumber = getHashSlot(mClassHashTable, mClassCount,
+                hash(0, 0, owner, null, 0), 0, owner, null, 0);
+        int offset = getClassOffset(classNumber);
+        if (compare(mData, offset, (byte) 0, owner, owner.length()) == 0) {
+            return classNumber;
+        }
+
+        return -1;
+    }
+
+    /** Binary searches for the class number of the given class, or -1 if it is unknown */
+    private int searchClass(@NonNull String owner) {
         int low = 0;
         int high = mClassCount - 1;
         // Compare the api info at the given index.
         int classNameLength = owner.length();
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getClassOffset(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + owner + " with entry at " + offset
@@ -925,69 +1224,108 @@ public class ApiLookup {
     }
 
     private int findMember(int classNumber, @NonNull String name, @Nullable String desc) {
-        // The index array contains class indexes from 0 to classCount and
-        // member indices from classCount to mIndices.length.
-        int low = mClassCount;
-        int high = mIndices.length - 1;
+        if (!mUseHashIndex || !mHasHashIndex) {
+            return searchMember(classNumber, name, desc);
+        }
+        if (mMemberCount == 0) {
+            return -1;
+        }
+
+        // Only hash up to and including the ) -- after that we have a return value in the
+        // input description, which isn't there in the database
+        int argumentsLength = desc != null ? desc.indexOf(')') + 1 : 0;
+        int memberNumber = getHashSlot(mMemberHashTable, mMemberCount,
+                hash(0, classNumber, name, desc, argumentsLength), classNumber, name, desc,
+                argumentsLength);
+        int offset = getMemberOffset(memberNumber);
+        if (compareMember(offset, classNumber, name, desc) == 0) {
+            return getMemberVersion(offset, name, desc);
+        }
+
+        return -1;
+    }
+
+    /** Binary searches for the API level of the given member, or -1 if it is unknown */
+    private int searchMember(int classNumber, @NonNull String name, @Nullable String desc) {
+        int low = 0;
+        int high = mMemberCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getMemberOffset(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + (name + ';' + desc) +
                         " with entry at " + offset + ": " + dumpEntry(offset));
             }
 
-            // Check class number: read short. The byte data is always big endian.
-            int entryClass = (mData[offset++] & 0xFF) << 8 | (mData[offset++] & 0xFF);
-            int compare = entryClass - classNumber;
+            int compare = compareMember(offset, classNumber, name, desc);
             if (compare == 0) {
-                if (desc != null) {
-                    // Method
-                    int nameLength = name.length();
-                    compare = compare(mData, offset, (byte) '(', name, nameLength);
-                    if (compare == 0) {
-                        offset += nameLength;
-                        int argsEnd = desc.indexOf(')');
-                        // Only compare up to the ) -- after that we have a return value in the
-                        // input description, which isn't there in the database
-                        compare = compare(mData, offset, (byte) ')', desc, argsEnd);
-                        if (compare == 0) {
-                            offset += argsEnd + 1;
-
-                            if (mData[offset++] == 0) {
-                                // Yes, terminated argument list: get the API level
-                                return UnsignedBytes.toInt(mData[offset]);
-                            }
-                        }
-                    }
-                } else {
-                    // Field
-                    int nameLength = name.length();
-                    compare = compare(mData, offset, (byte) 0, name, nameLength);
-                    if (compare == 0) {
-                        offset += nameLength;
-                        if (mData[offset++] == 0) {
-                            // Yes, terminated argument list: get the API level
-                            return UnsignedBytes.toInt(mData[offset]);
-                        }
-                    }
-                }
+                return getMemberVersion(offset, name, desc);
             }
 
             if (compare < 0) {
                 low = middle + 1;
-            } else if (compare > 0) {
-                high = middle - 1;
             } else {
-                assert false; // compare == 0 already handled above
-                return -1;
+                high = middle - 1;
             }
         }
 
         return -1;
     }
 
+    /**
+     * Compares the member entry at the given offset with the given field (if desc is null)
+     * or method. Returns 0 if they match, and a negative or positive number if the entry
+     * sorts before or after the member.
+     */
+    private int compareMember(int offset, int classNumber, @NonNull String name,
+            @Nullable String desc) {
+        // Check class number: read short. The byte data is always big endian.
+        int entryClass = (mData.get(offset++) & 0xFF) << 8 | (mData.get(offset++) & 0xFF);
+        int compare = entryClass - classNumber;
+        if (compare != 0) {
+            return compare;
+        }
+
+        int nameLength = name.length();
+        if (desc != null) {
+            // Method
+            compare = compare(mData, offset, (byte) '(', name, nameLength);
+            if (compare != 0) {
+                return compare;
+            }
+            offset += nameLength;
+            int argsEnd = desc.indexOf(')');
+            // Only compare up to the ) -- after that we have a return value in the
+            // input description, which isn't there in the database
+            compare = compare(mData, offset, (byte) ')', desc, argsEnd);
+            if (compare != 0) {
+                return compare;
+            }
+            offset += argsEnd + 1;
+        } else {
+            // Field
+            compare = compare(mData, offset, (byte) 0, name, nameLength);
+            if (compare != 0) {
+                return compare;
+            }
+            offset += nameLength;
+        }
+
+        // Require a terminated signature
+        return mData.get(offset);
+    }
+
+    /** Returns the API level of the member entry at the given offset, which must match */
+    private int getMemberVersion(int offset, @NonNull String name, @Nullable String desc) {
+        offset += 2 + name.length();
+        if (desc != null) {
+            offset += desc.indexOf(')') + 1;
+        }
+        assert mData.get(offset) == 0;
+        return UnsignedBytes.toInt(mData.get(offset + 1));
+    }
+
     /** Clears out any existing lookup instances */
     @VisibleForTesting
     static void dispose() {
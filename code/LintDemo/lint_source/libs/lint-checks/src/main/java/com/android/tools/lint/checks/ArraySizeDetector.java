@@ -107,6 +107,11 @@ public class ArraySizeDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(
@@ -198,6 +198,16 @@ public class ButtonDetector extends ResourceXmlDetector {
      */
     private Map<String, String> mKeyToLabel;
 
+    /**
+     * Map of the string resource names in the current file to their labels,
+     * which are added to {@link #mKeyToLabel} if the file defines one of the
+     * {@link #mApplicableResources}
+     */
+    private Map<String, String> mFileKeyToLabel;
+
+    /** Whether the current file defines one of the {@link #mApplicableResources} */
+    private boolean mFoundResourceInFile;
+
     /**
      * Set of elements we've already warned about. If we've already complained
      * about a cancel button, don't also report the OK button (since it's listed
@@ -225,6 +235,34 @@ public class ButtonDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.LAYOUT || folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The labels of the strings are recorded one string at a time
+        return folderType == ResourceFolderType.VALUES;
+    }
+
+    @Override
+    public void beforeCheckFile(@NonNull Context context) {
+        mFileKeyToLabel = null;
+        mFoundResourceInFile = false;
+    }
+
+    @Override
+    public void afterCheckFile(@NonNull Context context) {
+        // Record all the other string resources in a file defining one of the
+        // labels, to pick up the other labels. If you define "OK" in one resource
+        // file and "Cancel" in another this won't work, but that's probably not
+        // common and has lower overhead.
+        if (mFoundResourceInFile && mFileKeyToLabel != null) {
+            if (mKeyToLabel == null) {
+                mKeyToLabel = new HashMap<String, String>(mFileKeyToLabel.size());
+            }
+            mKeyToLabel.putAll(mFileKeyToLabel);
+        }
+        mFileKeyToLabel = null;
+        mFoundResourceInFile = false;
+    }
+
     @Override
     public void afterCheckProject(@NonNull Context context) {
         int phase = context.getPhase();
@@ -261,6 +299,7 @@ public class ButtonDetector extends ResourceXmlDetector {
         int phase = context.getPhase();
         String tagName = element.getTagName();
         if (phase == 1 && tagName.equals(TAG_STRING)) {
+            recordLabel(element);
             NodeList childNodes = element.getChildNodes();
             for (int i = 0, n = childNodes.getLength(); i < n; i++) {
                 Node child = childNodes.item(i);
@@ -276,7 +315,7 @@ public class ButtonDetector extends ResourceXmlDetector {
                                 String label = stripLabel(text);
                                 if (label.equalsIgnoreCase(CANCEL_LABEL)) {
                                     String name = element.getAttribute(ATTR_NAME);
-                                    foundResource(context, name, element);
+                                    foundResource(context, name);
 
                                     if (!label.equals(CANCEL_LABEL)
                                             && LintUtils.isEnglishResource(context, true)
@@ -293,7 +332,7 @@ public class ButtonDetector extends ResourceXmlDetector {
                                 String label = stripLabel(text);
                                 if (label.equalsIgnoreCase(OK_LABEL)) {
                                     String name = element.getAttribute(ATTR_NAME);
-                                    foundResource(context, name, element);
+                                    foundResource(context, name);
 
                                     if (!label.equals(OK_LABEL)
                                             && LintUtils.isEnglishResource(context, true)
@@ -309,7 +348,7 @@ public class ButtonDetector extends ResourceXmlDetector {
                             } else if (LintUtils.startsWith(text, BACK_LABEL, j) &&
                                     stripLabel(text).equalsIgnoreCase(BACK_LABEL)) {
                                 String name = element.getAttribute(ATTR_NAME);
-                                foundResource(context, name, element);
+                                foundResource(context, name);
                             }
                             break;
                         }
@@ -410,13 +449,34 @@ public class ButtonDetector extends ResourceXmlDetector {
         report(context, element, true /*isCancel*/);
     }
 
+    /**
+     * Records the label of the given string resource, in case the current file
+     * turns out to define one of the labels we're interested in
+     */
+    private void recordLabel(Element element) {
+        NodeList childNodes = element.getChildNodes();
+        for (int i = 0, n = childNodes.getLength(); i < n; i++) {
+            Node child = childNodes.item(i);
+            if (child.getNodeType() == Node.TEXT_NODE) {
+                String text = stripLabel(child.getNodeValue());
+                if (!text.isEmpty()) {
+                    if (mFileKeyToLabel == null) {
+                        mFileKeyToLabel = new HashMap<String, String>();
+                    }
+                    mFileKeyToLabel.put(element.getAttribute(ATTR_NAME), text);
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * We've found a resource reference to some label we're interested in ("OK",
      * "Cancel", "Back", ...). Record the corresponding name such that in the
      * next pass through the layouts we can check the context (for OK/Cancel the
      * button order etc).
      */
-    private void foundResource(XmlContext context, String name, Element element) {
+    private void foundResource(XmlContext context, String name) {
         if (!LintUtils.isEnglishResource(context, true)) {
             return;
         }
@@ -431,30 +491,7 @@ public class ButtonDetector extends ResourceXmlDetector {
         }
 
         mApplicableResources.add(STRING_PREFIX + name);
-
-        // ALSO record all the other string resources in this file to pick up other
-        // labels. If you define "OK" in one resource file and "Cancel" in another
-        // this won't work, but that's probably not common and has lower overhead.
-        Node parentNode = element.getParentNode();
-
-        List<Element> items = LintUtils.getChildren(parentNode);
-        if (mKeyToLabel == null) {
-            mKeyToLabel = new HashMap<String, String>(items.size());
-        }
-        for (Element item : items) {
-            String itemName = item.getAttribute(ATTR_NAME);
-            NodeList childNodes = item.getChildNodes();
-            for (int i = 0, n = childNodes.getLength(); i < n; i++) {
-                Node child = childNodes.item(i);
-                if (child.getNodeType() == Node.TEXT_NODE) {
-                    String text = stripLabel(child.getNodeValue());
-                    if (!text.isEmpty()) {
-                        mKeyToLabel.put(itemName, text);
-                        break;
-                    }
-                }
-            }
-        }
+        mFoundResourceInFile = true;
     }
 
     /** Report the given OK/Cancel button as being in the wrong position */
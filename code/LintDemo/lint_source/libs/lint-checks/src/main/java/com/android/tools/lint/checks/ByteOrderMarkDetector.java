@@ -68,6 +68,11 @@ public class ByteOrderMarkDetector extends ResourceXmlDetector {
         return Speed.NORMAL;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Nullable
     @Override
     public Collection<String> getApplicableAttributes() {
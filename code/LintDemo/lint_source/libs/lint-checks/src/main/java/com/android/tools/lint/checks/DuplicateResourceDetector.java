@@ -124,6 +124,11 @@ public class DuplicateResourceDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public void beforeCheckFile(@NonNull Context context) {
         File parent = context.file.getParentFile();
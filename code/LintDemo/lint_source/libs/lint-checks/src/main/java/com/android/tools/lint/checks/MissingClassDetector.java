@@ -159,6 +159,12 @@ public class MissingClassDetector extends LayoutDetector implements ClassScanner
         return folderType == VALUES || folderType == LAYOUT || folderType == XML;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The string checks only look at the string being visited
+        return folderType == VALUES;
+    }
+
     @Override
     public void visitElement(@NonNull XmlContext context, @NonNull Element element) {
         String pkg = null;
@@ -111,6 +111,12 @@ public class NegativeMarginDetector extends LayoutDetector {
         return folderType == ResourceFolderType.LAYOUT || folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The value checks only look at the dimension or style item being visited
+        return folderType == ResourceFolderType.VALUES;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return Arrays.asList(
@@ -165,6 +165,12 @@ public class OverdrawDetector extends LayoutDetector implements Detector.JavaSca
                 || folderType == ResourceFolderType.DRAWABLE;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The theme checks only look at the style being visited
+        return folderType == ResourceFolderType.VALUES;
+    }
+
     @Override
     public boolean appliesTo(@NonNull Context context, @NonNull File file) {
         return LintUtils.isXmlFile(file) || LintUtils.endsWith(file.getName(), DOT_JAVA);
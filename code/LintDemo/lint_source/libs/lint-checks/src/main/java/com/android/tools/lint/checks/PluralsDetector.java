@@ -124,6 +124,11 @@ public class PluralsDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(TAG_PLURALS);
@@ -110,6 +110,11 @@ public class PrivateResourceDetector extends ResourceXmlDetector implements Java
         return Speed.FAST;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     // ---- Implements JavaScanner ----
 
     @Override
@@ -147,6 +152,18 @@ public class PrivateResourceDetector extends ResourceXmlDetector implements Java
     /** Check resource references: accessing a private resource from an upstream library? */
     @Override
     public void visitAttribute(@NonNull XmlContext context, @NonNull Attr attribute) {
+        if (ATTR_NAME.equals(attribute.getName())) {
+            // Resource definitions are the named children of <resources>; checked here
+            // rather than by iterating over the <resources> children such that the
+            // document element does not need to have all its children at once
+            Element item = attribute.getOwnerElement();
+            org.w3c.dom.Node parent = item.getParentNode();
+            if (parent != null && parent.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE
+                    && TAG_RESOURCES.equals(parent.getNodeName())) {
+                checkResourceDefinition(context, item, attribute);
+            }
+        }
+
         String value = attribute.getNodeValue();
         if (context.getProject().isGradleProject()) {
             ResourceUrl url = ResourceUrl.parse(value);
@@ -162,7 +179,6 @@ public class PrivateResourceDetector extends ResourceXmlDetector implements Java
     public Collection<String> getApplicableElements() {
         return Arrays.asList(
                 TAG_STYLE,
-                TAG_RESOURCES,
                 TAG_ARRAY,
                 TAG_STRING_ARRAY,
                 TAG_INTEGER_ARRAY,
@@ -170,43 +186,39 @@ public class PrivateResourceDetector extends ResourceXmlDetector implements Java
         );
     }
 
+    private static void checkResourceDefinition(@NonNull XmlContext context,
+            @NonNull Element item, @NonNull Attr nameAttribute) {
+        String name = getResourceFieldName(nameAttribute.getValue());
+        String type = item.getTagName();
+        if (type.equals(TAG_ITEM)) {
+            type = item.getAttribute(ATTR_TYPE);
+            if (type == null || type.isEmpty()) {
+                type = RESOURCE_CLZ_ID;
+            }
+        } else if (type.equals("declare-styleable")) {   //$NON-NLS-1$
+            type = RESOURCE_CLR_STYLEABLE;
+        } else if (type.contains("array")) {             //$NON-NLS-1$
+            // <string-array> etc
+            type = RESOURCE_CLZ_ARRAY;
+        }
+        ResourceType t = ResourceType.getEnum(type);
+        if (t != null && isPrivate(context, t, name) &&
+                !VALUE_TRUE.equals(item.getAttributeNS(TOOLS_URI, ATTR_OVERRIDE))) {
+            String message = createOverrideErrorMessage(context, t, name);
+            Location location = context.getValueLocation(nameAttribute);
+            context.report(ISSUE, nameAttribute, location, message);
+        }
+    }
+
     @Override
     public void visitElement(@NonNull XmlContext context, @NonNull Element element) {
-        if (TAG_RESOURCES.equals(element.getTagName())) {
-            for (Element item : LintUtils.getChildren(element)) {
-                Attr nameAttribute = item.getAttributeNode(ATTR_NAME);
-                if (nameAttribute != null) {
-                    String name = getResourceFieldName(nameAttribute.getValue());
-                    String type = item.getTagName();
-                    if (type.equals(TAG_ITEM)) {
-                        type = item.getAttribute(ATTR_TYPE);
-                        if (type == null || type.isEmpty()) {
-                            type = RESOURCE_CLZ_ID;
-                        }
-                    } else if (type.equals("declare-styleable")) {   //$NON-NLS-1$
-                        type = RESOURCE_CLR_STYLEABLE;
-                    } else if (type.contains("array")) {             //$NON-NLS-1$
-                        // <string-array> etc
-                        type = RESOURCE_CLZ_ARRAY;
-                    }
-                    ResourceType t = ResourceType.getEnum(type);
-                    if (t != null && isPrivate(context, t, name) &&
-                            !VALUE_TRUE.equals(item.getAttributeNS(TOOLS_URI, ATTR_OVERRIDE))) {
-                        String message = createOverrideErrorMessage(context, t, name);
-                        Location location = context.getValueLocation(nameAttribute);
-                        context.report(ISSUE, nameAttribute, location, message);
-                    }
-                }
-            }
-        } else {
-            assert TAG_STYLE.equals(element.getTagName())
-                    || TAG_ARRAY.equals(element.getTagName())
-                    || TAG_PLURALS.equals(element.getTagName())
-                    || TAG_INTEGER_ARRAY.equals(element.getTagName())
-                    || TAG_STRING_ARRAY.equals(element.getTagName());
-            for (Element item : LintUtils.getChildren(element)) {
-                checkChildRefs(context, item);
-            }
+        assert TAG_STYLE.equals(element.getTagName())
+                || TAG_ARRAY.equals(element.getTagName())
+                || TAG_PLURALS.equals(element.getTagName())
+                || TAG_INTEGER_ARRAY.equals(element.getTagName())
+                || TAG_STRING_ARRAY.equals(element.getTagName());
+        for (Element item : LintUtils.getChildren(element)) {
+            checkChildRefs(context, item);
         }
     }
 
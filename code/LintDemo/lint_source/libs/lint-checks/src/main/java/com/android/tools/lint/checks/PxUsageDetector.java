@@ -160,6 +160,12 @@ public class PxUsageDetector extends LayoutDetector {
         return folderType == ResourceFolderType.LAYOUT || folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The value checks only look at the style item being visited
+        return folderType == ResourceFolderType.VALUES;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return ALL;
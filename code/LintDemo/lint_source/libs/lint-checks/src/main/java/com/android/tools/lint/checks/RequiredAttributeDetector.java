@@ -148,6 +148,12 @@ public class RequiredAttributeDetector extends LayoutDetector implements Detecto
         return folderType == LAYOUT || folderType == VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // The style checks only look at the style being visited
+        return folderType == VALUES;
+    }
+
     @Override
     public void afterCheckProject(@NonNull Context context) {
         // Process checks in two phases:
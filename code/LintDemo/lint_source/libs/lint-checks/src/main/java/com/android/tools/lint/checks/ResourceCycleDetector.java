@@ -145,6 +145,11 @@ public class ResourceCycleDetector extends ResourceXmlDetector {
                 || folderType == ResourceFolderType.LAYOUT;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @NonNull
     @Override
     public Speed getSpeed() {
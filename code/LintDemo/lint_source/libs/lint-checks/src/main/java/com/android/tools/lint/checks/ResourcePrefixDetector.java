@@ -40,10 +40,11 @@ import com.android.tools.lint.detector.api.XmlContext;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import java.io.File;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 
 /**
@@ -85,14 +86,19 @@ public class ResourcePrefixDetector extends ResourceXmlDetector implements
         return Speed.FAST;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public boolean appliesTo(@NonNull Context context, @NonNull File file) {
         return true;
     }
 
     @Override
-    public Collection<String> getApplicableElements() {
-        return Arrays.asList(TAG_RESOURCES, TAG_DECLARE_STYLEABLE);
+    public Collection<String> getApplicableAttributes() {
+        return Collections.singletonList(ATTR_NAME);
     }
 
     @Nullable
@@ -161,21 +167,25 @@ public class ResourcePrefixDetector extends ResourceXmlDetector implements
     // --- Implements XmlScanner ----
 
     @Override
-    public void visitElement(@NonNull XmlContext context, @NonNull Element element) {
+    public void visitAttribute(@NonNull XmlContext context, @NonNull Attr attribute) {
         if (mPrefix == null || context.getResourceFolderType() != ResourceFolderType.VALUES) {
             return;
         }
 
-        for (Element item : LintUtils.getChildren(element)) {
-            Attr nameAttribute = item.getAttributeNode(ATTR_NAME);
-            if (nameAttribute != null) {
-                String name = nameAttribute.getValue();
-                if (!name.startsWith(mPrefix)) {
-                    String message = getErrorMessage(name);
-                    context.report(ISSUE, nameAttribute, context.getLocation(nameAttribute),
-                            message);
-                }
-            }
+        // Only names of children of <resources> and <declare-styleable>
+        Node parent = attribute.getOwnerElement().getParentNode();
+        if (parent == null || parent.getNodeType() != Node.ELEMENT_NODE) {
+            return;
+        }
+        String parentTag = parent.getNodeName();
+        if (!TAG_RESOURCES.equals(parentTag) && !TAG_DECLARE_STYLEABLE.equals(parentTag)) {
+            return;
+        }
+
+        String name = attribute.getValue();
+        if (!name.startsWith(mPrefix)) {
+            String message = getErrorMessage(name);
+            context.report(ISSUE, attribute, context.getLocation(attribute), message);
         }
     }
 
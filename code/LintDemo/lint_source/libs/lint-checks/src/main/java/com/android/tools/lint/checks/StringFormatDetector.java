@@ -239,6 +239,11 @@ public class StringFormatDetector extends ResourceXmlDetector implements Detecto
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public boolean appliesTo(@NonNull Context context, @NonNull File file) {
         if (LintUtils.endsWith(file.getName(), DOT_JAVA)) {
@@ -116,6 +116,11 @@ public class TypoDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     /** Look up the locale and region from the given parent folder name and store it
      * in {@link #mLanguage} and {@link #mRegion} */
     private void initLocale(@NonNull String parent) {
@@ -60,8 +60,14 @@ public class TypoLookup {
     /** Default size to reserve for each API entry when creating byte buffer to build up data */
     private static final int BYTES_PER_ENTRY = 28;
 
-    private byte[] mData;
-    private int[] mIndices;
+    /**
+     * The memory mapped database. Lookups binary search it in place using absolute
+     * reads only (which leaves the buffer position alone, so lookups can run from
+     * multiple threads), rather than copying the words onto the heap.
+     */
+    private ByteBuffer mData;
+    /** The offset in {@link #mData} of the word offset table */
+    private int mIndexOffset;
     private int mWordCount;
 
     private static final WeakHashMap<String, TypoLookup> sInstanceMap =
@@ -261,44 +267,36 @@ public class TypoLookup {
                 return;
             }
 
-            mWordCount = buffer.getInt();
-
-            // Read in the word table indices;
-            int count = mWordCount;
-            int[] offsets = new int[count];
-
-            // Another idea: I can just store the DELTAS in the file (and add them up
-            // when reading back in) such that it takes just ONE byte instead of four!
-
-            for (int i = 0; i < count; i++) {
-                offsets[i] = buffer.getInt();
+            int count = buffer.getInt();
+            int indexOffset = buffer.position();
+            if (count < 0 || indexOffset + 4L * count > buffer.limit()) {
+                client.log(null, "Incorrect file header: not an typo database cache " +
+                        "file, or a corrupt cache file");
+                return;
             }
 
-            // No need to read in the rest -- we'll just keep the whole byte array in memory
-            // TODO: Make this code smarter/more efficient.
-            int size = buffer.limit();
-            byte[] b = new byte[size];
-            buffer.rewind();
-            buffer.get(b);
-            mData = b;
-            mIndices = offsets;
-
-            // TODO: We only need to keep the data portion here since we've initialized
-            // the offset array separately.
-            // TODO: Investigate (profile) accessing the byte buffer directly instead of
-            // accessing a byte array.
+            // No need to read in the rest: the word offset table and the word entries
+            // are accessed directly in the mapped buffer
+            mData = buffer;
+            mIndexOffset = indexOffset;
+            mWordCount = count;
         } catch (IOException e) {
             client.log(e, null);
         }
-        if (WRITE_STATS) {
+        if (WRITE_STATS && mData != null) {
             long end = System.currentTimeMillis();
             System.out.println("\nRead typo database in " + (end - start)
                     + " milliseconds.");
-            System.out.println("Size of data table: " + mData.length + " bytes ("
-                    + Integer.toString(mData.length/1024) + "k)\n");
+            System.out.println("Size of data table: " + mData.limit() + " bytes ("
+                    + Integer.toString(mData.limit()/1024) + "k)\n");
         }
     }
 
+    /** Returns the offset in {@link #mData} of the word with the given index */
+    private int getWordOffset(int index) {
+        return mData.getInt(mIndexOffset + 4 * index);
+    }
+
     /** See the {@link #readData(LintClient,File,File)} for documentation on the data format. */
     private static void writeDatabase(File file, List<String> lines) throws IOException {
         /*
@@ -404,24 +402,44 @@ public class TypoLookup {
             System.out.println("Required bytes per entry: " + (size/ entryCount) + " bytes");
         }
 
-        // Now dump this out as a file
-        // There's probably an API to do this more efficiently; TODO: Look into this.
-        byte[] b = new byte[size];
-        buffer.rewind();
-        buffer.get(b);
-        FileOutputStream output = Files.newOutputStreamSupplier(file).getOutput();
-        output.write(b);
-        output.close();
+        // Now dump this out as a file. Write it to a uniquely named temporary file next
+        // to it first and rename it into place, such that another lint process never
+        // maps a partially written database, and two processes writing the database
+        // at the same time don't write into the same temporary file.
+        File temp = File.createTempFile(file.getName(), ".tmp", //$NON-NLS-1$
+                file.getParentFile());
+        try {
+            FileOutputStream output = Files.newOutputStreamSupplier(temp).getOutput();
+            try {
+                output.write(buffer.array(), 0, size);
+            } finally {
+                output.close();
+            }
+            // Renaming within a folder atomically replaces the file, except on Windows
+            // which won't rename onto an existing file
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                if (!temp.renameTo(file) && !file.exists()) {
+                    throw new IOException("Could not create " + file);
+                }
+            }
+        } finally {
+            if (temp.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
     }
 
     // For debugging only
     private String dumpEntry(int offset) {
         if (DEBUG_SEARCH) {
             int end = offset;
-            while (mData[end] != 0) {
+            while (mData.get(end) != 0) {
                 end++;
             }
-            return new String(mData, offset, end - offset, Charsets.UTF_8);
+            return getString(offset, end);
         } else {
             return "<disabled>"; //$NON-NLS-1$
         }
@@ -431,10 +449,16 @@ public class TypoLookup {
     @VisibleForTesting
     static int compare(byte[] data, int offset, byte terminator, CharSequence s,
             int begin, int end) {
+        return compare(ByteBuffer.wrap(data), offset, terminator, s, begin, end);
+    }
+
+    /** Comparison function: *only* used for ASCII strings */
+    private static int compare(ByteBuffer data, int offset, byte terminator, CharSequence s,
+            int begin, int end) {
         int i = offset;
         int j = begin;
         for (; ; i++, j++) {
-            byte b = data[i];
+            byte b = data.get(i);
             if (b == ' ') {
                 // We've matched up to the space in a split-word typo, such as
                 // in German all zu=>allzu; here we've matched just past "all".
@@ -480,17 +504,23 @@ public class TypoLookup {
             }
         }
 
-        return data[i] - terminator;
+        return data.get(i) - terminator;
     }
 
     /** Comparison function used for general UTF-8 encoded strings */
     @VisibleForTesting
     static int compare(byte[] data, int offset, byte terminator, byte[] s,
             int begin, int end) {
+        return compare(ByteBuffer.wrap(data), offset, terminator, s, begin, end);
+    }
+
+    /** Comparison function used for general UTF-8 encoded strings */
+    private static int compare(ByteBuffer data, int offset, byte terminator, byte[] s,
+            int begin, int end) {
         int i = offset;
         int j = begin;
         for (; ; i++, j++) {
-            byte b = data[i];
+            byte b = data.get(i);
             if (b == ' ') {
                 // We've matched up to the space in a split-word typo, such as
                 // in German all zu=>allzu; here we've matched just past "all".
@@ -538,7 +568,7 @@ public class TypoLookup {
             }
         }
 
-        return data[i] - terminator;
+        return data.get(i) - terminator;
     }
 
     /**
@@ -571,7 +601,7 @@ public class TypoLookup {
         int high = mWordCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getWordOffset(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + text +" with entry at " + offset
@@ -582,11 +612,11 @@ public class TypoLookup {
             int compare = compare(mData, offset, (byte) 0, text, begin, end);
 
             if (compare == 0) {
-                offset = mIndices[middle];
+                offset = getWordOffset(middle);
 
                 // Don't allow matching uncapitalized words, such as "enlish", when
                 // the dictionary word is capitalized, "Enlish".
-                if (mData[offset] != text.charAt(begin)
+                if (mData.get(offset) != text.charAt(begin)
                         && Character.isLowerCase(text.charAt(begin))) {
                     return null;
                 }
@@ -597,7 +627,7 @@ public class TypoLookup {
                 // typos (e.g. "enlish" to "Enlish").
                 String glob = null;
                 for (int i = begin; ; i++) {
-                    byte b = mData[offset++];
+                    byte b = mData.get(offset++);
                     if (b == 0) {
                         offset--;
                         break;
@@ -617,7 +647,7 @@ public class TypoLookup {
                     }
                 }
 
-                return computeSuggestions(mIndices[middle], offset, glob);
+                return computeSuggestions(getWordOffset(middle), offset, glob);
             }
 
             if (compare < 0) {
@@ -653,7 +683,7 @@ public class TypoLookup {
         int high = mWordCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getWordOffset(middle);
 
             if (DEBUG_SEARCH) {
                 String s = new String(Arrays.copyOfRange(utf8Text, begin, end), Charsets.UTF_8);
@@ -670,11 +700,12 @@ public class TypoLookup {
             }
 
             if (compare == 0) {
-                offset = mIndices[middle];
+                offset = getWordOffset(middle);
 
                 // Don't allow matching uncapitalized words, such as "enlish", when
                 // the dictionary word is capitalized, "Enlish".
-                if (mData[offset] != utf8Text[begin] && isUpperCase(mData[offset])) {
+                byte first = mData.get(offset);
+                if (first != utf8Text[begin] && isUpperCase(first)) {
                     return null;
                 }
 
@@ -684,7 +715,7 @@ public class TypoLookup {
                 // typos (e.g. "enlish" to "Enlish").
                 String glob = null;
                 for (int i = begin; ; i++) {
-                    byte b = mData[offset++];
+                    byte b = mData.get(offset++);
                     if (b == 0) {
                         offset--;
                         break;
@@ -702,7 +733,7 @@ public class TypoLookup {
                     }
                 }
 
-                return computeSuggestions(mIndices[middle], offset, glob);
+                return computeSuggestions(getWordOffset(middle), offset, glob);
             }
 
             if (compare < 0) {
@@ -719,19 +750,19 @@ public class TypoLookup {
     }
 
     private List<String> computeSuggestions(int begin, int offset, String glob) {
-        String typo = new String(mData, begin, offset - begin, Charsets.UTF_8);
+        String typo = getString(begin, offset);
 
         if (glob != null) {
             typo = typo.replaceAll("\\*", glob); //$NON-NLS-1$
         }
 
-        assert mData[offset] == 0;
+        assert mData.get(offset) == 0;
         offset++;
         int replacementEnd = offset;
-        while (mData[replacementEnd] != 0) {
+        while (mData.get(replacementEnd) != 0) {
             replacementEnd++;
         }
-        String replacements = new String(mData, offset, replacementEnd - offset, Charsets.UTF_8);
+        String replacements = getString(offset, replacementEnd);
         List<String> words = new ArrayList<String>();
         words.add(typo);
 
@@ -750,6 +781,15 @@ public class TypoLookup {
         return words;
     }
 
+    /** Decodes the UTF-8 string between the given offsets in {@link #mData} */
+    private String getString(int begin, int end) {
+        byte[] bytes = new byte[end - begin];
+        for (int i = begin; i < end; i++) {
+            bytes[i - begin] = mData.get(i);
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
     // "Character" handling for bytes. This assumes that the bytes correspond to Unicode
     // characters in the ISO 8859-1 range, which is are encoded the same way in UTF-8.
     // This obviously won't work to for example uppercase to lowercase conversions for
@@ -200,6 +200,11 @@ public class TypographyDetector extends ResourceXmlDetector {
         return folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @NonNull
     @Override
     public Speed getSpeed() {
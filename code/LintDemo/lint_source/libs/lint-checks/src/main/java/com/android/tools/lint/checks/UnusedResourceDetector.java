@@ -364,7 +364,6 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
     public Collection<String> getApplicableElements() {
         return Arrays.asList(
                 TAG_STYLE,
-                TAG_RESOURCES,
                 TAG_ARRAY,
                 TAG_STRING_ARRAY,
                 TAG_INTEGER_ARRAY,
@@ -374,52 +373,8 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
 
     @Override
     public void visitElement(@NonNull XmlContext context, @NonNull Element element) {
-        if (TAG_RESOURCES.equals(element.getTagName())) {
-            for (Element item : LintUtils.getChildren(element)) {
-                Attr nameAttribute = item.getAttributeNode(ATTR_NAME);
-                if (nameAttribute != null) {
-                    String name = getResourceFieldName(nameAttribute.getValue());
-                    String type = item.getTagName();
-                    if (type.equals(TAG_ITEM)) {
-                        type = item.getAttribute(ATTR_TYPE);
-                        if (type == null || type.isEmpty()) {
-                            type = RESOURCE_CLZ_ID;
-                        }
-                    } else if (type.equals("declare-styleable")) {   //$NON-NLS-1$
-                        type = RESOURCE_CLR_STYLEABLE;
-                    } else if (type.contains("array")) {             //$NON-NLS-1$
-                        // <string-array> etc
-                        type = RESOURCE_CLZ_ARRAY;
-                    }
-                    String resource = R_PREFIX + type + '.' + name;
-
-                    if (context.getPhase() == 1) {
-                        mDeclarations.add(resource);
-                        checkChildRefs(item);
-                    } else {
-                        assert context.getPhase() == 2;
-                        if (mUnused.containsKey(resource)) {
-                            if (context.getDriver().isSuppressed(context, getIssue(resource),
-                                    item)) {
-                                mUnused.remove(resource);
-                                continue;
-                            }
-                            if (!context.getProject().getReportIssues()) {
-                                mUnused.remove(resource);
-                                continue;
-                            }
-                            if (isAnalyticsFile(context)) {
-                                mUnused.remove(resource);
-                                continue;
-                            }
-
-                            recordLocation(resource, context.getLocation(nameAttribute));
-                        }
-                    }
-                }
-            }
-        } else //noinspection VariableNotUsedInsideIf
-            if (mReferences != null) {
+        //noinspection VariableNotUsedInsideIf
+        if (mReferences != null) {
             assert TAG_STYLE.equals(element.getTagName())
                 || TAG_ARRAY.equals(element.getTagName())
                 || TAG_PLURALS.equals(element.getTagName())
@@ -431,6 +386,52 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
         }
     }
 
+    /**
+     * Records a resource defined by a named child of the {@code <resources>} element.
+     * This is driven from the {@code name} attribute rather than by iterating over the
+     * children of {@code <resources>} such that values files can be streamed.
+     */
+    private void visitResourceDefinition(@NonNull XmlContext context, @NonNull Element item,
+            @NonNull Attr nameAttribute) {
+        String name = getResourceFieldName(nameAttribute.getValue());
+        String type = item.getTagName();
+        if (type.equals(TAG_ITEM)) {
+            type = item.getAttribute(ATTR_TYPE);
+            if (type == null || type.isEmpty()) {
+                type = RESOURCE_CLZ_ID;
+            }
+        } else if (type.equals("declare-styleable")) {   //$NON-NLS-1$
+            type = RESOURCE_CLR_STYLEABLE;
+        } else if (type.contains("array")) {             //$NON-NLS-1$
+            // <string-array> etc
+            type = RESOURCE_CLZ_ARRAY;
+        }
+        String resource = R_PREFIX + type + '.' + name;
+
+        if (context.getPhase() == 1) {
+            mDeclarations.add(resource);
+            checkChildRefs(item);
+        } else {
+            assert context.getPhase() == 2;
+            if (mUnused.containsKey(resource)) {
+                if (context.getDriver().isSuppressed(context, getIssue(resource), item)) {
+                    mUnused.remove(resource);
+                    return;
+                }
+                if (!context.getProject().getReportIssues()) {
+                    mUnused.remove(resource);
+                    return;
+                }
+                if (isAnalyticsFile(context)) {
+                    mUnused.remove(resource);
+                    return;
+                }
+
+                recordLocation(resource, context.getLocation(nameAttribute));
+            }
+        }
+    }
+
     private static final String ANALYTICS_FILE = "analytics.xml"; //$NON-NLS-1$
 
     /**
@@ -474,6 +475,15 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
 
     @Override
     public void visitAttribute(@NonNull XmlContext context, @NonNull Attr attribute) {
+        if (ATTR_NAME.equals(attribute.getName())) {
+            Element item = attribute.getOwnerElement();
+            Node parent = item.getParentNode();
+            if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE
+                    && TAG_RESOURCES.equals(parent.getNodeName())) {
+                visitResourceDefinition(context, item, attribute);
+            }
+        }
+
         String value = attribute.getValue();
 
         if (value.startsWith("@+") && !value.startsWith("@+android")) { //$NON-NLS-1$ //$NON-NLS-2$
@@ -518,6 +528,11 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
         return Speed.SLOW;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public List<Class<? extends lombok.ast.Node>> getApplicableNodeTypes() {
         return Collections.<Class<? extends lombok.ast.Node>>singletonList(ClassDeclaration.class);
@@ -72,6 +72,11 @@ public class Utf8Detector extends ResourceXmlDetector {
         return Speed.NORMAL;
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
         String xml = context.getContents();
@@ -174,6 +174,12 @@ public class WrongIdDetector extends LayoutDetector {
         return folderType == ResourceFolderType.LAYOUT || folderType == ResourceFolderType.VALUES;
     }
 
+    @Override
+    public boolean supportsStreaming(@NonNull ResourceFolderType folderType) {
+        // Id declarations in values files are recorded one item at a time
+        return folderType == ResourceFolderType.VALUES;
+    }
+
     @NonNull
     @Override
     public Speed getSpeed() {
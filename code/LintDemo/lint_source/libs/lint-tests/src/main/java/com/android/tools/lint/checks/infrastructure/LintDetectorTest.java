@@ -37,6 +37,7 @@ import com.android.testutils.SdkTestCase;
 import com.android.tools.lint.ExternalAnnotationRepository;
 import com.android.tools.lint.LintCliClient;
 import com.android.tools.lint.LintCliFlags;
+import com.android.tools.lint.LintCliXmlParser;
 import com.android.tools.lint.Reporter;
 import com.android.tools.lint.TextReporter;
 import com.android.tools.lint.Warning;
@@ -47,6 +48,7 @@ import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintRequest;
+import com.android.tools.lint.client.api.XmlParser;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Issue;
@@ -56,6 +58,7 @@ import com.android.tools.lint.detector.api.Project;
 import com.android.tools.lint.detector.api.Scope;
 import com.android.tools.lint.detector.api.Severity;
 import com.android.tools.lint.detector.api.TextFormat;
+import com.android.tools.lint.detector.api.XmlContext;
 import com.android.utils.ILogger;
 import com.android.utils.SdkUtils;
 import com.android.utils.StdLogger;
@@ -115,6 +118,9 @@ public abstract class LintDetectorTest extends SdkTestCase {
 
     private Detector mDetector;
 
+    /** Number of resource files streamed by the XML parser of the test clients */
+    protected int mStreamedXmlFileCount;
+
     protected final Detector getDetectorInstance() {
         if (mDetector == null) {
             mDetector = getDetector();
@@ -365,6 +371,14 @@ public abstract class LintDetectorTest extends SdkTestCase {
         return false;
     }
 
+    /**
+     * Returns whether resource files may be streamed to the detectors which support
+     * it (see {@link XmlParser#supportsStreaming()}), rather than parsed into a DOM
+     */
+    protected boolean isXmlStreamingEnabled() {
+        return true;
+    }
+
     protected EnumSet<Scope> getLintScope(List<File> file) {
         return null;
     }
@@ -621,6 +635,23 @@ public abstract class LintDetectorTest extends SdkTestCase {
             mIncrementalCheck = currentFile;
         }
 
+        @Override
+        public XmlParser getXmlParser() {
+            return new LintCliXmlParser() {
+                @Override
+                public boolean supportsStreaming() {
+                    return isXmlStreamingEnabled() && super.supportsStreaming();
+                }
+
+                @Override
+                public boolean streamXml(@NonNull XmlContext context,
+                        @NonNull StreamHandler handler) {
+                    mStreamedXmlFileCount++;
+                    return super.streamXml(context, handler);
+                }
+            };
+        }
+
         @Override
         public boolean supportsProjectResources() {
             return mIncrementalCheck != null;
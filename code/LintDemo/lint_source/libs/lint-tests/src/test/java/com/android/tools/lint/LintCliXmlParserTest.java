@@ -21,8 +21,10 @@ import com.android.annotations.Nullable;
 import com.android.tools.lint.checks.BuiltinIssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
 import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.XmlParser;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.LintUtils;
 import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.Location.Handle;
 import com.android.tools.lint.detector.api.Position;
@@ -36,12 +38,16 @@ import junit.framework.TestCase;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @SuppressWarnings("javadoc")
 public class LintCliXmlParserTest extends TestCase {
@@ -195,6 +201,156 @@ public class LintCliXmlParserTest extends TestCase {
         file.delete();
     }
 
+    public void testStreaming() throws Exception {
+        String xml =
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<resources xmlns:tools=\"http://schemas.android.com/tools\">\n" +
+                "    <!-- Comment -->\n" +
+                "    <string name=\"app_name\">App</string>\n" +
+                "    <style name=\"Theme\" parent=\"android:Theme\">\n" +
+                "        <item name=\"android:windowNoTitle\">true</item>\n" +
+                "    </style>\n" +
+                "    <string\n" +
+                "        name = 'hello' tools:ignore=\"Typos\"><![CDATA[Hello]]></string>\n" +
+                "</resources>\n";
+        final LintCliXmlParser parser = new LintCliXmlParser();
+        assertTrue(parser.supportsStreaming());
+        File file = File.createTempFile("parsertest3", ".xml");
+        //noinspection IOResourceOpenedButNotSafelyClosed
+        Writer fw = new BufferedWriter(new FileWriter(file));
+        fw.write(xml);
+        fw.close();
+        LintClient client = new TestClient();
+        LintDriver driver = new LintDriver(new BuiltinIssueRegistry(), client);
+        Project project = Project.create(client, file.getParentFile(), file.getParentFile());
+
+        // Compute the expected locations from the fully parsed document
+        XmlContext context = new XmlContext(driver, project, null, file, null, parser);
+        Document document = parser.parseXml(context);
+        assertNotNull(document);
+        final List<String> expected = new ArrayList<String>();
+        for (Element child : LintUtils.getChildren(document.getDocumentElement())) {
+            describe(parser, context, child, expected);
+        }
+        parser.dispose(context, document);
+
+        final XmlContext streamContext = new XmlContext(driver, project, null, file, null,
+                parser);
+        final List<String> actual = new ArrayList<String>();
+        final int[] events = new int[2];
+        assertTrue(parser.streamXml(streamContext, new XmlParser.StreamHandler() {
+            @Override
+            public void documentElementStarted(@NonNull Element root) {
+                events[0]++;
+                assertEquals("resources", root.getTagName());
+                assertSame(root, streamContext.document.getDocumentElement());
+            }
+
+            @Override
+            public void childElementParsed(@NonNull Element element) {
+                // Only the child being visited is kept below the document element
+                assertSame(element, element.getParentNode().getLastChild());
+                assertEquals(1, LintUtils.getChildCount(element.getParentNode()));
+                describe(parser, streamContext, element, actual);
+            }
+
+            @Override
+            public void documentElementEnded(@NonNull Element root) {
+                events[1]++;
+            }
+        }));
+        assertEquals(1, events[0]);
+        assertEquals(1, events[1]);
+        assertEquals(expected, actual);
+        assertTrue(actual.contains("hello:Hello"));
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    public void testStreamingAttributeNameInValue() throws Exception {
+        final String xml =
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<resources xmlns:tools=\"http://schemas.android.com/tools\">\n" +
+                "    <style name=\"Theme\" tools:comment=\" parent='x'\"\n" +
+                "        parent=\"android:Theme\" />\n" +
+                "</resources>\n";
+        final LintCliXmlParser parser = new LintCliXmlParser();
+        File file = File.createTempFile("parsertest4", ".xml");
+        //noinspection IOResourceOpenedButNotSafelyClosed
+        Writer fw = new BufferedWriter(new FileWriter(file));
+        fw.write(xml);
+        fw.close();
+        LintClient client = new TestClient();
+        LintDriver driver = new LintDriver(new BuiltinIssueRegistry(), client);
+        Project project = Project.create(client, file.getParentFile(), file.getParentFile());
+
+        final XmlContext context = new XmlContext(driver, project, null, file, null, parser);
+        final List<String> ranges = new ArrayList<String>();
+        assertTrue(parser.streamXml(context, new XmlParser.StreamHandler() {
+            @Override
+            public void documentElementStarted(@NonNull Element root) {
+            }
+
+            @Override
+            public void childElementParsed(@NonNull Element element) {
+                Attr parent = element.getAttributeNode("parent");
+                assertNotNull(parent);
+                ranges.add(getText(xml, parser.getLocation(context, parent)));
+                ranges.add(getText(xml, parser.getValueLocation(context, parent)));
+                Attr comment = element.getAttributeNodeNS(
+                        "http://schemas.android.com/tools", "comment");
+                assertNotNull(comment);
+                ranges.add(getText(xml, parser.getLocation(context, comment)));
+            }
+
+            @Override
+            public void documentElementEnded(@NonNull Element root) {
+            }
+        }));
+        assertEquals(Arrays.asList("parent=\"android:Theme\"", "android:Theme",
+                "tools:comment=\" parent='x'\""), ranges);
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static String getText(@NonNull String xml, @NonNull Location location) {
+        Position start = location.getStart();
+        Position end = location.getEnd();
+        assertNotNull(start);
+        assertNotNull(end);
+        return xml.substring(start.getOffset(), end.getOffset());
+    }
+
+    private static void describe(@NonNull LintCliXmlParser parser, @NonNull XmlContext context,
+            @NonNull Element element, @NonNull List<String> result) {
+        result.add(describe(parser.getLocation(context, element)));
+        result.add(describe(parser.getNameLocation(context, element)));
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0, n = attributes.getLength(); i < n; i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            result.add(describe(parser.getLocation(context, attribute)));
+            result.add(describe(parser.getValueLocation(context, attribute)));
+        }
+        String name = element.getAttribute("name");
+        if (!name.isEmpty() && LintUtils.getChildCount(element) == 0) {
+            result.add(name + ':' + element.getTextContent());
+        }
+        for (Element child : LintUtils.getChildren(element)) {
+            describe(parser, context, child, result);
+        }
+    }
+
+    private static String describe(@NonNull Location location) {
+        Position start = location.getStart();
+        Position end = location.getEnd();
+        assertNotNull(start);
+        assertNotNull(end);
+        return start.getLine() + ":" + start.getColumn() + "@" + start.getOffset() + "-"
+                + end.getLine() + ":" + end.getColumn() + "@" + end.getOffset();
+    }
+
     private static class TestClient extends LintCliClient {
         @Override
         public void report(
@@ -24,12 +24,17 @@ import com.android.tools.lint.checks.AbstractCheckTest;
 import com.android.tools.lint.checks.AccessibilityDetector;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Issue;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.security.Permission;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @SuppressWarnings("javadoc")
 public class MainTest extends AbstractCheckTest {
@@ -126,6 +131,173 @@ public class MainTest extends AbstractCheckTest {
         });
     }
 
+    public void testIncremental() throws Exception {
+        String expected = ""
+                + "res/layout/accessibility.xml:4: Warning: [Accessibility] Missing contentDescription attribute on image [ContentDescription]\n"
+                + "    <ImageView android:id=\"@+id/android_logo\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:src=\"@drawable/android_button\" android:focusable=\"false\" android:clickable=\"false\" android:layout_weight=\"1.0\" />\n"
+                + "    ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n"
+                + "res/layout/accessibility.xml:5: Warning: [Accessibility] Missing contentDescription attribute on image [ContentDescription]\n"
+                + "    <ImageButton android:importantForAccessibility=\"yes\" android:id=\"@+id/android_logo2\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:src=\"@drawable/android_button\" android:focusable=\"false\" android:clickable=\"false\" android:layout_weight=\"1.0\" />\n"
+                + "    ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n"
+                + "0 errors, 2 warnings\n";
+        String[] args = new String[] {
+                "--incremental",
+                "--quiet",
+                "--check",
+                "ContentDescription",
+                "--disable",
+                "LintError",
+                getProjectDir(null, "res/layout/accessibility.xml").getPath()
+        };
+
+        File profile = File.createTempFile("profile", ".json");
+        try {
+            String[] profileArgs = new String[args.length + 2];
+            profileArgs[0] = "--profile";
+            profileArgs[1] = profile.getPath();
+            System.arraycopy(args, 0, profileArgs, 2, args.length);
+            checkDriver(expected, "", ERRNO_SUCCESS, profileArgs);
+            long firstCalls = getProfiledCalls(profile, AccessibilityDetector.class);
+
+            // The second run reports the warnings cached by the first one, and only
+            // calls the project level callbacks of the detector, not the file ones
+            checkDriver(expected, "", ERRNO_SUCCESS, profileArgs);
+            long secondCalls = getProfiledCalls(profile, AccessibilityDetector.class);
+            assertTrue(firstCalls + " calls, then " + secondCalls, secondCalls < firstCalls);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            profile.delete();
+        }
+    }
+
+    private static long getProfiledCalls(File profile, Class<? extends Detector> detector)
+            throws IOException {
+        String json = Files.toString(profile, Charsets.UTF_8);
+        Matcher matcher = Pattern.compile("\\{\"detector\": \""
+                + Pattern.quote(detector.getName()) + "\", \"calls\": (\\d+),").matcher(json);
+        assertTrue(json, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    public void testIncrementalDependentFile() throws Exception {
+        String[] args = new String[] {
+                "--incremental",
+                "--quiet",
+                "--check",
+                "MissingSuperCall",
+                "--disable",
+                "LintError",
+                getProjectDir(null,
+                        copy("src/android/support/annotation/CallSuper.java.txt",
+                                "src/android/support/annotation/CallSuper.java"),
+                        java("src/test/pkg/Parent.java", ""
+                                + "package test.pkg;\n"
+                                + "\n"
+                                + "import android.support.annotation.CallSuper;\n"
+                                + "\n"
+                                + "public class Parent {\n"
+                                + "    @CallSuper\n"
+                                + "    protected void test1() {\n"
+                                + "    }\n"
+                                + "}\n"),
+                        java("src/test/pkg/Child.java", ""
+                                + "package test.pkg;\n"
+                                + "\n"
+                                + "public class Child extends Parent {\n"
+                                + "    @Override\n"
+                                + "    protected void test1() {\n"
+                                + "    }\n"
+                                + "}\n")
+                ).getPath()
+        };
+        checkDriver(""
+                + "src/test/pkg/Child.java:5: Error: Overriding method should call super.test1 [MissingSuperCall]\n"
+                + "    protected void test1() {\n"
+                + "                   ~~~~~\n"
+                + "1 errors, 0 warnings\n",
+                "", ERRNO_SUCCESS, args);
+
+        // Child is unchanged, but its warning depended on the annotation in Parent
+        getProjectDir(null,
+                java("src/test/pkg/Parent.java", ""
+                        + "package test.pkg;\n"
+                        + "\n"
+                        + "public class Parent {\n"
+                        + "    protected void test1() {\n"
+                        + "    }\n"
+                        + "}\n"));
+        checkDriver("No issues found.\n", "", ERRNO_SUCCESS, args);
+    }
+
+    public void testProfile() throws Exception {
+        String expected = ""
+                + "res/layout/accessibility.xml:4: Warning: [Accessibility] Missing contentDescription attribute on image [ContentDescription]\n"
+                + "    <ImageView android:id=\"@+id/android_logo\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:src=\"@drawable/android_button\" android:focusable=\"false\" android:clickable=\"false\" android:layout_weight=\"1.0\" />\n"
+                + "    ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n"
+                + "res/layout/accessibility.xml:5: Warning: [Accessibility] Missing contentDescription attribute on image [ContentDescription]\n"
+                + "    <ImageButton android:importantForAccessibility=\"yes\" android:id=\"@+id/android_logo2\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:src=\"@drawable/android_button\" android:focusable=\"false\" android:clickable=\"false\" android:layout_weight=\"1.0\" />\n"
+                + "    ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n"
+                + "0 errors, 2 warnings\n";
+        File profile = File.createTempFile("profile", ".json");
+        try {
+            checkDriver(expected, "", ERRNO_SUCCESS, new String[] {
+                    "--profile",
+                    profile.getPath(),
+                    "--quiet",
+                    "--check",
+                    "ContentDescription",
+                    "--disable",
+                    "LintError",
+                    getProjectDir(null, "res/layout/accessibility.xml").getPath()
+            });
+
+            String json = Files.toString(profile, Charsets.UTF_8);
+            assertTrue(json, json.startsWith("{\n  \"detectors\": [\n    {\"detector\": \""
+                    + AccessibilityDetector.class.getName() + "\", \"calls\": "));
+            assertTrue(json, json.endsWith("}\n  ]\n}\n"));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            profile.delete();
+        }
+    }
+
+    public void testIncrementalCrossFileDetector() throws Exception {
+        String[] args = new String[] {
+                "--incremental",
+                "--quiet",
+                "--check",
+                "Wakelock",
+                "--disable",
+                "LintError",
+                getProjectDir(null,
+                        "bytecode/.classpath=>.classpath",
+                        "bytecode/AndroidManifest.xml=>AndroidManifest.xml",
+                        "bytecode/WakelockActivity1.java.txt=>src/test/pkg/WakelockActivity1.java",
+                        "bytecode/WakelockActivity1.class.data=>"
+                                + "bin/classes/test/pkg/WakelockActivity1.class"
+                ).getPath()
+        };
+        checkDriver(""
+                + "src/test/pkg/WakelockActivity1.java:15: Warning: Found a wakelock acquire() but no release() calls anywhere [Wakelock]\n"
+                + "        mWakeLock.acquire(); // Never released\n"
+                + "                  ~~~~~~~\n"
+                + "0 errors, 1 warnings\n",
+                "", ERRNO_SUCCESS, args);
+
+        // WakelockActivity1 is unchanged, but the detector gathers state across classes
+        // (and only reports once it has seen them all), so it must run on it again
+        getProjectDir(null,
+                "bytecode/WakelockActivity2.java.txt=>src/test/pkg/WakelockActivity2.java",
+                "bytecode/WakelockActivity2.class.data=>"
+                        + "bin/classes/test/pkg/WakelockActivity2.class");
+        checkDriver(""
+                + "src/test/pkg/WakelockActivity2.java:13: Warning: Wakelocks should be released in onPause, not onDestroy [Wakelock]\n"
+                + "            mWakeLock.release(); // Should be done in onPause instead\n"
+                + "                      ~~~~~~~\n"
+                + "0 errors, 1 warnings\n",
+                "", ERRNO_SUCCESS, args);
+    }
+
     public void testShowDescription() throws Exception {
         checkDriver(
         // Expected output
@@ -89,6 +89,53 @@ public class ApiLookupTest extends AbstractCheckTest {
                 "(Landroid/preference/PreferenceFragment;Landroid/preference/Preference;)"));
     }
 
+    public void testHashIndexMatchesSearch() {
+        String[][] calls = new String[][] {
+                { "android/graphics/drawable/BitmapDrawable", "<init>",
+                        "(Landroid/content/res/Resources;Ljava/lang/String;)V" },
+                { "android/graphics/drawable/BitmapDrawable", "setTargetDensity",
+                        "(Landroid/util/DisplayMetrics;)V" },
+                { "android/graphics/drawable/BitmapDrawable", "<init>", "(I)V" },
+                { "android/graphics/drawable/BitmapDrawable", "foo", "()V" },
+                { "java/nio/Buffer", "array", "()" },
+                { "java/io/IOException", "<init>", "(Ljava/lang/Throwable;)V" },
+                { "foo/Bar", "<init>", "()V" },
+        };
+        String[][] fields = new String[][] {
+                { "android/Manifest$permission", "AUTHENTICATE_ACCOUNTS" },
+                { "android/Manifest$permission", "FOOBAR" },
+                { "android/R$attr", "actionMenuTextAppearance" },
+                { "android/R$attr", "actionMenuTextAppearanc" },
+                { "foo/Bar", "FOOBAR" },
+        };
+        String[] classes = new String[] {
+                "android/app/WallpaperInfo", "android/widget/StackView", "android/widget/Stack",
+                "foo/Bar"
+        };
+        try {
+            for (String[] call : calls) {
+                mDb.setUseHashIndex(false);
+                int expected = mDb.getCallVersion(call[0], call[1], call[2]);
+                mDb.setUseHashIndex(true);
+                assertEquals(call[1], expected, mDb.getCallVersion(call[0], call[1], call[2]));
+            }
+            for (String[] field : fields) {
+                mDb.setUseHashIndex(false);
+                int expected = mDb.getFieldVersion(field[0], field[1]);
+                mDb.setUseHashIndex(true);
+                assertEquals(field[1], expected, mDb.getFieldVersion(field[0], field[1]));
+            }
+            for (String cls : classes) {
+                mDb.setUseHashIndex(false);
+                int expected = mDb.getClassVersion(cls);
+                mDb.setUseHashIndex(true);
+                assertEquals(cls, expected, mDb.getClassVersion(cls));
+            }
+        } finally {
+            mDb.setUseHashIndex(true);
+        }
+    }
+
     public void testIsValidPackage() {
         assertTrue(mDb.isValidJavaPackage("java/lang/Integer"));
         assertTrue(mDb.isValidJavaPackage("javax/crypto/Cipher"));
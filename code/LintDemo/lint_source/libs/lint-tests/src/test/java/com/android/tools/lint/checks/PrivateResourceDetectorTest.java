@@ -43,6 +43,13 @@ import java.util.List;
 
 @SuppressWarnings("javadoc")
 public class PrivateResourceDetectorTest extends AbstractCheckTest {
+    private boolean mXmlStreaming = true;
+
+    @Override
+    protected boolean isXmlStreamingEnabled() {
+        return mXmlStreaming;
+    }
+
     @Override
     protected Detector getDetector() {
         return new PrivateResourceDetector();
@@ -92,6 +99,18 @@ public class PrivateResourceDetectorTest extends AbstractCheckTest {
     }
 
     public void testOverride() throws Exception {
+        checkOverride();
+        assertTrue(mStreamedXmlFileCount > 0);
+    }
+
+    public void testOverrideWithoutStreaming() throws Exception {
+        // The DOM based check must report the same warnings as the streaming one
+        mXmlStreaming = false;
+        checkOverride();
+        assertEquals(0, mStreamedXmlFileCount);
+    }
+
+    private void checkOverride() throws Exception {
         assertEquals(""
                 + "res/layout/my_private_layout.xml: Warning: Overriding @layout/my_private_layout which is marked as private in the library. If deliberate, use tools:override=\"true\", otherwise pick a different name. [PrivateResource]\n"
                 + "res/values/strings.xml:5: Warning: Overriding @string/my_private_string which is marked as private in the library. If deliberate, use tools:override=\"true\", otherwise pick a different name. [PrivateResource]\n"
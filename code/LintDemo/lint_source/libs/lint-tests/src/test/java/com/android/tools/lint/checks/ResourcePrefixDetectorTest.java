@@ -29,6 +29,12 @@ import java.io.File;
 import java.util.Arrays;
 
 public class ResourcePrefixDetectorTest extends AbstractCheckTest {
+    private boolean mXmlStreaming = true;
+
+    @Override
+    protected boolean isXmlStreamingEnabled() {
+        return mXmlStreaming;
+    }
 
     @Override
     protected Detector getDetector() {
@@ -56,6 +62,17 @@ public class ResourcePrefixDetectorTest extends AbstractCheckTest {
     }
 
     public void testValues() throws Exception {
+        checkValues();
+        assertTrue(mStreamedXmlFileCount > 0);
+    }
+
+    public void testValuesWithoutStreaming() throws Exception {
+        mXmlStreaming = false;
+        checkValues();
+        assertEquals(0, mStreamedXmlFileCount);
+    }
+
+    private void checkValues() throws Exception {
         assertEquals(""
             + "res/values/customattr.xml:2: Error: Resource named 'ContentFrame' does not start with the project's resource prefix 'unit_test_prefix_'; rename to 'unit_test_prefix_ContentFrame' ? [ResourceName]\n"
             + "    <declare-styleable name=\"ContentFrame\">\n"
@@ -25,6 +25,12 @@ import java.util.Arrays;
 @SuppressWarnings("javadoc")
 public class UnusedResourceDetectorTest extends AbstractCheckTest {
     private boolean mEnableIds = false;
+    private boolean mXmlStreaming = true;
+
+    @Override
+    protected boolean isXmlStreamingEnabled() {
+        return mXmlStreaming;
+    }
 
     @Override
     protected Detector getDetector() {
@@ -41,6 +47,18 @@ public class UnusedResourceDetectorTest extends AbstractCheckTest {
     }
 
     public void testUnused() throws Exception {
+        checkUnused();
+        assertTrue(mStreamedXmlFileCount > 0);
+    }
+
+    public void testUnusedWithoutStreaming() throws Exception {
+        // Also checks the resource definitions when the values files are not streamed
+        mXmlStreaming = false;
+        checkUnused();
+        assertEquals(0, mStreamedXmlFileCount);
+    }
+
+    private void checkUnused() throws Exception {
         mEnableIds = false;
         assertEquals(
            "res/layout/accessibility.xml: Warning: The resource R.layout.accessibility appears to be unused [UnusedResources]\n" +
@@ -17,20 +17,53 @@
 package com.android.tools.lint.client.api;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.lint.EcjParser;
 import com.android.tools.lint.checks.AbstractCheckTest;
 import com.android.tools.lint.checks.AccessibilityDetector;
+import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.checks.ClickableViewAccessibilityDetector;
+import com.android.tools.lint.checks.SdCardDetector;
+import com.android.tools.lint.checks.SharedPrefsDetector;
+import com.android.tools.lint.checks.ToastDetector;
+import com.android.tools.lint.checks.WakelockDetector;
 import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.JavaContext;
 import com.android.tools.lint.detector.api.Project;
 import com.google.common.collect.Lists;
 
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import lombok.ast.Node;
 
 @SuppressWarnings("javadoc")
 public class LintDriverTest extends AbstractCheckTest {
+    private static final String[] JAVA_FILES = new String[] {
+            "src/test/pkg/SharedPrefsTest2.java.txt=>src/test/pkg/SharedPrefsTest2.java",
+            "src/test/pkg/SharedPrefsTest3.java.txt=>src/test/pkg/SharedPrefsTest3.java",
+            "src/test/pkg/SharedPrefsTest4.java.txt=>src/test/pkg/SharedPrefsTest4.java",
+            "src/test/pkg/SharedPrefsTest8.java.txt=>src/test/pkg/SharedPrefsTest8.java",
+            "src/test/pkg/SdCardTest.java.txt=>src/test/pkg/SdCardTest.java",
+            "src/test/pkg/ToastTest.java.txt=>src/test/pkg/ToastTest.java"
+    };
+
+    private List<Issue> mIssues;
+    private int mClassScanParallelism = 1;
+    private int mJavaParseParallelism = 1;
+    private int mCancelAfterParsing;
+    private final Set<File> mParsedFiles = Collections.synchronizedSet(new HashSet<File>());
+    private final Set<File> mDisposedFiles = Collections.synchronizedSet(new HashSet<File>());
+
     @SuppressWarnings({"ResultOfMethodCallIgnored", "ConstantConditions"})
     public void testClassEntryCompare() throws Exception {
         ClassEntry c0 = new ClassEntry(new File("/a1/Foo.class"), null, null, null);
@@ -62,10 +95,140 @@ public class LintDriverTest extends AbstractCheckTest {
         assertTrue(c1.compareTo(c0) <= 0);
     }
 
+    @SuppressWarnings("ConstantConditions")
+    public void testClassFamilies() throws Exception {
+        List<ClassEntry> entries = Arrays.asList(
+                createClassEntry("/a1/Foo.class", "test/Foo"),
+                createClassEntry("/a1/Foo$1.class", "test/Foo$1"),
+                createClassEntry("/a1/Foo$Inner.class", "test/Foo$Inner"),
+                createClassEntry("/a1/Foo$Inner$1.class", "test/Foo$Inner$1"),
+                createClassEntry("/a1/FooBar.class", "test/FooBar"),
+                createClassEntry("/a1/Zap.class", "test/Zap"),
+                createClassEntry("/a2/Foo.class", "test/Foo"));
+        Collections.sort(entries);
+
+        // FooBar stays with Foo since a serial scan keeps Foo on the outer class stack
+        assertEquals("[0, 5, 6, 7]",
+                Arrays.toString(LintDriver.computeClassFamilies(entries)));
+        assertEquals("[0]", Arrays.toString(LintDriver.computeClassFamilies(
+                Collections.<ClassEntry>emptyList())));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    public void testClassFamiliesUseClassNames() throws Exception {
+        List<ClassEntry> entries = Arrays.asList(
+                new ClassEntry(new File("/a1/Broken.class"), null, null, new byte[] { 1, 2 }),
+                createClassEntry("/a1/First.class", "test/Outer"),
+                createClassEntry("/a1/Second.class", "test/Outer$Inner"),
+                createClassEntry("/a1/Third.class", "test/Other"));
+        Collections.sort(entries);
+
+        // The inner class is scanned with its outer class even though the file
+        // names differ, and the broken class file does not affect the stack
+        assertEquals("[0, 3, 4]",
+                Arrays.toString(LintDriver.computeClassFamilies(entries)));
+    }
+
+    public void testParallelClassScan() throws Exception {
+        List<String> files = Lists.newArrayList(
+                "bytecode/.classpath=>.classpath",
+                "bytecode/AndroidManifest.xml=>AndroidManifest.xml",
+                "bytecode/ClickableViewAccessibilityTest.java.txt=>"
+                        + "src/test/pkg/ClickableViewAccessibilityTest.java");
+        for (String name : new String[] { "", "$1", "$AnonymousInvalidOnTouchListener",
+                "$AnonymousInvalidOnTouchListener$1", "$AnonymousValidOnTouchListener",
+                "$AnonymousValidOnTouchListener$1", "$HasPerformClick",
+                "$HasPerformClickOnTouchListenerSetter", "$InvalidOnTouchListener",
+                "$NoPerformClick", "$NoPerformClickOnTouchListenerSetter", "$NotAView",
+                "$NotAViewOnTouchListenerSetter", "$PerformClickDoesNotCallSuper",
+                "$ValidOnTouchListener", "$ValidView", "$ViewDoesNotCallPerformClick",
+                "$ViewOverridesOnTouchEventButNotPerformClick", "$ViewSubclass",
+                "$ViewWithDifferentOnTouchEvent", "$ViewWithDifferentPerformClick" }) {
+            files.add("bytecode/ClickableViewAccessibilityTest" + name + ".class.data=>"
+                    + "bin/classes/test/pkg/ClickableViewAccessibilityTest" + name + ".class");
+        }
+        for (int i = 1; i <= 3; i++) {
+            files.add("bytecode/WakelockActivity" + i + ".java.txt=>"
+                    + "src/test/pkg/WakelockActivity" + i + ".java");
+            files.add("bytecode/WakelockActivity" + i + ".class.data=>"
+                    + "bin/classes/test/pkg/WakelockActivity" + i + ".class");
+        }
+        String[] relativePaths = files.toArray(new String[files.size()]);
+
+        // The detector which gathers state across classes (Wakelock) is run serially,
+        // the others in parallel; the output must be the same as for a serial scan
+        mIssues = Arrays.asList(ClickableViewAccessibilityDetector.ISSUE,
+                WakelockDetector.ISSUE);
+        String expected = lintProject(relativePaths);
+        assertTrue(expected, expected.contains("[ClickableViewAccessibility]"));
+        assertTrue(expected, expected.contains("[Wakelock]"));
+
+        mClassScanParallelism = 4;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, lintProject(relativePaths));
+        }
+    }
+
+    public void testPipelinedJavaParsing() throws Exception {
+        mIssues = Arrays.asList(SharedPrefsDetector.ISSUE, SdCardDetector.ISSUE,
+                ToastDetector.ISSUE);
+        String expected = lintProject(JAVA_FILES);
+        assertTrue(expected, expected.contains("[CommitPrefEdits]"));
+        assertTrue(expected, expected.contains("[SdCardPath]"));
+        assertEquals(mParsedFiles, mDisposedFiles);
+
+        mJavaParseParallelism = 3;
+        for (int i = 0; i < 3; i++) {
+            mParsedFiles.clear();
+            mDisposedFiles.clear();
+            assertEquals(expected, lintProject(JAVA_FILES));
+            assertEquals(JAVA_FILES.length, mParsedFiles.size());
+            assertEquals(mParsedFiles, mDisposedFiles);
+        }
+    }
+
+    public void testCanceledPipelinedJavaParsingDisposesUnits() throws Exception {
+        mIssues = Arrays.asList(SharedPrefsDetector.ISSUE, SdCardDetector.ISSUE,
+                ToastDetector.ISSUE);
+        mJavaParseParallelism = 2;
+        mCancelAfterParsing = 2;
+        lintProject(JAVA_FILES);
+
+        // Files parsed ahead of the detectors are disposed even though they are
+        // never visited
+        assertTrue(mParsedFiles.toString(), mParsedFiles.size() >= 2);
+        assertTrue(mParsedFiles.size() < JAVA_FILES.length);
+        assertEquals(mParsedFiles, mDisposedFiles);
+    }
+
+    private static ClassEntry createClassEntry(String path, String className) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object",
+                null);
+        writer.visitEnd();
+        //noinspection ConstantConditions
+        return new ClassEntry(new File(path), null, null, writer.toByteArray());
+    }
+
     public void testMissingResourceDirectory() throws Exception {
         assertEquals("No warnings.", lintProject("res/layout/layout1.xml"));
     }
 
+    public void testValuesStreamedWithDefaultIssues() throws Exception {
+        // All the detectors of the default issues which look at values files can
+        // have them streamed, such that they are never parsed into a DOM
+        List<Issue> issues = new ArrayList<Issue>();
+        for (Issue issue : new BuiltinIssueRegistry().getIssues()) {
+            if (issue.isEnabledByDefault()) {
+                issues.add(issue);
+            }
+        }
+        mIssues = issues;
+        mStreamedXmlFileCount = 0;
+        lintProject("res/values/buttonbar-values.xml=>res/values/strings.xml");
+        assertTrue(mStreamedXmlFileCount > 0);
+    }
+
     @Override
     protected TestLintClient createClient() {
         return new TestLintClient() {
@@ -80,6 +243,29 @@ public class LintDriverTest extends AbstractCheckTest {
                 }
                 return mResources;
             }
+
+            @Override
+            public JavaParser getJavaParser(@Nullable Project project) {
+                return new EcjParser(this, project) {
+                    @Override
+                    public Node parseJava(@NonNull JavaContext context) {
+                        Node compilationUnit = super.parseJava(context);
+                        if (compilationUnit != null
+                                && mParsedFiles.add(context.file)
+                                && mParsedFiles.size() == mCancelAfterParsing) {
+                            mDriver.cancel();
+                        }
+                        return compilationUnit;
+                    }
+
+                    @Override
+                    public void dispose(@NonNull JavaContext context,
+                            @NonNull Node compilationUnit) {
+                        mDisposedFiles.add(context.file);
+                        super.dispose(context, compilationUnit);
+                    }
+                };
+            }
         };
     }
 
@@ -87,4 +273,23 @@ public class LintDriverTest extends AbstractCheckTest {
     protected Detector getDetector() {
         return new AccessibilityDetector();
     }
+
+    @Override
+    protected List<Issue> getIssues() {
+        if (mIssues != null) {
+            return mIssues;
+        }
+        return super.getIssues();
+    }
+
+    @Override
+    protected boolean isEnabled(Issue issue) {
+        return mIssues != null && mIssues.contains(issue) || super.isEnabled(issue);
+    }
+
+    @Override
+    protected void configureDriver(LintDriver driver) {
+        driver.setClassScanParallelism(mClassScanParallelism);
+        driver.setJavaParseParallelism(mJavaParseParallelism);
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.external.gnumake;
+
+import com.android.SdkConstants;
+import com.android.build.gradle.internal.cxx.json.NativeBuildConfigValue;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures turning the ndk-build -n outputs of the NdkSampleTest fixtures into build
+ * configurations: parsing the commands, analyzing their flow, and building the whole {@link
+ * NativeBuildConfigValue}.
+ *
+ * <p>Only the fixtures captured on the current kind of host are used, as the file names in the
+ * others can't be resolved here. Runs from the project directory to find the fixtures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NdkBuildOutputBenchmark {
+    private static final String FIXTURES_FOLDER =
+            "src/test/java/com/android/build/gradle/external/gnumake/support-files/"
+                    + "ndk-sample-baselines";
+
+    private final List<String> outputs = new ArrayList<>();
+
+    private OsFileConventions fileConventions;
+
+    @Setup
+    public void setUp() throws IOException {
+        String suffix =
+                SdkConstants.currentPlatform() == SdkConstants.PLATFORM_WINDOWS
+                        ? ".windows.txt"
+                        : ".linux.txt";
+        File[] files = new File(FIXTURES_FOLDER).listFiles();
+        if (files == null) {
+            throw new IllegalStateException(
+                    "Could not find " + FIXTURES_FOLDER + "; run from the gradle-core directory");
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(suffix)) {
+                outputs.add(Files.asCharSource(file, Charsets.UTF_8).read());
+            }
+        }
+        fileConventions = AbstractOsFileConventions.createForCurrentHost();
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        int count = 0;
+        for (String output : outputs) {
+            count += CommandLineParser.parse(new StringReader(output), fileConventions).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int analyze() throws IOException {
+        int count = 0;
+        for (String output : outputs) {
+            count += FlowAnalyzer.analyze(new StringReader(output), fileConventions).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int buildConfig() throws IOException {
+        int count = 0;
+        for (String output : outputs) {
+            NativeBuildConfigValue config =
+                    new NativeBuildConfigValueBuilder(
+                                    new File("Android.mk"), new File("."), fileConventions)
+                            .addCommands(
+                                    "echo build command",
+                                    "echo clean command",
+                                    "debug",
+                                    new StringReader(output))
+                            .build();
+            count += config.libraries.size();
+        }
+        return count;
+    }
+}
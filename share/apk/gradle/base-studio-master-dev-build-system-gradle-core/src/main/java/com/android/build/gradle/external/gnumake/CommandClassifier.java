@@ -23,6 +23,8 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -52,8 +54,12 @@ class CommandClassifier {
             @NonNull String commands,
             @NonNull OsFileConventions policy,
             @NonNull List<BuildTool> classifiers) {
-        List<CommandLine> commandLines = CommandLineParser.parse(commands, policy);
+        return classify(CommandLineParser.parse(commands, policy), classifiers);
+    }
 
+    @NonNull
+    private static List<BuildStepInfo> classify(
+            @NonNull List<CommandLine> commandLines, @NonNull List<BuildTool> classifiers) {
         List<BuildStepInfo> commandSummaries = new ArrayList<>();
 
         for (CommandLine expr : commandLines) {
@@ -79,6 +85,16 @@ class CommandClassifier {
         return classify(commands, policy, DEFAULT_CLASSIFIERS);
     }
 
+    /**
+     * Same as {@link #classify(String, OsFileConventions)} but reads the commands one line at a
+     * time.
+     */
+    @NonNull
+    static List<BuildStepInfo> classify(
+            @NonNull Reader commands, @NonNull OsFileConventions policy) throws IOException {
+        return classify(CommandLineParser.parse(commands, policy), DEFAULT_CLASSIFIERS);
+    }
+
     interface BuildTool {
         @Nullable
         BuildStepInfo createCommand(@NonNull CommandLine command);
@@ -17,6 +17,13 @@ package com.android.build.gradle.external.gnumake;
 
 
 import com.android.annotations.NonNull;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,13 +40,36 @@ class CommandLineParser {
      */
     @NonNull
     static List<CommandLine> parse(@NonNull String commands, @NonNull OsFileConventions policy) {
-        String[] lines = commands.split("[\r\n]+");
+        try {
+            return parse(new StringReader(commands), policy);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Same as {@link #parse(String, OsFileConventions)} but reads the commands one line at a time,
+     * so that the whole ndk-build output doesn't need to be held in memory.
+     *
+     * <p>The same flags and file names come back in many commands, so a single instance of each
+     * token is kept.
+     */
+    @NonNull
+    static List<CommandLine> parse(@NonNull Reader commands, @NonNull OsFileConventions policy)
+            throws IOException {
+        Interner<String> tokens = Interners.newStrongInterner();
+        BufferedReader reader = new BufferedReader(commands);
         List<CommandLine> commandLines = new ArrayList<>();
-        for (String line : lines) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.isEmpty()) {
+                continue;
+            }
             List<String> commandList = policy.splitCommandLine(line);
             for (String commandString : commandList) {
                 List<String> escapedFlags = policy.tokenizeCommandLineToEscaped(commandString);
                 List<String> rawFlags = policy.tokenizeCommandLineToRaw(commandString);
+                escapedFlags.replaceAll(tokens::intern);
+                rawFlags.replaceAll(tokens::intern);
                 String command = escapedFlags.get(0);
                 escapedFlags.remove(0);
                 rawFlags.remove(0);
@@ -16,18 +16,19 @@
 package com.android.build.gradle.external.gnumake;
 
 import com.android.annotations.NonNull;
-import com.android.utils.SparseArray;
+import com.android.annotations.Nullable;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Analyze flow of inputs and outputs between commands (where ordering is important).
@@ -45,18 +46,53 @@ class FlowAnalyzer {
     @NonNull
     static ListMultimap<String, List<BuildStepInfo>> analyze(
             @NonNull String commands, @NonNull OsFileConventions policy) {
-        List<BuildStepInfo> commandSummaries = CommandClassifier.classify(commands, policy);
+        return analyze(CommandClassifier.classify(commands, policy));
+    }
+
+    /**
+     * Same as {@link #analyze(String, OsFileConventions)} but reads the commands one line at a
+     * time, so that the whole ndk-build output doesn't need to be held in memory.
+     */
+    @NonNull
+    static ListMultimap<String, List<BuildStepInfo>> analyze(
+            @NonNull Reader commands, @NonNull OsFileConventions policy) throws IOException {
+        return analyze(CommandClassifier.classify(commands, policy));
+    }
+
+    /**
+     * Commands are identified by their index in commandSummaries and each output of each command
+     * by a slot index, so that the analysis only needs one pass over the commands. The terminal
+     * inputs of a command are kept in a bit set of command indexes, which makes merging them
+     * linear in the number of commands instead of copying hash sets down each chain of commands.
+     */
+    @NonNull
+    @VisibleForTesting
+    static ListMultimap<String, List<BuildStepInfo>> analyze(
+            @NonNull List<BuildStepInfo> commandSummaries) {
+        int commandCount = commandSummaries.size();
 
-        // For each filename, record the last command that created it.
-        Map<String, Integer> outputToCommand = new HashMap<>();
+        // The outputs of command i are in the slots firstOutputSlot[i] to firstOutputSlot[i + 1].
+        int[] firstOutputSlot = new int[commandCount + 1];
+        for (int i = 0; i < commandCount; ++i) {
+            firstOutputSlot[i + 1] =
+                    firstOutputSlot[i] + commandSummaries.get(i).getOutputs().size();
+        }
+        int[] slotToCommand = new int[firstOutputSlot[commandCount]];
+
+        // For each filename, record the output slot of the last command that created it.
+        Map<String, Integer> outputToSlot = new HashMap<>();
+
+        // The output slots that were consumed by a later command.
+        BitSet outputsConsumed = new BitSet(slotToCommand.length);
 
-        // For each command, the set of terminal inputs.
-        ArrayList<Set<BuildStepInfo>> outputToTerminals = new ArrayList<>();
+        // The commands which are their own terminal input.
+        BitSet selfTerminals = new BitSet(commandCount);
 
-        // For each command, the set of outputs that was consumed.
-        SparseArray<Set<String>> commandOutputsConsumed = new SparseArray<>();
+        // For each command, the terminal inputs of the commands that created its inputs. Null
+        // when there are none, which is the case of most compile steps.
+        BitSet[] inheritedTerminals = new BitSet[commandCount];
 
-        for (int i = 0; i < commandSummaries.size(); ++i) {
+        for (int i = 0; i < commandCount; ++i) {
             BuildStepInfo current = commandSummaries.get(i);
             if (current.inputsAreSourceFiles()) {
                 if (current.getInputs().size() != 1) {
@@ -68,46 +104,86 @@ class FlowAnalyzer {
                                     Joiner.on("\n").join(current.getInputs())));
                 }
             }
-            commandOutputsConsumed.put(i, new HashSet<>());
 
             // For each input, find the line that created it or null if this is a terminal input.
-            Set<BuildStepInfo> terminals = new HashSet<>();
+            BitSet terminals = null;
             for (String input : current.getInputs()) {
-                if (outputToCommand.containsKey(input)) {
-                    int inputCommandIndex = outputToCommand.get(input);
-                    terminals.addAll(outputToTerminals.get(inputCommandIndex));
+                Integer inputSlot = outputToSlot.get(input);
+                if (inputSlot != null) {
+                    int inputCommandIndex = slotToCommand[inputSlot];
+                    if (terminals == null) {
+                        terminals = new BitSet(commandCount);
+                    }
+                    addTerminals(
+                            terminals,
+                            inputCommandIndex,
+                            selfTerminals,
+                            inheritedTerminals[inputCommandIndex]);
 
                     // Record this a consumed output.
-                    commandOutputsConsumed.get(inputCommandIndex).add(input);
+                    outputsConsumed.set(inputSlot);
                     continue;
                 }
                 if (current.inputsAreSourceFiles()) {
-                    terminals.add(current);
+                    selfTerminals.set(i);
                 }
             }
-            outputToTerminals.add(terminals);
+            inheritedTerminals[i] = terminals;
 
             // Record the files output by this command
-            for (String output : current.getOutputs()) {
-                outputToCommand.put(output, i);
+            List<String> outputs = current.getOutputs();
+            for (int j = 0; j < outputs.size(); ++j) {
+                int slot = getOutputSlot(firstOutputSlot[i], outputs, j);
+                slotToCommand[slot] = i;
+                outputToSlot.put(outputs.get(j), slot);
             }
         }
 
         // Emit the outputs that are never consumed.
         ListMultimap<String, List<BuildStepInfo>> result = ArrayListMultimap.create();
-        for (int i = 0; i < commandSummaries.size(); ++i) {
+        for (int i = 0; i < commandCount; ++i) {
             BuildStepInfo current = commandSummaries.get(i);
-            Set<String> outputsConsumed = commandOutputsConsumed.get(i);
-            for (String output : current.getOutputs()) {
-                if (!outputsConsumed.contains(output) || !current.inputsAreSourceFiles()) {
+            List<String> outputs = current.getOutputs();
+            for (int j = 0; j < outputs.size(); ++j) {
+                if (!outputsConsumed.get(getOutputSlot(firstOutputSlot[i], outputs, j))
+                        || !current.inputsAreSourceFiles()) {
+                    BitSet terminals = new BitSet(commandCount);
+                    addTerminals(terminals, i, selfTerminals, inheritedTerminals[i]);
+
                     // Sort the inputs
-                    List<BuildStepInfo> ordered = new ArrayList<>();
-                    ordered.addAll(outputToTerminals.get(i));
-                    Collections.sort(ordered, Comparator.comparing(BuildStepInfo::getOnlyInput));
-                    result.put(output, ordered);
+                    List<BuildStepInfo> ordered = new ArrayList<>(terminals.cardinality());
+                    for (int terminal = terminals.nextSetBit(0);
+                            terminal >= 0;
+                            terminal = terminals.nextSetBit(terminal + 1)) {
+                        ordered.add(commandSummaries.get(terminal));
+                    }
+                    ordered.sort(Comparator.comparing(BuildStepInfo::getOnlyInput));
+                    result.put(outputs.get(j), ordered);
                 }
             }
         }
         return result;
     }
+
+    /**
+     * Returns the slot of the output at the given index. A file listed more than once by the same
+     * command always gets the slot of its first occurrence.
+     */
+    private static int getOutputSlot(int firstSlot, @NonNull List<String> outputs, int index) {
+        return firstSlot + outputs.indexOf(outputs.get(index));
+    }
+
+    /** Adds the terminal inputs of the given command to terminals. */
+    private static void addTerminals(
+            @NonNull BitSet terminals,
+            int command,
+            @NonNull BitSet selfTerminals,
+            @Nullable BitSet inheritedTerminals) {
+        if (inheritedTerminals != null) {
+            terminals.or(inheritedTerminals);
+        }
+        if (selfTerminals.get(command)) {
+            terminals.set(command);
+        }
+    }
 }
@@ -29,6 +29,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -127,6 +131,25 @@ public class NativeBuildConfigValueBuilder {
             String cleanCommand,
             String variantName,
             @NonNull String commands) {
+        try {
+            return addCommands(
+                    buildCommand, cleanCommand, variantName, new StringReader(commands));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Same as {@link #addCommands(String, String, String, String)} but reads the commands one line
+     * at a time.
+     */
+    @NonNull
+    public NativeBuildConfigValueBuilder addCommands(
+            String buildCommand,
+            String cleanCommand,
+            String variantName,
+            @NonNull Reader commands)
+            throws IOException {
         ListMultimap<String, List<BuildStepInfo>> outputs =
                 FlowAnalyzer.analyze(commands, fileConventions);
         for (Map.Entry<String, List<BuildStepInfo>> entry : outputs.entries()) {
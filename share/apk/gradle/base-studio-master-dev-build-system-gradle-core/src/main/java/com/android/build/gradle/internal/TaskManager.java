@@ -2368,6 +2368,7 @@ public abstract class TaskManager {
                         .setIsInstantRun(
                                 variantScope.getInstantRunBuildContext().isInInstantRunMode())
                         .setEnableDexingArtifactTransform(enableDexingArtifactTransform)
+                        .setMaxCacheSizeInMb(projectOptions.get(IntegerOption.DEXING_CACHE_SIZE))
                         .createDexArchiveBuilderTransform();
         transformManager
                 .addTransform(taskFactory, variantScope, preDexTransform)
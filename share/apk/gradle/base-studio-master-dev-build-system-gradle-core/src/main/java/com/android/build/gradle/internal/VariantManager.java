@@ -96,6 +96,7 @@ import com.android.builder.model.ProductFlavor;
 import com.android.builder.model.SigningConfig;
 import com.android.builder.profile.ProcessProfileWriter;
 import com.android.builder.profile.Recorder;
+import com.android.builder.utils.FileCache;
 import com.android.utils.StringHelper;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
@@ -598,13 +599,20 @@ public class VariantManager implements VariantModel {
         final String jetifierBlackList =
                 Strings.nullToEmpty(
                         globalScope.getProjectOptions().get(StringOption.JETIFIER_BLACKLIST));
+        // Jetified libraries are also cached in the build cache, across projects and builds
+        final FileCache buildCache = globalScope.getBuildCache();
+        final String jetifierCacheDir =
+                buildCache != null
+                        ? new File(buildCache.getCacheDirectory(), "jetifier").getAbsolutePath()
+                        : "";
         dependencies.registerTransform(
                 transform -> {
                     transform.getFrom().attribute(ARTIFACT_FORMAT, AAR.getType());
                     transform.getTo().attribute(ARTIFACT_FORMAT, TYPE_PROCESSED_AAR);
                     if (globalScope.getProjectOptions().get(BooleanOption.ENABLE_JETIFIER)) {
                         transform.artifactTransform(
-                                JetifyTransform.class, config -> config.params(jetifierBlackList));
+                                JetifyTransform.class,
+                                config -> config.params(jetifierBlackList, jetifierCacheDir));
                     } else {
                         transform.artifactTransform(IdentityTransform.class);
                     }
@@ -615,7 +623,8 @@ public class VariantManager implements VariantModel {
                     transform.getTo().attribute(ARTIFACT_FORMAT, PROCESSED_JAR.getType());
                     if (globalScope.getProjectOptions().get(BooleanOption.ENABLE_JETIFIER)) {
                         transform.artifactTransform(
-                                JetifyTransform.class, config -> config.params(jetifierBlackList));
+                                JetifyTransform.class,
+                                config -> config.params(jetifierBlackList, jetifierCacheDir));
                     } else {
                         transform.artifactTransform(IdentityTransform.class);
                     }
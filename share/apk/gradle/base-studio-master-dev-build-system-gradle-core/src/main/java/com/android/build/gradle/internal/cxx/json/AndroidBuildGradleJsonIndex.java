@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.cxx.json;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary index of an android_gradle_build.json file which replays the calls of {@link
+ * AndroidBuildGradleJsonStreamingParser} to a visitor without parsing the Json again.
+ *
+ * <p>The index holds each distinct string of the Json once, such as the flags shared by the files
+ * of a library, followed by the sequence of visitor calls with the numbers of their strings. It is
+ * memory-mapped when read, and each string is only decoded the first time it is visited. The index
+ * records the hash of the Json it was written from, and is ignored once the Json changes.
+ */
+final class AndroidBuildGradleJsonIndex {
+
+    /** Version of the file format, to be increased whenever it changes. */
+    private static final int VERSION = 1;
+
+    /**
+     * The visitor calls recorded in an index. Their ordinals are written to the index, so changing
+     * them requires a new {@link #VERSION}.
+     */
+    private enum Event {
+        BEGIN_STRING_TABLE,
+        END_STRING_TABLE,
+        BEGIN_LIBRARY,
+        END_LIBRARY,
+        BEGIN_LIBRARY_FILE,
+        END_LIBRARY_FILE,
+        BEGIN_TOOLCHAIN,
+        END_TOOLCHAIN,
+        STRING_TABLE_ENTRY,
+        BUILD_FILE,
+        LIBRARY_ABI,
+        LIBRARY_ARTIFACT_NAME,
+        LIBRARY_BUILD_COMMAND,
+        LIBRARY_BUILD_TYPE,
+        LIBRARY_OUTPUT,
+        LIBRARY_TOOLCHAIN,
+        LIBRARY_GROUP_NAME,
+        TOOLCHAIN_C_COMPILER_EXECUTABLE,
+        TOOLCHAIN_CPP_COMPILER_EXECUTABLE,
+        LIBRARY_FILE_FLAGS,
+        LIBRARY_FILE_FLAGS_ORDINAL,
+        LIBRARY_FILE_SRC,
+        LIBRARY_FILE_WORKING_DIRECTORY,
+        LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL,
+        CLEAN_COMMANDS,
+        C_FILE_EXTENSIONS,
+        CPP_FILE_EXTENSIONS,
+        LIBRARY_RUNTIME_FILE,
+        LIBRARY_DEPENDENCY
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private AndroidBuildGradleJsonIndex() {}
+
+    /** Returns the hash of a Json file that its index must record to be used. */
+    @NonNull
+    static HashCode hash(@NonNull File json) throws IOException {
+        return com.google.common.io.Files.asByteSource(json).hash(Hashing.murmur3_128());
+    }
+
+    /**
+     * Replays the visitor calls recorded in the given index, if it was written from a Json with
+     * the given hash.
+     *
+     * @return {@code false} if the index is missing, out-of-date or incomplete, in which case the
+     *     visitor was not called
+     */
+    static boolean replay(
+            @NonNull File index,
+            @NonNull HashCode jsonHash,
+            @NonNull AndroidBuildGradleJsonStreamingVisitor visitor)
+            throws IOException {
+        if (!index.isFile()) {
+            return false;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Strings strings;
+        try {
+            if (buffer.getInt() != VERSION) {
+                return false;
+            }
+            byte[] hash = new byte[buffer.getInt()];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, jsonHash.asBytes())) {
+                return false;
+            }
+            strings = new Strings(buffer);
+            // An index cut short when written must not be replayed at all.
+            if (buffer.getInt() != buffer.remaining()) {
+                return false;
+            }
+        } catch (BufferUnderflowException
+                | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            return false;
+        }
+
+        try {
+            while (buffer.hasRemaining()) {
+                replay(EVENTS[buffer.get()], buffer, strings, visitor);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted native build index " + index, e);
+        }
+        return true;
+    }
+
+    private static void replay(
+            @NonNull Event event,
+            @NonNull ByteBuffer buffer,
+            @NonNull Strings strings,
+            @NonNull AndroidBuildGradleJsonStreamingVisitor visitor) {
+        switch (event) {
+            case BEGIN_STRING_TABLE:
+                visitor.beginStringTable();
+                break;
+            case END_STRING_TABLE:
+                visitor.endStringTable();
+                break;
+            case BEGIN_LIBRARY:
+                visitor.beginLibrary(strings.get(buffer.getInt()));
+                break;
+            case END_LIBRARY:
+                visitor.endLibrary();
+                break;
+            case BEGIN_LIBRARY_FILE:
+                visitor.beginLibraryFile();
+                break;
+            case END_LIBRARY_FILE:
+                visitor.endLibraryFile();
+                break;
+            case BEGIN_TOOLCHAIN:
+                visitor.beginToolchain(strings.get(buffer.getInt()));
+                break;
+            case END_TOOLCHAIN:
+                visitor.endToolchain();
+                break;
+            case STRING_TABLE_ENTRY:
+                int tableIndex = buffer.getInt();
+                visitor.visitStringTableEntry(tableIndex, strings.get(buffer.getInt()));
+                break;
+            case BUILD_FILE:
+                visitor.visitBuildFile(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_ABI:
+                visitor.visitLibraryAbi(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_ARTIFACT_NAME:
+                visitor.visitLibraryArtifactName(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_BUILD_COMMAND:
+                visitor.visitLibraryBuildCommand(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_BUILD_TYPE:
+                visitor.visitLibraryBuildType(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_OUTPUT:
+                visitor.visitLibraryOutput(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_TOOLCHAIN:
+                visitor.visitLibraryToolchain(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_GROUP_NAME:
+                visitor.visitLibraryGroupName(strings.get(buffer.getInt()));
+                break;
+            case TOOLCHAIN_C_COMPILER_EXECUTABLE:
+                visitor.visitToolchainCCompilerExecutable(strings.get(buffer.getInt()));
+                break;
+            case TOOLCHAIN_CPP_COMPILER_EXECUTABLE:
+                visitor.visitToolchainCppCompilerExecutable(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_FILE_FLAGS:
+                visitor.visitLibraryFileFlags(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_FILE_FLAGS_ORDINAL:
+                visitor.visitLibraryFileFlagsOrdinal(buffer.getInt());
+                break;
+            case LIBRARY_FILE_SRC:
+                visitor.visitLibraryFileSrc(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_FILE_WORKING_DIRECTORY:
+                visitor.visitLibraryFileWorkingDirectory(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL:
+                visitor.visitLibraryFileWorkingDirectoryOrdinal(buffer.getInt());
+                break;
+            case CLEAN_COMMANDS:
+                visitor.visitCleanCommands(strings.get(buffer.getInt()));
+                break;
+            case C_FILE_EXTENSIONS:
+                visitor.visitCFileExtensions(strings.get(buffer.getInt()));
+                break;
+            case CPP_FILE_EXTENSIONS:
+                visitor.visitCppFileExtensions(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_RUNTIME_FILE:
+                visitor.visitLibraryRuntimeFile(strings.get(buffer.getInt()));
+                break;
+            case LIBRARY_DEPENDENCY:
+                visitor.visitLibraryDependency(strings.get(buffer.getInt()));
+                break;
+        }
+    }
+
+    /** The strings of a memory-mapped index, decoded when first needed. */
+    private static final class Strings {
+        @NonNull private final ByteBuffer data;
+        @NonNull private final int[] offsets;
+        @NonNull private final String[] decoded;
+
+        /** Reads the string offsets at the position of the buffer, and skips past the strings. */
+        private Strings(@NonNull ByteBuffer buffer) {
+            int count = buffer.getInt();
+            offsets = new int[count + 1];
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = buffer.getInt();
+            }
+            data = buffer.slice();
+            data.limit(offsets[count]);
+            buffer.position(buffer.position() + offsets[count]);
+            decoded = new String[count];
+        }
+
+        @NonNull
+        private String get(int index) {
+            String string = decoded[index];
+            if (string == null) {
+                byte[] bytes = new byte[offsets[index + 1] - offsets[index]];
+                ByteBuffer bytesBuffer = data.duplicate();
+                bytesBuffer.position(offsets[index]);
+                bytesBuffer.get(bytes);
+                string = new String(bytes, Charsets.UTF_8);
+                decoded[index] = string;
+            }
+            return string;
+        }
+    }
+
+    /** Visitor recording the calls of a Json parser, to write them to an index. */
+    static final class Writer extends AndroidBuildGradleJsonStreamingVisitor {
+        @NonNull private final Map<String, Integer> stringIndices = Maps.newHashMap();
+        @NonNull private final List<String> strings = Lists.newArrayList();
+        @NonNull private final ByteArrayOutputStream eventBytes = new ByteArrayOutputStream();
+        @NonNull private final DataOutputStream events = new DataOutputStream(eventBytes);
+
+        /**
+         * Writes the index of the recorded calls. The index is written to a temporary file first,
+         * so that readers never see it partially written.
+         */
+        void write(@NonNull File index, @NonNull HashCode jsonHash) throws IOException {
+            File temp = File.createTempFile(index.getName(), ".tmp", index.getParentFile());
+            try {
+                try (DataOutputStream out =
+                        new DataOutputStream(
+                                new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    out.writeInt(VERSION);
+                    byte[] hash = jsonHash.asBytes();
+                    out.writeInt(hash.length);
+                    out.write(hash);
+
+                    List<byte[]> encoded = Lists.newArrayListWithCapacity(strings.size());
+                    out.writeInt(strings.size());
+                    int offset = 0;
+                    out.writeInt(offset);
+                    for (String string : strings) {
+                        byte[] bytes = string.getBytes(Charsets.UTF_8);
+                        encoded.add(bytes);
+                        offset += bytes.length;
+                        out.writeInt(offset);
+                    }
+                    for (byte[] bytes : encoded) {
+                        out.write(bytes);
+                    }
+
+                    out.writeInt(eventBytes.size());
+                    eventBytes.writeTo(out);
+                }
+                Files.move(
+                        temp.toPath(),
+                        index.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+
+        private void event(@NonNull Event event) {
+            try {
+                events.writeByte(event.ordinal());
+            } catch (IOException e) {
+                // Never thrown when writing to memory.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void event(@NonNull Event event, int value) {
+            event(event);
+            try {
+                events.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void event(@NonNull Event event, @NonNull String value) {
+            event(event);
+            string(value);
+        }
+
+        /** Writes the number of the given string, adding it to the strings if it is new. */
+        private void string(@NonNull String value) {
+            Integer index = stringIndices.get(value);
+            if (index == null) {
+                index = strings.size();
+                stringIndices.put(value, index);
+                strings.add(value);
+            }
+            try {
+                events.writeInt(index);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        protected void beginStringTable() {
+            event(Event.BEGIN_STRING_TABLE);
+        }
+
+        @Override
+        protected void endStringTable() {
+            event(Event.END_STRING_TABLE);
+        }
+
+        @Override
+        protected void beginLibrary(@NonNull String libraryName) {
+            event(Event.BEGIN_LIBRARY, libraryName);
+        }
+
+        @Override
+        protected void endLibrary() {
+            event(Event.END_LIBRARY);
+        }
+
+        @Override
+        protected void beginLibraryFile() {
+            event(Event.BEGIN_LIBRARY_FILE);
+        }
+
+        @Override
+        protected void endLibraryFile() {
+            event(Event.END_LIBRARY_FILE);
+        }
+
+        @Override
+        protected void beginToolchain(@NonNull String toolchain) {
+            event(Event.BEGIN_TOOLCHAIN, toolchain);
+        }
+
+        @Override
+        protected void endToolchain() {
+            event(Event.END_TOOLCHAIN);
+        }
+
+        @Override
+        protected void visitStringTableEntry(int index, @NonNull String value) {
+            event(Event.STRING_TABLE_ENTRY, index);
+            string(value);
+        }
+
+        @Override
+        protected void visitBuildFile(@NonNull String buildFile) {
+            event(Event.BUILD_FILE, buildFile);
+        }
+
+        @Override
+        protected void visitLibraryAbi(@NonNull String abi) {
+            event(Event.LIBRARY_ABI, abi);
+        }
+
+        @Override
+        protected void visitLibraryArtifactName(@NonNull String artifact) {
+            event(Event.LIBRARY_ARTIFACT_NAME, artifact);
+        }
+
+        @Override
+        protected void visitLibraryBuildCommand(@NonNull String buildCommand) {
+            event(Event.LIBRARY_BUILD_COMMAND, buildCommand);
+        }
+
+        @Override
+        protected void visitLibraryBuildType(@NonNull String buildType) {
+            event(Event.LIBRARY_BUILD_TYPE, buildType);
+        }
+
+        @Override
+        protected void visitLibraryOutput(@NonNull String output) {
+            event(Event.LIBRARY_OUTPUT, output);
+        }
+
+        @Override
+        protected void visitLibraryToolchain(@NonNull String toolchain) {
+            event(Event.LIBRARY_TOOLCHAIN, toolchain);
+        }
+
+        @Override
+        protected void visitLibraryGroupName(@NonNull String groupName) {
+            event(Event.LIBRARY_GROUP_NAME, groupName);
+        }
+
+        @Override
+        protected void visitToolchainCCompilerExecutable(@NonNull String executable) {
+            event(Event.TOOLCHAIN_C_COMPILER_EXECUTABLE, executable);
+        }
+
+        @Override
+        protected void visitToolchainCppCompilerExecutable(@NonNull String executable) {
+            event(Event.TOOLCHAIN_CPP_COMPILER_EXECUTABLE, executable);
+        }
+
+        @Override
+        protected void visitLibraryFileFlags(@NonNull String flags) {
+            event(Event.LIBRARY_FILE_FLAGS, flags);
+        }
+
+        @Override
+        protected void visitLibraryFileFlagsOrdinal(@NonNull Integer flagsOrdinal) {
+            event(Event.LIBRARY_FILE_FLAGS_ORDINAL, flagsOrdinal);
+        }
+
+        @Override
+        protected void visitLibraryFileSrc(@NonNull String src) {
+            event(Event.LIBRARY_FILE_SRC, src);
+        }
+
+        @Override
+        protected void visitLibraryFileWorkingDirectory(@NonNull String workingDirectory) {
+            event(Event.LIBRARY_FILE_WORKING_DIRECTORY, workingDirectory);
+        }
+
+        @Override
+        protected void visitLibraryFileWorkingDirectoryOrdinal(
+                @NonNull Integer workingDirectoryOrdinal) {
+            event(Event.LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL, workingDirectoryOrdinal);
+        }
+
+        @Override
+        protected void visitCleanCommands(@NonNull String cleanCommand) {
+            event(Event.CLEAN_COMMANDS, cleanCommand);
+        }
+
+        @Override
+        protected void visitCFileExtensions(@NonNull String buildFile) {
+            event(Event.C_FILE_EXTENSIONS, buildFile);
+        }
+
+        @Override
+        protected void visitCppFileExtensions(@NonNull String buildFile) {
+            event(Event.CPP_FILE_EXTENSIONS, buildFile);
+        }
+
+        @Override
+        protected void visitLibraryRuntimeFile(@NonNull String runtimeFile) {
+            event(Event.LIBRARY_RUNTIME_FILE, runtimeFile);
+        }
+
+        @Override
+        protected void visitLibraryDependency(@NonNull String dependency) {
+            event(Event.LIBRARY_DEPENDENCY, dependency);
+        }
+    }
+}
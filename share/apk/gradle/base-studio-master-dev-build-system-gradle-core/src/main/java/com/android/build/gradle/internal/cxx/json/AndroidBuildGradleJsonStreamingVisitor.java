@@ -78,4 +78,6 @@ public abstract class AndroidBuildGradleJsonStreamingVisitor {
 
     protected void visitLibraryRuntimeFile(@NonNull String runtimeFile) {}
 
+    protected void visitLibraryDependency(@NonNull String dependency) {}
+
 }
@@ -16,11 +16,14 @@
 
 package com.android.build.gradle.internal.cxx.json;
 
+import static com.android.build.gradle.internal.cxx.configure.LoggingEnvironmentKt.info;
+
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.gradle.tasks.ExternalNativeBuildTaskUtils;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonReader;
@@ -118,17 +121,59 @@ public class AndroidBuildGradleJsons {
                 return parseToMiniConfig(reader);
             }
         }
-        NativeBuildConfigValueMini result;
-        try (JsonReader reader = new JsonReader(new FileReader(json))) {
-            result =
-                    stats == null
-                            ? parseToMiniConfig(reader)
-                            : parseToMiniConfigAndGatherStatistics(reader, stats);
+        MiniConfigBuildingVisitor miniConfigVisitor = new MiniConfigBuildingVisitor();
+        if (stats == null) {
+            visitNativeBuildConfig(json, miniConfigVisitor);
+        } else {
+            GradleBuildVariant.NativeBuildConfigInfo.Builder config =
+                    GradleBuildVariant.NativeBuildConfigInfo.newBuilder();
+            visitNativeBuildConfig(
+                    json,
+                    new AndroidBuildGradleJsonCompositeVisitor(
+                            new AndroidBuildGradleJsonStatsBuildingVisitor(config),
+                            miniConfigVisitor));
+            stats.addNativeBuildConfig(config);
         }
+        NativeBuildConfigValueMini result = miniConfigVisitor.miniConfig;
         writeNativeBuildMiniConfigValueToJsonFile(persistedMiniConfig, result);
         return result;
     }
 
+    /**
+     * Streams the content of the given android_build_gradle.json file to the visitor.
+     *
+     * <p>The Json is only parsed when it changed since it was last visited. Otherwise the visitor
+     * is called from the binary index written next to the Json by the previous parse, which avoids
+     * tokenizing the Json again and decodes each distinct string once.
+     *
+     * @param json the Json file
+     * @param visitor the visitor to call
+     * @throws IOException if there was an IO problem reading the Json or its index.
+     */
+    public static void visitNativeBuildConfig(
+            @NonNull File json, @NonNull AndroidBuildGradleJsonStreamingVisitor visitor)
+            throws IOException {
+        File index = ExternalNativeBuildTaskUtils.getJsonBinaryIndexFile(json);
+        HashCode jsonHash = AndroidBuildGradleJsonIndex.hash(json);
+        if (AndroidBuildGradleJsonIndex.replay(index, jsonHash, visitor)) {
+            return;
+        }
+        AndroidBuildGradleJsonIndex.Writer indexWriter = new AndroidBuildGradleJsonIndex.Writer();
+        try (JsonReader reader = new JsonReader(new FileReader(json));
+                AndroidBuildGradleJsonStreamingParser parser =
+                        new AndroidBuildGradleJsonStreamingParser(
+                                reader,
+                                new AndroidBuildGradleJsonCompositeVisitor(visitor, indexWriter))) {
+            parser.parse();
+        }
+        try {
+            indexWriter.write(index, jsonHash);
+        } catch (IOException e) {
+            // The index only saves time, such that the Json can still be used without it.
+            info("could not write index %s of native build Json: %s", index, e.getMessage());
+        }
+    }
+
     /**
      * Writes the given object as JSON to the given json file.
      *
@@ -216,6 +261,12 @@ public class AndroidBuildGradleJsons {
             miniConfig.libraries.get(libraryName).output = new File(output);
         }
 
+        @Override
+        protected void visitLibraryDependency(@NonNull String dependency) {
+            super.visitLibraryDependency(dependency);
+            miniConfig.libraries.get(libraryName).dependencies.add(dependency);
+        }
+
         @Override
         protected void visitBuildFile(@NonNull String buildFile) {
             super.visitBuildFile(buildFile);
@@ -35,4 +35,6 @@ public class NativeLibraryValue {
     @Nullable public Collection<NativeHeaderFileValue> headers;
     @Nullable public File output;
     @Nullable public Collection<File> runtimeFiles;
+    /** Names of the libraries of the same configuration that this library links against. */
+    @Nullable public Collection<String> dependencies;
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.dependency
+
+import com.android.build.gradle.internal.LoggerWrapper
+import com.android.utils.FileUtils
+import com.google.common.annotations.VisibleForTesting
+import com.google.common.hash.Hashing
+import java.io.File
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Machine-wide cache of the results of jetifying libraries, shared by all the projects and Gradle
+ * daemons using the same cache directory.
+ *
+ * Entries are keyed by the contents of the library and by the Jetifier version, so a library is
+ * jetified only once, whatever its location, and again only when Jetifier changes. An entry holds
+ * either the jetified library or a marker saying that the library does not need to be jetified,
+ * which also saves opening the library to classify it.
+ *
+ * Entries are written to a temporary directory which is then renamed, so other processes never see
+ * partial entries. The total size of the entries is estimated as they are added, and once it is
+ * above [maxSizeInBytes] the least recently used entries are evicted until the cache is back under
+ * a lower size, so that the cache directory is only listed now and then.
+ */
+class JetifiedArtifactCache(
+    private val directory: File,
+    private val jetifierVersion: String,
+    private val maxSizeInBytes: Long = DEFAULT_MAX_SIZE_IN_BYTES
+) {
+
+    companion object {
+
+        /** Default maximum total size of the cache entries, in bytes. */
+        const val DEFAULT_MAX_SIZE_IN_BYTES = 1024L * 1024L * 1024L
+
+        // Increase this if we might have generated broken cache entries to invalidate them.
+        private const val CACHE_KEY_VERSION = 1
+
+        private const val OUTPUT_FILE_NAME = "output"
+
+        private const val UNCHANGED_MARKER_FILE_NAME = "unchanged"
+
+        @VisibleForTesting
+        internal const val LOCK_FILE_NAME = ".lock"
+
+        private const val TEMP_DIRECTORY_PREFIX = ".tmp-"
+
+        /** Fraction of the maximum size that eviction gets the cache under. */
+        private const val EVICTION_TARGET_RATIO = 0.9
+
+        /** Temporary directories older than this were left behind by builds that were killed. */
+        private val TEMP_DIRECTORY_TIME_TO_LIVE = TimeUnit.DAYS.toMillis(1)
+
+        /**
+         * Guards the eviction within this JVM, as file locks are held on behalf of the whole JVM
+         * and only exclude other processes.
+         */
+        private val EVICTION_LOCK = Any()
+
+        private val logger = LoggerWrapper.getLogger(JetifiedArtifactCache::class.java)
+    }
+
+    /**
+     * Estimated total size of the entries, or -1 until the cache directory is first listed. It
+     * only counts the entries added by this JVM, and is reset to the actual size on each eviction.
+     */
+    private val estimatedSizeInBytes = AtomicLong(-1)
+
+    /** Returns the key of the cache entry for the given library. */
+    fun getKey(aarOrJarFile: File): String {
+        val contentHash =
+            com.google.common.io.Files.asByteSource(aarOrJarFile).hash(Hashing.sha256())
+        return Hashing.sha256()
+            .newHasher()
+            .putInt(CACHE_KEY_VERSION)
+            .putUnencodedChars(jetifierVersion)
+            .putBytes(contentHash.asBytes())
+            .hash()
+            .toString()
+    }
+
+    /**
+     * Returns the cached result of jetifying [aarOrJarFile] into [outputFile], or null if there is
+     * none: [aarOrJarFile] itself if it does not need to be jetified, or else [outputFile] after
+     * copying the cached jetified library to it.
+     */
+    fun get(key: String, aarOrJarFile: File, outputFile: File): File? {
+        val entry = File(directory, key)
+        // Record the use for the least recently used eviction
+        if (!entry.setLastModified(System.currentTimeMillis())) {
+            return null
+        }
+        if (File(entry, UNCHANGED_MARKER_FILE_NAME).exists()) {
+            return aarOrJarFile
+        }
+        return try {
+            FileUtils.mkdirs(outputFile.parentFile)
+            Files.copy(
+                File(entry, OUTPUT_FILE_NAME).toPath(),
+                outputFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING
+            )
+            outputFile
+        } catch (e: NoSuchFileException) {
+            // The entry was evicted by another build in the meantime
+            null
+        }
+    }
+
+    /**
+     * Adds the result of jetifying [aarOrJarFile] to the cache, which is either [aarOrJarFile]
+     * itself if it did not need to be jetified, or the jetified library. Failures are only logged,
+     * as the result is already available to the caller.
+     */
+    fun put(key: String, aarOrJarFile: File, result: File) {
+        val entry = File(directory, key)
+        if (entry.exists()) {
+            return
+        }
+        try {
+            FileUtils.mkdirs(directory)
+            val tempDirectory =
+                Files.createTempDirectory(directory.toPath(), TEMP_DIRECTORY_PREFIX).toFile()
+            try {
+                if (result == aarOrJarFile) {
+                    Files.createFile(File(tempDirectory, UNCHANGED_MARKER_FILE_NAME).toPath())
+                } else {
+                    Files.copy(result.toPath(), File(tempDirectory, OUTPUT_FILE_NAME).toPath())
+                }
+                Files.move(
+                    tempDirectory.toPath(),
+                    entry.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE
+                )
+            } catch (e: IOException) {
+                // Another build may have added the same entry first, which is fine
+                if (!entry.exists()) {
+                    throw e
+                }
+            } finally {
+                FileUtils.deleteRecursivelyIfExists(tempDirectory)
+            }
+            val size = if (result == aarOrJarFile) 0L else result.length()
+            val estimatedSize = estimatedSizeInBytes.updateAndGet { if (it < 0) it else it + size }
+            if (estimatedSize < 0 || estimatedSize > maxSizeInBytes) {
+                evictLeastRecentlyUsedEntries()
+            }
+        } catch (e: IOException) {
+            logger.warning("Failed to add $aarOrJarFile to the Jetifier cache: ${e.message}")
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the total size of the cache is below the
+     * maximum size, or below [EVICTION_TARGET_RATIO] of it once it had to evict, and deletes
+     * temporary directories left behind by killed builds.
+     *
+     * This is safe to run concurrently with other builds using the same cache: eviction is locked
+     * across processes, and builds reading an entry which has just been evicted jetify the library
+     * again.
+     */
+    @VisibleForTesting
+    internal fun evictLeastRecentlyUsedEntries() {
+        synchronized(EVICTION_LOCK) {
+            FileChannel.open(
+                File(directory, LOCK_FILE_NAME).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE
+            ).use { channel ->
+                val lock = channel.lock()
+                try {
+                    val now = System.currentTimeMillis()
+                    val entries = mutableListOf<File>()
+                    for (file in directory.listFiles() ?: return) {
+                        if (file.name.startsWith(TEMP_DIRECTORY_PREFIX)) {
+                            if (now - file.lastModified() > TEMP_DIRECTORY_TIME_TO_LIVE) {
+                                FileUtils.deleteRecursivelyIfExists(file)
+                            }
+                        } else if (file.isDirectory) {
+                            entries.add(file)
+                        }
+                    }
+
+                    val sizes = entries.associate { it to getSize(it) }
+                    var totalSize = sizes.values.sum()
+                    if (totalSize > maxSizeInBytes) {
+                        val targetSize = (maxSizeInBytes * EVICTION_TARGET_RATIO).toLong()
+                        for (entry in entries.sortedBy { it.lastModified() }) {
+                            if (totalSize <= targetSize) {
+                                break
+                            }
+                            logger.verbose("Evicting %1\$s from the Jetifier cache", entry)
+                            FileUtils.deleteRecursivelyIfExists(entry)
+                            totalSize -= sizes.getValue(entry)
+                        }
+                    }
+                    estimatedSizeInBytes.set(totalSize)
+                } finally {
+                    lock.release()
+                }
+            }
+        }
+    }
+
+    private fun getSize(entry: File): Long =
+        entry.listFiles()?.fold(0L) { size, file -> size + file.length() } ?: 0L
+}
@@ -25,13 +25,17 @@ import com.google.common.base.Splitter
 import com.google.common.base.Verify
 import org.gradle.api.artifacts.transform.ArtifactTransform
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 
 /**
  * [ArtifactTransform] to convert a third-party library that uses old support libraries into an
  * equivalent library that uses new support libraries.
  */
-class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTransform() {
+class JetifyTransform @Inject constructor(
+    blackListOption: String,
+    cacheDirectory: String
+) : ArtifactTransform() {
 
     companion object {
 
@@ -46,8 +50,35 @@ class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTra
                 stripSignatures = true
             )
         }
+
+        /**
+         * Identifies the Jetifier version and configuration. Projects may put a newer Jetifier
+         * than the one the plugin depends on in their buildscript classpath, so this uses the jar
+         * that the processor was actually loaded from.
+         */
+        private val jetifierVersion: String by lazy {
+            val jetifierJar = Processor::class.java.protectionDomain?.codeSource?.location
+                ?.let { File(it.toURI()) }
+            "${Version.ANDROID_GRADLE_PLUGIN_VERSION}:${jetifierJar?.name}:${jetifierJar?.length()}"
+        }
+
+        /** The Jetifier caches, by cache directory, shared by the transforms of this daemon. */
+        private val jetifiedArtifactCaches = ConcurrentHashMap<String, JetifiedArtifactCache>()
     }
 
+    /**
+     * Machine-wide cache of jetified libraries, or null if the build cache is disabled, which is
+     * the case when [cacheDirectory] is empty.
+     */
+    private val jetifiedArtifactCache: JetifiedArtifactCache? =
+        if (cacheDirectory.isEmpty()) {
+            null
+        } else {
+            jetifiedArtifactCaches.computeIfAbsent(cacheDirectory) {
+                JetifiedArtifactCache(File(it), jetifierVersion)
+            }
+        }
+
     /**
      * List of regular expressions for libraries that should not be jetified.
      *
@@ -81,6 +112,27 @@ class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTra
                     || aarOrJarFile.name.toLowerCase().endsWith(".jar")
         )
 
+        // Libraries that are blacklisted are not jetified. This only depends on the path, so it is
+        // checked before the cache, and before the checks below which need to open the library.
+        if (jetifierBlackList.any { it.containsMatchIn(aarOrJarFile.absolutePath) }) {
+            return listOf(aarOrJarFile)
+        }
+
+        val outputFile = File(outputDirectory, "jetified-" + aarOrJarFile.name)
+        val cache = jetifiedArtifactCache ?: return listOf(jetify(aarOrJarFile, outputFile))
+
+        val key = cache.getKey(aarOrJarFile)
+        cache.get(key, aarOrJarFile, outputFile)?.let { return listOf(it) }
+        val result = jetify(aarOrJarFile, outputFile)
+        cache.put(key, aarOrJarFile, result)
+        return listOf(result)
+    }
+
+    /**
+     * Jetifies [aarOrJarFile] into [outputFile] if needed. Returns [outputFile] if the library was
+     * jetified, and [aarOrJarFile] otherwise.
+     */
+    private fun jetify(aarOrJarFile: File, outputFile: File): File {
         /*
          * The aars or jars can be categorized into 4 types:
          *  - AndroidX libraries
@@ -91,7 +143,7 @@ class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTra
          */
         // Case 1: If this is an AndroidX library, no need to jetify it
         if (jetifierProcessor.isNewDependencyFile(aarOrJarFile)) {
-            return listOf(aarOrJarFile)
+            return aarOrJarFile
         }
 
         // Case 2: If this is an old support library, it means that it was not replaced during
@@ -99,16 +151,12 @@ class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTra
         // or because its AndroidX version is not yet available on remote repositories. Again, no
         // need to jetify it.
         if (jetifierProcessor.isOldDependencyFile(aarOrJarFile)) {
-            return listOf(aarOrJarFile)
+            return aarOrJarFile
         }
 
-        // Case 3: If the library is blacklisted, do not jetify it
-        if (jetifierBlackList.any { it.containsMatchIn(aarOrJarFile.absolutePath) }) {
-            return listOf(aarOrJarFile)
-        }
+        // Case 3: Blacklisted libraries are handled in transform() already
 
         // Case 4: For the remaining libraries, let's jetify them
-        val outputFile = File(outputDirectory, "jetified-" + aarOrJarFile.name)
         val maybeTransformedFile = try {
             jetifierProcessor.transform(
                 setOf(FileMapping(aarOrJarFile, outputFile)), false
@@ -132,7 +180,7 @@ class JetifyTransform @Inject constructor(blackListOption: String) : ArtifactTra
         // the file wasn't transformed. In either case (whether the file was transformed or not), we
         // can just return to Gradle the file that was returned from Jetifier.
         Verify.verify(maybeTransformedFile.exists(), "$outputFile does not exist")
-        return listOf(maybeTransformedFile)
+        return maybeTransformedFile
     }
 }
 
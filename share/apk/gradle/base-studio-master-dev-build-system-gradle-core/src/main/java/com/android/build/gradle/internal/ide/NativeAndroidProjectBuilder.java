@@ -34,9 +34,13 @@ import com.android.builder.model.NativeVariantInfo;
 import com.android.builder.model.Version;
 import com.android.utils.StringHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.stream.JsonReader;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.File;
@@ -44,7 +48,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 /** Builder class for {@link NativeAndroidProject} or {@link NativeVariantAbi}. */
 class NativeAndroidProjectBuilder {
@@ -56,6 +59,12 @@ class NativeAndroidProjectBuilder {
     @NonNull private final List<NativeArtifact> artifacts = Lists.newArrayList();
     @NonNull private final List<NativeToolchain> toolChains = Lists.newArrayList();
     @NonNull private final Map<List<String>, NativeSettings> settingsMap = Maps.newHashMap();
+    // Settings names by untokenized flags, so that the flags shared by many files, ABIs and
+    // variants are only tokenized once.
+    @NonNull private final Map<String, String> settingsNames = Maps.newHashMap();
+    // Single instance of each flag and working directory, shared by all settings and files.
+    @NonNull private final Interner<String> flagInterner = Interners.newStrongInterner();
+    @NonNull private final Map<String, File> workingDirectories = Maps.newHashMap();
     @NonNull private final Set<String> buildSystems = Sets.newHashSet();
 
     NativeAndroidProjectBuilder(@NonNull String projectName) {
@@ -89,14 +98,9 @@ class NativeAndroidProjectBuilder {
             @NonNull String variantName,
             @NonNull GradleBuildVariant.NativeBuildConfigInfo.Builder config)
             throws IOException {
-        JsonStreamingVisitor modelBuildingVisitor =
-                new JsonStreamingVisitor(this, variantName, selectedAbiName);
-        AndroidBuildGradleJsonStatsBuildingVisitor statsVisitor =
-                new AndroidBuildGradleJsonStatsBuildingVisitor(config);
-        AndroidBuildGradleJsonCompositeVisitor composite =
-                new AndroidBuildGradleJsonCompositeVisitor(statsVisitor, modelBuildingVisitor);
         try (AndroidBuildGradleJsonStreamingParser parser =
-                new AndroidBuildGradleJsonStreamingParser(reader, composite)) {
+                new AndroidBuildGradleJsonStreamingParser(
+                        reader, createJsonVisitor(variantName, config))) {
             parser.parse();
         }
     }
@@ -106,14 +110,30 @@ class NativeAndroidProjectBuilder {
      * once.
      */
     void addJson(@NonNull JsonReader reader, @NonNull String variantName) throws IOException {
-        JsonStreamingVisitor modelBuildingVisitor =
-                new JsonStreamingVisitor(this, variantName, selectedAbiName);
         try (AndroidBuildGradleJsonStreamingParser parser =
-                new AndroidBuildGradleJsonStreamingParser(reader, modelBuildingVisitor)) {
+                new AndroidBuildGradleJsonStreamingParser(
+                        reader, createJsonVisitor(variantName, null))) {
             parser.parse();
         }
     }
 
+    /**
+     * Returns a visitor adding one per-variant Json to builder. When given, stats in
+     * NativeBuildConfigInfo.Builder are updated at the same time.
+     */
+    @NonNull
+    AndroidBuildGradleJsonStreamingVisitor createJsonVisitor(
+            @NonNull String variantName,
+            @Nullable GradleBuildVariant.NativeBuildConfigInfo.Builder config) {
+        JsonStreamingVisitor modelBuildingVisitor =
+                new JsonStreamingVisitor(this, variantName, selectedAbiName);
+        if (config == null) {
+            return modelBuildingVisitor;
+        }
+        return new AndroidBuildGradleJsonCompositeVisitor(
+                new AndroidBuildGradleJsonStatsBuildingVisitor(config), modelBuildingVisitor);
+    }
+
     /** Build the final {@link NativeAndroidProject}. */
     NativeAndroidProject buildNativeAndroidProject() {
         assert (selectedAbiName == null);
@@ -299,7 +319,11 @@ class NativeAndroidProjectBuilder {
         public void visitLibraryFileFlags(@NonNull String flags) {
             if (isCurrentAbiAcceptable()) {
                 this.currentLibraryFileSettingsName =
-                        getSettingsName(StringHelper.tokenizeCommandLineToEscaped(flags));
+                        builder.settingsNames.computeIfAbsent(
+                                flags,
+                                key ->
+                                        getSettingsName(
+                                                StringHelper.tokenizeCommandLineToEscaped(key)));
             }
         }
 
@@ -354,7 +378,10 @@ class NativeAndroidProjectBuilder {
                         new NativeFileImpl(
                                 new File(currentLibraryFilePath),
                                 currentLibraryFileSettingsName,
-                                newFileOrNull(currentLibraryFileWorkingDirectory)));
+                                currentLibraryFileWorkingDirectory == null
+                                        ? null
+                                        : builder.workingDirectories.computeIfAbsent(
+                                                currentLibraryFileWorkingDirectory, File::new)));
             }
 
             this.currentLibraryFilePath = null;
@@ -364,13 +391,21 @@ class NativeAndroidProjectBuilder {
 
         private String getSettingsName(@NonNull List<String> flags) {
             // Copy flags to ensure it is serializable.
-            List<String> flagsCopy = ImmutableList.copyOf(flags);
-            NativeSettings setting = builder.settingsMap.get(flags);
+            ImmutableList.Builder<String> flagsCopy = ImmutableList.builder();
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            for (String flag : flags) {
+                flagsCopy.add(builder.flagInterner.intern(flag));
+                hasher.putInt(flag.length()).putUnencodedChars(flag);
+            }
+            List<String> key = flagsCopy.build();
+            NativeSettings setting = builder.settingsMap.get(key);
             if (setting == null) {
                 // Settings needs to be unique so that AndroidStudio can combine settings
-                // from multiple NativeAndroidAbi without worrying about collision.
-                setting = new NativeSettingsImpl("setting" + UUID.randomUUID(), flagsCopy);
-                builder.settingsMap.put(flagsCopy, setting);
+                // from multiple NativeAndroidAbi without worrying about collision. The name is
+                // derived from the flags so that the same flags get the same settings in every
+                // NativeAndroidAbi.
+                setting = new NativeSettingsImpl("setting" + hasher.hash(), key);
+                builder.settingsMap.put(key, setting);
             }
             return setting.getName();
         }
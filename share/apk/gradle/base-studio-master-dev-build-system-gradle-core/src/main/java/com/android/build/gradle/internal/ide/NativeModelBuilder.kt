@@ -150,12 +150,8 @@ class NativeModelBuilder(
                 buildInexpensiveNativeAndroidProjectInformation(builder, generator)
                 ++built
                 try {
-                    generator.forEachNativeBuildConfiguration { jsonReader ->
-                        try {
-                            builder.addJson(jsonReader, generator.variantName)
-                        } catch (e: IOException) {
-                            throw RuntimeException("Failed to read native JSON data", e)
-                        }
+                    generator.forEachNativeBuildConfiguration {
+                        builder.createJsonVisitor(generator.variantName, null)
                     }
                 } catch (e: IOException) {
                     throw RuntimeException("Failed to read native JSON data", e)
@@ -181,12 +177,8 @@ class NativeModelBuilder(
                 stats.addNativeBuildConfig(config)
             }
             try {
-                generator.forEachNativeBuildConfiguration { jsonReader ->
-                    try {
-                        builder.addJson(jsonReader, generator.variantName, config)
-                    } catch (e: IOException) {
-                        throw RuntimeException("Failed to read native JSON data", e)
-                    }
+                generator.forEachNativeBuildConfiguration {
+                    builder.createJsonVisitor(generator.variantName, config)
                 }
             } catch (e: IOException) {
                 throw RuntimeException("Failed to read native JSON data", e)
@@ -21,7 +21,9 @@ import com.android.build.gradle.internal.workeractions.WorkerActionServiceRegist
 import com.android.build.gradle.internal.workeractions.WorkerActionServiceRegistry.ServiceKey
 import com.android.builder.dexing.ClassFileInput
 import com.android.ide.common.workers.WorkerExecutorFacade
-import com.google.common.collect.Maps
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.hash.Hashing
 import org.gradle.api.artifacts.ArtifactCollection
 import org.gradle.api.artifacts.component.ComponentIdentifier
 import org.gradle.api.artifacts.component.ModuleComponentIdentifier
@@ -38,23 +40,34 @@ import kotlin.streams.toList
  * A class that checks for duplicate classes within an ArtifactCollection. Classes are assumed to be
  * duplicate if they have the same name and they are positioned within the same package (this is
  * possible if they are in different artifacts).
+ *
+ * To keep the check cheap for dependencies with millions of classes, each artifact is indexed by
+ * the sorted 64 bit hashes of its class names rather than the names themselves. The hashes are
+ * split in ranges which are checked for duplicates in parallel, and the class names are only read
+ * again from the artifacts sharing a hash, to report the duplicates.
  */
 class CheckDuplicateClassesDelegate(private val classesArtifacts: ArtifactCollection) {
 
-    class ArtifactClassesMap : ConcurrentHashMap<String, List<String>>()
+    class ClassIndex {
+        /** The sorted, distinct hashes of the class names of each artifact, by artifact name. */
+        val artifactClasses = ConcurrentHashMap<String, LongArray>()
+        /** The hashes found in more than one artifact. */
+        val duplicateHashes: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+    }
 
-    data class ArtifactClassesKey(private val name: String) : ServiceKey<ArtifactClassesMap> {
-        override val type = ArtifactClassesMap::class.java
+    data class ClassIndexKey(private val name: String) : ServiceKey<ClassIndex> {
+        override val type = ClassIndex::class.java
     }
 
     fun run(workers: WorkerExecutorFacade) {
-        val artifactClasses = ArtifactClassesMap()
+        val classIndex = ClassIndex()
+        val artifacts = classesArtifacts.artifacts
 
         WorkerActionServiceRegistry
-            .Manager(artifactClasses, ArtifactClassesKey("artifactClasses${hashCode()}"))
+            .Manager(classIndex, ClassIndexKey("classIndex${hashCode()}"))
             .use { keyManager ->
                 workers.use { facade ->
-                    classesArtifacts.artifacts.forEach {
+                    artifacts.forEach {
                         facade.submit(
                             ExtractClassesRunnable::class.java,
                             ExtractClassesParams(it.id.displayName, it.file, keyManager.key!!)
@@ -63,34 +76,84 @@ class CheckDuplicateClassesDelegate(private val classesArtifacts: ArtifactCollec
 
                     facade.await()
 
-                    facade.submit(
-                        CheckDuplicatesRunnable::class.java,
-                        CheckDuplicatesParams(keyManager.key!!)
-                    )
+                    for (shard in 0 until SHARD_COUNT) {
+                        facade.submit(
+                            CheckDuplicatesRunnable::class.java,
+                            CheckDuplicatesParams(shard, keyManager.key!!)
+                        )
+                    }
 
                     facade.await()
                 }
             }
+
+        if (classIndex.duplicateHashes.isEmpty()) {
+            return
+        }
+        // Only read the class names of the artifacts involved in a duplicate, which also rules
+        // out hash collisions between different class names
+        val classes = mutableMapOf<String, MutableList<String>>()
+        artifacts.forEach { artifact ->
+            val artifactName = artifact.id.displayName
+            val hashes = classIndex.artifactClasses[artifactName] ?: return@forEach
+            if (classIndex.duplicateHashes.none { hashes.binarySearch(it) >= 0 }) {
+                return@forEach
+            }
+            extractClasses(artifact.file)
+                .filter { classIndex.duplicateHashes.contains(hashClassName(it)) }
+                .forEach { classes.getOrPut(it) { mutableListOf() }.add(artifactName) }
+        }
+
+        val duplicatesMap = classes.filter { it.value.size > 1 }.toSortedMap()
+        if (!duplicatesMap.isEmpty()) {
+            val lineSeparator = System.lineSeparator()
+            val duplicateMessages = duplicatesMap
+                .map { duplicateClassMessage(it.key, it.value) }
+                .joinToString(lineSeparator)
+            throw RuntimeException("$duplicateMessages$lineSeparator$lineSeparator$RECOMMENDATION")
+        }
     }
 }
 
+/** The hash ranges checked for duplicates in parallel are given by the top bits of the hashes. */
+private const val SHARD_BITS = 4
+private const val SHARD_COUNT = 1 shl SHARD_BITS
+private const val SHARD_SHIFT = 64 - SHARD_BITS
+
+/**
+ * The class name hashes of the artifacts extracted so far, by file, length and timestamp, so that
+ * unchanged dependencies are not read again by later checks of the build or of the next builds.
+ */
+private val classHashesCache: Cache<ArtifactFingerprint, LongArray> =
+    CacheBuilder.newBuilder().softValues().build<ArtifactFingerprint, LongArray>()
+
+private data class ArtifactFingerprint(
+    val file: File,
+    val length: Long,
+    val lastModified: Long
+)
+
 private data class ExtractClassesParams(
     val artifactName: String,
     val artifactFile: File,
-    val serviceKey: ServiceKey<CheckDuplicateClassesDelegate.ArtifactClassesMap>
+    val serviceKey: ServiceKey<CheckDuplicateClassesDelegate.ClassIndex>
 ) : Serializable
 
 private class ExtractClassesRunnable @Inject constructor(
     private val params: ExtractClassesParams) : Runnable {
 
     override fun run() {
-        val map = WorkerActionServiceRegistry.INSTANCE.getService(params.serviceKey).service
-        map[params.artifactName] = extractClasses(params.artifactFile)
+        val classIndex = WorkerActionServiceRegistry.INSTANCE.getService(params.serviceKey).service
+        val file = params.artifactFile
+        val fingerprint = ArtifactFingerprint(file, file.length(), file.lastModified())
+        classIndex.artifactClasses[params.artifactName] =
+                classHashesCache.get(fingerprint) { extractClassHashes(file) }
     }
 }
 
 private data class CheckDuplicatesParams(
-    val serviceKey: ServiceKey<CheckDuplicateClassesDelegate.ArtifactClassesMap>): Serializable
+    val shard: Int,
+    val serviceKey: ServiceKey<CheckDuplicateClassesDelegate.ClassIndex>): Serializable
 
 private const val RECOMMENDATION =
     "Go to the documentation to learn how to <a href=\"d.android.com/r/tools/classpath-sync-errors\">Fix dependency resolution errors</a>."
@@ -107,33 +170,51 @@ private fun duplicateClassMessage(className: String, artifactNames: List<String>
     return "Duplicate class $className found in $modules"
 }
 
+/**
+ * Finds the hashes of the shard which are in more than one artifact. A shard is the range of hashes
+ * with the same top bits, which is a contiguous part of each sorted hash array.
+ */
 private class CheckDuplicatesRunnable @Inject constructor(
     private val params: CheckDuplicatesParams) : Runnable {
 
     override fun run() {
+        val classIndex = WorkerActionServiceRegistry.INSTANCE.getService(params.serviceKey).service
+        val from = params.shard.toLong() shl SHARD_SHIFT
+        val to = from + (1L shl SHARD_SHIFT) - 1
 
-        val map = WorkerActionServiceRegistry.INSTANCE.getService(params.serviceKey).service
-        val maxSize = map.map { it.value.size }.sum()
-        val classes = Maps.newHashMapWithExpectedSize<String, MutableList<String>>(maxSize)
-
-        map.forEach {
-            val artifactName = it.key
-            it.value.forEach { className ->
-                classes.getOrPut(className) { mutableListOf() }.add(artifactName)
-            }
+        val ranges = classIndex.artifactClasses.values.map {
+            val end = if (to == Long.MAX_VALUE) it.size else lowerBound(it, to + 1)
+            Triple(it, lowerBound(it, from), end)
+        }
+        val shardHashes = LongArray(ranges.map { it.third - it.second }.sum())
+        var size = 0
+        for ((hashes, start, end) in ranges) {
+            System.arraycopy(hashes, start, shardHashes, size, end - start)
+            size += end - start
         }
 
-        val duplicatesMap = classes.filter { it.value.size > 1 }.toSortedMap()
-        if (!duplicatesMap.isEmpty()) {
-            val lineSeparator = System.lineSeparator()
-            val duplicateMessages = duplicatesMap
-                .map { duplicateClassMessage(it.key, it.value) }
-                .joinToString(lineSeparator)
-            throw RuntimeException("$duplicateMessages$lineSeparator$lineSeparator$RECOMMENDATION")
+        // Each artifact has distinct hashes, so equal neighbors come from different artifacts
+        shardHashes.sort()
+        for (i in 1 until shardHashes.size) {
+            if (shardHashes[i] == shardHashes[i - 1]) {
+                classIndex.duplicateHashes.add(shardHashes[i])
+            }
         }
     }
 }
 
+/** Returns the index of the first hash which is not lower than the given one. */
+private fun lowerBound(hashes: LongArray, hash: Long): Int {
+    val index = hashes.binarySearch(hash)
+    return if (index >= 0) index else -index - 1
+}
+
+private fun hashClassName(className: String): Long =
+    Hashing.murmur3_128().hashUnencodedChars(className).asLong()
+
+private fun extractClassHashes(jarFile: File): LongArray =
+    extractClasses(jarFile).mapTo(HashSet()) { hashClassName(it) }.toLongArray().apply { sort() }
+
 private fun extractClasses(jarFile: File): List<String> = ZipFile(jarFile).use {
     return it.stream()
     .filter { ClassFileInput.CLASS_MATCHER.test(it.name) }
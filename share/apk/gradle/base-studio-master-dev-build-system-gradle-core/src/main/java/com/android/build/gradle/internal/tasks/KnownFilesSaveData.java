@@ -23,23 +23,31 @@ import com.android.builder.files.IncrementalRelativeFileSets;
 import com.android.builder.files.RelativeFile;
 import com.android.ide.common.resources.FileStatus;
 import com.android.tools.build.apkzlib.utils.CachedFileContents;
+import com.android.utils.FileUtils;
 import com.google.common.base.Functions;
 import com.google.common.base.Predicates;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Writer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -53,13 +61,21 @@ import java.util.function.Function;
  *
  * <p>File data is loaded on creation and saved on close.
  *
- * <p><i>Implementation note:</i> the actual data is saved in a property file with the file name
- * mapped to the name of the {@link InputSet} enum defining its input set.
+ * <p><i>Implementation note:</i> the actual data is saved in a binary file. The base files are
+ * written once in a table, and each file refers to its base by index, followed by its relative path
+ * and the ordinal of the {@link InputSet} enum defining its input set. Data saved by older versions
+ * in a property file is still read, and replaced by the binary file on the next save.
  */
 public class KnownFilesSaveData {
 
     /** Name of the file with the save data. */
-    private static final String SAVE_DATA_FILE_NAME = "file-input-save-data.txt";
+    private static final String SAVE_DATA_FILE_NAME = "file-input-save-data.bin";
+
+    /** Version of the binary save data, to be increased whenever its format changes. */
+    private static final int SAVE_DATA_VERSION = 1;
+
+    /** Name of the property file with the save data of older versions. */
+    private static final String LEGACY_SAVE_DATA_FILE_NAME = "file-input-save-data.txt";
 
     /** Property with the number of files in the property file. */
     private static final String COUNT_PROPERTY = "count";
@@ -101,11 +117,16 @@ public class KnownFilesSaveData {
             throws IOException {
         mFileContentsCache = cache;
         mFiles = Maps.newHashMap();
+        mDirty = false;
+
+        File legacySaveFile = getLegacySaveFile(cache.getFile());
         if (cache.getFile().isFile()) {
             readCurrentData();
+        } else if (legacySaveFile.isFile()) {
+            readLegacyData(legacySaveFile);
+            // Make sure the data is migrated to the binary file on the next save
+            mDirty = true;
         }
-
-        mDirty = false;
     }
 
     /**
@@ -146,6 +167,17 @@ public class KnownFilesSaveData {
         return new File(intermediateDir, SAVE_DATA_FILE_NAME);
     }
 
+    /**
+     * Computes the property file with the save data of older versions, next to the save file.
+     *
+     * @param saveFile the save file
+     * @return the file
+     */
+    @NonNull
+    private static File getLegacySaveFile(@NonNull File saveFile) {
+        return new File(saveFile.getParentFile(), LEGACY_SAVE_DATA_FILE_NAME);
+    }
+
     /**
      * Reads the save file data into the in-memory data structures.
      *
@@ -153,9 +185,64 @@ public class KnownFilesSaveData {
      */
     @VisibleForTesting
     void readCurrentData() throws IOException {
-        Closer closer = Closer.create();
-
         File saveFile = mFileContentsCache.getFile();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(saveFile)))) {
+            int version = in.readInt();
+            if (version != SAVE_DATA_VERSION) {
+                throw new IOException(
+                        "Invalid data stored in file '"
+                                + saveFile
+                                + "' (unknown version "
+                                + version
+                                + ").");
+            }
+
+            RelativeFile.Type[] baseTypes = RelativeFile.Type.values();
+            int baseCount = in.readInt();
+            File[] bases = new File[baseCount];
+            RelativeFile.Type[] types = new RelativeFile.Type[baseCount];
+            for (int i = 0; i < baseCount; i++) {
+                bases[i] = new File(in.readUTF());
+                types[i] = baseTypes[checkIndex(saveFile, in.readUnsignedByte(), baseTypes)];
+            }
+
+            InputSet[] inputSets = InputSet.values();
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                int base = checkIndex(saveFile, in.readInt(), bases);
+                String relativePath = in.readUTF();
+                InputSet is = inputSets[checkIndex(saveFile, in.readUnsignedByte(), inputSets)];
+                mFiles.put(new RelativeFile(bases[base], relativePath, types[base]), is);
+            }
+        } catch (EOFException | NegativeArraySizeException e) {
+            throw new IOException("Invalid data stored in file '" + saveFile + "'.", e);
+        }
+    }
+
+    private static int checkIndex(@NonNull File saveFile, int index, @NonNull Object[] array)
+            throws IOException {
+        if (index < 0 || index >= array.length) {
+            throw new IOException(
+                    "Invalid data stored in file '"
+                            + saveFile
+                            + "' (index "
+                            + index
+                            + " out of "
+                            + array.length
+                            + ").");
+        }
+        return index;
+    }
+
+    /**
+     * Reads the property file written by older versions into the in-memory data structures.
+     *
+     * @param saveFile the property file
+     * @throws IOException failed to read the file
+     */
+    private void readLegacyData(@NonNull File saveFile) throws IOException {
+        Closer closer = Closer.create();
 
         Properties properties = new Properties();
         try {
@@ -300,37 +387,47 @@ public class KnownFilesSaveData {
             return;
         }
 
-        Closer closer = Closer.create();
-
-        Properties properties = new Properties();
-        properties.put(COUNT_PROPERTY, Integer.toString(mFiles.size()));
-        int idx = 0;
-        for (Map.Entry<RelativeFile, InputSet> e : mFiles.entrySet()) {
-            RelativeFile rf = e.getKey();
-
+        Map<String, Integer> baseIndices = Maps.newHashMap();
+        List<RelativeFile> bases = Lists.newArrayList();
+        for (RelativeFile rf : mFiles.keySet()) {
             String basePath = Verify.verifyNotNull(rf.getBase().getPath());
             Verify.verify(!basePath.isEmpty());
 
             String relativePath = Verify.verifyNotNull(rf.getRelativePath());
             Verify.verify(!relativePath.isEmpty());
 
-            properties.put(idx + BASE_SUFFIX, basePath);
-            properties.put(idx + RELATIVE_PATH_SUFFIX, relativePath);
-            properties.put(idx + INPUT_SET_SUFFIX, e.getValue().name());
-            properties.put(idx + BASE_TYPE_SUFFIX, rf.getType().name());
-
-            idx++;
+            // Files of the same base share the table entry of the first of them
+            if (baseIndices.putIfAbsent(getBaseKey(rf), bases.size()) == null) {
+                bases.add(rf);
+            }
         }
 
-        try {
-            Writer saveDataWriter = closer.register(new FileWriter(mFileContentsCache.getFile()));
-            properties.store(saveDataWriter, "Internal package file, do not edit.");
-            mFileContentsCache.closed(this);
-        } catch (Throwable t) {
-            throw closer.rethrow(t);
-        } finally {
-            closer.close();
+        File saveFile = mFileContentsCache.getFile();
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(saveFile)))) {
+            out.writeInt(SAVE_DATA_VERSION);
+            out.writeInt(bases.size());
+            for (RelativeFile base : bases) {
+                out.writeUTF(base.getBase().getPath());
+                out.writeByte(base.getType().ordinal());
+            }
+
+            out.writeInt(mFiles.size());
+            for (Map.Entry<RelativeFile, InputSet> e : mFiles.entrySet()) {
+                RelativeFile rf = e.getKey();
+                out.writeInt(baseIndices.get(getBaseKey(rf)));
+                out.writeUTF(rf.getRelativePath());
+                out.writeByte(e.getValue().ordinal());
+            }
         }
+        FileUtils.deleteIfExists(getLegacySaveFile(saveFile));
+        mFileContentsCache.closed(this);
+    }
+
+    /** Obtains the key of the entry of the base of a relative file in the table of bases. */
+    @NonNull
+    private static String getBaseKey(@NonNull RelativeFile rf) {
+        return rf.getType().name() + ':' + rf.getBase().getPath();
     }
 
     /**
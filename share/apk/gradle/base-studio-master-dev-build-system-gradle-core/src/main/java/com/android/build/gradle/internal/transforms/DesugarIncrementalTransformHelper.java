@@ -20,6 +20,8 @@ import static com.android.builder.desugaring.DesugaringClassAnalyzer.analyze;
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.build.api.transform.DirectoryInput;
 import com.android.build.api.transform.JarInput;
 import com.android.build.api.transform.QualifiedContent;
@@ -29,28 +31,33 @@ import com.android.build.api.transform.TransformInvocation;
 import com.android.build.gradle.internal.LoggerWrapper;
 import com.android.builder.desugaring.DesugaringClassAnalyzer;
 import com.android.builder.desugaring.DesugaringData;
-import com.android.builder.desugaring.DesugaringGraph;
-import com.android.builder.desugaring.DesugaringGraphs;
 import com.android.ide.common.internal.WaitableExecutor;
+import com.android.utils.FileUtils;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
- * This helper analyzes the transform inputs, updates the {@link DesugaringGraph} it owns, and its
- * main goal is to provide paths that should also be also considered out of date, in addition to the
- * changed files. See {@link #getAdditionalPaths()} for details.
+ * This helper analyzes the transform inputs, updates the {@link PersistentDesugaringGraph} it owns,
+ * and its main goal is to provide paths that should also be also considered out of date, in
+ * addition to the changed files. See {@link #getAdditionalPaths()} for details.
+ *
+ * <p>The graph is kept in memory between builds, and saved to the temporary directory of the
+ * transform, from which it is loaded lazily when the daemon does not know it yet. This way only the
+ * changed files need to be analyzed in incremental builds.
  */
 class DesugarIncrementalTransformHelper {
 
@@ -58,33 +65,50 @@ class DesugarIncrementalTransformHelper {
     private static final LoggerWrapper logger =
             LoggerWrapper.getLogger(DesugarIncrementalTransformHelper.class);
 
+    @VisibleForTesting static final String GRAPH_FILE_NAME = "desugaring-graph.bin";
+
+    /** Graphs of the previous builds, by project variant. */
+    @NonNull
+    private static final Map<String, PersistentDesugaringGraph> graphs = new ConcurrentHashMap<>();
+
     @NonNull private final String projectVariant;
     @NonNull private final TransformInvocation invocation;
     @NonNull private final WaitableExecutor executor;
+    @Nullable private final File graphFile;
 
     @NonNull
     private final Supplier<Set<Path>> changedPaths = Suppliers.memoize(this::findChangedPaths);
 
-    @NonNull private final Supplier<DesugaringGraph> desugaringGraph;
+    @NonNull
+    private final Supplier<PersistentDesugaringGraph> desugaringGraph =
+            Suppliers.memoize(this::makeDesugaringGraph);
+
+    /**
+     * Paths impacted by the changed paths before the graph was updated, such as the paths which
+     * depended on a removed class.
+     */
+    @NonNull private final Set<Path> previouslyDependentPaths = new HashSet<>();
 
+    /**
+     * @param executor the executor analyzing the inputs. Waiting for its tasks must not wait for
+     *     anything else, so that the graph can be updated while other work is in progress.
+     */
     DesugarIncrementalTransformHelper(
             @NonNull String projectVariant,
             @NonNull TransformInvocation invocation,
-            @NonNull WaitableExecutor executor) {
+            @NonNull WaitableExecutor executor)
+            throws IOException {
         this.projectVariant = projectVariant;
         this.invocation = invocation;
         this.executor = executor;
-        DesugaringGraph graph;
+        File temporaryDir = invocation.getContext().getTemporaryDir();
+        graphFile = temporaryDir != null ? new File(temporaryDir, GRAPH_FILE_NAME) : null;
         if (!invocation.isIncremental()) {
-            DesugaringGraphs.invalidate(projectVariant);
-            graph = null;
-        } else {
-            graph =
-                    DesugaringGraphs.updateVariant(
-                            projectVariant, () -> getIncrementalData(changedPaths, executor));
+            graphs.remove(projectVariant);
+            if (graphFile != null) {
+                FileUtils.deleteIfExists(graphFile);
+            }
         }
-        desugaringGraph =
-                graph != null ? () -> graph : Suppliers.memoize(this::makeDesugaringGraph);
     }
 
     /**
@@ -106,9 +130,15 @@ class DesugarIncrementalTransformHelper {
         Stopwatch stopwatch = Stopwatch.createStarted();
         logger.verbose("Desugaring dependencies incrementally.");
 
+        PersistentDesugaringGraph graph = desugaringGraph.get();
         Set<Path> additionalPaths = new HashSet<>();
+        for (Path path : previouslyDependentPaths) {
+            if (!changedPaths.get().contains(path)) {
+                additionalPaths.add(path);
+            }
+        }
         for (Path changed : changedPaths.get()) {
-            for (Path path : desugaringGraph.get().getDependentPaths(changed)) {
+            for (Path path : graph.getDependentPaths(changed)) {
                 if (!changedPaths.get().contains(path)) {
                     additionalPaths.add(path);
                 }
@@ -123,16 +153,57 @@ class DesugarIncrementalTransformHelper {
     }
 
     @NonNull
-    private DesugaringGraph makeDesugaringGraph() {
-        if (!invocation.isIncremental()) {
-            // Rebuild totally the graph whatever the cache status
-            return DesugaringGraphs.forVariant(
-                    projectVariant, getInitalGraphData(invocation, executor));
+    private PersistentDesugaringGraph makeDesugaringGraph() {
+        PersistentDesugaringGraph graph = invocation.isIncremental() ? loadGraph() : null;
+        boolean modified = true;
+        if (graph == null) {
+            graph = new PersistentDesugaringGraph(getInitalGraphData(invocation, executor));
+        } else if (!changedPaths.get().isEmpty()) {
+            for (Path changed : changedPaths.get()) {
+                previouslyDependentPaths.addAll(graph.getDependentPaths(changed));
+            }
+            graph.update(changedPaths.get(), getIncrementalData(changedPaths, executor));
+        } else {
+            modified = false;
+        }
+        graphs.put(projectVariant, graph);
+        if (modified) {
+            saveGraph(graph);
+        }
+        return graph;
+    }
+
+    /** Returns the graph of the previous build, or {@code null} if it is not known. */
+    @Nullable
+    private PersistentDesugaringGraph loadGraph() {
+        PersistentDesugaringGraph graph = graphs.get(projectVariant);
+        if (graph != null || graphFile == null || !graphFile.isFile()) {
+            return graph;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            graph = PersistentDesugaringGraph.load(graphFile);
+        } catch (IOException e) {
+            logger.warning("Unable to load desugaring graph %s: %s", graphFile, e.getMessage());
+            return null;
+        }
+        logger.verbose(
+                "Time to load desugaring graph: %d", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return graph;
+    }
+
+    private void saveGraph(@NonNull PersistentDesugaringGraph graph) {
+        if (graphFile == null) {
+            return;
+        }
+        try {
+            FileUtils.mkdirs(graphFile.getParentFile());
+            graph.save(graphFile);
+        } catch (IOException e) {
+            // Without the file, the next daemon analyzes all the inputs again
+            logger.warning("Unable to save desugaring graph %s: %s", graphFile, e.getMessage());
+            graphFile.delete();
         }
-        return DesugaringGraphs.forVariant(
-                projectVariant,
-                () -> getInitalGraphData(invocation, executor),
-                () -> getIncrementalData(changedPaths, executor));
     }
 
     @NonNull
@@ -227,7 +298,8 @@ class DesugarIncrementalTransformHelper {
         return Iterables.concat(invocation.getInputs(), invocation.getReferencedInputs());
     }
 
-    public Set<Path> getDependenciesPaths(Path path) {
+    @NonNull
+    Set<Path> getDependenciesPaths(@NonNull Path path) {
         return desugaringGraph.get().getDependenciesPaths(path);
     }
 }
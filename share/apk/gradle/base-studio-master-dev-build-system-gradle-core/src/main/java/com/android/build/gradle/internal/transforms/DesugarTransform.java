@@ -289,7 +289,7 @@ public class DesugarTransform extends Transform {
 
     @NonNull
     private Set<File> incrementalAnalysis(@NonNull TransformInvocation invocation)
-            throws InterruptedException {
+            throws InterruptedException, IOException {
         DesugarIncrementalTransformHelper helper =
                 new DesugarIncrementalTransformHelper(projectVariant, invocation, waitableExecutor);
         Set<Path> additionalPaths = helper.getAdditionalPaths();
@@ -440,18 +440,23 @@ public class DesugarTransform extends Transform {
             throws InterruptedException {
         for (DesugarProcessArgs arg : args) {
             waitableExecutor.execute(
-                    () -> {
-                        DesugarProcessBuilder processBuilder =
-                                new DesugarProcessBuilder(arg, desugarJar.get());
-                        boolean isWindows =
-                                SdkConstants.currentPlatform() == SdkConstants.PLATFORM_WINDOWS;
-                        executor.execute(
-                                        processBuilder.build(isWindows),
-                                        new LoggedProcessOutputHandler(logger))
-                                .rethrowFailure()
-                                .assertNormalExitValue();
-                        return null;
-                    });
+                    // Each desugaring process keeps a processor busy, so it holds a thread of the
+                    // pool shared with the other dexing work while it runs.
+                    () ->
+                            DexingScheduler.execute(
+                                    () -> {
+                                        DesugarProcessBuilder processBuilder =
+                                                new DesugarProcessBuilder(arg, desugarJar.get());
+                                        boolean isWindows =
+                                                SdkConstants.currentPlatform()
+                                                        == SdkConstants.PLATFORM_WINDOWS;
+                                        executor.execute(
+                                                        processBuilder.build(isWindows),
+                                                        new LoggedProcessOutputHandler(logger))
+                                                .rethrowFailure()
+                                                .assertNormalExitValue();
+                                        return null;
+                                    }));
         }
         waitableExecutor.waitForTasksWithQuickFail(true);
     }
@@ -18,16 +18,21 @@ package com.android.build.gradle.internal.transforms;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.build.api.transform.JarInput;
 import com.android.build.api.transform.QualifiedContent;
 import com.android.build.gradle.internal.BuildCacheUtils;
 import com.android.build.gradle.internal.LoggerWrapper;
 import com.android.build.gradle.internal.pipeline.OriginalStream;
+import com.android.build.gradle.internal.scope.VariantScope;
 import com.android.builder.core.DexOptions;
 import com.android.builder.dexing.DexerTool;
 import com.android.builder.utils.FileCache;
+import com.android.builder.utils.SynchronizedFile;
 import com.android.dx.Version;
+import com.android.utils.FileUtils;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.base.Verify;
 import com.google.common.io.ByteStreams;
@@ -37,21 +42,39 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 
-/** helper class used to cache dex archives in the user or build caches. */
+/**
+ * helper class used to cache dex archives in the user or build caches.
+ *
+ * <p>Cache entries are content addressed: they are keyed by the contents of the input jar and of
+ * its D8 desugaring dependencies rather than by their paths, so identical libraries used from
+ * different projects or checkouts share a single entry. Entries are added as soon as the
+ * corresponding jar has been converted, and every entry created or used is recorded in an index
+ * file in the cache directory. After each transform, the least recently used dex archives are
+ * evicted until the total size of the dex archives in the cache is below the configured maximum.
+ */
 class DexArchiveBuilderCacheHandler {
 
     static final class CacheableItem {
@@ -73,13 +96,32 @@ class DexArchiveBuilderCacheHandler {
             LoggerWrapper.getLogger(DexArchiveBuilderTransform.class);
 
     // Increase this if we might have generated broken cache entries to invalidate them.
-    private static final int CACHE_KEY_VERSION = 4;
+    private static final int CACHE_KEY_VERSION = 5;
+
+    /** Default maximum total size of the dex archives in the cache, in megabytes. */
+    static final int DEFAULT_MAX_CACHE_SIZE_IN_MB = 1024;
+
+    /**
+     * Name of the file in the cache directory listing the paths of the cached dex archives,
+     * relative to the cache directory, in the order they were first added.
+     */
+    @VisibleForTesting static final String CACHE_INDEX_FILE_NAME = ".dex-archive-index";
+
+    /**
+     * Guards the index file within this JVM, as file locks are held on behalf of the whole JVM and
+     * only exclude other processes.
+     */
+    private static final Object INDEX_LOCK = new Object();
 
     @Nullable private final FileCache userLevelCache;
     @NonNull private final DexOptions dexOptions;
     private final int minSdkVersion;
     private final boolean isDebuggable;
     @NonNull private final DexerTool dexer;
+    @NonNull private final VariantScope.Java8LangSupport java8LangSupportType;
+    private final long maxCacheSizeInBytes;
+    /** The cached dex archives created or used by this handler, which should be in the index. */
+    @NonNull private final Set<File> usedEntries = ConcurrentHashMap.newKeySet();
     /**
      * A cache session to share between all cache access. We can do that because each {@link
      * DexArchiveBuilderCacheHandler} is used only by one DexArchiveBuilderTransform and all files
@@ -92,14 +134,25 @@ class DexArchiveBuilderCacheHandler {
             @NonNull DexOptions dexOptions,
             int minSdkVersion,
             boolean isDebuggable,
-            @NonNull DexerTool dexer) {
+            @NonNull DexerTool dexer,
+            @NonNull VariantScope.Java8LangSupport java8LangSupportType,
+            int maxCacheSizeInMb) {
         this.userLevelCache = userLevelCache;
         this.dexOptions = dexOptions;
         this.minSdkVersion = minSdkVersion;
         this.isDebuggable = isDebuggable;
         this.dexer = dexer;
+        this.java8LangSupportType = java8LangSupportType;
+        this.maxCacheSizeInBytes = maxCacheSizeInMb * 1024L * 1024L;
     }
 
+    /**
+     * Returns the cached dex archive for the given jar, or {@code null} if there is none. This
+     * may be called concurrently with conversions and with {@link #populateCache(CacheableItem)}.
+     *
+     * <p>As the entry may be evicted by another build at any time, callers should handle the
+     * returned file having disappeared by the time they read it.
+     */
     @Nullable
     File getCachedVersionIfPresent(@NonNull JarInput input, @NonNull List<Path> dependencies)
             throws IOException {
@@ -116,55 +169,175 @@ class DexArchiveBuilderCacheHandler {
                         dexer,
                         minSdkVersion,
                         isDebuggable,
+                        java8LangSupportType,
                         dependencies,
                         cacheSession);
-        return cache.cacheEntryExists(buildCacheInputs)
-                ? cache.getFileInCache(buildCacheInputs)
-                : null;
+        if (!cache.cacheEntryExists(buildCacheInputs)) {
+            return null;
+        }
+        File cachedVersion = cache.getFileInCache(buildCacheInputs);
+        // Record the use for the least recently used eviction
+        if (cachedVersion.setLastModified(System.currentTimeMillis())) {
+            usedEntries.add(cachedVersion);
+        }
+        return cachedVersion;
     }
 
     void populateCache(@NonNull Collection<CacheableItem> cacheableItems)
             throws IOException, ExecutionException {
-
         for (CacheableItem cacheableItem : cacheableItems) {
-            FileCache cache =
-                    getBuildCache(
+            populateCache(cacheableItem);
+        }
+    }
+
+    /**
+     * Adds the dex archives of a single converted jar to the cache. This is safe to call from
+     * multiple threads, as soon as the conversion of the jar has finished.
+     */
+    void populateCache(@NonNull CacheableItem cacheableItem)
+            throws IOException, ExecutionException {
+        FileCache cache =
+                getBuildCache(
+                        cacheableItem.input.getFile(),
+                        isExternalLib(cacheableItem.input),
+                        userLevelCache);
+        if (cache != null) {
+            FileCache.Inputs buildCacheInputs =
+                    DexArchiveBuilderCacheHandler.getBuildCacheInputs(
                             cacheableItem.input.getFile(),
-                            isExternalLib(cacheableItem.input),
-                            userLevelCache);
-            if (cache != null) {
-                FileCache.Inputs buildCacheInputs =
-                        DexArchiveBuilderCacheHandler.getBuildCacheInputs(
-                                cacheableItem.input.getFile(),
-                                dexOptions,
-                                dexer,
-                                minSdkVersion,
-                                isDebuggable,
-                                cacheableItem.dependencies,
-                                cacheSession);
-                FileCache.QueryResult result =
-                        cache.createFileInCacheIfAbsent(
-                                buildCacheInputs,
-                                in -> {
-                                    Collection<File> dexArchives = cacheableItem.cachable;
-                                    logger.verbose(
-                                            "Merging %1$s into %2$s",
-                                            Joiner.on(',').join(dexArchives), in.getAbsolutePath());
-                                    mergeJars(in, cacheableItem.cachable);
-                                });
-                if (result.getQueryEvent().equals(FileCache.QueryEvent.CORRUPTED)) {
-                    Verify.verifyNotNull(result.getCauseOfCorruption());
-                    logger.lifecycle(
-                            "The build cache at '%1$s' contained an invalid cache entry.\n"
-                                    + "Cause: %2$s\n"
-                                    + "We have recreated the cache entry.\n"
-                                    + "%3$s",
-                            cache.getCacheDirectory().getAbsolutePath(),
-                            Throwables.getStackTraceAsString(result.getCauseOfCorruption()),
-                            BuildCacheUtils.BUILD_CACHE_TROUBLESHOOTING_MESSAGE);
+                            dexOptions,
+                            dexer,
+                            minSdkVersion,
+                            isDebuggable,
+                            java8LangSupportType,
+                            cacheableItem.dependencies,
+                            cacheSession);
+            FileCache.QueryResult result =
+                    cache.createFileInCacheIfAbsent(
+                            buildCacheInputs,
+                            in -> {
+                                Collection<File> dexArchives = cacheableItem.cachable;
+                                logger.verbose(
+                                        "Merging %1$s into %2$s",
+                                        Joiner.on(',').join(dexArchives), in.getAbsolutePath());
+                                mergeJars(in, cacheableItem.cachable);
+                            });
+            if (result.getQueryEvent().equals(FileCache.QueryEvent.CORRUPTED)) {
+                Verify.verifyNotNull(result.getCauseOfCorruption());
+                logger.lifecycle(
+                        "The build cache at '%1$s' contained an invalid cache entry.\n"
+                                + "Cause: %2$s\n"
+                                + "We have recreated the cache entry.\n"
+                                + "%3$s",
+                        cache.getCacheDirectory().getAbsolutePath(),
+                        Throwables.getStackTraceAsString(result.getCauseOfCorruption()),
+                        BuildCacheUtils.BUILD_CACHE_TROUBLESHOOTING_MESSAGE);
+            }
+            usedEntries.add(cache.getFileInCache(buildCacheInputs));
+        }
+    }
+
+    /**
+     * Records the dex archives created or used by this handler in the index of the cache, and
+     * evicts the least recently used dex archives from the cache until their total size is below
+     * the maximum cache size.
+     *
+     * <p>This is safe to run concurrently with other builds using the same cache: the index is
+     * locked while it is updated, and builds reading an entry which has just been evicted convert
+     * the jar again. Cache entries are deleted while holding the same lock as the {@link
+     * FileCache} uses for them, so entries being read or created by other builds are not deleted
+     * from under them.
+     */
+    void evictLeastRecentlyUsedEntries() throws IOException, ExecutionException {
+        if (userLevelCache == null || usedEntries.isEmpty()) {
+            return;
+        }
+        File cacheDirectory = userLevelCache.getCacheDirectory();
+        Path indexFile = cacheDirectory.toPath().resolve(CACHE_INDEX_FILE_NAME);
+        synchronized (INDEX_LOCK) {
+            try (FileChannel channel =
+                            FileChannel.open(
+                                    indexFile,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+                    FileLock ignored = channel.lock()) {
+                Set<String> entries = new LinkedHashSet<>(readIndex(channel));
+                for (File usedEntry : usedEntries) {
+                    entries.add(toIndexEntry(usedEntry, cacheDirectory));
                 }
+
+                // Entries may have been deleted by the regular build cache eviction already
+                List<File> existing = new ArrayList<>(entries.size());
+                long totalSize = 0;
+                for (String entry : entries) {
+                    File dexArchive = new File(cacheDirectory, entry);
+                    long size = dexArchive.length();
+                    if (size > 0) {
+                        existing.add(dexArchive);
+                        totalSize += size;
+                    }
+                }
+
+                int evicted = 0;
+                if (totalSize > maxCacheSizeInBytes) {
+                    existing.sort(Comparator.comparingLong(File::lastModified));
+                    while (totalSize > maxCacheSizeInBytes && evicted < existing.size()) {
+                        File dexArchive = existing.get(evicted++);
+                        totalSize -= dexArchive.length();
+                        logger.verbose("Evicting %1$s from the build cache", dexArchive);
+                        // Delete the whole cache entry, not just the dex archive in it
+                        File cacheEntry = dexArchive.getParentFile();
+                        if (!cacheEntry.equals(cacheDirectory)) {
+                            deleteCacheEntry(cacheEntry);
+                        }
+                    }
+                }
+
+                StringBuilder index = new StringBuilder();
+                for (File dexArchive : existing.subList(evicted, existing.size())) {
+                    index.append(toIndexEntry(dexArchive, cacheDirectory)).append('\n');
+                }
+                channel.truncate(0);
+                channel.write(
+                        ByteBuffer.wrap(index.toString().getBytes(StandardCharsets.UTF_8)), 0);
+            }
+        }
+        usedEntries.clear();
+    }
+
+    /**
+     * Deletes the given cache entry directory, holding the lock which the {@link FileCache} takes
+     * on the entry when it reads or creates it.
+     */
+    private static void deleteCacheEntry(@NonNull File cacheEntry) throws ExecutionException {
+        SynchronizedFile.getInstanceWithMultiProcessLocking(cacheEntry)
+                .write(
+                        entry -> {
+                            FileUtils.deleteRecursivelyIfExists(entry);
+                            return null;
+                        });
+    }
+
+    @NonNull
+    private static String toIndexEntry(@NonNull File dexArchive, @NonNull File cacheDirectory) {
+        return cacheDirectory
+                .toPath()
+                .relativize(dexArchive.toPath())
+                .toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    @NonNull
+    private static List<String> readIndex(@NonNull FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
             }
         }
+        String index = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        return Splitter.on('\n').omitEmptyStrings().splitToList(index);
     }
 
     private static void mergeJars(File out, Iterable<File> dexArchives) throws IOException {
@@ -241,6 +414,9 @@ class DexArchiveBuilderCacheHandler {
         /** If generate dex is debuggable. */
         IS_DEBUGGABLE,
 
+        /** How Java 8 language features are desugared. */
+        JAVA8_LANG_SUPPORT,
+
         /** Additional dependency files. */
         EXTRA_DEPENDENCIES,
     }
@@ -248,6 +424,10 @@ class DexArchiveBuilderCacheHandler {
     /**
      * Returns a {@link FileCache.Inputs} object computed from the given parameters for the
      * predex-library task to use the build cache.
+     *
+     * <p>The input file and the extra dependencies are identified by their contents only, such
+     * that the same library at different locations maps to the same cache entry. The order of the
+     * extra dependencies is significant. Their hashes are computed once per cache session.
      */
     @NonNull
     public static FileCache.Inputs getBuildCacheInputs(
@@ -256,6 +436,7 @@ class DexArchiveBuilderCacheHandler {
             @NonNull DexerTool dexerTool,
             int minSdkVersion,
             boolean isDebuggable,
+            @NonNull VariantScope.Java8LangSupport java8LangSupportType,
             @NonNull List<Path> extraDependencies,
             FileCache.CacheSession cacheSession)
             throws IOException {
@@ -269,7 +450,7 @@ class DexArchiveBuilderCacheHandler {
                 .putFile(
                         FileCacheInputParams.FILE.name(),
                         inputFile,
-                        FileCache.FileProperties.PATH_HASH)
+                        FileCache.FileProperties.HASH)
                 .putString(FileCacheInputParams.DX_VERSION.name(), Version.VERSION)
                 .putBoolean(FileCacheInputParams.JUMBO_MODE.name(), isJumboModeEnabledForDx())
                 .putBoolean(
@@ -278,7 +459,10 @@ class DexArchiveBuilderCacheHandler {
                 .putString(FileCacheInputParams.DEXER_TOOL.name(), dexerTool.name())
                 .putLong(FileCacheInputParams.CACHE_KEY_VERSION.name(), CACHE_KEY_VERSION)
                 .putLong(FileCacheInputParams.MIN_SDK_VERSION.name(), minSdkVersion)
-                .putBoolean(FileCacheInputParams.IS_DEBUGGABLE.name(), isDebuggable);
+                .putBoolean(FileCacheInputParams.IS_DEBUGGABLE.name(), isDebuggable)
+                .putString(
+                        FileCacheInputParams.JAVA8_LANG_SUPPORT.name(),
+                        java8LangSupportType.name());
 
         for (int i = 0; i < extraDependencies.size(); i++) {
             Path path = extraDependencies.get(i);
@@ -291,7 +475,7 @@ class DexArchiveBuilderCacheHandler {
                 buildCacheInputs.putFile(
                         FileCacheInputParams.EXTRA_DEPENDENCIES.name() + "[" + i + "]",
                         path.toFile(),
-                        FileCache.FileProperties.PATH_HASH);
+                        FileCache.FileProperties.HASH);
             } else if (!Files.exists(path)) {
                 throw new NoSuchFileException(path.toString());
             } else {
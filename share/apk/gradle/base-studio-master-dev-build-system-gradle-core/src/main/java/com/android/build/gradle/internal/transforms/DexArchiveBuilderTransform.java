@@ -68,6 +68,7 @@ import com.android.utils.FileUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
@@ -81,15 +82,18 @@ import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -213,7 +217,8 @@ public class DexArchiveBuilderTransform extends Transform {
             @Nullable Integer numberOfBuckets,
             boolean includeFeaturesInScopes,
             boolean isInstantRun,
-            boolean enableDexingArtifactTransform) {
+            boolean enableDexingArtifactTransform,
+            @Nullable Integer maxCacheSizeInMb) {
         this.androidJarClasspath = androidJarClasspath;
         this.dexOptions = dexOptions;
         this.messageReceiver = messageReceiver;
@@ -223,7 +228,15 @@ public class DexArchiveBuilderTransform extends Transform {
         this.executor = WaitableExecutor.useGlobalSharedThreadPool();
         this.cacheHandler =
                 new DexArchiveBuilderCacheHandler(
-                        userLevelCache, dexOptions, minSdkVersion, isDebuggable, dexer);
+                        userLevelCache,
+                        dexOptions,
+                        minSdkVersion,
+                        isDebuggable,
+                        dexer,
+                        java8LangSupportType,
+                        maxCacheSizeInMb == null
+                                ? DexArchiveBuilderCacheHandler.DEFAULT_MAX_CACHE_SIZE_IN_MB
+                                : maxCacheSizeInMb);
         this.useGradleWorkers = useGradleWorkers;
         this.inBufferSize =
                 (inBufferSize == null ? DEFAULT_BUFFER_SIZE_IN_KB : inBufferSize) * 1024;
@@ -326,21 +339,17 @@ public class DexArchiveBuilderTransform extends Transform {
             outputProvider.deleteAll();
         }
 
-        Set<File> additionalPaths;
         DesugarIncrementalTransformHelper desugarIncrementalTransformHelper;
         if (java8LangSupportType != VariantScope.Java8LangSupport.D8) {
-            additionalPaths = ImmutableSet.of();
             desugarIncrementalTransformHelper = null;
         } else {
+            // The graph is analyzed by an executor of its own, as we wait for it while the
+            // conversions already submitted to this.executor are running.
             desugarIncrementalTransformHelper =
                     new DesugarIncrementalTransformHelper(
-                            projectVariant, transformInvocation, executor);
-            additionalPaths =
-                    desugarIncrementalTransformHelper
-                            .getAdditionalPaths()
-                            .stream()
-                            .map(Path::toFile)
-                            .collect(Collectors.toSet());
+                            projectVariant,
+                            transformInvocation,
+                            WaitableExecutor.useGlobalSharedThreadPool());
         }
 
         List<DexArchiveBuilderCacheHandler.CacheableItem> cacheableItems = new ArrayList<>();
@@ -369,8 +378,22 @@ public class DexArchiveBuilderTransform extends Transform {
             INSTANCE.registerService(
                     classpathServiceKey, () -> new ClasspathService(libraryClasspathProvider));
 
+            // The buckets of the directories are assigned before any conversion is submitted, as
+            // this reads the dex files of the previous build, which the conversions overwrite.
+            // The desugaring dependencies of a directory then use the same assignment as its
+            // changed class files.
+            Map<File, DexBucketAssignment> directoryBuckets = new HashMap<>();
             for (TransformInput input : transformInvocation.getInputs()) {
+                for (DirectoryInput dirInput : input.getDirectoryInputs()) {
+                    directoryBuckets.put(
+                            dirInput.getFile(),
+                            assignBuckets(dirInput, outputProvider, isIncremental));
+                }
+            }
 
+            // The changed class files of directories are converted whatever their desugaring
+            // dependencies, so they are submitted before the desugaring graph is updated.
+            for (TransformInput input : transformInvocation.getInputs()) {
                 for (DirectoryInput dirInput : input.getDirectoryInputs()) {
                     logger.verbose("Dir input %s", dirInput.getFile().toString());
                     convertToDexArchive(
@@ -380,7 +403,48 @@ public class DexArchiveBuilderTransform extends Transform {
                             isIncremental,
                             bootclasspathServiceKey,
                             classpathServiceKey,
-                            additionalPaths);
+                            ImmutableSet.of(),
+                            false,
+                            directoryBuckets.get(dirInput.getFile()),
+                            null);
+                }
+            }
+
+            Set<File> additionalPaths =
+                    desugarIncrementalTransformHelper == null
+                            ? ImmutableSet.of()
+                            : desugarIncrementalTransformHelper
+                                    .getAdditionalPaths()
+                                    .stream()
+                                    .map(Path::toFile)
+                                    .collect(Collectors.toSet());
+
+            for (TransformInput input : transformInvocation.getInputs()) {
+
+                if (isIncremental && !additionalPaths.isEmpty()) {
+                    for (DirectoryInput dirInput : input.getDirectoryInputs()) {
+                        Path dir = dirInput.getFile().toPath();
+                        Set<File> dirAdditionalPaths =
+                                additionalPaths
+                                        .stream()
+                                        .filter(file -> file.toPath().startsWith(dir))
+                                        .collect(Collectors.toSet());
+                        if (!dirAdditionalPaths.isEmpty()) {
+                            logger.verbose(
+                                    "Dir input %s, desugaring dependencies", dir.toString());
+                            convertToDexArchive(
+                                    transformInvocation.getContext(),
+                                    dirInput,
+                                    outputProvider,
+                                    true,
+                                    bootclasspathServiceKey,
+                                    classpathServiceKey,
+                                    dirAdditionalPaths,
+                                    true,
+                                    directoryBuckets.get(dirInput.getFile()),
+                                    null);
+                        }
+                    }
                 }
 
                 for (JarInput jarInput : input.getJarInputs()) {
@@ -403,7 +467,10 @@ public class DexArchiveBuilderTransform extends Transform {
                                     classpathServiceKey,
                                     additionalPaths,
                                     cacheInfo);
-                    if (cacheInfo != D8DesugaringCacheInfo.DONT_CACHE && !dexArchives.isEmpty()) {
+                    // Without Gradle workers, the conversion tasks populate the cache themselves
+                    if (useGradleWorkers
+                            && cacheInfo != D8DesugaringCacheInfo.DONT_CACHE
+                            && !dexArchives.isEmpty()) {
                         cacheableItems.add(
                                 new DexArchiveBuilderCacheHandler.CacheableItem(
                                         jarInput,
@@ -427,10 +494,11 @@ public class DexArchiveBuilderTransform extends Transform {
                 }
             }
 
-            // and finally populate the caches.
+            // and finally populate the caches, and trim them down to size.
             if (!cacheableItems.isEmpty()) {
                 cacheHandler.populateCache(cacheableItems);
             }
+            cacheHandler.evictLeastRecentlyUsedEntries();
 
             logger.verbose("Done with all dex archive conversions");
         } catch (InterruptedException e) {
@@ -518,11 +586,21 @@ public class DexArchiveBuilderTransform extends Transform {
                     fileToDelete = relativePath.toString();
                 }
 
-                int bucketId =
-                        getBucketForFile(input, file.toString(), numberOfBuckets, isInstantRun);
-                File outputFile = getOutputForDir(outputProvider, input, bucketId);
-                FileUtils.deleteRecursivelyIfExists(
-                        outputFile.toPath().resolve(fileToDelete).toFile());
+                if (isSlicedForInstantRun(input)) {
+                    int bucketId =
+                            getBucketForFile(
+                                    input, file.toString(), numberOfBuckets, isInstantRun);
+                    File outputFile = getOutputForDir(outputProvider, input, bucketId);
+                    FileUtils.deleteRecursivelyIfExists(
+                            outputFile.toPath().resolve(fileToDelete).toFile());
+                } else {
+                    // the bucket is not derived from the path, so look in all of them
+                    for (int bucketId = 0; bucketId < numberOfBuckets; bucketId++) {
+                        File outputFile = getOutputForDir(outputProvider, input, bucketId);
+                        FileUtils.deleteRecursivelyIfExists(
+                                outputFile.toPath().resolve(fileToDelete).toFile());
+                    }
+                }
             }
         }
     }
@@ -598,12 +676,17 @@ public class DexArchiveBuilderTransform extends Transform {
                             toConvert, cacheInfo.orderedD8DesugaringDependencies);
             if (cachedVersion != null) {
                 File outputFile = getOutputForJar(transformOutputProvider, toConvert, null);
-                Files.copy(
-                        cachedVersion.toPath(),
-                        outputFile.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
-                // no need to try to cache an already cached version.
-                return ImmutableList.of();
+                try {
+                    Files.copy(
+                            cachedVersion.toPath(),
+                            outputFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    // no need to try to cache an already cached version.
+                    return ImmutableList.of();
+                } catch (NoSuchFileException e) {
+                    // Evicted by a concurrent build since the lookup, so convert it again.
+                    logger.verbose("Cached dex archive %s was evicted", cachedVersion);
+                }
             }
         }
         return convertToDexArchive(
@@ -613,7 +696,12 @@ public class DexArchiveBuilderTransform extends Transform {
                 false,
                 bootclasspath,
                 classpath,
-                ImmutableSet.of());
+                ImmutableSet.of(),
+                false,
+                assignBuckets(toConvert, transformOutputProvider, false),
+                cacheInfo != D8DesugaringCacheInfo.DONT_CACHE
+                        ? cacheInfo.orderedD8DesugaringDependencies
+                        : null);
     }
 
     public static class DexConversionParameters implements Serializable {
@@ -632,8 +720,10 @@ public class DexArchiveBuilderTransform extends Transform {
         private final boolean isIncremental;
         private final VariantScope.Java8LangSupport java8LangSupportType;
         @NonNull private final Set<File> additionalPaths;
+        private final boolean onlyAdditionalPaths;
         @Nonnull private final MessageReceiver messageReceiver;
         private final boolean isInstantRun;
+        @Nullable private final DexBucketAssignment bucketAssignment;
 
         public DexConversionParameters(
                 @NonNull QualifiedContent input,
@@ -651,8 +741,10 @@ public class DexArchiveBuilderTransform extends Transform {
                 boolean isIncremental,
                 @NonNull VariantScope.Java8LangSupport java8LangSupportType,
                 @NonNull Set<File> additionalPaths,
+                boolean onlyAdditionalPaths,
                 @Nonnull MessageReceiver messageReceiver,
-                boolean isInstantRun) {
+                boolean isInstantRun,
+                @Nullable DexBucketAssignment bucketAssignment) {
             this.input = input;
             this.bootClasspath = bootClasspath;
             this.classpath = classpath;
@@ -668,12 +760,22 @@ public class DexArchiveBuilderTransform extends Transform {
             this.isIncremental = isIncremental;
             this.java8LangSupportType = java8LangSupportType;
             this.additionalPaths = additionalPaths;
+            this.onlyAdditionalPaths = onlyAdditionalPaths;
             this.messageReceiver = messageReceiver;
             this.isInstantRun = isInstantRun;
+            this.bucketAssignment = bucketAssignment;
         }
 
         public boolean belongsToThisBucket(String path) {
-            return getBucketForFile(input, path, numberOfBuckets, isInstantRun) == buckedId;
+            if (bucketAssignment == null) {
+                return getBucketForFile(input, path, numberOfBuckets, isInstantRun) == buckedId;
+            }
+            String relativePath =
+                    isDirectoryBased()
+                            ? DexBucketAssignment.toRelativePath(
+                                    input.getFile().toPath(), Paths.get(path))
+                            : path;
+            return bucketAssignment.getBucket(relativePath) == buckedId;
         }
 
         public boolean isDirectoryBased() {
@@ -693,11 +795,15 @@ public class DexArchiveBuilderTransform extends Transform {
         @Override
         public void run() {
             try {
-                launchProcessing(
-                        dexConversionParameters,
-                        System.out,
-                        System.err,
-                        dexConversionParameters.messageReceiver);
+                DexingScheduler.execute(
+                        () -> {
+                            launchProcessing(
+                                    dexConversionParameters,
+                                    System.out,
+                                    System.err,
+                                    dexConversionParameters.messageReceiver);
+                            return null;
+                        });
             } catch (Exception e) {
                 throw new BuildException(e.getMessage(), e);
             }
@@ -768,6 +874,18 @@ public class DexArchiveBuilderTransform extends Transform {
         return dexArchiveBuilder;
     }
 
+    /**
+     * Converts the input to dex archives, one per bucket.
+     *
+     * @param onlyAdditionalPaths whether to convert only the additional paths of an incremental
+     *     directory input, and not its changed files
+     * @param bucketAssignment the buckets of the class files of the input, as returned by {@link
+     *     #assignBuckets}
+     * @param cacheDependencies if not {@code null}, the D8 desugaring dependencies with which the
+     *     dex archives of the jar input should be added to the cache as soon as all its buckets
+     *     have been converted. This is only supported without Gradle workers, as we cannot tell
+     *     when the work items finish.
+     */
     private List<File> convertToDexArchive(
             @NonNull Context context,
             @NonNull QualifiedContent input,
@@ -775,23 +893,30 @@ public class DexArchiveBuilderTransform extends Transform {
             boolean isIncremental,
             @NonNull ClasspathServiceKey bootClasspath,
             @NonNull ClasspathServiceKey classpath,
-            @NonNull Set<File> additionalPaths) {
+            @NonNull Set<File> additionalPaths,
+            boolean onlyAdditionalPaths,
+            @Nullable DexBucketAssignment bucketAssignment,
+            @Nullable List<Path> cacheDependencies)
+            throws IOException {
 
         logger.verbose("Dexing %s", input.getFile().getAbsolutePath());
 
-        ImmutableList.Builder<File> dexArchives = ImmutableList.builder();
+        List<File> dexArchives = new ArrayList<>(numberOfBuckets);
         for (int bucketId = 0; bucketId < numberOfBuckets; bucketId++) {
-
-            File preDexOutputFile;
             if (input instanceof DirectoryInput) {
-                preDexOutputFile =
+                File preDexOutputFile =
                         getOutputForDir(outputProvider, (DirectoryInput) input, bucketId);
                 FileUtils.mkdirs(preDexOutputFile);
+                dexArchives.add(preDexOutputFile);
             } else {
-                preDexOutputFile = getOutputForJar(outputProvider, (JarInput) input, bucketId);
+                dexArchives.add(getOutputForJar(outputProvider, (JarInput) input, bucketId));
             }
+        }
+        AtomicInteger pendingBuckets = new AtomicInteger(numberOfBuckets);
 
-            dexArchives.add(preDexOutputFile);
+        for (int bucketId = 0; bucketId < numberOfBuckets; bucketId++) {
+
+            File preDexOutputFile = dexArchives.get(bucketId);
             DexConversionParameters parameters =
                     new DexConversionParameters(
                             input,
@@ -809,8 +934,10 @@ public class DexArchiveBuilderTransform extends Transform {
                             isIncremental,
                             java8LangSupportType,
                             additionalPaths,
+                            onlyAdditionalPaths,
                             new SerializableMessageReceiver(messageReceiver),
-                            isInstantRun);
+                            isInstantRun,
+                            bucketAssignment);
 
             if (useGradleWorkers) {
                 context.getWorkerExecutor()
@@ -831,11 +958,24 @@ public class DexArchiveBuilderTransform extends Transform {
                                             messageReceiver);
                             ProcessOutput output = null;
                             try (Closeable ignored = output = outputHandler.createOutput()) {
-                                launchProcessing(
-                                        parameters,
-                                        output.getStandardOutput(),
-                                        output.getErrorOutput(),
-                                        messageReceiver);
+                                ProcessOutput processOutput = output;
+                                // Converts on the pool shared with the other dexing work, this
+                                // executor's thread only waits for it.
+                                DexingScheduler.execute(
+                                        () -> {
+                                            launchProcessing(
+                                                    parameters,
+                                                    processOutput.getStandardOutput(),
+                                                    processOutput.getErrorOutput(),
+                                                    messageReceiver);
+                                            return null;
+                                        });
+                                if (cacheDependencies != null
+                                        && pendingBuckets.decrementAndGet() == 0) {
+                                    cacheHandler.populateCache(
+                                            new DexArchiveBuilderCacheHandler.CacheableItem(
+                                                    input, dexArchives, cacheDependencies));
+                                }
                             } finally {
                                 if (output != null) {
                                     try {
@@ -849,7 +989,56 @@ public class DexArchiveBuilderTransform extends Transform {
                         });
             }
         }
-        return dexArchives.build();
+        return dexArchives;
+    }
+
+    /**
+     * Balances the class files of the input across the buckets by size, or returns {@code null}
+     * if the buckets are derived from the paths, as for the slices of instant run.
+     *
+     * <p>Class files of an incremental directory input stay in the bucket of their dex file of
+     * the previous build, so this must not run while the directory is being converted.
+     */
+    @Nullable
+    private DexBucketAssignment assignBuckets(
+            @NonNull QualifiedContent input,
+            @NonNull TransformOutputProvider outputProvider,
+            boolean isIncremental)
+            throws IOException {
+        if (numberOfBuckets == 1) {
+            return null;
+        }
+        DexBucketAssignment bucketAssignment;
+        if (input instanceof DirectoryInput) {
+            if (isSlicedForInstantRun((DirectoryInput) input)) {
+                return null;
+            }
+            Map<String, Integer> existingBuckets = ImmutableMap.of();
+            if (isIncremental) {
+                List<File> dexArchives = new ArrayList<>(numberOfBuckets);
+                for (int bucketId = 0; bucketId < numberOfBuckets; bucketId++) {
+                    dexArchives.add(
+                            getOutputForDir(outputProvider, (DirectoryInput) input, bucketId));
+                }
+                existingBuckets = DexBucketAssignment.getExistingBuckets(dexArchives);
+            }
+            bucketAssignment =
+                    DexBucketAssignment.create(
+                            DexBucketAssignment.getClassSizes(input.getFile().toPath()),
+                            existingBuckets,
+                            numberOfBuckets);
+        } else {
+            bucketAssignment =
+                    DexBucketAssignment.create(
+                            DexBucketAssignment.getClassSizes(input.getFile()),
+                            ImmutableMap.of(),
+                            numberOfBuckets);
+        }
+        logger.info(
+                "Dex archive buckets of %s: %s",
+                input.getFile().getName(),
+                bucketAssignment.getOccupancySummary());
+        return bucketAssignment;
     }
 
     private static void launchProcessing(
@@ -885,6 +1074,8 @@ public class DexArchiveBuilderTransform extends Transform {
                             File resolved = inputPath.resolve(path).toFile();
                             if (dexConversionParameters.additionalPaths.contains(resolved)) {
                                 return true;
+                            } else if (dexConversionParameters.onlyAdditionalPaths) {
+                                return false;
                             }
                             Map<File, Status> changedFiles =
                                     ((DirectoryInput) dexConversionParameters.input)
@@ -972,10 +1163,7 @@ public class DexArchiveBuilderTransform extends Transform {
             @NonNull DirectoryInput directoryInput,
             int bucketId) {
         String name;
-        if (isInstantRun
-                && Sets.difference(
-                                directoryInput.getScopes(), TransformManager.SCOPE_IR_FOR_SLICING)
-                        .isEmpty()) {
+        if (isSlicedForInstantRun(directoryInput)) {
             name = getSliceName(bucketId);
         } else {
             name = directoryInput.getFile().toString();
@@ -987,6 +1175,17 @@ public class DexArchiveBuilderTransform extends Transform {
                 Format.DIRECTORY);
     }
 
+    /**
+     * Returns whether the directory input is dexed into the instant run slices, which are shared
+     * between inputs and are keyed by package.
+     */
+    private boolean isSlicedForInstantRun(@NonNull DirectoryInput directoryInput) {
+        return isInstantRun
+                && Sets.difference(
+                                directoryInput.getScopes(), TransformManager.SCOPE_IR_FOR_SLICING)
+                        .isEmpty();
+    }
+
     public static String getSliceName(int bucketId) {
         return "slice_" + bucketId;
     }
@@ -45,6 +45,7 @@ public class DexArchiveBuilderTransformBuilder {
     private boolean includeFeaturesInScopes;
     private boolean isInstantRun;
     private boolean enableDexingArtifactTransform;
+    private Integer maxCacheSizeInMb;
 
     @NonNull
     public DexArchiveBuilderTransformBuilder setAndroidJarClasspath(
@@ -147,6 +148,13 @@ public class DexArchiveBuilderTransformBuilder {
         return this;
     }
 
+    @NonNull
+    public DexArchiveBuilderTransformBuilder setMaxCacheSizeInMb(
+            @Nullable Integer maxCacheSizeInMb) {
+        this.maxCacheSizeInMb = maxCacheSizeInMb;
+        return this;
+    }
+
     @NonNull
     public DexArchiveBuilderTransform createDexArchiveBuilderTransform() {
         Preconditions.checkNotNull(androidJarClasspath);
@@ -171,6 +179,7 @@ public class DexArchiveBuilderTransformBuilder {
                 numberOfBuckets,
                 includeFeaturesInScopes,
                 isInstantRun,
-                enableDexingArtifactTransform);
+                enableDexingArtifactTransform,
+                maxCacheSizeInMb);
     }
 }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.VisibleForTesting;
+import com.android.builder.dexing.ClassFileEntry;
+import com.google.common.base.Preconditions;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Assigns the class files of a dexing input to buckets, such that each bucket holds about the same
+ * number of class file bytes and the buckets take about the same time to convert in parallel.
+ *
+ * <p>Classes which already have a bucket, because their dex files exist in the output of an
+ * earlier build, keep it: dex files must not move between buckets in incremental builds. The new
+ * classes are kept together in as few buckets as possible, so that only the affected buckets
+ * change. Without any existing assignments, classes are balanced by placing the largest classes
+ * first, each in the bucket with the fewest bytes so far.
+ *
+ * <p>Paths are relative to the root of the input, with '/' as separator.
+ */
+final class DexBucketAssignment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numberOfBuckets;
+    @NonNull private final Map<String, Integer> buckets;
+    @NonNull private final long[] bucketSizes;
+
+    private DexBucketAssignment(
+            int numberOfBuckets,
+            @NonNull Map<String, Integer> buckets,
+            @NonNull long[] bucketSizes) {
+        this.numberOfBuckets = numberOfBuckets;
+        this.buckets = buckets;
+        this.bucketSizes = bucketSizes;
+    }
+
+    /**
+     * Assigns the given classes to buckets.
+     *
+     * @param classSizes the size in bytes of each class file of the input
+     * @param existingBuckets the bucket of the classes which were dexed by an earlier build
+     * @param numberOfBuckets the number of buckets
+     */
+    @NonNull
+    static DexBucketAssignment create(
+            @NonNull Map<String, Long> classSizes,
+            @NonNull Map<String, Integer> existingBuckets,
+            int numberOfBuckets) {
+        Preconditions.checkArgument(numberOfBuckets > 0, "No buckets");
+        Map<String, Integer> buckets = new HashMap<>(classSizes.size());
+        long[] bucketSizes = new long[numberOfBuckets];
+        long totalSize = 0;
+
+        List<String> newClasses = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : classSizes.entrySet()) {
+            String path = entry.getKey();
+            long size = entry.getValue();
+            totalSize += size;
+            Integer bucket = existingBuckets.get(path);
+            if (bucket != null && bucket < numberOfBuckets) {
+                buckets.put(path, bucket);
+                bucketSizes[bucket] += size;
+            } else {
+                newClasses.add(path);
+            }
+        }
+
+        if (newClasses.size() == classSizes.size()) {
+            // Full build: largest classes first, each in the least occupied bucket
+            newClasses.sort(
+                    Comparator.comparing((String path) -> classSizes.get(path))
+                            .reversed()
+                            .thenComparing(Comparator.naturalOrder()));
+            PriorityQueue<Integer> leastOccupied =
+                    new PriorityQueue<>(
+                            numberOfBuckets,
+                            Comparator.comparingLong((Integer bucket) -> bucketSizes[bucket])
+                                    .thenComparing(Comparator.naturalOrder()));
+            for (int bucket = 0; bucket < numberOfBuckets; bucket++) {
+                leastOccupied.add(bucket);
+            }
+            for (String path : newClasses) {
+                int bucket = leastOccupied.remove();
+                buckets.put(path, bucket);
+                bucketSizes[bucket] += classSizes.get(path);
+                leastOccupied.add(bucket);
+            }
+        } else if (!newClasses.isEmpty()) {
+            // Incremental build: fill the least occupied buckets up to the average occupancy, in
+            // path order such that new classes of the same package end up together
+            Collections.sort(newClasses);
+            long averageSize = totalSize / numberOfBuckets;
+            List<Integer> bucketOrder = new ArrayList<>(numberOfBuckets);
+            for (int bucket = 0; bucket < numberOfBuckets; bucket++) {
+                bucketOrder.add(bucket);
+            }
+            bucketOrder.sort(Comparator.comparingLong(bucket -> bucketSizes[bucket]));
+            int current = 0;
+            for (String path : newClasses) {
+                int bucket = bucketOrder.get(current);
+                if (bucketSizes[bucket] >= averageSize && current < numberOfBuckets - 1) {
+                    bucket = bucketOrder.get(++current);
+                }
+                buckets.put(path, bucket);
+                bucketSizes[bucket] += classSizes.get(path);
+            }
+        }
+
+        return new DexBucketAssignment(numberOfBuckets, buckets, bucketSizes);
+    }
+
+    /** Returns the bucket of the class file at the given relative path. */
+    int getBucket(@NonNull String relativePath) {
+        Integer bucket = buckets.get(relativePath);
+        if (bucket != null) {
+            return bucket;
+        }
+        // Not a class file we know of, such as a resource in a jar
+        return Math.abs(relativePath.hashCode()) % numberOfBuckets;
+    }
+
+    /** Returns the number of class file bytes in each bucket. */
+    @NonNull
+    @VisibleForTesting
+    long[] getBucketSizes() {
+        return bucketSizes.clone();
+    }
+
+    /**
+     * Returns a one line summary of the occupancy of the buckets: the kilobytes of class files in
+     * each bucket, and the ratio between the most occupied bucket and the average, which is 1.0 for
+     * perfectly balanced buckets.
+     */
+    @NonNull
+    String getOccupancySummary() {
+        long total = 0;
+        long max = 0;
+        StringBuilder sizes = new StringBuilder();
+        for (long size : bucketSizes) {
+            total += size;
+            max = Math.max(max, size);
+            if (sizes.length() > 0) {
+                sizes.append(", ");
+            }
+            sizes.append(size / 1024);
+        }
+        double ratio = total == 0 ? 1.0 : (double) max * numberOfBuckets / total;
+        return String.format(
+                "%1$d classes in %2$d buckets of [%3$s] KB, max/average %4$.2f",
+                buckets.size(), numberOfBuckets, sizes, ratio);
+    }
+
+    /** Returns the size of each class file in the given directory, by relative path. */
+    @NonNull
+    static Map<String, Long> getClassSizes(@NonNull Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(
+                            path ->
+                                    path.toString().endsWith(SdkConstants.DOT_CLASS)
+                                            && Files.isRegularFile(path))
+                    .collect(
+                            Collectors.toMap(
+                                    path -> toRelativePath(directory, path),
+                                    path -> path.toFile().length()));
+        }
+    }
+
+    /** Returns the uncompressed size of each class file in the given jar, by entry name. */
+    @NonNull
+    static Map<String, Long> getClassSizes(@NonNull File jar) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                    // The size is unknown for entries written in streaming mode
+                    sizes.put(entry.getName(), Math.max(entry.getSize(), 1));
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the bucket of each class with a dex file in the given bucket output directories of
+     * a directory input, by the relative path of the class file.
+     */
+    @NonNull
+    static Map<String, Integer> getExistingBuckets(@NonNull List<File> bucketOutputs)
+            throws IOException {
+        // Sorted, such that any duplicate from an interrupted build resolves deterministically
+        Map<String, Integer> existing = new TreeMap<>();
+        for (int bucket = bucketOutputs.size() - 1; bucket >= 0; bucket--) {
+            Path output = bucketOutputs.get(bucket).toPath();
+            if (!Files.isDirectory(output)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(output)) {
+                for (Path dexFile :
+                        files.filter(path -> path.toString().endsWith(SdkConstants.DOT_DEX))
+                                .collect(Collectors.toList())) {
+                    String dexPath = toRelativePath(output, dexFile);
+                    existing.put(toClassPath(dexPath), bucket);
+                }
+            }
+        }
+        return existing;
+    }
+
+    /** Returns the path of a file relative to the given root, with '/' as separator. */
+    @NonNull
+    static String toRelativePath(@NonNull Path root, @NonNull Path file) {
+        Path relative = file.isAbsolute() ? root.relativize(file) : file;
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Inverse of {@link ClassFileEntry#withDexExtension(String)}. */
+    @NonNull
+    private static String toClassPath(@NonNull String dexPath) {
+        return dexPath.substring(0, dexPath.length() - SdkConstants.DOT_DEX.length())
+                + SdkConstants.DOT_CLASS;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.utils.FileUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Groups of dex archives which are merged separately in debuggable legacy multidex builds, such
+ * that incremental builds only merge again the groups with a changed archive.
+ *
+ * <p>The first group holds the archives with classes of the main dex list, and its merge result
+ * provides the main dex file. The other groups are filled with the remaining archives in input
+ * order, up to {@link #GROUP_SIZE} bytes of dex archives each, such that every group produces
+ * about one dex file. The names of the dex files produced by each group are recorded, to remove
+ * them when the group is merged again, and to keep the dex files numbered without gaps as legacy
+ * multidex requires.
+ */
+final class DexMergeGroups implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** About the size of the dex archives which fill a dex file. */
+    @VisibleForTesting static final long GROUP_SIZE = 8 * 1024 * 1024;
+
+    @NonNull private final List<Group> groups = new ArrayList<>();
+
+    /** The length and timestamp of each dex file in the output when the groups were saved. */
+    @NonNull private final Map<String, String> outputs = new HashMap<>();
+
+    private DexMergeGroups() {}
+
+    /** A group of dex archives merged together, and the dex files the merge produced. */
+    static final class Group implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean isMain;
+        @NonNull private final List<String> archives = new ArrayList<>();
+        private long size;
+        @NonNull private final List<String> dexFiles = new ArrayList<>();
+        private transient boolean changed = true;
+
+        private Group(boolean isMain) {
+            this.isMain = isMain;
+        }
+
+        /** Whether this group provides the main dex file. */
+        boolean isMain() {
+            return isMain;
+        }
+
+        @NonNull
+        List<Path> getArchives() {
+            return archives.stream().map(Paths::get).collect(Collectors.toList());
+        }
+
+        /** Whether the group needs to be merged again. */
+        boolean isChanged() {
+            return changed;
+        }
+
+        /** Returns the names of the dex files of the previous merge, and forgets them. */
+        @NonNull
+        List<String> removeDexFiles() {
+            List<String> removed = new ArrayList<>(dexFiles);
+            dexFiles.clear();
+            return removed;
+        }
+
+        private void add(@NonNull Path archive, long archiveSize) {
+            archives.add(archive.toString());
+            size += archiveSize;
+            changed = true;
+        }
+    }
+
+    /**
+     * Groups the given dex archives for a full build.
+     *
+     * @param archives the dex archives to merge, in merge order
+     * @param mainDexArchives the archives with classes of the main dex list
+     * @param sizes the size in bytes of an archive
+     */
+    @NonNull
+    static DexMergeGroups create(
+            @NonNull List<Path> archives,
+            @NonNull Set<Path> mainDexArchives,
+            @NonNull ToLongFunction<Path> sizes) {
+        DexMergeGroups mergeGroups = new DexMergeGroups();
+        Group mainGroup = new Group(true);
+        mergeGroups.groups.add(mainGroup);
+        for (Path archive : archives) {
+            if (mainDexArchives.contains(archive)) {
+                mainGroup.add(archive, sizes.applyAsLong(archive));
+            } else {
+                mergeGroups.addSecondary(archive, sizes.applyAsLong(archive));
+            }
+        }
+        return mergeGroups;
+    }
+
+    /**
+     * Updates the groups for an incremental build, marking the groups to merge again.
+     *
+     * @param archives the dex archives to merge
+     * @param mainDexArchives the archives with classes of the main dex list
+     * @param changedArchives the archives which were added, changed or removed since the last
+     *     build
+     * @param sizes the size in bytes of an archive
+     * @return {@code false} if the main dex list now needs a different set of archives, in which
+     *     case all the archives must be grouped and merged again
+     */
+    boolean update(
+            @NonNull List<Path> archives,
+            @NonNull Set<Path> mainDexArchives,
+            @NonNull Set<Path> changedArchives,
+            @NonNull ToLongFunction<Path> sizes) {
+        Set<String> current = archives.stream().map(Path::toString).collect(Collectors.toSet());
+        Set<String> changed =
+                changedArchives.stream().map(Path::toString).collect(Collectors.toSet());
+        Set<String> known = new HashSet<>();
+        for (Group group : groups) {
+            group.changed = false;
+            if (group.archives.retainAll(current)) {
+                group.changed = true;
+            }
+            for (String archive : group.archives) {
+                known.add(archive);
+                if (changed.contains(archive)) {
+                    group.changed = true;
+                }
+            }
+        }
+
+        Group mainGroup = groups.get(0);
+        Set<String> mainArchives =
+                mainDexArchives.stream().map(Path::toString).collect(Collectors.toSet());
+        if (!mainArchives.equals(new HashSet<>(mainGroup.archives))) {
+            return false;
+        }
+
+        for (Group group : groups) {
+            if (group.changed) {
+                group.size = group.getArchives().stream().mapToLong(sizes).sum();
+            }
+        }
+        for (Path archive : archives) {
+            if (!known.contains(archive.toString())) {
+                addSecondary(archive, sizes.applyAsLong(archive));
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    List<Group> getChangedGroups() {
+        return groups.stream().filter(Group::isChanged).collect(Collectors.toList());
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Returns the names under which the given number of new dex files of the group should be
+     * stored. The first dex file of the main group becomes the main dex file, and the others take
+     * the lowest free names.
+     */
+    @NonNull
+    List<String> nameDexFiles(@NonNull Group group, int count) {
+        Preconditions.checkState(group.dexFiles.isEmpty(), "Dex files of the group not removed");
+        Set<Integer> used = new HashSet<>();
+        for (Group other : groups) {
+            for (String dexFile : other.dexFiles) {
+                used.add(getDexFileNumber(dexFile));
+            }
+        }
+        int next = group.isMain ? 1 : 2;
+        for (int i = 0; i < count; i++) {
+            while (used.contains(next)) {
+                next++;
+            }
+            used.add(next);
+            group.dexFiles.add(getDexFileName(next));
+        }
+        return new ArrayList<>(group.dexFiles);
+    }
+
+    /**
+     * Closes the gaps in the numbering of the dex files left by groups producing fewer dex files
+     * than before, by renaming the last dex files. This must be called once all the changed groups
+     * are named.
+     *
+     * @return the new name of each dex file to rename, in the order the renames must be applied
+     */
+    @NonNull
+    Map<String, String> compact() {
+        // Groups without any archive left have no dex file anymore
+        groups.removeIf(group -> !group.isMain && group.archives.isEmpty());
+
+        TreeMap<Integer, Group> byNumber = new TreeMap<>();
+        for (Group group : groups) {
+            for (String dexFile : group.dexFiles) {
+                byNumber.put(getDexFileNumber(dexFile), group);
+            }
+        }
+        Map<String, String> renames = new LinkedHashMap<>();
+        int expected = 1;
+        while (!byNumber.isEmpty()) {
+            int first = byNumber.firstKey();
+            if (first == expected) {
+                byNumber.remove(first);
+                expected++;
+                continue;
+            }
+            Map.Entry<Integer, Group> last = byNumber.pollLastEntry();
+            String from = getDexFileName(last.getKey());
+            String to = getDexFileName(expected);
+            List<String> dexFiles = last.getValue().dexFiles;
+            dexFiles.set(dexFiles.indexOf(from), to);
+            renames.put(from, to);
+            expected++;
+        }
+        return renames;
+    }
+
+    /**
+     * Returns the dex files in the given directory, as produced by a dex merger, in the order of
+     * their numbers.
+     */
+    @NonNull
+    static List<File> getDexFiles(@NonNull File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SdkConstants.DOT_DEX));
+        List<File> dexFiles = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                dexFiles.add(file);
+            }
+        }
+        dexFiles.sort(Comparator.comparingInt(file -> getDexFileNumber(file.getName())));
+        return dexFiles;
+    }
+
+    /**
+     * Loads the groups of the previous build, or returns {@code null} if they are not known or the
+     * dex files in the output directory are not the ones produced by that build.
+     */
+    @Nullable
+    static DexMergeGroups load(@NonNull File file, @NonNull File outputDir) {
+        if (!file.isFile()) {
+            return null;
+        }
+        DexMergeGroups mergeGroups;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            mergeGroups = (DexMergeGroups) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+        return mergeGroups.outputs.equals(getOutputs(outputDir)) ? mergeGroups : null;
+    }
+
+    /** Saves the groups, along with the state of the output directory they produced. */
+    void save(@NonNull File file, @NonNull File outputDir) throws IOException {
+        outputs.clear();
+        outputs.putAll(getOutputs(outputDir));
+        FileUtils.mkdirs(file.getParentFile());
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+            out.writeObject(this);
+        }
+    }
+
+    private void addSecondary(@NonNull Path archive, long archiveSize) {
+        Group last = Iterables.getLast(groups);
+        if (last.isMain || (last.size > 0 && last.size + archiveSize > GROUP_SIZE)) {
+            last = new Group(false);
+            groups.add(last);
+        }
+        last.add(archive, archiveSize);
+    }
+
+    @NonNull
+    private static Map<String, String> getOutputs(@NonNull File outputDir) {
+        Map<String, String> outputs = new HashMap<>();
+        Collection<File> dexFiles = getDexFiles(outputDir);
+        for (File dexFile : dexFiles) {
+            outputs.put(dexFile.getName(), dexFile.length() + ":" + dexFile.lastModified());
+        }
+        return outputs;
+    }
+
+    /** Returns the number of a dex file, such as 1 for classes.dex and 2 for classes2.dex. */
+    private static int getDexFileNumber(@NonNull String name) {
+        String number =
+                name.substring(
+                        "classes".length(), name.length() - SdkConstants.DOT_DEX.length());
+        return number.isEmpty() ? 1 : Integer.parseInt(number);
+    }
+
+    @NonNull
+    private static String getDexFileName(int number) {
+        return number == 1
+                ? SdkConstants.FN_APK_CLASSES_DEX
+                : "classes" + number + SdkConstants.DOT_DEX;
+    }
+}
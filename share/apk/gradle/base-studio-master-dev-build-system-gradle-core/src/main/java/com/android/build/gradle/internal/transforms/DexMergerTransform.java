@@ -16,6 +16,7 @@
 
 package com.android.build.gradle.internal.transforms;
 
+import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
@@ -38,6 +39,7 @@ import com.android.build.gradle.internal.api.artifact.BuildableArtifactUtil;
 import com.android.build.gradle.internal.crash.PluginCrashReporter;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
 import com.android.build.gradle.internal.pipeline.TransformManager;
+import com.android.builder.dexing.ClassFileEntry;
 import com.android.builder.dexing.DexMergerTool;
 import com.android.builder.dexing.DexingType;
 import com.android.ide.common.blame.Message;
@@ -60,6 +62,7 @@ import com.google.common.collect.Sets;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -74,7 +77,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
 
 /**
  * This transform processes dex archives, {@link ExtendedContentType#DEX_ARCHIVE}, and merges them
@@ -86,12 +90,18 @@ import java.util.concurrent.TimeUnit;
  * TransformManager#CONTENT_DEX} type.
  *
  * <p>This transform will try to get incremental updates about its inputs (see {@link
- * #isIncremental()}). However, in {@link DexingType#MONO_DEX} and {@link
- * DexingType#LEGACY_MULTIDEX} modes, we will need to pass entire list of dex archives for merging.
+ * #isIncremental()}). However, in {@link DexingType#MONO_DEX} mode and for release builds in {@link
+ * DexingType#LEGACY_MULTIDEX} mode, we will need to pass entire list of dex archives for merging.
  * This includes inputs that have not changed as well, as merged does not support incremental
- * merging of DEX files currently. Therefore, incremental and full build are the same in these two
+ * merging of DEX files currently. Therefore, incremental and full build are the same in these
  * modes.
  *
+ * <p>For debuggable builds in {@link DexingType#LEGACY_MULTIDEX} mode, the dex archives are merged
+ * in groups, see {@link DexMergeGroups}. The archives with classes of the main dex list are merged
+ * together with the main dex list, to produce the main dex file, and the remaining ones are merged
+ * in groups of about one dex file. In incremental builds, only the groups with a changed dex
+ * archive are merged again.
+ *
  * <p>In {@link DexingType#NATIVE_MULTIDEX} mode, we will process only updated dex archives in the
  * following way. For full builds, all external jar libraries will be merged to DEX file(s).
  * Remaining inputs will produce a DEX file per input i.e. dex archive. Reason for this is that the
@@ -120,7 +130,7 @@ public class DexMergerTransform extends Transform {
     private final int minSdkVersion;
     private final boolean isDebuggable;
     @NonNull private final MessageReceiver messageReceiver;
-    @NonNull private final ForkJoinPool forkJoinPool = new ForkJoinPool();
+    @NonNull private final ForkJoinPool forkJoinPool = DexingScheduler.getForkJoinPool();
     private final boolean includeFeaturesInScopes;
     private final boolean isInInstantRunMode;
 
@@ -236,10 +246,21 @@ public class DexMergerTransform extends Transform {
                                 output,
                                 outputProvider,
                                 transformInvocation.isIncremental());
+            } else if (dexingType == DexingType.LEGACY_MULTIDEX
+                    && isDebuggable
+                    && transformInvocation.getContext().getTemporaryDir() != null) {
+                mergeTasks =
+                        handleLegacyMultiDexDebug(
+                                transformInvocation.getInputs(),
+                                output,
+                                outputProvider,
+                                transformInvocation.getContext().getTemporaryDir(),
+                                transformInvocation.isIncremental());
             } else {
                 mergeTasks = mergeDex(transformInvocation.getInputs(), output, outputProvider);
             }
 
+            logger.verbose("Merging dex archives: %1$s", DexingScheduler.getQueueSummary());
             // now wait for all merge tasks completion
             mergeTasks.forEach(ForkJoinTask::join);
         } catch (Exception e) {
@@ -255,8 +276,6 @@ public class DexMergerTransform extends Transform {
                     // ignore this one
                 }
             }
-            forkJoinPool.shutdown();
-            forkJoinPool.awaitTermination(100, TimeUnit.SECONDS);
         }
     }
 
@@ -298,6 +317,154 @@ public class DexMergerTransform extends Transform {
         return ImmutableList.of(submitForMerging(output, outputDir, dexArchives, mainDexClasses));
     }
 
+    /**
+     * Merges the groups of dex archives with a changed archive, and moves the resulting dex files
+     * to the output, under the names of the dex files they replace when possible. The merge tasks
+     * are complete once this returns, as the dex files can only be named once all are produced.
+     */
+    @NonNull
+    private List<ForkJoinTask<Void>> handleLegacyMultiDexDebug(
+            @NonNull Collection<TransformInput> inputs,
+            @NonNull ProcessOutput output,
+            @NonNull TransformOutputProvider outputProvider,
+            @NonNull File temporaryDir,
+            boolean isIncremental)
+            throws IOException {
+        Preconditions.checkNotNull(mainDexListFile);
+        List<Path> dexArchives = new ArrayList<>();
+        Set<Path> changedArchives = new HashSet<>();
+        for (TransformInput input : inputs) {
+            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                Path directory = directoryInput.getFile().toPath();
+                if (Files.isDirectory(directory)) {
+                    dexArchives.add(directory);
+                }
+                if (!directoryInput.getChangedFiles().isEmpty()) {
+                    changedArchives.add(directory);
+                }
+            }
+        }
+        for (TransformInput input : inputs) {
+            for (JarInput jarInput : input.getJarInputs()) {
+                if (jarInput.getStatus() != Status.REMOVED) {
+                    dexArchives.add(jarInput.getFile().toPath());
+                }
+                if (jarInput.getStatus() != Status.NOTCHANGED) {
+                    changedArchives.add(jarInput.getFile().toPath());
+                }
+            }
+        }
+
+        Path mainDexClasses = BuildableArtifactUtil.singleFile(mainDexListFile).toPath();
+        Set<Path> mainDexArchives = getMainDexArchives(dexArchives, mainDexClasses);
+        if (mainDexArchives.isEmpty()) {
+            // Nothing to build the main dex file from, the merger decides on its content
+            return mergeDex(inputs, output, outputProvider);
+        }
+
+        File outputDir = getDexOutputLocation(outputProvider, "main", getScopes());
+        File groupsFile = new File(temporaryDir, "dex-merge-groups.bin");
+        DexMergeGroups groups = isIncremental ? DexMergeGroups.load(groupsFile, outputDir) : null;
+        // Only valid again once the output is consistent
+        FileUtils.deleteIfExists(groupsFile);
+        if (groups == null
+                || !groups.update(
+                        dexArchives,
+                        mainDexArchives,
+                        changedArchives,
+                        DexMergerTransform::getArchiveSize)) {
+            FileUtils.cleanOutputDir(outputDir);
+            groups =
+                    DexMergeGroups.create(
+                            dexArchives, mainDexArchives, DexMergerTransform::getArchiveSize);
+        }
+
+        List<DexMergeGroups.Group> changedGroups = groups.getChangedGroups();
+        List<File> groupOutputs = new ArrayList<>(changedGroups.size());
+        List<ForkJoinTask<Void>> mergeTasks = new ArrayList<>(changedGroups.size());
+        for (DexMergeGroups.Group group : changedGroups) {
+            for (String dexFile : group.removeDexFiles()) {
+                FileUtils.deleteIfExists(new File(outputDir, dexFile));
+            }
+            File groupOutput = new File(temporaryDir, "group" + groupOutputs.size());
+            FileUtils.cleanOutputDir(groupOutput);
+            groupOutputs.add(groupOutput);
+            if (!group.getArchives().isEmpty()) {
+                mergeTasks.add(
+                        submitForMerging(
+                                output,
+                                groupOutput,
+                                group.getArchives().iterator(),
+                                group.isMain() ? mainDexClasses : null,
+                                group.isMain()
+                                        ? DexingType.LEGACY_MULTIDEX
+                                        : DexingType.NATIVE_MULTIDEX));
+            }
+        }
+        mergeTasks.forEach(ForkJoinTask::join);
+
+        for (int i = 0; i < changedGroups.size(); i++) {
+            List<File> dexFiles = DexMergeGroups.getDexFiles(groupOutputs.get(i));
+            List<String> names = groups.nameDexFiles(changedGroups.get(i), dexFiles.size());
+            for (int j = 0; j < dexFiles.size(); j++) {
+                Files.move(dexFiles.get(j).toPath(), outputDir.toPath().resolve(names.get(j)));
+            }
+            FileUtils.deleteRecursivelyIfExists(groupOutputs.get(i));
+        }
+        for (Map.Entry<String, String> rename : groups.compact().entrySet()) {
+            Files.move(
+                    outputDir.toPath().resolve(rename.getKey()),
+                    outputDir.toPath().resolve(rename.getValue()));
+        }
+        groups.save(groupsFile, outputDir);
+        logger.verbose(
+                "Merged %1$d of %2$d groups of dex archives",
+                changedGroups.size(), groups.getGroupCount());
+        return mergeTasks;
+    }
+
+    /** Returns the dex archives with a class of the main dex list. */
+    @NonNull
+    private static Set<Path> getMainDexArchives(
+            @NonNull List<Path> dexArchives, @NonNull Path mainDexList) throws IOException {
+        Set<String> mainDexEntries = new HashSet<>();
+        for (String mainDexClass : Files.readAllLines(mainDexList)) {
+            if (mainDexClass.endsWith(SdkConstants.DOT_CLASS)) {
+                mainDexEntries.add(ClassFileEntry.withDexExtension(mainDexClass.trim()));
+            }
+        }
+        Set<Path> mainDexArchives = new HashSet<>();
+        for (Path dexArchive : dexArchives) {
+            if (Files.isDirectory(dexArchive)) {
+                for (String entry : mainDexEntries) {
+                    if (Files.isRegularFile(dexArchive.resolve(entry))) {
+                        mainDexArchives.add(dexArchive);
+                        break;
+                    }
+                }
+            } else {
+                try (ZipFile zipFile = new ZipFile(dexArchive.toFile())) {
+                    if (zipFile.stream()
+                            .anyMatch(entry -> mainDexEntries.contains(entry.getName()))) {
+                        mainDexArchives.add(dexArchive);
+                    }
+                }
+            }
+        }
+        return mainDexArchives;
+    }
+
+    private static long getArchiveSize(@NonNull Path dexArchive) {
+        if (!Files.isDirectory(dexArchive)) {
+            return dexArchive.toFile().length();
+        }
+        try (Stream<Path> files = Files.walk(dexArchive)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * All external library inputs will be merged together (this may result in multiple DEX files),
      * while other inputs will be merged individually (merging a single input might also result in
@@ -576,6 +743,16 @@ public class DexMergerTransform extends Transform {
             @NonNull File dexOutputDir,
             @NonNull Iterator<Path> dexArchives,
             @Nullable Path mainDexList) {
+        return submitForMerging(output, dexOutputDir, dexArchives, mainDexList, dexingType);
+    }
+
+    @NonNull
+    private ForkJoinTask<Void> submitForMerging(
+            @NonNull ProcessOutput output,
+            @NonNull File dexOutputDir,
+            @NonNull Iterator<Path> dexArchives,
+            @Nullable Path mainDexList,
+            @NonNull DexingType dexingType) {
         DexMergerTransformCallable callable =
                 new DexMergerTransformCallable(
                         messageReceiver,
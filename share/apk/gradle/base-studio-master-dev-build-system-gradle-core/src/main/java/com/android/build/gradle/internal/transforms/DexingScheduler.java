@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Holds the work-stealing pool that runs the dexing work of all the variants and projects of a
+ * build: the dex archive conversions of {@link DexArchiveBuilderTransform}, the desugaring of
+ * {@link DesugarTransform} and the dex merging of {@link DexMergerTransform}.
+ *
+ * <p>Each of these used to run on a pool of its own, each sized for the whole machine, so when
+ * they ran at the same time they together ran many more threads than there are processors. All
+ * this work now shares a single pool whose parallelism is the number of processors. The dex
+ * mergers submit their work to the pool directly. The builder and desugaring tasks still go
+ * through their {@link com.android.ide.common.internal.WaitableExecutor}s, but those tasks only
+ * hand their work to this pool with {@link #execute(Callable)} and wait for it.
+ *
+ * <p>The pool is never shut down: its threads are daemon threads which terminate after being idle
+ * for a while, so the pool costs nothing between builds of the Gradle daemon.
+ */
+@ThreadSafe
+final class DexingScheduler {
+
+    @Nullable private static ForkJoinPool pool;
+
+    private DexingScheduler() {}
+
+    /** Returns the pool to submit dexing work to. */
+    @NonNull
+    static synchronized ForkJoinPool getForkJoinPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the given work on the shared pool, and waits for it to complete.
+     *
+     * @return the result of the work
+     * @throws Exception the exception thrown by the work
+     */
+    static <T> T execute(@NonNull Callable<T> work) throws Exception {
+        return execute(getForkJoinPool(), work);
+    }
+
+    @VisibleForTesting
+    static <T> T execute(@NonNull ForkJoinPool forkJoinPool, @NonNull Callable<T> work)
+            throws Exception {
+        try {
+            return forkJoinPool.submit(work).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, Exception.class);
+            Throwables.throwIfUnchecked(cause);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a one line summary of the load of the pool, to tell whether dexing work is waiting
+     * for threads.
+     */
+    @NonNull
+    static String getQueueSummary() {
+        return getQueueSummary(getForkJoinPool());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String getQueueSummary(@NonNull ForkJoinPool forkJoinPool) {
+        return String.format(
+                "%1$d of %2$d dexing threads active, %3$d queued tasks, %4$d queued submissions",
+                forkJoinPool.getActiveThreadCount(),
+                forkJoinPool.getParallelism(),
+                forkJoinPool.getQueuedTaskCount(),
+                forkJoinPool.getQueuedSubmissionCount());
+    }
+}
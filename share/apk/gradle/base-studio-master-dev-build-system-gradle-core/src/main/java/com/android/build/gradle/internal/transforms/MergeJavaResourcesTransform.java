@@ -341,16 +341,22 @@ public class MergeJavaResourcesTransform extends Transform {
          * When resources inside a jar file are extracted to a directory, the results may not be
          * expected on Windows if the file names end with "." (bug 65337573), or if there is an
          * uppercase/lowercase conflict. To work around this issue, we copy these resources to a
-         * jar file.
+         * jar file. Full builds stream the contents of the merged files to the jar file, rather
+         * than holding them all in memory until it is closed. The merger still lists the paths of
+         * all the inputs, to find the duplicates.
          */
         IncrementalFileMergerOutput baseOutput;
         if (mergedType == QualifiedContent.DefaultContentType.RESOURCES) {
             File outputLocation =
                     outputProvider.getContentLocation(
                             "resources", getOutputTypes(), getScopes(), Format.JAR);
-            baseOutput =
-                    IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
-                            mergeTransformAlgorithm, MergeOutputWriters.toZip(outputLocation));
+            if (full) {
+                baseOutput = new StreamingZipMergerOutput(mergeTransformAlgorithm, outputLocation);
+            } else {
+                baseOutput =
+                        IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
+                                mergeTransformAlgorithm, MergeOutputWriters.toZip(outputLocation));
+            }
         } else {
             File outputLocation =
                     outputProvider.getContentLocation(
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.desugaring.DesugaringData;
+import com.android.builder.desugaring.DesugaringGraph;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Desugaring dependencies between the types of the transform inputs, in a form that can be saved
+ * to a file and loaded by a later build. It answers the same queries as {@link DesugaringGraph},
+ * which can only be built by analyzing all the inputs again.
+ *
+ * <p>Paths are the class files of directory inputs and the jar inputs, as reported by {@link
+ * DesugaringData#getPath()}. This class is not thread safe.
+ */
+final class PersistentDesugaringGraph {
+
+    /** Version of the file format, to be increased whenever it changes. */
+    private static final int VERSION = 1;
+
+    /** For each analyzed path, the types it defines and the types they depend on. */
+    @NonNull private final Map<Path, Map<String, Set<String>>> typesByPath = new HashMap<>();
+    /** For each type, the paths that define it. */
+    @NonNull private final Map<String, Set<Path>> pathsByType = new HashMap<>();
+    /** For each type, the types that depend on it, once per path defining the dependent type. */
+    @NonNull private final Map<String, Multiset<String>> dependentTypes = new HashMap<>();
+
+    PersistentDesugaringGraph(@NonNull Collection<DesugaringData> data) {
+        update(Collections.emptySet(), data);
+    }
+
+    private PersistentDesugaringGraph() {}
+
+    /**
+     * Replaces what is known about the given paths with the analysis of their current content.
+     * Paths without any analyzed type, such as the removed ones, are dropped from the graph.
+     */
+    void update(@NonNull Set<Path> paths, @NonNull Collection<DesugaringData> data) {
+        for (Path path : paths) {
+            Map<String, Set<String>> types = typesByPath.remove(path);
+            if (types != null) {
+                types.forEach((type, dependencies) -> removeType(path, type, dependencies));
+            }
+        }
+        for (DesugaringData item : data) {
+            if (!item.isRemoved()) {
+                addType(item.getPath(), item.getInternalName(), item.getDependencies());
+            }
+        }
+    }
+
+    /** Returns the paths whose desugaring depends, directly or not, on a type of the given path. */
+    @NonNull
+    Set<Path> getDependentPaths(@NonNull Path path) {
+        Map<String, Set<String>> types = typesByPath.get(path);
+        if (types == null) {
+            return ImmutableSet.of();
+        }
+        Set<String> impactedTypes =
+                collectTransitively(
+                        types.keySet(),
+                        type -> {
+                            Multiset<String> dependents = dependentTypes.get(type);
+                            return dependents != null
+                                    ? dependents.elementSet()
+                                    : Collections.emptySet();
+                        });
+        return getPaths(impactedTypes);
+    }
+
+    /** Returns the paths which the desugaring of the given path depends on, directly or not. */
+    @NonNull
+    Set<Path> getDependenciesPaths(@NonNull Path path) {
+        Map<String, Set<String>> types = typesByPath.get(path);
+        if (types == null) {
+            return ImmutableSet.of();
+        }
+        Set<String> dependencies =
+                collectTransitively(
+                        types.keySet(),
+                        type -> {
+                            Set<String> typeDependencies = new HashSet<>();
+                            for (Path typePath :
+                                    pathsByType.getOrDefault(type, Collections.emptySet())) {
+                                typeDependencies.addAll(typesByPath.get(typePath).get(type));
+                            }
+                            return typeDependencies;
+                        });
+        Set<Path> paths = getPaths(dependencies);
+        paths.remove(path);
+        return paths;
+    }
+
+    /**
+     * Writes the graph to the given file. Type names and paths are written once, and referenced
+     * by index everywhere else.
+     */
+    void save(@NonNull File file) throws IOException {
+        Map<String, Integer> indices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Map.Entry<Path, Map<String, Set<String>>> entry : typesByPath.entrySet()) {
+            index(entry.getKey().toString(), indices, strings);
+            entry.getValue()
+                    .forEach(
+                            (type, dependencies) -> {
+                                index(type, indices, strings);
+                                dependencies.forEach(
+                                        dependency -> index(dependency, indices, strings));
+                            });
+        }
+
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            out.writeInt(typesByPath.size());
+            for (Map.Entry<Path, Map<String, Set<String>>> entry : typesByPath.entrySet()) {
+                out.writeInt(indices.get(entry.getKey().toString()));
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<String, Set<String>> type : entry.getValue().entrySet()) {
+                    out.writeInt(indices.get(type.getKey()));
+                    out.writeInt(type.getValue().size());
+                    for (String dependency : type.getValue()) {
+                        out.writeInt(indices.get(dependency));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #save(File)}, or returns {@code null} if the file was
+     * written by a different version of the plugin.
+     */
+    @Nullable
+    static PersistentDesugaringGraph load(@NonNull File file) throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            PersistentDesugaringGraph graph = new PersistentDesugaringGraph();
+            int pathCount = in.readInt();
+            for (int i = 0; i < pathCount; i++) {
+                Path path = Paths.get(strings[in.readInt()]);
+                int typeCount = in.readInt();
+                for (int j = 0; j < typeCount; j++) {
+                    String type = strings[in.readInt()];
+                    Set<String> dependencies = new HashSet<>();
+                    int dependencyCount = in.readInt();
+                    for (int k = 0; k < dependencyCount; k++) {
+                        dependencies.add(strings[in.readInt()]);
+                    }
+                    graph.addType(path, type, dependencies);
+                }
+            }
+            return graph;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted desugaring graph " + file, e);
+        }
+    }
+
+    private void addType(
+            @NonNull Path path, @NonNull String type, @NonNull Set<String> dependencies) {
+        Set<String> previous =
+                typesByPath.computeIfAbsent(path, p -> new HashMap<>()).put(type, dependencies);
+        if (previous != null) {
+            removeType(path, type, previous);
+        }
+        pathsByType.computeIfAbsent(type, t -> new HashSet<>()).add(path);
+        for (String dependency : dependencies) {
+            dependentTypes.computeIfAbsent(dependency, d -> HashMultiset.create()).add(type);
+        }
+    }
+
+    private void removeType(
+            @NonNull Path path, @NonNull String type, @NonNull Set<String> dependencies) {
+        Set<Path> paths = pathsByType.get(type);
+        if (paths != null && paths.remove(path) && paths.isEmpty()) {
+            pathsByType.remove(type);
+        }
+        for (String dependency : dependencies) {
+            Multiset<String> dependents = dependentTypes.get(dependency);
+            if (dependents != null && dependents.remove(type) && dependents.isEmpty()) {
+                dependentTypes.remove(dependency);
+            }
+        }
+    }
+
+    @NonNull
+    private Set<Path> getPaths(@NonNull Set<String> types) {
+        Set<Path> paths = new HashSet<>();
+        for (String type : types) {
+            paths.addAll(pathsByType.getOrDefault(type, Collections.emptySet()));
+        }
+        return paths;
+    }
+
+    @NonNull
+    private static Set<String> collectTransitively(
+            @NonNull Set<String> start, @NonNull Function<String, Set<String>> edges) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(start);
+        while (!toVisit.isEmpty()) {
+            for (String next : edges.apply(toVisit.remove())) {
+                if (visited.add(next)) {
+                    toVisit.add(next);
+                }
+            }
+        }
+        return visited;
+    }
+
+    private static void index(
+            @NonNull String string,
+            @NonNull Map<String, Integer> indices,
+            @NonNull List<String> strings) {
+        if (indices.putIfAbsent(string, strings.size()) == null) {
+            strings.add(string);
+        }
+    }
+}
@@ -113,6 +113,9 @@ public class ShrinkResourcesTransform extends Transform {
 
     @NonNull private final File compressedResources;
 
+    /** Directory in which the class usages of the analyzer are kept between runs */
+    @NonNull private final File incrementalDir;
+
     public ShrinkResourcesTransform(
             @NonNull BaseVariantData variantData,
             @NonNull BuildableArtifact uncompressedResources,
@@ -146,6 +149,8 @@ public class ShrinkResourcesTransform extends Transform {
         this.multiOutputPolicy = variantData.getMultiOutputPolicy();
 
         this.compressedResources = compressedResources;
+        this.incrementalDir =
+                variantScope.getIncrementalDir(variantScope.getFullVariantName() + "-shrinkRes");
     }
 
     @NonNull
@@ -321,6 +326,7 @@ public class ShrinkResourcesTransform extends Transform {
             try {
                 analyzer.setVerbose(params.isInfoLoggingEnabled);
                 analyzer.setDebug(params.isDebugLoggingEnabled);
+                analyzer.setClassUsagesCache(params.classUsagesCache);
                 try {
                     analyzer.analyze();
                 } catch (IOException | ParserConfigurationException | SAXException e) {
@@ -390,6 +396,7 @@ public class ShrinkResourcesTransform extends Transform {
         private final File resourceDir;
         private final boolean isInfoLoggingEnabled;
         private final boolean isDebugLoggingEnabled;
+        @NonNull private final File classUsagesCache;
 
         SplitterParams(
                 @NonNull ApkData apkInfo,
@@ -414,6 +421,10 @@ public class ShrinkResourcesTransform extends Transform {
             resourceDir = BuildableArtifactUtil.singleFile(transform.resourceDir);
             isInfoLoggingEnabled = transform.logger.isEnabled(LogLevel.INFO);
             isDebugLoggingEnabled = transform.logger.isEnabled(LogLevel.DEBUG);
+            classUsagesCache =
+                    new File(
+                            transform.incrementalDir,
+                            "class-usages-" + apkInfo.getBaseName() + ".bin");
         }
 
         @NonNull
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.merge.IncrementalFileMergerInput;
+import com.android.builder.merge.IncrementalFileMergerOutput;
+import com.android.builder.merge.StreamMergeAlgorithm;
+import com.android.utils.FileUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Merger output writing a new zip file as the merged files are created, for full builds.
+ *
+ * <p>The zip writer used for incremental builds keeps the content of every added file in memory
+ * until the zip file is closed, so its memory use grows with the inputs. This output instead
+ * streams the merged content of each path to the zip file right away, through a fixed size
+ * buffer. The zip file it writes can be updated by the incremental writer in the next builds.
+ *
+ * <p>Only the contents are streamed: the inputs are still listed in full by the merger, which
+ * needs all their paths to find the duplicates and to record the state for the next build.
+ */
+final class StreamingZipMergerOutput implements IncrementalFileMergerOutput {
+
+    @NonNull private final StreamMergeAlgorithm algorithm;
+    @NonNull private final File zipFile;
+    @Nullable private ZipOutputStream zipOutputStream;
+
+    StreamingZipMergerOutput(@NonNull StreamMergeAlgorithm algorithm, @NonNull File zipFile) {
+        this.algorithm = algorithm;
+        this.zipFile = zipFile;
+    }
+
+    @Override
+    public void open() {
+        Preconditions.checkState(zipOutputStream == null, "Output already open");
+        try {
+            FileUtils.deleteIfExists(zipFile);
+            FileUtils.mkdirs(zipFile.getParentFile());
+            zipOutputStream =
+                    new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        Preconditions.checkState(zipOutputStream != null, "Output not open");
+        try {
+            zipOutputStream.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            zipOutputStream = null;
+        }
+    }
+
+    @Override
+    public void create(@NonNull String path, @NonNull List<IncrementalFileMergerInput> inputs) {
+        Preconditions.checkState(zipOutputStream != null, "Output not open");
+        try (Closer closer = Closer.create()) {
+            List<InputStream> streams = new ArrayList<>(inputs.size());
+            for (IncrementalFileMergerInput input : inputs) {
+                streams.add(closer.register(input.openPath(path)));
+            }
+            InputStream merged = closer.register(algorithm.merge(path, streams, closer));
+
+            zipOutputStream.putNextEntry(new ZipEntry(path));
+            ByteStreams.copy(merged, zipOutputStream);
+            zipOutputStream.closeEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void update(
+            @NonNull String path,
+            @NonNull List<String> prevInputNames,
+            @NonNull List<IncrementalFileMergerInput> inputs) {
+        Preconditions.checkState(false, "Only full builds can be streamed, cannot update %s", path);
+    }
+
+    @Override
+    public void remove(@NonNull String path) {
+        Preconditions.checkState(false, "Only full builds can be streamed, cannot remove %s", path);
+    }
+}
@@ -58,6 +58,12 @@ enum class IntegerOption(
     DEXING_WRITE_BUFFER_SIZE("android.dexingWriteBuffer.size"),
     DEXING_NUMBER_OF_BUCKETS("android.dexingNumberOfBuckets"),
 
+    /**
+     * Maximum total size in megabytes of the dex archives kept in the build cache, beyond which
+     * the least recently used ones are evicted.
+     */
+    DEXING_CACHE_SIZE("android.dexingCacheSize"),
+
     /**
      * Maximum number of dynamic features that can be allocated before Oreo platforms.
      */
@@ -110,8 +110,7 @@ abstract class CmakeExternalNativeJsonGenerator extends ExternalNativeJsonGenera
     }
 
     @Override
-    void processBuildOutput(
-            @NonNull String buildOutput, @NonNull JsonGenerationAbiConfiguration abiConfig) {
+    void processBuildOutput(@NonNull JsonGenerationAbiConfiguration abiConfig) {
         if (config.enableCmakeCompilerSettingsCache) {
             writeCompilerSettingsToCache(config.compilerSettingsCacheFolder, abiConfig);
         }
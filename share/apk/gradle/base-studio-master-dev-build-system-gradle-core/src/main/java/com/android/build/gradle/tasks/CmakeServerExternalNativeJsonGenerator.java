@@ -61,6 +61,8 @@ import com.android.build.gradle.internal.cxx.json.StringTable;
 import com.android.builder.core.AndroidBuilder;
 import com.android.ide.common.process.ProcessException;
 import com.android.utils.ILogger;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -467,6 +469,7 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
         // Fill in the required fields in NativeBuildConfigValue from the code model obtained from
         // Cmake server.
         for (Configuration config : codeModel.configurations) {
+            Map<String, Target> configTargets = Maps.newHashMap();
             for (Project project : config.projects) {
                 for (Target target : project.targets) {
                     // Ignore targets that aren't valid.
@@ -485,12 +488,56 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
                             target.name + "-" + config.name + "-" + abiConfig.getAbiName();
                     assert nativeBuildConfigValue.libraries != null;
                     nativeBuildConfigValue.libraries.put(libraryName, nativeLibraryValue);
+                    configTargets.put(libraryName, target);
                 } // target
             } // project
+            addLibraryDependencies(configTargets, nativeBuildConfigValue.libraries);
         }
         return nativeBuildConfigValue;
     }
 
+    /**
+     * Records in each library the other libraries of the same configuration it links against.
+     * CMake lists the libraries a target links against as a command line fragment, with paths
+     * relative to the build folder, so they are matched to the artifacts of the other targets by
+     * file name.
+     *
+     * @param targets the targets of a configuration, by library name
+     * @param libraries the libraries of the targets, by library name
+     */
+    @VisibleForTesting
+    static void addLibraryDependencies(
+            @NonNull Map<String, Target> targets,
+            @NonNull Map<String, NativeLibraryValue> libraries) {
+        Map<String, String> librariesByArtifactName = Maps.newHashMap();
+        targets.forEach(
+                (libraryName, target) -> {
+                    for (String artifact : target.artifacts) {
+                        librariesByArtifactName.put(new File(artifact).getName(), libraryName);
+                    }
+                });
+        targets.forEach(
+                (libraryName, target) -> {
+                    if (Strings.isNullOrEmpty(target.linkLibraries)) {
+                        return;
+                    }
+                    Set<String> dependencies = Sets.newTreeSet();
+                    for (String linkLibrary :
+                            Splitter.on(CharMatcher.whitespace())
+                                    .omitEmptyStrings()
+                                    .split(target.linkLibraries)) {
+                        String dependency =
+                                librariesByArtifactName.get(new File(linkLibrary).getName());
+                        if (dependency != null && !dependency.equals(libraryName)) {
+                            dependencies.add(dependency);
+                        }
+                    }
+                    if (!dependencies.isEmpty()) {
+                        libraries.get(libraryName).dependencies = new ArrayList<>(dependencies);
+                    }
+                });
+    }
+
     @VisibleForTesting
     protected NativeLibraryValue getNativeLibraryValue(
             @NonNull String abi,
@@ -26,6 +26,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.build.gradle.internal.core.Abi;
 import com.android.build.gradle.internal.cxx.configure.GradleBuildLoggingEnvironment;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsons;
@@ -46,8 +47,10 @@ import com.android.utils.FileUtils;
 import com.android.utils.StringHelper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
@@ -57,6 +60,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.gradle.api.GradleException;
 import org.gradle.api.Task;
@@ -83,6 +90,8 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
 
     private GradleBuildVariant.Builder stats;
 
+    private NativeBuildSystem nativeBuildSystem;
+
     @TaskAction
     void build() throws BuildCommandException, IOException {
         try (GradleBuildLoggingEnvironment ignore =
@@ -98,9 +107,8 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
         List<NativeBuildConfigValueMini> miniConfigs = getNativeBuildConfigValueMinis();
         info("done reading expected JSONs");
 
-        List<String> buildCommands = Lists.newArrayList();
+        List<Map<String, NativeLibraryValueMini>> librariesToBuild = Lists.newArrayList();
         List<String> libraryNames = Lists.newArrayList();
-        List<File> outputFolders = Lists.newArrayList();
         if (targets.isEmpty()) {
             info("executing build commands for targets that produce .so files or executables");
         } else {
@@ -135,6 +143,8 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
 
         for (int miniConfigIndex = 0; miniConfigIndex < miniConfigs.size(); ++miniConfigIndex) {
             NativeBuildConfigValueMini config = miniConfigs.get(miniConfigIndex);
+            Map<String, NativeLibraryValueMini> configLibrariesToBuild = Maps.newHashMap();
+            librariesToBuild.add(configLibrariesToBuild);
             info("evaluate miniconfig");
             if (config.libraries.isEmpty()) {
                 info("no libraries");
@@ -188,15 +198,13 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
                     }
                 }
 
-                buildCommands.add(libraryValue.buildCommand);
+                configLibrariesToBuild.put(libraryName, libraryValue);
                 libraryNames.add(libraryValue.artifactName + " " + libraryValue.abi);
-                outputFolders.add(
-                        nativeBuildConfigurationsJsons.get(miniConfigIndex).getParentFile());
                 info("about to build %s", libraryValue.buildCommand);
             }
         }
 
-        executeProcessBatch(libraryNames, buildCommands, outputFolders);
+        executeProcessBatch(miniConfigs, librariesToBuild);
 
         info("check expected build outputs");
         for (NativeBuildConfigValueMini config : miniConfigs) {
@@ -296,39 +304,167 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
     }
 
     /**
-     * Given a list of build commands, execute each. If there is a failure, processing is stopped at
-     * that point.
+     * Builds the given libraries of each configuration.
+     *
+     * <p>The libraries of a configuration share a build folder, which CMake and ndk-build don't
+     * support building from several processes at once, so they are built one at a time with the
+     * dependencies of a library built before it. This also gives better progress visibility to
+     * the user because they will see "building XXXXX.a" before "building XXXXX.so".
+     *
+     * <p>CMake configurations, one per ABI, each have their own build folder, so they are built in
+     * parallel. The ndk-build configurations of all the ABIs share the NDK_OUT and NDK_LIBS_OUT
+     * folders, so they are built one at a time. See {@link #getBuildParallelism}.
+     *
+     * <p>The build commands block while the external build runs, so they run on threads of their
+     * own rather than on a shared pool meant for computations.
+     *
+     * <p>If there is a failure, no other build command is started and the failure is reported
+     * once the commands already running complete.
      */
     private void executeProcessBatch(
-            @NonNull List<String> libraryNames,
-            @NonNull List<String> commands,
-            @NonNull List<File> output)
+            @NonNull List<NativeBuildConfigValueMini> miniConfigs,
+            @NonNull List<Map<String, NativeLibraryValueMini>> librariesToBuild)
+            throws BuildCommandException, IOException {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Callable<Void>> buildSteps = Lists.newArrayList();
+        for (int miniConfigIndex = 0; miniConfigIndex < miniConfigs.size(); ++miniConfigIndex) {
+            Map<String, NativeLibraryValueMini> libraries = librariesToBuild.get(miniConfigIndex);
+            if (libraries.isEmpty()) {
+                continue;
+            }
+            List<String> buildOrder =
+                    getBuildOrder(miniConfigs.get(miniConfigIndex).libraries, libraries.keySet());
+            File outputFolder = nativeBuildConfigurationsJsons.get(miniConfigIndex).getParentFile();
+            buildSteps.add(
+                    () -> {
+                        // Logging environments are per thread.
+                        try (GradleBuildLoggingEnvironment ignore =
+                                new GradleBuildLoggingEnvironment(getLogger(), getVariantName())) {
+                            for (String libraryName : buildOrder) {
+                                if (failure.get() != null) {
+                                    break;
+                                }
+                                try {
+                                    executeProcess(libraries.get(libraryName), outputFolder);
+                                } catch (BuildCommandException | IOException | RuntimeException e) {
+                                    failure.compareAndSet(null, e);
+                                    throw e;
+                                }
+                            }
+                        }
+                        return null;
+                    });
+        }
+        if (buildSteps.isEmpty()) {
+            return;
+        }
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        getBuildParallelism(
+                                nativeBuildSystem,
+                                buildSteps.size(),
+                                Runtime.getRuntime().availableProcessors()));
+        try {
+            // Waits for all the build steps. Their failures are recorded in failure.
+            executor.invokeAll(buildSteps);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+        Exception e = failure.get();
+        if (e != null) {
+            Throwables.throwIfInstanceOf(e, BuildCommandException.class);
+            Throwables.throwIfInstanceOf(e, IOException.class);
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of configurations to build at the same time.
+     *
+     * <p>ndk-build configurations are built one at a time, as all the ABIs write to the same
+     * NDK_OUT and NDK_LIBS_OUT folders. CMake configurations have their own build folders and are
+     * built in parallel, at most one per processor, as each build already runs its own compile
+     * steps in parallel.
+     *
+     * @param nativeBuildSystem the build system of the configurations
+     * @param configCount the number of configurations with libraries to build
+     * @param processorCount the number of available processors
+     */
+    @VisibleForTesting
+    static int getBuildParallelism(
+            @NonNull NativeBuildSystem nativeBuildSystem, int configCount, int processorCount) {
+        if (nativeBuildSystem == NativeBuildSystem.NDK_BUILD) {
+            return 1;
+        }
+        return Math.max(1, Math.min(configCount, processorCount));
+    }
+
+    /** Executes the build command of a library, logging its output to its own files. */
+    private void executeProcess(@NonNull NativeLibraryValueMini library, @NonNull File output)
             throws BuildCommandException, IOException {
-        // Order of building doesn't matter to final result but building in reverse order causes
-        // the dependencies to be built first for CMake and ndk-build. This gives better progress
-        // visibility to the user because they will see "building XXXXX.a" before
-        // "building XXXXX.so". Nicer still would be to have the dependency information in the JSON
-        // so we can build in toposort order.
-        for (int library = libraryNames.size() - 1; library >= 0; --library) {
-            String libraryName = libraryNames.get(library);
-            getLogger().lifecycle(String.format("Build %s", libraryName));
-            String command = commands.get(library);
-            List<String> tokens = StringHelper.tokenizeCommandLineToEscaped(command);
-            ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
-            processBuilder.setExecutable(tokens.get(0));
-            for (int i = 1; i < tokens.size(); ++i) {
-                processBuilder.addArgs(tokens.get(i));
+        String libraryName = library.artifactName + " " + library.abi;
+        getLogger().lifecycle(String.format("Build %s", libraryName));
+        List<String> tokens =
+                StringHelper.tokenizeCommandLineToEscaped(checkNotNull(library.buildCommand));
+        ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
+        processBuilder.setExecutable(tokens.get(0));
+        for (int i = 1; i < tokens.size(); ++i) {
+            processBuilder.addArgs(tokens.get(i));
+        }
+        info("%s", processBuilder);
+        createProcessOutputJunction(
+                        output,
+                        "android_gradle_build_" + libraryName.replace(" ", "_"),
+                        processBuilder,
+                        getBuilder(),
+                        "")
+                .logStderrToInfo()
+                .logStdoutToInfo()
+                .execute();
+    }
+
+    /**
+     * Returns the given libraries of a configuration in an order where each library comes after
+     * the libraries it depends on, directly or through libraries which are not built.
+     *
+     * @param libraries all the libraries of the configuration, by name
+     * @param libraryNames the names of the libraries to build
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<String> getBuildOrder(
+            @NonNull Map<String, NativeLibraryValueMini> libraries,
+            @NonNull Set<String> libraryNames) {
+        List<String> buildOrder = Lists.newArrayList();
+        Set<String> visited = Sets.newHashSet();
+        for (String libraryName : Sets.newTreeSet(libraryNames)) {
+            addToBuildOrder(libraryName, libraries, libraryNames, visited, buildOrder);
+        }
+        return buildOrder;
+    }
+
+    private static void addToBuildOrder(
+            @NonNull String libraryName,
+            @NonNull Map<String, NativeLibraryValueMini> libraries,
+            @NonNull Set<String> libraryNames,
+            @NonNull Set<String> visited,
+            @NonNull List<String> buildOrder) {
+        // A library already visited is either ordered or part of a dependency cycle.
+        if (!visited.add(libraryName)) {
+            return;
+        }
+        NativeLibraryValueMini library = libraries.get(libraryName);
+        if (library != null) {
+            for (String dependency : library.dependencies) {
+                addToBuildOrder(dependency, libraries, libraryNames, visited, buildOrder);
             }
-            info("%s", processBuilder);
-            createProcessOutputJunction(
-                            output.get(library),
-                            "android_gradle_build_" + libraryName.replace(" ", "_"),
-                            processBuilder,
-                            getBuilder(),
-                            "")
-                    .logStderrToInfo()
-                    .logStdoutToInfo()
-                    .execute();
+        }
+        if (libraryNames.contains(libraryName)) {
+            buildOrder.add(libraryName);
         }
     }
 
@@ -440,6 +576,7 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
             task.setSoFolder(generator.getSoFolder());
             task.setObjFolder(generator.getObjFolder());
             task.stats = generator.stats;
+            task.nativeBuildSystem = generator.getNativeBuildSystem();
             if (Strings.isNullOrEmpty(buildTargetAbi)) {
                 task.setNativeBuildConfigurationsJsons(
                         generator.getNativeBuildConfigurationsJsons());
@@ -84,6 +84,15 @@ public class ExternalNativeBuildTaskUtils {
         return new File(originalJson.getParent(), "android_gradle_build_mini.json");
     }
 
+    /**
+     * The binary index of an android_gradle_build.json, from which the Json can be read again
+     * without parsing it.
+     */
+    @NonNull
+    public static File getJsonBinaryIndexFile(@NonNull File originalJson) {
+        return new File(originalJson.getParent(), "android_gradle_build_index.bin");
+    }
+
     /**
      * Utility function that takes an ABI string and returns the corresponding output folder. Output
      * folder is where build artifacts are placed.
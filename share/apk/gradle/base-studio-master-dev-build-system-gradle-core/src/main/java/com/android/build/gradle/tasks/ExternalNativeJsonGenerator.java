@@ -42,6 +42,8 @@ import com.android.build.gradle.internal.cxx.configure.JsonGenerationAbiConfigur
 import com.android.build.gradle.internal.cxx.configure.JsonGenerationInvalidationState;
 import com.android.build.gradle.internal.cxx.configure.JsonGenerationVariantConfiguration;
 import com.android.build.gradle.internal.cxx.configure.NativeBuildSystemVariantConfig;
+import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingParser;
+import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingVisitor;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsons;
 import com.android.build.gradle.internal.cxx.json.NativeBuildConfigValueMini;
 import com.android.build.gradle.internal.cxx.json.NativeLibraryValueMini;
@@ -70,7 +72,6 @@ import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Files;
@@ -84,7 +85,7 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
@@ -313,15 +314,9 @@ public abstract class ExternalNativeJsonGenerator {
                 }
 
                 info("executing %s %s", getNativeBuildSystem().getName(), processBuilder);
-                String buildOutput = executeProcess(configuration);
+                executeProcessAndWriteOutput(configuration);
                 info("done executing %s", getNativeBuildSystem().getName());
-
-                // Write the captured process output to a file for diagnostic purposes.
-                info("write build output %s", configuration.getBuildOutputFile().getAbsolutePath());
-                Files.write(
-                        configuration.getBuildOutputFile().toPath(),
-                        buildOutput.getBytes(Charsets.UTF_8));
-                processBuildOutput(buildOutput, configuration);
+                processBuildOutput(configuration);
 
                 if (!configuration.getJsonFile().exists()) {
                     throw new GradleException(
@@ -418,12 +413,26 @@ public abstract class ExternalNativeJsonGenerator {
         }
     }
 
+    /**
+     * Executes the JSON generation process and writes its output to the build output file of the
+     * configuration, for diagnostic purposes and for {@link #processBuildOutput}. The output is
+     * only held in memory until it is written.
+     */
+    private void executeProcessAndWriteOutput(@NonNull JsonGenerationAbiConfiguration abiConfig)
+            throws ProcessException, IOException {
+        String buildOutput = executeProcess(abiConfig);
+        info("write build output %s", abiConfig.getBuildOutputFile().getAbsolutePath());
+        Files.write(abiConfig.getBuildOutputFile().toPath(), buildOutput.getBytes(Charsets.UTF_8));
+    }
+
     /**
      * Derived class implements this method to post-process build output. Ndk-build uses this to
      * capture and analyze the compile and link commands that were written to stdout.
+     *
+     * <p>The build output is in the build output file of the configuration, which implementations
+     * read from rather than holding the whole output in memory.
      */
-    abstract void processBuildOutput(
-            @NonNull String buildOutput, @NonNull JsonGenerationAbiConfiguration abiConfig)
+    abstract void processBuildOutput(@NonNull JsonGenerationAbiConfiguration abiConfig)
             throws IOException;
 
     @NonNull
@@ -756,7 +765,12 @@ public abstract class ExternalNativeJsonGenerator {
         return externalNativeBuildPath;
     }
 
-    public void forEachNativeBuildConfiguration(@NonNull Consumer<JsonReader> callback)
+    /**
+     * Streams each native build configuration of the variant to a new visitor from the given
+     * supplier.
+     */
+    public void forEachNativeBuildConfiguration(
+            @NonNull Supplier<AndroidBuildGradleJsonStreamingVisitor> visitors)
             throws IOException {
         try (GradleSyncLoggingEnvironment ignore =
                 new GradleSyncLoggingEnvironment(
@@ -770,8 +784,8 @@ public abstract class ExternalNativeJsonGenerator {
             for (File file : getNativeBuildConfigurationsJsons()) {
                 if (file.exists()) {
                     info("string JSON file %s", file.getAbsolutePath());
-                    try (JsonReader reader = new JsonReader(new FileReader(file))) {
-                        callback.accept(reader);
+                    try {
+                        AndroidBuildGradleJsons.visitNativeBuildConfig(file, visitors.get());
                     } catch (Throwable e) {
                         info(
                                 "Error parsing: %s",
@@ -784,9 +798,11 @@ public abstract class ExternalNativeJsonGenerator {
                     info("streaming fallback JSON for %s", file.getAbsolutePath());
                     NativeBuildConfigValueMini fallback = new NativeBuildConfigValueMini();
                     fallback.buildFiles = Lists.newArrayList(config.makefile);
-                    try (JsonReader reader =
-                            new JsonReader(new StringReader(new Gson().toJson(fallback)))) {
-                        callback.accept(reader);
+                    try (AndroidBuildGradleJsonStreamingParser parser =
+                            new AndroidBuildGradleJsonStreamingParser(
+                                    new JsonReader(new StringReader(new Gson().toJson(fallback))),
+                                    visitors.get())) {
+                        parser.parse();
                     }
                 }
             }
@@ -43,6 +43,7 @@ import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import com.google.wireless.android.sdk.stats.GradleNativeAndroidModule;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
@@ -78,8 +79,7 @@ class NdkBuildExternalNativeJsonGenerator extends ExternalNativeJsonGenerator {
     }
 
     @Override
-    void processBuildOutput(
-            @NonNull String buildOutput, @NonNull JsonGenerationAbiConfiguration abiConfig)
+    void processBuildOutput(@NonNull JsonGenerationAbiConfiguration abiConfig)
             throws IOException {
         // Discover Application.mk if one exists next to Android.mk
         // If there is an Application.mk file next to Android.mk then pick it up.
@@ -111,16 +111,26 @@ class NdkBuildExternalNativeJsonGenerator extends ExternalNativeJsonGenerator {
         // TODO(jomof): This NativeBuildConfigValue is probably consuming a lot of memory for large
         // projects. Should be changed to a streaming model where NativeBuildConfigValueBuilder
         // provides a streaming JsonReader rather than a full object.
-        NativeBuildConfigValue buildConfig =
-                new NativeBuildConfigValueBuilder(getMakeFile(), projectDir)
-                        .addCommands(
-                                getBuildCommand(
-                                        abiConfig, applicationMk, false /* removeJobsFlag */),
-                                getBuildCommand(abiConfig, applicationMk, true /* removeJobsFlag */)
-                                        + " clean",
-                                config.variantName,
-                                buildOutput)
-                        .build();
+        //
+        // The ndk-build output is streamed from the file it was captured to, so that it is not held
+        // in memory while it is parsed.
+        NativeBuildConfigValue buildConfig;
+        try (Reader buildOutput =
+                Files.newBufferedReader(abiConfig.getBuildOutputFile().toPath(), Charsets.UTF_8)) {
+            buildConfig =
+                    new NativeBuildConfigValueBuilder(getMakeFile(), projectDir)
+                            .addCommands(
+                                    getBuildCommand(
+                                            abiConfig, applicationMk, false /* removeJobsFlag */),
+                                    getBuildCommand(
+                                                    abiConfig,
+                                                    applicationMk,
+                                                    true /* removeJobsFlag */)
+                                            + " clean",
+                                    config.variantName,
+                                    buildOutput)
+                            .build();
+        }
 
         if (applicationMk.exists()) {
             info("found application make file %s", applicationMk.getAbsolutePath());
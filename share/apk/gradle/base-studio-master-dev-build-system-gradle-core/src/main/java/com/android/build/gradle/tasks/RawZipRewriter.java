@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import com.android.annotations.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Rewrites a zip file without inflating and deflating the entries it keeps: their compressed data
+ * is transferred from the source file as is, located through its central directory. Only the
+ * entries whose content is replaced are compressed again. The order of the entries is preserved.
+ *
+ * <p>Zip64 and multi-disk archives are not supported, and are reported with a {@link
+ * ZipException}.
+ */
+final class RawZipRewriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+
+    /** The compression level of the replaced entries, matching the one of aapt */
+    private static final int COMPRESSION_LEVEL = 9;
+
+    private static final long MAX_32_BIT = 0xFFFFFFFFL;
+
+    private RawZipRewriter() {}
+
+    /**
+     * Writes the entries of the source file to the destination file, leaving out the removed
+     * entries and replacing the content of the replaced ones. The replaced entries keep their
+     * compression method, such that stored entries remain stored.
+     *
+     * @param source the zip file to read
+     * @param dest the zip file to write
+     * @param removed the names of the entries to leave out
+     * @param replaced the new content of the entries to replace, by name
+     */
+    static void rewrite(
+            @NonNull File source,
+            @NonNull File dest,
+            @NonNull Set<String> removed,
+            @NonNull Map<String, byte[]> replaced)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer centralDirectory = readCentralDirectory(in);
+
+            try (FileChannel out =
+                    FileChannel.open(
+                            dest.toPath(),
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE)) {
+                ByteArrayOutputStream newCentralDirectory = new ByteArrayOutputStream();
+                int entryCount = 0;
+                while (centralDirectory.remaining() >= CENTRAL_HEADER_SIZE) {
+                    int start = centralDirectory.position();
+                    if (centralDirectory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+                        throw new ZipException("Invalid central directory header");
+                    }
+                    int nameLength = Short.toUnsignedInt(centralDirectory.getShort(start + 28));
+                    int extraLength = Short.toUnsignedInt(centralDirectory.getShort(start + 30));
+                    int commentLength = Short.toUnsignedInt(centralDirectory.getShort(start + 32));
+                    int recordLength =
+                            CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+                    byte[] record = new byte[recordLength];
+                    centralDirectory.get(record);
+                    String name =
+                            new String(
+                                    record,
+                                    CENTRAL_HEADER_SIZE,
+                                    nameLength,
+                                    StandardCharsets.UTF_8);
+                    if (removed.contains(name)) {
+                        continue;
+                    }
+
+                    long offset = out.position();
+                    checkOffset(offset);
+                    byte[] content = replaced.get(name);
+                    if (content == null) {
+                        record = copyEntry(in, out, record);
+                    } else {
+                        record = writeEntry(out, record, nameLength, content);
+                    }
+                    ByteBuffer.wrap(record)
+                            .order(ByteOrder.LITTLE_ENDIAN)
+                            .putInt(42, (int) offset);
+                    newCentralDirectory.write(record);
+                    entryCount++;
+                }
+
+                long centralDirectoryOffset = out.position();
+                checkOffset(centralDirectoryOffset);
+                writeFully(out, ByteBuffer.wrap(newCentralDirectory.toByteArray()));
+
+                ByteBuffer end =
+                        ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE)
+                                .order(ByteOrder.LITTLE_ENDIAN);
+                end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+                end.putShort((short) 0);
+                end.putShort((short) 0);
+                end.putShort((short) entryCount);
+                end.putShort((short) entryCount);
+                end.putInt(newCentralDirectory.size());
+                end.putInt((int) centralDirectoryOffset);
+                end.putShort((short) 0);
+                end.flip();
+                writeFully(out, end);
+            }
+        }
+    }
+
+    /** Returns the central directory of the zip file, positioned at its first header. */
+    @NonNull
+    private static ByteBuffer readCentralDirectory(@NonNull FileChannel in) throws IOException {
+        long size = in.size();
+        int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = readFully(in, size - tailLength, tailLength);
+        int end = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("End of central directory not found");
+        }
+        int entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+        long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        if (tail.getShort(end + 4) != 0
+                || tail.getShort(end + 6) != 0
+                || entryCount == 0xFFFF
+                || centralDirectorySize == MAX_32_BIT
+                || centralDirectoryOffset == MAX_32_BIT) {
+            throw new ZipException("Zip64 and multi-disk archives are not supported");
+        }
+        ByteBuffer centralDirectory =
+                readFully(in, centralDirectoryOffset, (int) centralDirectorySize);
+        // Sizes are only read from the central directory, check them all upfront
+        for (int position = 0; position + CENTRAL_HEADER_SIZE <= centralDirectorySize; ) {
+            if (Integer.toUnsignedLong(centralDirectory.getInt(position + 20)) == MAX_32_BIT
+                    || Integer.toUnsignedLong(centralDirectory.getInt(position + 24)) == MAX_32_BIT
+                    || Integer.toUnsignedLong(centralDirectory.getInt(position + 42))
+                            == MAX_32_BIT) {
+                throw new ZipException("Zip64 entries are not supported");
+            }
+            position +=
+                    CENTRAL_HEADER_SIZE
+                            + Short.toUnsignedInt(centralDirectory.getShort(position + 28))
+                            + Short.toUnsignedInt(centralDirectory.getShort(position + 30))
+                            + Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+        }
+        return centralDirectory;
+    }
+
+    /**
+     * Copies the local header and the compressed data of an entry, and returns its central
+     * directory record. The sizes are taken from the central directory, so any data descriptor
+     * is left out.
+     */
+    @NonNull
+    private static byte[] copyEntry(
+            @NonNull FileChannel in, @NonNull FileChannel out, @NonNull byte[] record)
+            throws IOException {
+        ByteBuffer central = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+        long localOffset = Integer.toUnsignedLong(central.getInt(42));
+        long compressedSize = Integer.toUnsignedLong(central.getInt(20));
+
+        ByteBuffer local = readFully(in, localOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header");
+        }
+        int localNameLength = Short.toUnsignedInt(local.getShort(26));
+        int localExtraLength = Short.toUnsignedInt(local.getShort(28));
+        ByteBuffer localTail =
+                readFully(in, localOffset + LOCAL_HEADER_SIZE, localNameLength + localExtraLength);
+
+        short flags = (short) (central.getShort(8) & ~FLAG_DATA_DESCRIPTOR);
+        central.putShort(8, flags);
+        local.putShort(6, flags);
+        local.putInt(14, central.getInt(16));
+        local.putInt(18, central.getInt(20));
+        local.putInt(22, central.getInt(24));
+        local.rewind();
+        writeFully(out, local);
+        writeFully(out, localTail);
+
+        long dataOffset = localOffset + LOCAL_HEADER_SIZE + localNameLength + localExtraLength;
+        long transferred = 0;
+        while (transferred < compressedSize) {
+            long count =
+                    in.transferTo(dataOffset + transferred, compressedSize - transferred, out);
+            if (count <= 0) {
+                throw new ZipException("Truncated entry data");
+            }
+            transferred += count;
+        }
+        return record;
+    }
+
+    /** Writes an entry with the given content, and returns its central directory record. */
+    @NonNull
+    private static byte[] writeEntry(
+            @NonNull FileChannel out,
+            @NonNull byte[] originalRecord,
+            int nameLength,
+            @NonNull byte[] content)
+            throws IOException {
+        ByteBuffer original = ByteBuffer.wrap(originalRecord).order(ByteOrder.LITTLE_ENDIAN);
+        short method =
+                original.getShort(10) == METHOD_STORED ? METHOD_STORED : METHOD_DEFLATED;
+        short flags = (short) (original.getShort(8) & ~FLAG_DATA_DESCRIPTOR);
+
+        byte[] data = method == METHOD_STORED ? content : deflate(content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteBuffer local =
+                ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameLength)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER_SIGNATURE);
+        local.putShort(original.getShort(6));
+        local.putShort(flags);
+        local.putShort(method);
+        local.putShort(original.getShort(12));
+        local.putShort(original.getShort(14));
+        local.putInt((int) crc.getValue());
+        local.putInt(data.length);
+        local.putInt(content.length);
+        local.putShort((short) nameLength);
+        local.putShort((short) 0);
+        local.put(originalRecord, CENTRAL_HEADER_SIZE, nameLength);
+        local.flip();
+        writeFully(out, local);
+        writeFully(out, ByteBuffer.wrap(data));
+
+        byte[] record = new byte[CENTRAL_HEADER_SIZE + nameLength];
+        System.arraycopy(originalRecord, 0, record, 0, CENTRAL_HEADER_SIZE + nameLength);
+        ByteBuffer central = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+        central.putShort(8, flags);
+        central.putShort(10, method);
+        central.putInt(16, (int) crc.getValue());
+        central.putInt(20, data.length);
+        central.putInt(24, content.length);
+        central.putShort(30, (short) 0);
+        central.putShort(32, (short) 0);
+        return record;
+    }
+
+    @NonNull
+    private static byte[] deflate(@NonNull byte[] content) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(content.length + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                deflated.write(buffer, 0, count);
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void checkOffset(long offset) throws ZipException {
+        if (offset > MAX_32_BIT) {
+            throw new ZipException("Zip64 archives are not supported");
+        }
+    }
+
+    @NonNull
+    private static ByteBuffer readFully(@NonNull FileChannel in, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(@NonNull FileChannel out, @NonNull ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
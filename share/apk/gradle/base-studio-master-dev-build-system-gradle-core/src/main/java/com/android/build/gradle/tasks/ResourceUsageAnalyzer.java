@@ -45,41 +45,62 @@ import com.android.ide.common.xml.XmlPrettyPrinter;
 import com.android.resources.FolderTypeRelationship;
 import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
+import com.android.utils.FileUtils;
 import com.android.utils.Pair;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import javax.xml.parsers.ParserConfigurationException;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
@@ -213,6 +234,22 @@ public class ResourceUsageAnalyzer {
     private boolean mDebug;
     private boolean mDryRun;
 
+    /** Version of the format of {@link #mClassUsagesCache}, to be bumped on any change */
+    private static final int CLASS_USAGES_CACHE_VERSION = 2;
+
+    /** File in which the class usages are kept between runs, if any */
+    @Nullable private File mClassUsagesCache;
+
+    /**
+     * Maximum number of resource files parsed ahead of the one being recorded, which bounds the
+     * number of parsed documents held in memory at any time.
+     */
+    private static final int MAX_PENDING_RESOURCE_FILES =
+            2 * Runtime.getRuntime().availableProcessors();
+
+    /** Executor on which the class, dex and resource files are scanned */
+    @NonNull private ExecutorService mExecutor = ForkJoinPool.commonPool();
+
     /** The computed set of unused resources */
     private List<Resource> mUnused;
 
@@ -297,9 +334,7 @@ public class ResourceUsageAnalyzer {
         gatherResourceValues(mResourceClassDir);
         recordMapping(mProguardMapping);
 
-        for (File jarOrDir : mClasses) {
-            recordClassUsages(jarOrDir);
-        }
+        recordClassUsages(mClasses);
         recordManifestUsages(mMergedManifest);
         recordResources(mResourceDirs);
         keepPossiblyReferencedResources();
@@ -333,6 +368,25 @@ public class ResourceUsageAnalyzer {
         mDebug = verbose;
     }
 
+    /**
+     * Sets the file in which to keep the references found in the class and dex files between
+     * runs. Only the files whose contents changed since the previous run are scanned again; the
+     * references of the others are read back and resolved against the current resources.
+     */
+    public void setClassUsagesCache(@Nullable File classUsagesCache) {
+        mClassUsagesCache = classUsagesCache;
+    }
+
+    /**
+     * Sets the executor on which to scan the class, dex and resource files, which is the common
+     * fork-join pool by default. An executor running the tasks in the calling thread scans them
+     * serially.
+     */
+    @VisibleForTesting
+    void setExecutor(@NonNull ExecutorService executor) {
+        mExecutor = executor;
+    }
+
     // A 1x1 pixel PNG of type BufferedImage.TYPE_BYTE_GRAY
     public static final byte[] TINY_PNG = new byte[] {
             (byte)-119, (byte)  80, (byte)  78, (byte)  71, (byte)  13, (byte)  10,
@@ -349,8 +403,6 @@ public class ResourceUsageAnalyzer {
             (byte)-126
     };
 
-    public static final long TINY_PNG_CRC = 0x88b2a3b0L;
-
     // A 3x3 pixel PNG of type BufferedImage.TYPE_INT_ARGB with 9-patch markers
     public static final byte[] TINY_9PNG = new byte[] {
             (byte)-119, (byte)  80, (byte)  78, (byte)  71, (byte)  13, (byte)  10,
@@ -368,8 +420,6 @@ public class ResourceUsageAnalyzer {
             (byte)  68, (byte) -82, (byte)  66, (byte)  96, (byte)-126
     };
 
-    public static final long TINY_9PNG_CRC = 0x1148f987L;
-
     // The XML document <x/> as binary-packed with AAPT
     public static final byte[] TINY_BINARY_XML =
             new byte[] {
@@ -393,12 +443,9 @@ public class ResourceUsageAnalyzer {
                 (byte) 0, (byte) 0
             };
 
-    public static final long TINY_BINARY_XML_CRC = 0xd7e65643L;
-
     // The XML document <x/> as a proto packed with AAPT2
     public static final byte[] TINY_PROTO_XML =
             new byte[] {0xa, 0x3, 0x1a, 0x1, 0x78, 0x1a, 0x2, 0x8, 0x1};
-    public static final long TINY_PROTO_XML_CRC = 3204905971L;
 
     /**
      * "Removes" resources from an .ap_ file by writing it out while filtering out
@@ -406,6 +453,10 @@ public class ResourceUsageAnalyzer {
      * will remove the individual file-based resources, which is where most of
      * the data is anyway (usually in drawable bitmaps)
      *
+     * <p>The kept entries are copied with their compressed data as is, and only the small dummy
+     * files replacing removed resources are compressed; see {@link RawZipRewriter}. Archives it
+     * does not support are rewritten by inflating and deflating every entry instead.
+     *
      * @param source the .ap_ file created by aapt
      * @param dest a new .ap_ file with unused file-based resources removed
      */
@@ -418,42 +469,52 @@ public class ResourceUsageAnalyzer {
             }
         }
 
-        try (JarInputStream zis =
-                        new JarInputStream(new BufferedInputStream(new FileInputStream(source)));
-                JarOutputStream zos =
-                        new JarOutputStream(new BufferedOutputStream(new FileOutputStream(dest)))) {
-
-            // Rather than using Deflater.DEFAULT_COMPRESSION we use 9 here,
-            // since that seems to match the compressed sizes we observe in source
-            // .ap_ files encountered by the resource shrinker:
-            zos.setLevel(9);
-
-            ZipEntry entry = zis.getNextEntry();
-            while (entry != null) {
+        Set<String> removed = Sets.newHashSet();
+        Map<String, byte[]> replaced = Maps.newHashMap();
+        try (ZipFile zipFile = new ZipFile(source)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
-                boolean directory = entry.isDirectory();
                 Resource resource = getResourceByJarPath(name);
                 if (!ZipEntryUtils.isValidZipEntryName(entry)) {
                     throw new InvalidPathException(
                             entry.getName(), "Entry name contains invalid characters");
                 }
                 if (resource == null || resource.isReachable()) {
-                    copyToOutput(zis, zos, entry, name, directory);
-                } else if (REPLACE_DELETED_WITH_EMPTY && !directory) {
-                    replaceWithDummyEntry(zos, entry, name);
-                } else if (isVerbose() || mDebugPrinter != null) {
-                    String message =
-                            "Skipped unused resource " + name + ": " + entry.getSize() + " bytes";
-                    if (isVerbose()) {
-                        System.out.println(message);
-                    }
-                    if (mDebugPrinter != null) {
-                        mDebugPrinter.println(message);
-                    }
+                    continue;
+                }
+                String message;
+                if (REPLACE_DELETED_WITH_EMPTY && !entry.isDirectory()) {
+                    byte[] bytes = getDummyContent(name);
+                    replaced.put(name, bytes);
+                    message =
+                            "Skipped unused resource "
+                                    + name
+                                    + ": "
+                                    + entry.getSize()
+                                    + " bytes (replaced with small dummy file of size "
+                                    + bytes.length
+                                    + " bytes)";
+                } else {
+                    removed.add(name);
+                    message = "Skipped unused resource " + name + ": " + entry.getSize() + " bytes";
+                }
+                if (isVerbose()) {
+                    System.out.println(message);
+                }
+                if (mDebugPrinter != null) {
+                    mDebugPrinter.println(message);
                 }
-                entry = zis.getNextEntry();
             }
-            zos.flush();
+        }
+
+        try {
+            RawZipRewriter.rewrite(source, dest, removed, replaced);
+        } catch (ZipException e) {
+            // Such as zip64 archives
+            FileUtils.deleteIfExists(dest);
+            rewriteResourceZipStreaming(source, dest, removed, replaced);
         }
 
         // If net negative, copy original back. This is unusual, but can happen
@@ -477,68 +538,81 @@ public class ResourceUsageAnalyzer {
         }
     }
 
+    /** Rewrites the .ap_ file by streaming every entry through a {@link JarOutputStream}. */
+    private static void rewriteResourceZipStreaming(
+            @NonNull File source,
+            @NonNull File dest,
+            @NonNull Set<String> removed,
+            @NonNull Map<String, byte[]> replaced)
+            throws IOException {
+        try (JarInputStream zis =
+                        new JarInputStream(new BufferedInputStream(new FileInputStream(source)));
+                JarOutputStream zos =
+                        new JarOutputStream(new BufferedOutputStream(new FileOutputStream(dest)))) {
+
+            // Rather than using Deflater.DEFAULT_COMPRESSION we use 9 here,
+            // since that seems to match the compressed sizes we observe in source
+            // .ap_ files encountered by the resource shrinker:
+            zos.setLevel(9);
+
+            ZipEntry entry = zis.getNextEntry();
+            while (entry != null) {
+                String name = entry.getName();
+                byte[] dummy = replaced.get(name);
+                if (dummy != null) {
+                    replaceWithDummyEntry(zos, entry, name, dummy);
+                } else if (!removed.contains(name)) {
+                    copyToOutput(zis, zos, entry, name, entry.isDirectory());
+                }
+                entry = zis.getNextEntry();
+            }
+            zos.flush();
+        }
+    }
+
     /**
-     * Replaces the given entry with a minimal valid file of that type.
+     * Returns a minimal valid file of the type of the given entry, to replace it with.
      *
      * @see #REPLACE_DELETED_WITH_EMPTY
      */
-    private void replaceWithDummyEntry(JarOutputStream zos, ZipEntry entry, String name)
-            throws IOException {
-        // Create a new entry so that the compressed len is recomputed.
-        byte[] bytes;
-        long crc;
+    @NonNull
+    private byte[] getDummyContent(@NonNull String name) {
         if (name.endsWith(DOT_9PNG)) {
-            bytes = TINY_9PNG;
-            crc = TINY_9PNG_CRC;
+            return TINY_9PNG;
         } else if (name.endsWith(DOT_PNG)) {
-            bytes = TINY_PNG;
-            crc = TINY_PNG_CRC;
+            return TINY_PNG;
         } else if (name.endsWith(DOT_XML)) {
             switch (format) {
                 case BINARY:
-                    bytes = TINY_BINARY_XML;
-                    crc = TINY_BINARY_XML_CRC;
-                    break;
+                    return TINY_BINARY_XML;
                 case PROTO:
-                    bytes = TINY_PROTO_XML;
-                    crc = TINY_PROTO_XML_CRC;
-                    break;
+                    return TINY_PROTO_XML;
                 default:
                     throw new IllegalStateException("");
             }
         } else {
-            bytes = new byte[0];
-            crc = 0L;
+            return new byte[0];
         }
+    }
+
+    /** Replaces the given entry with the given minimal valid file of that type. */
+    private static void replaceWithDummyEntry(
+            JarOutputStream zos, ZipEntry entry, String name, byte[] bytes) throws IOException {
+        // Create a new entry so that the compressed len is recomputed.
         JarEntry outEntry = new JarEntry(name);
         if (entry.getTime() != -1L) {
             outEntry.setTime(entry.getTime());
         }
         if (entry.getMethod() == JarEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
             outEntry.setMethod(JarEntry.STORED);
             outEntry.setSize(bytes.length);
-            outEntry.setCrc(crc);
+            outEntry.setCrc(crc.getValue());
         }
         zos.putNextEntry(outEntry);
         zos.write(bytes);
         zos.closeEntry();
-
-        if (isVerbose() || mDebugPrinter != null) {
-            String message =
-                    "Skipped unused resource "
-                            + name
-                            + ": "
-                            + entry.getSize()
-                            + " bytes (replaced with small dummy file of size "
-                            + bytes.length
-                            + " bytes)";
-            if (isVerbose()) {
-                System.out.println(message);
-            }
-            if (mDebugPrinter != null) {
-                mDebugPrinter.println(message);
-            }
-        }
     }
 
     private static void copyToOutput(
@@ -1265,8 +1339,18 @@ public class ResourceUsageAnalyzer {
         return false;
     }
 
+    /**
+     * Records the resources declared and referenced in the given resource directories.
+     *
+     * <p>The XML files are parsed in parallel, each into its own {@link ResourceFile}. The model is
+     * not thread safe, so the parsed files are then visited one at a time in the order of a serial
+     * scan, which keeps the declared resources and their locations deterministic. At most {@link
+     * #MAX_PENDING_RESOURCE_FILES} files are parsed ahead of the one being visited, such that only
+     * a few documents are held in memory at a time.
+     */
     private void recordResources(Iterable<File> resources)
             throws IOException, SAXException, ParserConfigurationException {
+        Deque<Future<ResourceFile>> pending = new ArrayDeque<>();
         for (File resDir : resources) {
             File[] resourceFolders = resDir.listFiles();
             if (resourceFolders != null) {
@@ -1274,33 +1358,69 @@ public class ResourceUsageAnalyzer {
                     ResourceFolderType folderType =
                             ResourceFolderType.getFolderType(folder.getName());
                     if (folderType != null) {
-                        recordResources(folderType, folder);
+                        File[] files = folder.listFiles();
+                        if (files != null) {
+                            for (File file : files) {
+                                if (pending.size() >= MAX_PENDING_RESOURCE_FILES) {
+                                    mModel.visitResourceFile(getResourceFile(pending.remove()));
+                                }
+                                Callable<ResourceFile> parse =
+                                        () -> ResourceFile.parse(folderType, file);
+                                pending.add(mExecutor.submit(parse));
+                            }
+                        }
                     }
                 }
             }
         }
+
+        while (!pending.isEmpty()) {
+            mModel.visitResourceFile(getResourceFile(pending.remove()));
+        }
     }
 
-    private void recordResources(@NonNull ResourceFolderType folderType, File folder)
-            throws ParserConfigurationException, SAXException, IOException {
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                String path = file.getPath();
-                mModel.file = file;
-                try {
-                    boolean isXml = endsWithIgnoreCase(path, DOT_XML);
-                    if (isXml) {
-                        String xml = Files.toString(file, UTF_8);
-                        Document document = XmlUtils.parseDocument(xml, true);
-                        mModel.visitXmlDocument(file, folderType, document);
-                    } else {
-                        mModel.visitBinaryResource(folderType, file);
-                    }
-                } finally {
-                    mModel.file = null;
-                }
+    @NonNull
+    private static ResourceFile getResourceFile(@NonNull Future<ResourceFile> future)
+            throws IOException, SAXException, ParserConfigurationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, IOException.class);
+            Throwables.throwIfInstanceOf(cause, SAXException.class);
+            Throwables.throwIfInstanceOf(cause, ParserConfigurationException.class);
+            Throwables.throwIfUnchecked(cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** A resource file to record, along with its parsed content if it is an XML file. */
+    private static final class ResourceFile {
+        @NonNull private final File file;
+        @NonNull private final ResourceFolderType folderType;
+        @Nullable private final Document document;
+
+        private ResourceFile(
+                @NonNull File file,
+                @NonNull ResourceFolderType folderType,
+                @Nullable Document document) {
+            this.file = file;
+            this.folderType = folderType;
+            this.document = document;
+        }
+
+        @NonNull
+        static ResourceFile parse(@NonNull ResourceFolderType folderType, @NonNull File file)
+                throws IOException, SAXException, ParserConfigurationException {
+            Document document = null;
+            if (endsWithIgnoreCase(file.getPath(), DOT_XML)) {
+                // Parsed from a stream over the file rather than from the whole text in memory
+                document = XmlUtils.parseUtfXmlFile(file, true);
             }
+            return new ResourceFile(file, folderType, document);
         }
     }
 
@@ -1429,58 +1549,254 @@ public class ResourceUsageAnalyzer {
         }
     }
 
-    private void recordClassUsages(File file) throws IOException {
+    /**
+     * Records the resource references of all the given class and dex files, and the jars and
+     * directories containing them.
+     *
+     * <p>The files are parsed in parallel, each into its own {@link ClassUsages}, without touching
+     * the model. The usages are then applied to the model in the order of a serial scan, such that
+     * the result (including the debug output) does not depend on the scheduling. Files which did
+     * not change since the previous run reuse the usages from {@link #mClassUsagesCache}.
+     */
+    private void recordClassUsages(@NonNull Iterable<File> classes) throws IOException {
+        String mappingHash = getMappingHash();
+        Map<File, SourceUsages> previous = loadClassUsages(mappingHash);
+        Map<File, String> hashes = new HashMap<>();
+        Map<File, List<Future<ClassUsages>>> sources = new LinkedHashMap<>();
+        List<ZipFile> jars = new ArrayList<>();
+        try {
+            for (File jarOrDir : classes) {
+                submitClassUsages(jarOrDir, previous, hashes, jars, sources);
+            }
+            Map<File, SourceUsages> current = Maps.newHashMapWithExpectedSize(sources.size());
+            for (Map.Entry<File, List<Future<ClassUsages>>> source : sources.entrySet()) {
+                File file = source.getKey();
+                List<ClassUsages> usages = new ArrayList<>(source.getValue().size());
+                for (Future<ClassUsages> future : source.getValue()) {
+                    ClassUsages classUsages = getClassUsages(future);
+                    applyClassUsages(classUsages);
+                    usages.add(classUsages);
+                }
+                current.put(file, new SourceUsages(hashes.get(file), usages));
+            }
+            saveClassUsages(mappingHash, current);
+        } finally {
+            for (ZipFile jar : jars) {
+                Closeables.close(jar, true);
+            }
+        }
+    }
+
+    private void submitClassUsages(
+            @NonNull File file,
+            @NonNull Map<File, SourceUsages> previous,
+            @NonNull Map<File, String> hashes,
+            @NonNull List<ZipFile> jars,
+            @NonNull Map<File, List<Future<ClassUsages>>> sources)
+            throws IOException {
         if (file.isDirectory()) {
             File[] children = file.listFiles();
             if (children != null) {
                 for (File child : children) {
-                    recordClassUsages(child);
+                    submitClassUsages(child, previous, hashes, jars, sources);
                 }
             }
         } else if (file.isFile()) {
-            if (file.getPath().endsWith(DOT_CLASS) || file.getPath().endsWith(DOT_DEX)) {
-                byte[] bytes = Files.toByteArray(file);
-                recordClassUsages(file, file.getName(), bytes);
-            } else if (file.getPath().endsWith(DOT_JAR)) {
-                ZipInputStream zis = null;
-                try {
-                    FileInputStream fis = new FileInputStream(file);
-                    try {
-                        zis = new ZipInputStream(fis);
-                        ZipEntry entry = zis.getNextEntry();
-                        while (entry != null) {
-                            String name = entry.getName();
-                            if ((name.endsWith(DOT_CLASS)
-                                            &&
-                                            // Skip resource type classes like R$drawable; they will
-                                            // reference the integer id's we're looking for, but
-                                            // these aren't actual usages we need to track;
-                                            // if somebody references the field elsewhere, we'll
-                                            // catch that
-                                            !isResourceClass(name))
-                                    || name.endsWith(DOT_DEX)) {
-                                byte[] bytes = ByteStreams.toByteArray(zis);
-                                if (bytes != null) {
-                                    recordClassUsages(file, name, bytes);
-                                }
-                            }
-
-                            entry = zis.getNextEntry();
-                        }
-                    } finally {
-                        Closeables.close(fis, true);
+            boolean isClassFile =
+                    file.getPath().endsWith(DOT_CLASS) || file.getPath().endsWith(DOT_DEX);
+            if (!isClassFile && !file.getPath().endsWith(DOT_JAR)) {
+                return;
+            }
+            List<Future<ClassUsages>> usages = new ArrayList<>();
+            sources.put(file, usages);
+
+            // Hash the file before scanning it, such that changes made while it is being scanned
+            // are picked up by the next run
+            String hash = mClassUsagesCache != null ? hash(file) : "";
+            hashes.put(file, hash);
+            SourceUsages previousUsages = previous.get(file);
+            if (previousUsages != null && previousUsages.mHash.equals(hash)) {
+                for (ClassUsages classUsages : previousUsages.mClasses) {
+                    usages.add(Futures.immediateFuture(classUsages));
+                }
+            } else if (isClassFile) {
+                usages.add(
+                        submitClassUsages(
+                                file, file.getName(), () -> Files.toByteArray(file)));
+            } else {
+                // Read through the central directory, such that the entries can be read
+                // concurrently by the workers rather than streamed one after the other
+                ZipFile zipFile = new ZipFile(file);
+                jars.add(zipFile);
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if ((name.endsWith(DOT_CLASS)
+                                    &&
+                                    // Skip resource type classes like R$drawable; they will
+                                    // reference the integer id's we're looking for, but
+                                    // these aren't actual usages we need to track;
+                                    // if somebody references the field elsewhere, we'll
+                                    // catch that
+                                    !isResourceClass(name))
+                            || name.endsWith(DOT_DEX)) {
+                        usages.add(
+                                submitClassUsages(
+                                        file,
+                                        name,
+                                        () -> {
+                                            try (InputStream stream =
+                                                    zipFile.getInputStream(entry)) {
+                                                return ByteStreams.toByteArray(stream);
+                                            }
+                                        }));
                     }
-                } finally {
-                    Closeables.close(zis, true);
                 }
             }
         }
     }
 
-    private void recordClassUsages(File file, String name, byte[] bytes) {
+    @NonNull
+    private Future<ClassUsages> submitClassUsages(
+            @NonNull File file, @NonNull String name, @NonNull Callable<byte[]> bytes) {
+        return mExecutor.submit(
+                () -> {
+                    ClassUsages usages = new ClassUsages(file, name);
+                    try {
+                        recordClassUsages(usages, file, name, bytes.call());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return usages;
+                });
+    }
+
+    @NonNull
+    private static ClassUsages getClassUsages(@NonNull Future<ClassUsages> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Marks the resources referenced by the class reachable, and records the strings. */
+    private void applyClassUsages(@NonNull ClassUsages usages) {
+        for (ClassUsages.Reference reference : usages.mReferences) {
+            Resource resource =
+                    reference.mOwner != null
+                            ? getResourceFromCode(reference.mOwner, reference.mField)
+                            : mModel.getResource(reference.mValue);
+            if (resource != null
+                    && ResourceUsageModel.markReachable(resource)
+                    && mDebug
+                    && reference.mContext != null) {
+                assert mDebugPrinter != null : "mDebug is true, but mDebugPrinter is null.";
+                mDebugPrinter.println(
+                        "Marking "
+                                + resource
+                                + " reachable: referenced from "
+                                + reference.mContext
+                                + " in "
+                                + usages.mFile
+                                + ":"
+                                + usages.mName);
+            }
+        }
+        for (String string : usages.mStrings) {
+            referencedString(string);
+        }
+        for (String caller : usages.mGetIdentifierCallers) {
+            if (caller.equals(mResourcesWrapper) || caller.equals(mSuggestionsAdapter)) {
+                // "benign" usages: don't trigger reflection mode just because
+                // the user has included appcompat
+                continue;
+            }
+            mFoundGetIdentifier = true;
+        }
+        if (usages.mFoundWebContent) {
+            mFoundWebContent = true;
+        }
+    }
+
+    /**
+     * Returns the class usages of the previous run, by class, dex or jar file. These are only
+     * valid for the same ProGuard mapping, as it determines which classes are resource classes.
+     */
+    @NonNull
+    private Map<File, SourceUsages> loadClassUsages(@NonNull String mappingHash) {
+        if (mClassUsagesCache == null || !mClassUsagesCache.isFile()) {
+            return Collections.emptyMap();
+        }
+        try (ObjectInputStream stream =
+                new ObjectInputStream(
+                        new BufferedInputStream(new FileInputStream(mClassUsagesCache)))) {
+            if (stream.readInt() != CLASS_USAGES_CACHE_VERSION
+                    || !stream.readUTF().equals(mappingHash)) {
+                return Collections.emptyMap();
+            }
+            @SuppressWarnings("unchecked")
+            Map<File, SourceUsages> usages = (Map<File, SourceUsages>) stream.readObject();
+            return usages;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Stale or corrupt: scan everything again
+            return Collections.emptyMap();
+        }
+    }
+
+    private void saveClassUsages(
+            @NonNull String mappingHash, @NonNull Map<File, SourceUsages> usages)
+            throws IOException {
+        if (mClassUsagesCache == null) {
+            return;
+        }
+        Files.createParentDirs(mClassUsagesCache);
+        try (ObjectOutputStream stream =
+                new ObjectOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(mClassUsagesCache)))) {
+            stream.writeInt(CLASS_USAGES_CACHE_VERSION);
+            stream.writeUTF(mappingHash);
+            stream.writeObject(new HashMap<>(usages));
+        }
+    }
+
+    /**
+     * Returns the hash of the contents of the ProGuard mapping, or an empty string if there is
+     * none or the class usages are not cached.
+     */
+    @NonNull
+    private String getMappingHash() throws IOException {
+        if (mClassUsagesCache == null || mProguardMapping == null || !mProguardMapping.isFile()) {
+            return "";
+        }
+        return hash(mProguardMapping);
+    }
+
+    /**
+     * Returns the hash of the contents of the given file, which decides whether the class usages
+     * of a previous run are still valid. Timestamps are not used, as their resolution may be too
+     * coarse to see a file being rewritten within the same second.
+     */
+    @NonNull
+    private static String hash(@NonNull File file) throws IOException {
+        return Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    private void recordClassUsages(
+            @NonNull ClassUsages usages, File file, String name, byte[] bytes) {
         if (name.endsWith(DOT_CLASS)) {
             ClassReader classReader = new ClassReader(bytes);
-            classReader.accept(new UsageVisitor(file, name), SKIP_DEBUG | SKIP_FRAMES);
+            classReader.accept(new UsageVisitor(usages, name), SKIP_DEBUG | SKIP_FRAMES);
         } else {
             assert name.endsWith(DOT_DEX);
             AnalysisCallback callback =
@@ -1492,21 +1808,18 @@ public class ResourceUsageAnalyzer {
 
                         @Override
                         public void referencedInt(int value) {
-                            ResourceUsageAnalyzer.this.referencedInt("dex", value, file, name);
+                            usages.referencedInt("dex", value);
                         }
 
                         @Override
                         public void referencedString(@NonNull String value) {
-                            ResourceUsageAnalyzer.this.referencedString(value);
+                            usages.referencedString(value);
                         }
 
                         @Override
                         public void referencedStaticField(
                                 @NonNull String internalName, @NonNull String fieldName) {
-                            Resource resource = getResourceFromCode(internalName, fieldName);
-                            if (resource != null) {
-                                ResourceUsageModel.markReachable(resource);
-                            }
+                            usages.referencedStaticField(internalName, fieldName);
                         }
 
                         @Override
@@ -1514,7 +1827,7 @@ public class ResourceUsageAnalyzer {
                                 @NonNull String internalName,
                                 @NonNull String methodName,
                                 @NonNull String methodDescriptor) {
-                            ResourceUsageAnalyzer.this.referencedMethodInvocation(
+                            usages.referencedMethodInvocation(
                                     internalName,
                                     methodName,
                                     methodDescriptor,
@@ -1707,12 +2020,12 @@ public class ResourceUsageAnalyzer {
      * calls and recording string literals, used to handle dynamic lookup of resources.
      */
     private class UsageVisitor extends ClassVisitor {
-        private final File mJarFile;
+        private final ClassUsages mUsages;
         private final String mCurrentClass;
 
-        public UsageVisitor(File jarFile, String name) {
+        public UsageVisitor(ClassUsages usages, String name) {
             super(Opcodes.ASM5);
-            mJarFile = jarFile;
+            mUsages = usages;
             mCurrentClass = name;
         }
 
@@ -1728,10 +2041,7 @@ public class ResourceUsageAnalyzer {
                 @Override
                 public void visitFieldInsn(int opcode, String owner, String name, String desc) {
                     if (opcode == Opcodes.GETSTATIC) {
-                        Resource resource = getResourceFromCode(owner, name);
-                        if (resource != null) {
-                            ResourceUsageModel.markReachable(resource);
-                        }
+                        mUsages.referencedStaticField(owner, name);
                     }
                 }
 
@@ -1739,7 +2049,7 @@ public class ResourceUsageAnalyzer {
                 public void visitMethodInsn(
                         int opcode, String owner, String name, String desc, boolean itf) {
                     super.visitMethodInsn(opcode, owner, name, desc, itf);
-                    referencedMethodInvocation(owner, name, desc, mCurrentClass);
+                    mUsages.referencedMethodInvocation(owner, name, desc, mCurrentClass);
                 }
 
                 @Override
@@ -1803,58 +2113,107 @@ public class ResourceUsageAnalyzer {
         private void handleCodeConstant(@Nullable Object cst, @NonNull String context) {
             if (cst instanceof Integer) {
                 Integer value = (Integer) cst;
-                referencedInt(context, value, mJarFile, mCurrentClass);
+                mUsages.referencedInt(context, value);
             } else if (cst instanceof int[]) {
                 int[] values = (int[]) cst;
                 for (int value : values) {
-                    referencedInt(context, value, mJarFile, mCurrentClass);
+                    mUsages.referencedInt(context, value);
                 }
             } else if (cst instanceof String) {
                 String string = (String) cst;
-                referencedString(string);
+                mUsages.referencedString(string);
             }
         }
     }
 
-    private void referencedInt(@NonNull String context, int value, File file, String currentClass) {
-        Resource resource = mModel.getResource(value);
-        if (ResourceUsageModel.markReachable(resource) && mDebug) {
-            assert mDebugPrinter != null : "mDebug is true, but mDebugPrinter is null.";
-            mDebugPrinter.println(
-                    "Marking "
-                            + resource
-                            + " reachable: referenced from "
-                            + context
-                            + " in "
-                            + file
-                            + ":"
-                            + currentClass);
+    /**
+     * The references found in a single class or dex file. These are recorded without resolving
+     * them against the model, such that files can be scanned concurrently, and such that they stay
+     * valid across runs in which the resource ids change. They are resolved and applied to the
+     * model by {@link #applyClassUsages(ClassUsages)}.
+     */
+    private static final class ClassUsages implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** A resource constant or a field of a resource class referenced by the class */
+        private static final class Reference implements Serializable {
+            private static final long serialVersionUID = 1L;
+
+            /** Where the constant was found, or {@code null} for a field */
+            @Nullable private final String mContext;
+
+            private final int mValue;
+            @Nullable private final String mOwner;
+            @Nullable private final String mField;
+
+            private Reference(
+                    @Nullable String context,
+                    int value,
+                    @Nullable String owner,
+                    @Nullable String field) {
+                mContext = context;
+                mValue = value;
+                mOwner = owner;
+                mField = field;
+            }
         }
-    }
 
-    private void referencedMethodInvocation(
-            @NonNull String owner,
-            @NonNull String name,
-            @NonNull String desc,
-            @NonNull String currentClass) {
-        if (owner.equals("android/content/res/Resources")
-                && name.equals("getIdentifier")
-                && desc.equals("(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I")) {
-
-            if (currentClass.equals(mResourcesWrapper)
-                    || currentClass.equals(mSuggestionsAdapter)) {
-                // "benign" usages: don't trigger reflection mode just because
-                // the user has included appcompat
-                return;
-            }
+        @NonNull private final File mFile;
+        @NonNull private final String mName;
+        private final List<Reference> mReferences = new ArrayList<>();
+        private final List<String> mStrings = new ArrayList<>();
+        /** The classes calling Resources#getIdentifier */
+        private final List<String> mGetIdentifierCallers = new ArrayList<>();
+        private boolean mFoundWebContent;
+
+        private ClassUsages(@NonNull File file, @NonNull String name) {
+            mFile = file;
+            mName = name;
+        }
 
-            mFoundGetIdentifier = true;
-            // TODO: Check previous instruction and see if we can find a literal
-            // String; if so, we can more accurately dispatch the resource here
-            // rather than having to check the whole string pool!
+        private void referencedInt(@NonNull String context, int value) {
+            mReferences.add(new Reference(context, value, null, null));
         }
-        if (owner.equals("android/webkit/WebView") && name.startsWith("load")) {
-            mFoundWebContent = true;
+
+        private void referencedStaticField(@NonNull String owner, @NonNull String field) {
+            mReferences.add(new Reference(null, 0, owner, field));
+        }
+
+        private void referencedString(@NonNull String string) {
+            mStrings.add(string);
+        }
+
+        private void referencedMethodInvocation(
+                @NonNull String owner,
+                @NonNull String name,
+                @NonNull String desc,
+                @NonNull String currentClass) {
+            if (owner.equals("android/content/res/Resources")
+                    && name.equals("getIdentifier")
+                    && desc.equals("(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I")) {
+                mGetIdentifierCallers.add(currentClass);
+                // TODO: Check previous instruction and see if we can find a literal
+                // String; if so, we can more accurately dispatch the resource here
+                // rather than having to check the whole string pool!
+            }
+            if (owner.equals("android/webkit/WebView") && name.startsWith("load")) {
+                mFoundWebContent = true;
+            }
+        }
+    }
+
+    /** The usages of all the classes of a class, dex or jar file with the given contents. */
+    private static final class SourceUsages implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        /** The hash of the contents of the file when it was scanned */
+        @NonNull private final String mHash;
+
+        @NonNull private final List<ClassUsages> mClasses;
+
+        private SourceUsages(@NonNull String hash, @NonNull List<ClassUsages> classes) {
+            mHash = hash;
+            mClasses = classes;
         }
     }
 
@@ -1862,7 +2221,22 @@ public class ResourceUsageAnalyzer {
             new ResourceShrinkerUsageModel();
 
     private class ResourceShrinkerUsageModel extends ResourceUsageModel {
-        public File file;
+        /** The resource file being visited, if any, which declared resources are located in */
+        @Nullable private ResourceFile mResourceFile;
+
+        void visitResourceFile(@NonNull ResourceFile resourceFile) {
+            mResourceFile = resourceFile;
+            try {
+                if (resourceFile.document != null) {
+                    visitXmlDocument(
+                            resourceFile.file, resourceFile.folderType, resourceFile.document);
+                } else {
+                    visitBinaryResource(resourceFile.folderType, resourceFile.file);
+                }
+            } finally {
+                mResourceFile = null;
+            }
+        }
 
         /**
          * Whether we should ignore tools attribute resource references.
@@ -1892,7 +2266,7 @@ public class ResourceUsageAnalyzer {
         @Override
         protected Resource declareResource(ResourceType type, String name, Node node) {
             Resource resource = super.declareResource(type, name, node);
-            resource.addLocation(file);
+            resource.addLocation(mResourceFile != null ? mResourceFile.file : null);
             return resource;
         }
 
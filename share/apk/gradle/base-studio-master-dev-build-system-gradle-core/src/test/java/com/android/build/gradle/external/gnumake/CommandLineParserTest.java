@@ -35,6 +35,8 @@ import static com.google.common.truth.Truth.assertThat;
 import com.android.annotations.NonNull;
 import com.google.common.collect.Lists;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
 import org.junit.Test;
 
@@ -170,4 +172,18 @@ public class CommandLineParserTest {
                 new CommandLine(
                         "a\\\\b c", Lists.newArrayList("d", "e"), Lists.newArrayList("d", "e")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readerSharesTokensBetweenCommands() throws IOException {
+        String commands = "g++ -c a.c -o a.o\n\ng++ a.o -o a.so\r\n";
+        List<CommandLine> fromReader =
+                CommandLineParser.parse(new StringReader(commands), new PosixFileConventions());
+
+        assertThat(fromReader)
+                .isEqualTo(CommandLineParser.parse(commands, new PosixFileConventions()));
+        assertThat(fromReader).hasSize(2);
+        assertThat(fromReader.get(0).executable).isSameAs(fromReader.get(1).executable);
+        assertThat(fromReader.get(0).escapedFlags.get(3))
+                .isSameAs(fromReader.get(1).escapedFlags.get(0));
+    }
+}
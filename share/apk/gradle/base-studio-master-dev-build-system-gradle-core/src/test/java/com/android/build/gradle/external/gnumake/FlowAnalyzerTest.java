@@ -38,7 +38,13 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import org.junit.Test;
 
 public class FlowAnalyzerTest {
@@ -148,4 +154,93 @@ public class FlowAnalyzerTest {
                                                 Lists.newArrayList("a.o"),
                                                 true)));
     }
+
+    @Test
+    public void randomCommandGraphs() {
+        Random random = new Random(1);
+        CommandLine command = new CommandLine("g++", compileFlagC, compileFlagC);
+        for (int iteration = 0; iteration < 2000; ++iteration) {
+            List<BuildStepInfo> steps = new ArrayList<>();
+            for (int i = random.nextInt(30); i >= 0; --i) {
+                boolean isCompile = random.nextBoolean();
+                List<String> inputs = new ArrayList<>();
+                if (isCompile) {
+                    inputs.add("f" + random.nextInt(10) + ".c");
+                } else {
+                    for (int j = random.nextInt(4); j > 0; --j) {
+                        inputs.add("f" + random.nextInt(10) + ".o");
+                    }
+                }
+                List<String> outputs = new ArrayList<>();
+                for (int j = random.nextInt(3); j > 0; --j) {
+                    outputs.add("f" + random.nextInt(10) + (random.nextBoolean() ? ".o" : ".c"));
+                }
+                steps.add(new BuildStepInfo(command, inputs, outputs, isCompile));
+            }
+
+            ListMultimap<String, List<BuildStepInfo>> expected = analyzeWithHashSets(steps);
+            ListMultimap<String, List<BuildStepInfo>> actual = FlowAnalyzer.analyze(steps);
+
+            // Ties in the sort by input may come out in any order, so only compare the sets of
+            // steps besides the sorted inputs.
+            assertThat(actual.keys()).containsExactlyElementsIn(expected.keys()).inOrder();
+            List<List<BuildStepInfo>> expectedValues = new ArrayList<>(expected.values());
+            List<List<BuildStepInfo>> actualValues = new ArrayList<>(actual.values());
+            for (int i = 0; i < expectedValues.size(); ++i) {
+                assertThat(Lists.transform(actualValues.get(i), BuildStepInfo::getOnlyInput))
+                        .containsExactlyElementsIn(
+                                Lists.transform(
+                                        expectedValues.get(i), BuildStepInfo::getOnlyInput))
+                        .inOrder();
+                assertThat(actualValues.get(i))
+                        .containsExactlyElementsIn(expectedValues.get(i));
+            }
+        }
+    }
+
+    /**
+     * The flow analysis as it was first written, copying hash sets of terminal inputs from command
+     * to command. {@link BuildStepInfo} has no hashCode so the sets are by identity.
+     */
+    @NonNull
+    private static ListMultimap<String, List<BuildStepInfo>> analyzeWithHashSets(
+            @NonNull List<BuildStepInfo> commandSummaries) {
+        Map<String, Integer> outputToCommand = new HashMap<>();
+        List<Set<BuildStepInfo>> outputToTerminals = new ArrayList<>();
+        Map<Integer, Set<String>> commandOutputsConsumed = new HashMap<>();
+        for (int i = 0; i < commandSummaries.size(); ++i) {
+            BuildStepInfo current = commandSummaries.get(i);
+            commandOutputsConsumed.put(i, new HashSet<>());
+            Set<BuildStepInfo> terminals = new HashSet<>();
+            for (String input : current.getInputs()) {
+                if (outputToCommand.containsKey(input)) {
+                    int inputCommandIndex = outputToCommand.get(input);
+                    terminals.addAll(outputToTerminals.get(inputCommandIndex));
+                    commandOutputsConsumed.get(inputCommandIndex).add(input);
+                    continue;
+                }
+                if (current.inputsAreSourceFiles()) {
+                    terminals.add(current);
+                }
+            }
+            outputToTerminals.add(terminals);
+            for (String output : current.getOutputs()) {
+                outputToCommand.put(output, i);
+            }
+        }
+
+        ListMultimap<String, List<BuildStepInfo>> result = ArrayListMultimap.create();
+        for (int i = 0; i < commandSummaries.size(); ++i) {
+            BuildStepInfo current = commandSummaries.get(i);
+            for (String output : current.getOutputs()) {
+                if (!commandOutputsConsumed.get(i).contains(output)
+                        || !current.inputsAreSourceFiles()) {
+                    List<BuildStepInfo> ordered = new ArrayList<>(outputToTerminals.get(i));
+                    ordered.sort(Comparator.comparing(BuildStepInfo::getOnlyInput));
+                    result.put(output, ordered);
+                }
+            }
+        }
+        return result;
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.cxx.json;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.tasks.ExternalNativeBuildTaskUtils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AndroidBuildGradleJsonIndexTest {
+    private static final String JSON =
+            "{\n"
+                    + "  \"stringTable\": {\n"
+                    + "    \"0\": \"-DFLAG\"\n"
+                    + "  },\n"
+                    + "  \"buildFiles\": [\"/src/CMakeLists.txt\"],\n"
+                    + "  \"libraries\": {\n"
+                    + "    \"app-debug-x86\": {\n"
+                    + "      \"abi\": \"x86\",\n"
+                    + "      \"artifactName\": \"app\",\n"
+                    + "      \"files\": [\n"
+                    + "        {\"src\": \"/src/a.cpp\", \"flagsOrdinal\": 0},\n"
+                    + "        {\"src\": \"/src/b.cpp\", \"flags\": \"-DFLAG\"}\n"
+                    + "      ],\n"
+                    + "      \"dependencies\": [\"common-debug-x86\"]\n"
+                    + "    }\n"
+                    + "  },\n"
+                    + "  \"toolchains\": {\n"
+                    + "    \"toolchain\": {\"cppCompilerExecutable\": \"/bin/clang++\"}\n"
+                    + "  }\n"
+                    + "}";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIndexReplaysJson() throws IOException {
+        File json = temporaryFolder.newFile("android_gradle_build.json");
+        Files.asCharSink(json, Charsets.UTF_8).write(JSON);
+        File index = ExternalNativeBuildTaskUtils.getJsonBinaryIndexFile(json);
+
+        RecordingVisitor parsed = new RecordingVisitor();
+        AndroidBuildGradleJsons.visitNativeBuildConfig(json, parsed);
+        assertThat(index.isFile()).isTrue();
+        assertThat(parsed.calls)
+                .containsExactly(
+                        "beginStringTable",
+                        "stringTableEntry 0 -DFLAG",
+                        "endStringTable",
+                        "buildFile /src/CMakeLists.txt",
+                        "beginLibrary app-debug-x86",
+                        "libraryAbi x86",
+                        "libraryArtifactName app",
+                        "beginLibraryFile",
+                        "libraryFileSrc /src/a.cpp",
+                        "libraryFileFlagsOrdinal 0",
+                        "endLibraryFile",
+                        "beginLibraryFile",
+                        "libraryFileSrc /src/b.cpp",
+                        "libraryFileFlags -DFLAG",
+                        "endLibraryFile",
+                        "libraryDependency common-debug-x86",
+                        "endLibrary",
+                        "beginToolchain toolchain",
+                        "toolchainCppCompilerExecutable /bin/clang++",
+                        "endToolchain")
+                .inOrder();
+
+        RecordingVisitor replayed = new RecordingVisitor();
+        assertThat(
+                        AndroidBuildGradleJsonIndex.replay(
+                                index, AndroidBuildGradleJsonIndex.hash(json), replayed))
+                .isTrue();
+        assertThat(replayed.calls).isEqualTo(parsed.calls);
+    }
+
+    @Test
+    public void testIndexIgnoredWhenJsonChanges() throws IOException {
+        File json = temporaryFolder.newFile("android_gradle_build.json");
+        Files.asCharSink(json, Charsets.UTF_8).write(JSON);
+        File index = ExternalNativeBuildTaskUtils.getJsonBinaryIndexFile(json);
+        AndroidBuildGradleJsons.visitNativeBuildConfig(json, new RecordingVisitor());
+
+        Files.asCharSink(json, Charsets.UTF_8).write(JSON.replace("app", "other"));
+        RecordingVisitor visitor = new RecordingVisitor();
+        assertThat(
+                        AndroidBuildGradleJsonIndex.replay(
+                                index, AndroidBuildGradleJsonIndex.hash(json), visitor))
+                .isFalse();
+        assertThat(visitor.calls).isEmpty();
+
+        AndroidBuildGradleJsons.visitNativeBuildConfig(json, visitor);
+        assertThat(visitor.calls).contains("libraryArtifactName other");
+        assertThat(
+                        AndroidBuildGradleJsonIndex.replay(
+                                index, AndroidBuildGradleJsonIndex.hash(json), visitor))
+                .isTrue();
+    }
+
+    @Test
+    public void testTruncatedIndexIgnored() throws IOException {
+        File json = temporaryFolder.newFile("android_gradle_build.json");
+        Files.asCharSink(json, Charsets.UTF_8).write(JSON);
+        File index = ExternalNativeBuildTaskUtils.getJsonBinaryIndexFile(json);
+        AndroidBuildGradleJsons.visitNativeBuildConfig(json, new RecordingVisitor());
+
+        byte[] bytes = Files.toByteArray(index);
+        Files.write(Arrays.copyOf(bytes, bytes.length - 3), index);
+        RecordingVisitor visitor = new RecordingVisitor();
+        assertThat(
+                        AndroidBuildGradleJsonIndex.replay(
+                                index, AndroidBuildGradleJsonIndex.hash(json), visitor))
+                .isFalse();
+        assertThat(visitor.calls).isEmpty();
+    }
+
+    /** Records the calls of the parser which the Json above leads to. */
+    private static class RecordingVisitor extends AndroidBuildGradleJsonStreamingVisitor {
+        @NonNull private final List<String> calls = Lists.newArrayList();
+
+        @Override
+        protected void beginStringTable() {
+            calls.add("beginStringTable");
+        }
+
+        @Override
+        protected void endStringTable() {
+            calls.add("endStringTable");
+        }
+
+        @Override
+        protected void visitStringTableEntry(int index, @NonNull String value) {
+            calls.add("stringTableEntry " + index + " " + value);
+        }
+
+        @Override
+        protected void visitBuildFile(@NonNull String buildFile) {
+            calls.add("buildFile " + buildFile);
+        }
+
+        @Override
+        protected void beginLibrary(@NonNull String libraryName) {
+            calls.add("beginLibrary " + libraryName);
+        }
+
+        @Override
+        protected void endLibrary() {
+            calls.add("endLibrary");
+        }
+
+        @Override
+        protected void visitLibraryAbi(@NonNull String abi) {
+            calls.add("libraryAbi " + abi);
+        }
+
+        @Override
+        protected void visitLibraryArtifactName(@NonNull String artifact) {
+            calls.add("libraryArtifactName " + artifact);
+        }
+
+        @Override
+        protected void beginLibraryFile() {
+            calls.add("beginLibraryFile");
+        }
+
+        @Override
+        protected void endLibraryFile() {
+            calls.add("endLibraryFile");
+        }
+
+        @Override
+        protected void visitLibraryFileSrc(@NonNull String src) {
+            calls.add("libraryFileSrc " + src);
+        }
+
+        @Override
+        protected void visitLibraryFileFlags(@NonNull String flags) {
+            calls.add("libraryFileFlags " + flags);
+        }
+
+        @Override
+        protected void visitLibraryFileFlagsOrdinal(@NonNull Integer flagsOrdinal) {
+            calls.add("libraryFileFlagsOrdinal " + flagsOrdinal);
+        }
+
+        @Override
+        protected void visitLibraryDependency(@NonNull String dependency) {
+            calls.add("libraryDependency " + dependency);
+        }
+
+        @Override
+        protected void beginToolchain(@NonNull String toolchain) {
+            calls.add("beginToolchain " + toolchain);
+        }
+
+        @Override
+        protected void endToolchain() {
+            calls.add("endToolchain");
+        }
+
+        @Override
+        protected void visitToolchainCppCompilerExecutable(@NonNull String executable) {
+            calls.add("toolchainCppCompilerExecutable " + executable);
+        }
+    }
+}
@@ -111,6 +111,31 @@ public class AndroidBuildGradleJsonsTest {
         GradleBuildVariant.NativeLibraryInfo library = stats.getLibraries(0);
     }
 
+    @Test
+    public void testParseLibraryDependencies() throws IOException {
+        NativeBuildConfigValueMini config =
+                AndroidBuildGradleJsons.parseToMiniConfigAndGatherStatistics(
+                        new JsonReader(
+                                new StringReader(
+                                        "{\n"
+                                                + "  \"libraries\": {\n"
+                                                + "    \"app-debug-x86\": {\n"
+                                                + "      \"dependencies\": [\n"
+                                                + "        \"common-debug-x86\",\n"
+                                                + "        \"util-debug-x86\"\n"
+                                                + "      ]\n"
+                                                + "    },\n"
+                                                + "    \"common-debug-x86\": {}\n"
+                                                + "  }\n"
+                                                + "}")),
+                        GradleBuildVariant.newBuilder());
+
+        assertThat(config.libraries.get("app-debug-x86").dependencies)
+                .containsExactly("common-debug-x86", "util-debug-x86")
+                .inOrder();
+        assertThat(config.libraries.get("common-debug-x86").dependencies).isEmpty();
+    }
+
     private GradleBuildVariant.NativeBuildConfigInfo parseAndApplyStatistics(String text)
             throws IOException {
         GradleBuildVariant.Builder stats = GradleBuildVariant.newBuilder();
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.dependency
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class JetifiedArtifactCacheTest {
+
+    @Rule
+    @JvmField
+    val tmp = TemporaryFolder()
+
+    private lateinit var cacheDirectory: File
+
+    @Before
+    fun setUp() {
+        cacheDirectory = tmp.newFolder()
+    }
+
+    @Test
+    fun testJetifiedLibraryIsCachedByContent() {
+        val cache = JetifiedArtifactCache(cacheDirectory, "1.0")
+        val library = createFile("first/library.aar", "library")
+        val jetified = createFile("output/jetified-library.aar", "jetified")
+
+        val key = cache.getKey(library)
+        assertThat(cache.get(key, library, File(tmp.root, "unused"))).isNull()
+        cache.put(key, library, jetified)
+
+        // The same library at another location uses the same entry
+        val copy = createFile("second/library.aar", "library")
+        assertThat(cache.getKey(copy)).isEqualTo(key)
+        val outputFile = File(tmp.root, "other-output/jetified-library.aar")
+        assertThat(cache.get(key, copy, outputFile)).isEqualTo(outputFile)
+        assertThat(outputFile.readText()).isEqualTo("jetified")
+    }
+
+    @Test
+    fun testUnchangedLibraryIsCached() {
+        val cache = JetifiedArtifactCache(cacheDirectory, "1.0")
+        val library = createFile("library.jar", "library")
+
+        val key = cache.getKey(library)
+        cache.put(key, library, library)
+
+        val outputFile = File(tmp.root, "output/jetified-library.jar")
+        assertThat(cache.get(key, library, outputFile)).isEqualTo(library)
+        assertThat(outputFile.exists()).isFalse()
+    }
+
+    @Test
+    fun testKeyDependsOnJetifierVersion() {
+        val library = createFile("library.jar", "library")
+
+        assertThat(JetifiedArtifactCache(cacheDirectory, "1.0").getKey(library))
+            .isNotEqualTo(JetifiedArtifactCache(cacheDirectory, "2.0").getKey(library))
+    }
+
+    @Test
+    fun testLeastRecentlyUsedEntriesAreEvicted() {
+        val cache = JetifiedArtifactCache(cacheDirectory, "1.0", maxSizeInBytes = 10)
+        val first = createFile("first.jar", "first")
+        val second = createFile("second.jar", "second")
+        val third = createFile("third.jar", "third")
+        val firstKey = cache.getKey(first)
+        val secondKey = cache.getKey(second)
+        val thirdKey = cache.getKey(third)
+
+        cache.put(firstKey, first, createFile("jetified-first.jar", "1234"))
+        cache.put(secondKey, second, createFile("jetified-second.jar", "1234"))
+        File(cacheDirectory, firstKey).setLastModified(1000)
+        File(cacheDirectory, secondKey).setLastModified(2000)
+        // Using the first entry makes the second one the least recently used
+        assertThat(cache.get(firstKey, first, File(tmp.root, "output/first.jar"))).isNotNull()
+
+        cache.put(thirdKey, third, createFile("jetified-third.jar", "1234"))
+
+        assertThat(File(cacheDirectory, firstKey).exists()).isTrue()
+        assertThat(File(cacheDirectory, secondKey).exists()).isFalse()
+        assertThat(File(cacheDirectory, thirdKey).exists()).isTrue()
+        assertThat(cache.get(secondKey, second, File(tmp.root, "output/second.jar"))).isNull()
+    }
+
+    @Test
+    fun testEntriesAreOnlyEvictedOnceTheEstimatedSizeIsAboveTheMaximum() {
+        val cache = JetifiedArtifactCache(cacheDirectory, "1.0", maxSizeInBytes = 10)
+        val first = createFile("first.jar", "first")
+        val second = createFile("second.jar", "second")
+        val third = createFile("third.jar", "third")
+        val firstKey = cache.getKey(first)
+        val secondKey = cache.getKey(second)
+        val thirdKey = cache.getKey(third)
+
+        cache.put(firstKey, first, createFile("jetified-first.jar", "1234"))
+        // Another process adds an entry, which is not counted until the next eviction
+        val otherEntry = File(cacheDirectory, "other-entry")
+        otherEntry.mkdirs()
+        File(otherEntry, "output").writeText("1234567890")
+        otherEntry.setLastModified(1000)
+
+        cache.put(secondKey, second, createFile("jetified-second.jar", "1234"))
+        assertThat(otherEntry.exists()).isTrue()
+
+        File(cacheDirectory, firstKey).setLastModified(2000)
+        File(cacheDirectory, secondKey).setLastModified(3000)
+        cache.put(thirdKey, third, createFile("jetified-third.jar", "1234"))
+        assertThat(otherEntry.exists()).isFalse()
+        assertThat(File(cacheDirectory, firstKey).exists()).isFalse()
+        assertThat(File(cacheDirectory, secondKey).exists()).isTrue()
+        assertThat(File(cacheDirectory, thirdKey).exists()).isTrue()
+    }
+
+    private fun createFile(path: String, content: String): File {
+        val file = File(tmp.root, path)
+        file.parentFile.mkdirs()
+        file.writeText(content)
+        return file
+    }
+}
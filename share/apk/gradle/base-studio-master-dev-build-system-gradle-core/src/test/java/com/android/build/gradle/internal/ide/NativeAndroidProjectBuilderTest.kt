@@ -369,4 +369,48 @@ class NativeAndroidProjectBuilderTest {
         assertThat(result.settings).hasSize(0)
         assertThat(result.artifacts).hasSize(0)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testSettingsSharedAcrossFilesAndVariants() {
+        fun json(abi: String) =
+            "{\n" +
+                    "  \"buildFiles\": [\"/project/CMakeLists.txt\"],\n" +
+                    "  \"libraries\": {\n" +
+                    "    \"hello-jni-$abi\": {\n" +
+                    "      \"toolchain\": \"toolchain\",\n" +
+                    "      \"abi\": \"$abi\",\n" +
+                    "      \"artifactName\": \"hello-jni\",\n" +
+                    "      \"files\": [\n" +
+                    "        {\"src\": \"/project/a.cpp\", \"flags\": \"-g -DA\", \"workingDirectory\": \"/wd\"},\n" +
+                    "        {\"src\": \"/project/b.cpp\", \"flags\": \"-g -DA\", \"workingDirectory\": \"/wd\"},\n" +
+                    "        {\"src\": \"/project/c.cpp\", \"flags\": \"-g -DC\", \"workingDirectory\": \"/wd\"}\n" +
+                    "      ],\n" +
+                    "      \"output\": \"/project/libhello-jni.so\"\n" +
+                    "    }\n" +
+                    "  },\n" +
+                    "  \"toolchains\": {\n" +
+                    "    \"toolchain\": {\"cppCompilerExecutable\": \"/bin/clang++\"}\n" +
+                    "  }\n" +
+                    "}"
+
+        val builder = NativeAndroidProjectBuilder("name")
+        builder.addJson(JsonReader(StringReader(json("x86"))), "debug")
+        builder.addJson(JsonReader(StringReader(json("x86_64"))), "release")
+        val result = builder.buildNativeAndroidProject()!!
+        assertThat(result.settings).hasSize(2)
+        val files = result.artifacts.flatMap { it.sourceFiles }
+        assertThat(files).hasSize(6)
+        assertThat(files.map { it.settingsName }.toSet()).hasSize(2)
+        assertThat(files.map { it.workingDirectory }.toSet()).containsExactly(File("/wd"))
+        assertThat(files[0].workingDirectory).isSameAs(files[3].workingDirectory)
+        val (first, second) = result.settings.toList()
+        assertThat(first.compilerFlags[0]).isSameAs(second.compilerFlags[0])
+
+        // A separately built NativeVariantAbi names the same flags the same way.
+        val abiBuilder = NativeAndroidProjectBuilder("name", "x86")
+        abiBuilder.addJson(JsonReader(StringReader(json("x86"))), "debug")
+        val abi = abiBuilder.buildNativeVariantAbi("debug")!!
+        assertThat(abi.settings.map { it.name }.toSet())
+            .isEqualTo(result.settings.map { it.name }.toSet())
+    }
+}
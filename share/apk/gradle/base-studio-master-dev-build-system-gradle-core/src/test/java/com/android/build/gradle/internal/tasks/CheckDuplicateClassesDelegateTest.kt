@@ -188,4 +188,27 @@ class CheckDuplicateClassesDelegateTest {
             .contains(
                 "Duplicate class test.A found in the following modules: identifier1, identifier2 and identifier3$lineSeparator$lineSeparator$RECOMMENDATION")
     }
-}
\ No newline at end of file
+
+    @Test
+    fun test2Artifacts_withManyClasses() {
+
+        val jar1 = tmp.root.toPath().resolve("jar1.jar")
+        TestInputsGenerator.jarWithEmptyClasses(jar1, (0 until 1000).map { "test/A$it" } + "test/C")
+
+        val jar2 = tmp.root.toPath().resolve("jar2.jar")
+        TestInputsGenerator.jarWithEmptyClasses(jar2, (0 until 1000).map { "test/B$it" } + "test/C")
+
+        val classesArtifacts = FakeArtifactCollection(mutableSetOf(
+            FakeResolvedArtifactResult(jar1.toFile(), FakeComponentIdentifier("identifier1")),
+            FakeResolvedArtifactResult(jar2.toFile(), FakeComponentIdentifier("identifier2"))
+        ))
+
+        val exception = assertFailsWith(RuntimeException::class) {
+            CheckDuplicateClassesDelegate(classesArtifacts).run(workers)
+        }
+
+        Truth.assertThat(exception.message)
+            .isEqualTo(
+                "Duplicate class test.C found in modules identifier1 and identifier2$lineSeparator$lineSeparator$RECOMMENDATION")
+    }
+}
@@ -22,7 +22,10 @@ import com.android.builder.files.RelativeFile;
 import com.android.tools.build.apkzlib.utils.CachedFileContents;
 import com.google.common.collect.ImmutableList;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
@@ -54,4 +57,35 @@ public class KnownFilesSaveDataTest {
         data.readCurrentData();
         assertThat(data.getFiles()).hasSize(2);
     }
+
+    @Test
+    public void readLegacyState() throws IOException {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        File base = folder.newFolder("base");
+        File legacy = new File(folder.getRoot(), "file-input-save-data.txt");
+        Properties properties = new Properties();
+        properties.put("count", "1");
+        properties.put("0.base", base.getPath());
+        properties.put("0.path", "foo");
+        properties.put("0.set", "ASSET");
+        properties.put("0.baseType", "DIRECTORY");
+        try (Writer writer = new FileWriter(legacy)) {
+            properties.store(writer, null);
+        }
+
+        File saveFile = new File(folder.getRoot(), "file-input-save-data.bin");
+        KnownFilesSaveData data = new KnownFilesSaveData(new CachedFileContents<>(saveFile));
+        RelativeFile rf = new RelativeFile(base, "foo", RelativeFile.Type.DIRECTORY);
+        assertThat(data.getFiles()).containsExactly(rf, KnownFilesSaveData.InputSet.ASSET);
+        assertThat(data.isDirty()).isTrue();
+
+        data.saveCurrentData();
+        assertThat(legacy.exists()).isFalse();
+        assertThat(saveFile.isFile()).isTrue();
+
+        data = new KnownFilesSaveData(new CachedFileContents<>(saveFile));
+        assertThat(data.getFiles()).containsExactly(rf, KnownFilesSaveData.InputSet.ASSET);
+        assertThat(data.isDirty()).isFalse();
+    }
 }
@@ -19,6 +19,7 @@ package com.android.build.gradle.internal.transforms;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.android.annotations.NonNull;
+import com.android.build.api.transform.Context;
 import com.android.build.api.transform.Status;
 import com.android.build.api.transform.TransformInput;
 import com.android.build.api.transform.TransformInvocation;
@@ -30,8 +31,10 @@ import com.android.build.gradle.internal.transforms.testdata.Toy;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.testutils.TestInputsGenerator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,6 +46,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
 
 public class DesugarIncrementalTransformHelperTest {
 
@@ -53,7 +57,7 @@ public class DesugarIncrementalTransformHelperTest {
     }
 
     @Before
-    public void setUp() throws InterruptedException {
+    public void setUp() throws IOException, InterruptedException {
         // remove any previous state first
         getDesugarIncrementalTransformHelper(
                         TransformTestHelper.invocationBuilder().setIncremental(false).build())
@@ -401,6 +405,51 @@ public class DesugarIncrementalTransformHelperTest {
         assertThat(getDesugarIncrementalTransformHelper(invocation).getAdditionalPaths()).isEmpty();
     }
 
+    @Test
+    public void testIncremental_graphLoadedFromFile() throws IOException, InterruptedException {
+        Path input = tmpDir.getRoot().toPath().resolve("input");
+        TestInputsGenerator.pathWithClasses(
+                input,
+                ImmutableList.of(
+                        Animal.class, CarbonForm.class, Cat.class, Toy.class, Tiger.class));
+        File temporaryDir = tmpDir.newFolder("tmp");
+        Context context = Mockito.mock(Context.class);
+        Mockito.when(context.getTemporaryDir()).thenReturn(temporaryDir);
+
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setContext(context)
+                        .addInput(TransformTestHelper.directoryBuilder(input.toFile()).build())
+                        .setIncremental(false)
+                        .build();
+        new DesugarIncrementalTransformHelper(
+                        "app:full", invocation, WaitableExecutor.useDirectExecutor())
+                .getDependenciesPaths(getPaths(input, Tiger.class).iterator().next());
+        assertThat(new File(temporaryDir, DesugarIncrementalTransformHelper.GRAPH_FILE_NAME))
+                .isFile();
+
+        // Another variant name, as a new daemon which only knows the saved graph
+        Path toy = getPaths(input, Toy.class).iterator().next();
+        Files.delete(toy);
+        invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setContext(context)
+                        .addInput(
+                                TransformTestHelper.directoryBuilder(input.toFile())
+                                        .putChangedFiles(
+                                                ImmutableMap.of(toy.toFile(), Status.REMOVED))
+                                        .build())
+                        .setIncremental(true)
+                        .build();
+        Set<Path> impactedPaths =
+                new DesugarIncrementalTransformHelper(
+                                "app:reloaded", invocation, WaitableExecutor.useDirectExecutor())
+                        .getAdditionalPaths();
+
+        assertThat(impactedPaths)
+                .containsExactlyElementsIn(getPaths(input, Cat.class, Tiger.class));
+    }
+
     private static void initializeGraph(@NonNull Path input)
             throws IOException, InterruptedException {
         TestInputsGenerator.pathWithClasses(
@@ -423,7 +472,7 @@ public class DesugarIncrementalTransformHelperTest {
 
     @NonNull
     private static DesugarIncrementalTransformHelper getDesugarIncrementalTransformHelper(
-            TransformInvocation invocation) {
+            TransformInvocation invocation) throws IOException {
         return new DesugarIncrementalTransformHelper(
                 PROJECT_VARIANT, invocation, WaitableExecutor.useDirectExecutor());
     }
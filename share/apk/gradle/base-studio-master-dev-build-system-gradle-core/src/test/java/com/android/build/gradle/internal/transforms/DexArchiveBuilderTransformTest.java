@@ -355,6 +355,75 @@ public class DexArchiveBuilderTransformTest {
         assertThat(cacheEntriesCount(cacheDir)).isEqualTo(5);
     }
 
+    @Test
+    public void testCacheSharedBetweenIdenticalJars() throws Exception {
+        Path inputJar = tmpDir.getRoot().toPath().resolve("input.jar");
+        TransformInput jarInput = getJarInput(inputJar, ImmutableList.of(PACKAGE + "/A"));
+        Path copiedJar = tmpDir.newFolder("other").toPath().resolve("input.jar");
+        Files.copy(inputJar, copiedJar);
+        TransformInput copiedJarInput = getJarInput(copiedJar);
+
+        getTransform(userCache)
+                .transform(
+                        TransformTestHelper.invocationBuilder()
+                                .setContext(context)
+                                .setInputs(jarInput)
+                                .setTransformOutputProvider(outputProvider)
+                                .build());
+        expectedCacheEntryCount++;
+        expectedCacheMisses++;
+        checkCache();
+
+        // The cache is keyed by the contents of the jar, not its location
+        getTransform(userCache)
+                .transform(
+                        TransformTestHelper.invocationBuilder()
+                                .setContext(context)
+                                .setInputs(copiedJarInput)
+                                .setTransformOutputProvider(outputProvider)
+                                .build());
+        expectedCacheHits++;
+        checkCache();
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        Path inputJar = tmpDir.getRoot().toPath().resolve("input.jar");
+        TransformInput jarInput = getJarInput(inputJar, ImmutableList.of(PACKAGE + "/A"));
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setContext(context)
+                        .setInputs(jarInput)
+                        .setTransformOutputProvider(outputProvider)
+                        .build();
+
+        getTransform(userCache).transform(invocation);
+        assertThat(cacheEntriesCount(cacheDir)).isEqualTo(1);
+        File index = new File(cacheDir, DexArchiveBuilderCacheHandler.CACHE_INDEX_FILE_NAME);
+        assertThat(Files.readAllLines(index.toPath())).hasSize(1);
+
+        // A cache with no room left evicts the dex archives, but not the other entries
+        Files.createDirectory(cacheDir.toPath().resolve("other-entry"));
+        new DexArchiveBuilderTransformBuilder()
+                .setAndroidJarClasspath(Collections::emptyList)
+                .setDexOptions(new DefaultDexOptions())
+                .setMessageReceiver(new NoOpMessageReceiver())
+                .setUserLevelCache(userCache)
+                .setMinSdkVersion(1)
+                .setDexer(dexerTool)
+                .setUseGradleWorkers(true)
+                .setIsDebuggable(true)
+                .setJava8LangSupportType(VariantScope.Java8LangSupport.UNUSED)
+                .setProjectVariant("myVariant")
+                .setIncludeFeaturesInScope(false)
+                .setMaxCacheSizeInMb(0)
+                .createDexArchiveBuilderTransform()
+                .transform(invocation);
+        assertThat(cacheEntriesCount(cacheDir)).isEqualTo(1);
+        assertThat(cacheDir.toPath().resolve("other-entry").toFile()).isDirectory();
+        assertThat(Files.readAllLines(index.toPath())).isEmpty();
+    }
+
     @Test
     public void testD8DesugaringCacheKeys() throws Exception {
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link DexBucketAssignment}. */
+public class DexBucketAssignmentTest {
+
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testBalancedBySize() {
+        Map<String, Long> sizes =
+                ImmutableMap.<String, Long>builder()
+                        .put("test/A.class", 100L)
+                        .put("test/B.class", 60L)
+                        .put("test/C.class", 50L)
+                        .put("test/D.class", 40L)
+                        .put("test/E.class", 30L)
+                        .put("test/F.class", 20L)
+                        .build();
+        DexBucketAssignment assignment = DexBucketAssignment.create(sizes, ImmutableMap.of(), 2);
+
+        assertThat(assignment.getBucketSizes()).isEqualTo(new long[] {160, 140});
+        assertThat(assignment.getBucket("test/A.class")).isEqualTo(0);
+        assertThat(assignment.getBucket("test/B.class")).isEqualTo(1);
+        assertThat(assignment.getBucket("test/C.class")).isEqualTo(1);
+        assertThat(assignment.getOccupancySummary()).contains("6 classes in 2 buckets");
+    }
+
+    @Test
+    public void testExistingBucketsKept() {
+        Map<String, Long> sizes =
+                ImmutableMap.of(
+                        "a/A.class", 100L,
+                        "b/B.class", 100L,
+                        "x/A.class", 10L,
+                        "x/B.class", 10L,
+                        "y/C.class", 10L);
+        Map<String, Integer> existing = ImmutableMap.of("a/A.class", 1, "b/B.class", 0);
+        DexBucketAssignment assignment = DexBucketAssignment.create(sizes, existing, 2);
+
+        assertThat(assignment.getBucket("a/A.class")).isEqualTo(1);
+        assertThat(assignment.getBucket("b/B.class")).isEqualTo(0);
+        // new classes fill the least occupied bucket up to the average first
+        assertThat(assignment.getBucket("x/A.class")).isEqualTo(0);
+        assertThat(assignment.getBucket("x/B.class")).isEqualTo(0);
+        assertThat(assignment.getBucket("y/C.class")).isEqualTo(1);
+    }
+
+    @Test
+    public void testExistingBucketsFromOutputs() throws Exception {
+        File bucket0 = tmpDir.newFolder("0");
+        File bucket1 = tmpDir.newFolder("1");
+        Path dex0 = bucket0.toPath().resolve("test/A.dex");
+        Files.createDirectories(dex0.getParent());
+        Files.write(dex0, new byte[0]);
+        Path dex1 = bucket1.toPath().resolve("test/B.dex");
+        Files.createDirectories(dex1.getParent());
+        Files.write(dex1, new byte[0]);
+
+        assertThat(DexBucketAssignment.getExistingBuckets(ImmutableList.of(bucket0, bucket1)))
+                .containsExactly("test/A.class", 0, "test/B.class", 1);
+    }
+}
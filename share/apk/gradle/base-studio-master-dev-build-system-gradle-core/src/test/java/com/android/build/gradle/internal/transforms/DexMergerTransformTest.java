@@ -27,6 +27,7 @@ import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.api.artifact.BuildableArtifact;
+import com.android.build.api.transform.Context;
 import com.android.build.api.transform.Format;
 import com.android.build.api.transform.QualifiedContent;
 import com.android.build.api.transform.Status;
@@ -397,6 +398,66 @@ public class DexMergerTransformTest {
                 .containsExactlyClassesIn(secondaryClasses);
     }
 
+    @Test
+    public void test_legacyInDebug_incremental() throws Exception {
+        Context context = Mockito.mock(Context.class);
+        when(context.getTemporaryDir()).thenReturn(tmpDir.newFolder("tmp"));
+        Set<TransformInput> inputs =
+                getTransformInputs(NUM_INPUTS, QualifiedContent.Scope.EXTERNAL_LIBRARIES);
+        DexMergerTransform transform =
+                getTransform(DexingType.LEGACY_MULTIDEX, ImmutableSet.of(PKG + "/A0.class"), true);
+        transform.transform(
+                TransformTestHelper.invocationBuilder()
+                        .setContext(context)
+                        .setTransformOutputProvider(outputProvider)
+                        .setInputs(inputs)
+                        .build());
+
+        List<String> secondaryClasses = Lists.newArrayList();
+        for (int i = 1; i < NUM_INPUTS; i++) {
+            secondaryClasses.add("L" + PKG + "/A" + i + ";");
+        }
+        Path mainDex = out.resolve("main/classes.dex");
+        assertThat(new Dex(mainDex))
+                .containsExactlyClassesIn(ImmutableList.of("L" + PKG + "/A0;"));
+        assertThat(new Dex(out.resolve("main/classes2.dex")))
+                .containsExactlyClassesIn(secondaryClasses);
+        long mainDexTimestamp = Files.getLastModifiedTime(mainDex).toMillis();
+
+        TestUtils.waitForFileSystemTick();
+        Set<TransformInput> incrementalInputs = new HashSet<>();
+        for (TransformInput input : inputs) {
+            File archive = Iterables.getOnlyElement(input.getJarInputs()).getFile();
+            incrementalInputs.add(
+                    TransformTestHelper.singleJarBuilder(archive)
+                            .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                            .setStatus(
+                                    archive.getName().equals("archive1.jar")
+                                            ? Status.REMOVED
+                                            : Status.NOTCHANGED)
+                            .build());
+        }
+        incrementalInputs.addAll(
+                getTransformInputs(1, QualifiedContent.Scope.EXTERNAL_LIBRARIES, "B"));
+        transform =
+                getTransform(DexingType.LEGACY_MULTIDEX, ImmutableSet.of(PKG + "/A0.class"), true);
+        transform.transform(
+                TransformTestHelper.invocationBuilder()
+                        .setContext(context)
+                        .setTransformOutputProvider(outputProvider)
+                        .setInputs(incrementalInputs)
+                        .setIncremental(true)
+                        .build());
+
+        // only the group of the secondary dex file was merged again
+        assertThat(Files.getLastModifiedTime(mainDex).toMillis()).isEqualTo(mainDexTimestamp);
+        secondaryClasses.remove("L" + PKG + "/A1;");
+        secondaryClasses.add("L" + PKG + "/B0;");
+        assertThat(new Dex(out.resolve("main/classes2.dex")))
+                .containsExactlyClassesIn(secondaryClasses);
+        Truth.assertThat(FileUtils.find(out.toFile(), Pattern.compile(".*\\.dex"))).hasSize(2);
+    }
+
     @Test
     public void test_legacyInRelease() throws Exception {
         List<String> expectedClasses = Lists.newArrayList();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Tests for {@link DexingScheduler}. */
+public class DexingSchedulerTest {
+
+    @Test
+    public void testPoolIsShared() {
+        ForkJoinPool pool = DexingScheduler.getForkJoinPool();
+        assertThat(DexingScheduler.getForkJoinPool()).isSameAs(pool);
+        assertThat(pool.getParallelism()).isEqualTo(Runtime.getRuntime().availableProcessors());
+        assertThat(pool.isShutdown()).isFalse();
+    }
+
+    @Test
+    public void testQueueSummary() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertThat(DexingScheduler.getQueueSummary(pool))
+                    .isEqualTo(
+                            "0 of 3 dexing threads active, 0 queued tasks, 0 queued submissions");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecuteReturnsResult() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertThat(DexingScheduler.execute(pool, () -> "dexed")).isEqualTo("dexed");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecuteRethrowsException() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            DexingScheduler.execute(
+                    pool,
+                    () -> {
+                        throw new IOException("failed");
+                    });
+            throw new AssertionError("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e).hasMessageThat().isEqualTo("failed");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs work the way the dex archive builder does, from the threads of another executor, at the
+     * same time as work submitted to the pool directly the way the dex merger does, and checks
+     * that together they never run more tasks at once than the parallelism of the pool.
+     */
+    @Test
+    public void testBuilderAndMergerShareBudget() throws Exception {
+        int parallelism = 2;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        // Stands in for the global shared thread pool the builder tasks are started on.
+        ExecutorService builderExecutor = Executors.newFixedThreadPool(8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Callable<Void> work =
+                () -> {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return null;
+                };
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(
+                        builderExecutor.submit(
+                                () -> {
+                                    start.await();
+                                    return DexingScheduler.execute(pool, work);
+                                }));
+                futures.add(
+                        builderExecutor.submit(
+                                () -> {
+                                    start.await();
+                                    return pool.submit(work).get();
+                                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            builderExecutor.shutdown();
+            pool.shutdown();
+        }
+        assertThat(maxRunning.get()).isAtMost(parallelism);
+        assertThat(maxRunning.get()).isGreaterThan(0);
+    }
+}
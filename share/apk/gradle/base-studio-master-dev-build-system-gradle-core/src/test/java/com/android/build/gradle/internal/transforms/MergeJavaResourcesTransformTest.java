@@ -30,11 +30,16 @@ import com.android.build.gradle.internal.dsl.PackagingOptions;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.build.gradle.internal.scope.VariantScope;
 import com.android.builder.merge.DuplicateRelativeFileException;
+import com.android.tools.build.apkzlib.zip.StoredEntry;
 import com.android.tools.build.apkzlib.zip.ZFile;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.truth.Truth;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -101,6 +106,64 @@ public class MergeJavaResourcesTransformTest {
         assertThat(new File(outputDir, "resources/fileNotEndingWithDot")).doesNotExist();
     }
 
+    @Test
+    public void testMergeResourcesFromSeveralJars() throws Exception {
+        File jarFile1 = new File(tmpDir.getRoot(), "foo.jar");
+        try (ZFile zf = ZFile.openReadWrite(jarFile1)) {
+            zf.add("META-INF/services/Foo", new ByteArrayInputStream(bytes("a\n")));
+            zf.add("picked.txt", new ByteArrayInputStream(bytes("first")));
+            zf.add("foo.txt", new ByteArrayInputStream(bytes("foo")));
+        }
+        File jarFile2 = new File(tmpDir.getRoot(), "bar.jar");
+        try (ZFile zf = ZFile.openReadWrite(jarFile2)) {
+            zf.add("META-INF/services/Foo", new ByteArrayInputStream(bytes("b\n")));
+            zf.add("picked.txt", new ByteArrayInputStream(bytes("second")));
+            zf.add("Bar.class", new ByteArrayInputStream(new byte[0]));
+        }
+
+        PackagingOptions packagingOptions = new PackagingOptions();
+        packagingOptions.pickFirst("picked.txt");
+        MergeJavaResourcesTransform transform =
+                new MergeJavaResourcesTransform(
+                        packagingOptions,
+                        TransformManager.SCOPE_FULL_PROJECT,
+                        QualifiedContent.DefaultContentType.RESOURCES,
+                        "mergeJavaRes",
+                        variantScope);
+        TransformInput jarTransformInput =
+                TransformTestHelper.inputBuilder()
+                        .addInput(
+                                TransformTestHelper.jarBuilder(jarFile1)
+                                        .setStatus(Status.ADDED)
+                                        .setScopes(QualifiedContent.Scope.PROJECT)
+                                        .build())
+                        .addInput(
+                                TransformTestHelper.jarBuilder(jarFile2)
+                                        .setStatus(Status.ADDED)
+                                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                                        .build())
+                        .build();
+        transform.transform(
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(ImmutableSet.of(jarTransformInput))
+                        .setTransformOutputProvider(outputProvider)
+                        .build());
+
+        Map<String, String> contents = new HashMap<>();
+        try (ZFile zf = ZFile.openReadOnly(new File(outputDir, "resources.jar"))) {
+            for (StoredEntry entry : zf.entries()) {
+                contents.put(
+                        entry.getCentralDirectoryHeader().getName(),
+                        new String(entry.read(), StandardCharsets.UTF_8));
+            }
+        }
+        Truth.assertThat(contents)
+                .containsExactly(
+                        "META-INF/services/Foo", "a\nb\n",
+                        "picked.txt", "first",
+                        "foo.txt", "foo");
+    }
+
     @Test(expected = DuplicateRelativeFileException.class)
     public void testErrorWhenDuplicateJavaResInFeature() throws Exception {
         // Create a jar file containing resources
@@ -138,4 +201,8 @@ public class MergeJavaResourcesTransformTest {
                         .build();
         transform.transform(invocation);
     }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.builder.merge.IncrementalFileMergerInput;
+import com.android.builder.merge.LazyIncrementalFileMergerInputs;
+import com.android.builder.merge.StreamMergeAlgorithms;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link StreamingZipMergerOutput}. */
+public class StreamingZipMergerOutputTest {
+
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testEntriesAreWrittenBeforeClosing() throws Exception {
+        File inputDir = tmpDir.newFolder("input");
+        // Random bytes do not compress, so the entry takes about as much space in the zip file
+        byte[] content = new byte[1024 * 1024];
+        new Random(0).nextBytes(content);
+        Files.write(new File(inputDir, "big.bin").toPath(), content);
+        IncrementalFileMergerInput input =
+                LazyIncrementalFileMergerInputs.fromNew("input", ImmutableSet.of(inputDir));
+
+        File zipFile = new File(tmpDir.getRoot(), "out/resources.jar");
+        StreamingZipMergerOutput output =
+                new StreamingZipMergerOutput(StreamMergeAlgorithms.acceptOnlyOne(), zipFile);
+        output.open();
+        input.open();
+        try {
+            output.create("big.bin", ImmutableList.of(input));
+
+            // A writer holding the entries in memory until it is closed has written nothing yet
+            assertThat(zipFile.length()).isGreaterThan(content.length / 2L);
+        } finally {
+            input.close();
+            output.close();
+        }
+
+        try (ZipFile zip = new ZipFile(zipFile);
+                InputStream stream = zip.getInputStream(zip.getEntry("big.bin"))) {
+            assertThat(ByteStreams.toByteArray(stream)).isEqualTo(content);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpdateIsRejected() {
+        StreamingZipMergerOutput output =
+                new StreamingZipMergerOutput(
+                        StreamMergeAlgorithms.acceptOnlyOne(),
+                        new File(tmpDir.getRoot(), "resources.jar"));
+        output.update("foo.txt", ImmutableList.of(), ImmutableList.of());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemoveIsRejected() {
+        StreamingZipMergerOutput output =
+                new StreamingZipMergerOutput(
+                        StreamMergeAlgorithms.acceptOnlyOne(),
+                        new File(tmpDir.getRoot(), "resources.jar"));
+        output.remove("foo.txt");
+    }
+}
@@ -463,6 +463,39 @@ public class CmakeServerExternalNativeJsonGeneratorTest {
         assertThat(table.get(file2.flagsOrdinal)).isEqualTo(expectedFlags);
     }
 
+    @Test
+    public void addLibraryDependencies_MatchesLinkLibrariesToArtifacts() {
+        Map<String, Target> targets = Maps.newHashMap();
+        targets.put(
+                "app-Debug-x86",
+                getTestTarget(
+                        "{\"name\":\"app\",\"artifacts\":[\"/build/libapp.so\"],"
+                                + "\"linkLibraries\":\"-llog libcommon.a ../x86/libutil.so\"}"));
+        targets.put(
+                "common-Debug-x86",
+                getTestTarget(
+                        "{\"name\":\"common\",\"artifacts\":[\"/build/libcommon.a\"],"
+                                + "\"linkLibraries\":\"\"}"));
+        targets.put(
+                "util-Debug-x86",
+                getTestTarget(
+                        "{\"name\":\"util\",\"artifacts\":[\"/build/x86/libutil.so\"],"
+                                + "\"linkLibraries\":\"libcommon.a -lm\"}"));
+        Map<String, NativeLibraryValue> libraries = Maps.newHashMap();
+        for (String libraryName : targets.keySet()) {
+            libraries.put(libraryName, new NativeLibraryValue());
+        }
+
+        CmakeServerExternalNativeJsonGenerator.addLibraryDependencies(targets, libraries);
+
+        assertThat(libraries.get("app-Debug-x86").dependencies)
+                .containsExactly("common-Debug-x86", "util-Debug-x86")
+                .inOrder();
+        assertThat(libraries.get("common-Debug-x86").dependencies).isNull();
+        assertThat(libraries.get("util-Debug-x86").dependencies)
+                .containsExactly("common-Debug-x86");
+    }
+
     // Reference http://b/72065334
     @Test
     public void getNativeLibraryValue_FlagsFromServerModelUsed() throws IOException {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.internal.cxx.json.NativeLibraryValueMini;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+
+public class ExternalNativeBuildTaskTest {
+
+    @Test
+    public void testBuildOrderWithoutDependencies() {
+        Map<String, NativeLibraryValueMini> libraries = Maps.newHashMap();
+        libraries.put("b", library());
+        libraries.put("a", library());
+        libraries.put("c", library());
+
+        assertThat(ExternalNativeBuildTask.getBuildOrder(libraries, libraries.keySet()))
+                .containsExactly("a", "b", "c")
+                .inOrder();
+    }
+
+    @Test
+    public void testBuildOrderPutsDependenciesFirst() {
+        Map<String, NativeLibraryValueMini> libraries = Maps.newHashMap();
+        libraries.put("app", library("util", "common"));
+        libraries.put("common", library());
+        libraries.put("util", library("common"));
+
+        assertThat(ExternalNativeBuildTask.getBuildOrder(libraries, libraries.keySet()))
+                .containsExactly("common", "util", "app")
+                .inOrder();
+    }
+
+    @Test
+    public void testBuildOrderFollowsLibrariesNotBuilt() {
+        // Only the shared libraries are built, but the order still goes through the static one.
+        Map<String, NativeLibraryValueMini> libraries = Maps.newHashMap();
+        libraries.put("app", library("static"));
+        libraries.put("static", library("base"));
+        libraries.put("base", library());
+
+        assertThat(ExternalNativeBuildTask.getBuildOrder(libraries, ImmutableSet.of("app", "base")))
+                .containsExactly("base", "app")
+                .inOrder();
+    }
+
+    @Test
+    public void testBuildOrderWithDependencyCycle() {
+        Map<String, NativeLibraryValueMini> libraries = Maps.newHashMap();
+        libraries.put("a", library("b"));
+        libraries.put("b", library("a"));
+
+        assertThat(ExternalNativeBuildTask.getBuildOrder(libraries, libraries.keySet()))
+                .containsExactly("b", "a")
+                .inOrder();
+    }
+
+    @Test
+    public void testNdkBuildConfigurationsBuiltOneAtATime() {
+        assertThat(ExternalNativeBuildTask.getBuildParallelism(NativeBuildSystem.NDK_BUILD, 4, 8))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testCmakeConfigurationsBuiltInParallel() {
+        assertThat(ExternalNativeBuildTask.getBuildParallelism(NativeBuildSystem.CMAKE, 4, 8))
+                .isEqualTo(4);
+        assertThat(ExternalNativeBuildTask.getBuildParallelism(NativeBuildSystem.CMAKE, 4, 2))
+                .isEqualTo(2);
+    }
+
+    @NonNull
+    private static NativeLibraryValueMini library(@NonNull String... dependencies) {
+        NativeLibraryValueMini library = new NativeLibraryValueMini();
+        library.dependencies.addAll(Arrays.asList(dependencies));
+        return library;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link RawZipRewriter}. */
+public class RawZipRewriterTest {
+
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testRewrite() throws Exception {
+        File source = tmpDir.newFile("source.ap_");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(source))) {
+            zos.putNextEntry(new ZipEntry("res/"));
+            zos.closeEntry();
+            writeEntry(zos, "res/a.png", "a", ZipEntry.DEFLATED);
+            writeEntry(zos, "res/b.xml", "b", ZipEntry.DEFLATED);
+            writeEntry(zos, "res/c.txt", "c", ZipEntry.STORED);
+            writeEntry(zos, "resources.arsc", "arsc", ZipEntry.STORED);
+        }
+
+        File dest = new File(tmpDir.getRoot(), "dest.ap_");
+        RawZipRewriter.rewrite(
+                source,
+                dest,
+                ImmutableSet.of("res/b.xml"),
+                ImmutableMap.of(
+                        "res/a.png", "png".getBytes(Charsets.UTF_8),
+                        "res/c.txt", "txt".getBytes(Charsets.UTF_8)));
+
+        Map<String, String> contents = new LinkedHashMap<>();
+        List<Integer> methods = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(dest)) {
+            zipFile.stream()
+                    .forEach(
+                            entry -> {
+                                try {
+                                    byte[] bytes =
+                                            ByteStreams.toByteArray(zipFile.getInputStream(entry));
+                                    String text = new String(bytes, Charsets.UTF_8);
+                                    contents.put(entry.getName(), text);
+                                    methods.add(entry.getMethod());
+                                } catch (Exception e) {
+                                    throw new AssertionError(e);
+                                }
+                            });
+        }
+        assertThat(contents)
+                .containsExactly(
+                        "res/", "",
+                        "res/a.png", "png",
+                        "res/c.txt", "txt",
+                        "resources.arsc", content("arsc"))
+                .inOrder();
+        assertThat(methods)
+                .containsExactly(
+                        ZipEntry.DEFLATED, ZipEntry.DEFLATED, ZipEntry.STORED, ZipEntry.STORED)
+                .inOrder();
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, String text, int method)
+            throws Exception {
+        byte[] bytes = content(text).getBytes(Charsets.UTF_8);
+        ZipEntry entry = new ZipEntry(name);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static String content(String text) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(text).append(i);
+        }
+        return content.toString();
+    }
+}
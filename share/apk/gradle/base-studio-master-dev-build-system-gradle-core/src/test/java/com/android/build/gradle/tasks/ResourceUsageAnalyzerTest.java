@@ -35,6 +35,8 @@ import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -43,12 +45,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 /** TODO: Test Resources#getIdentifier() handling */
 @SuppressWarnings("SpellCheckingInspection")
@@ -151,6 +160,213 @@ public class ResourceUsageAnalyzerTest {
                 analyzer.getModel().dumpConfig());
     }
 
+    @Test
+    public void testClassUsagesCache() throws Exception {
+        File dir = sTemporaryFolder.newFolder();
+        File classes = createUnproguardedClasses(dir);
+        File extraClass = createFile(dir, "extra/Extra.class", createClass("first"));
+        File rDir = createResourceClassFolder(dir);
+        File mergedManifest = createMergedManifest(dir);
+        File resources = createResourceFolder(dir);
+        File cache = new File(dir, "class-usages.bin");
+        List<File> classpath = Arrays.asList(classes, extraClass);
+
+        // Count the files scanned, which are all scanned on the analyzer's executor
+        AtomicInteger scanned = new AtomicInteger();
+        ExecutorService executor =
+                new ForwardingExecutorService() {
+                    private final ExecutorService delegate =
+                            MoreExecutors.newDirectExecutorService();
+
+                    @Override
+                    protected ExecutorService delegate() {
+                        return delegate;
+                    }
+
+                    @Override
+                    public <T> Future<T> submit(Callable<T> task) {
+                        scanned.incrementAndGet();
+                        return super.submit(task);
+                    }
+                };
+
+        String config = null;
+        int scannedClassesAndResources = 0;
+        int scannedResources = 0;
+        for (int run = 0; run < 3; run++) {
+            if (run == 2) {
+                // Same length and timestamp, but different contents
+                long lastModified = extraClass.lastModified();
+                Files.write(createClass("other"), extraClass);
+                assertTrue(extraClass.setLastModified(lastModified));
+            }
+            ResourceUsageAnalyzer analyzer =
+                    new ResourceUsageAnalyzer(
+                            rDir,
+                            classpath,
+                            mergedManifest,
+                            null,
+                            resources,
+                            null,
+                            ResourceUsageAnalyzer.ApkFormat.BINARY);
+            analyzer.setClassUsagesCache(cache);
+            analyzer.setExecutor(executor);
+            scanned.set(0);
+            analyzer.analyze();
+            checkState(analyzer);
+            assertTrue(cache.isFile());
+            if (config == null) {
+                config = analyzer.getModel().dumpConfig();
+                scannedClassesAndResources = scanned.get();
+            } else {
+                assertEquals(config, analyzer.getModel().dumpConfig());
+            }
+            if (run == 1) {
+                // Nothing changed: the class usages are read back instead of scanning the classes
+                scannedResources = scanned.get();
+                assertTrue(scannedResources < scannedClassesAndResources - 1);
+            } else if (run == 2) {
+                // Only the changed class is scanned again, the jar still comes from the cache
+                assertEquals(scannedResources + 1, scanned.get());
+            }
+        }
+    }
+
+    /** Returns a class file defining the given constant, whose size only depends on its length. */
+    private static byte[] createClass(String constant) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "Extra", null, "java/lang/Object", null);
+        writer.visitField(
+                        Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                        "CONSTANT",
+                        "Ljava/lang/String;",
+                        null,
+                        constant)
+                .visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    @Test
+    public void testParallelClassScanMatchesSerialScan() throws Exception {
+        for (CodeInput codeInput : CodeInput.values()) {
+            File dir = sTemporaryFolder.newFolder();
+            File classes;
+            File mapping = null;
+            switch (codeInput) {
+                case PROGUARD:
+                    classes = createProguardedClasses(dir);
+                    mapping = createMappingFile(dir);
+                    break;
+                case NO_SHRINKER:
+                    classes = createUnproguardedClasses(dir);
+                    break;
+                case R8:
+                    classes = createR8Dex(dir);
+                    mapping = createMappingFile(dir);
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            File rDir = createResourceClassFolder(dir);
+            File mergedManifest = createMergedManifest(dir);
+            File resources = createResourceFolder(dir);
+
+            String serial =
+                    getReport(
+                            rDir,
+                            classes,
+                            mergedManifest,
+                            mapping,
+                            resources,
+                            MoreExecutors.newDirectExecutorService());
+            String parallel =
+                    getReport(
+                            rDir,
+                            classes,
+                            mergedManifest,
+                            mapping,
+                            resources,
+                            ForkJoinPool.commonPool());
+            assertTrue(serial.contains("reachable=true"));
+            assertEquals(codeInput.name(), serial, parallel);
+        }
+    }
+
+    @Test
+    public void testParallelResourceParsingMatchesSerialParsing() throws Exception {
+        File dir = sTemporaryFolder.newFolder();
+        File classes = createUnproguardedClasses(dir);
+        File rDir = createResourceClassFolder(dir);
+        File mergedManifest = createMergedManifest(dir);
+        File resources = createResourceFolder(dir);
+        // More files than are parsed ahead of the one being recorded, each including the previous
+        for (int i = 0; i < 100; i++) {
+            createFile(
+                    resources,
+                    "layout/extra_" + i + ".xml",
+                    ""
+                            + "<LinearLayout"
+                            + " xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                            + "    <include layout=\"@layout/extra_"
+                            + Math.max(i - 1, 0)
+                            + "\" />\n"
+                            + "    <TextView android:text=\"@string/hello_world\" />\n"
+                            + "</LinearLayout>");
+        }
+
+        String serial =
+                getReport(
+                        rDir,
+                        classes,
+                        mergedManifest,
+                        null,
+                        resources,
+                        MoreExecutors.newDirectExecutorService());
+        String parallel =
+                getReport(
+                        rDir,
+                        classes,
+                        mergedManifest,
+                        null,
+                        resources,
+                        ForkJoinPool.commonPool());
+        assertTrue(serial.contains("@layout/extra_99 : reachable=false"));
+        assertEquals(serial, parallel);
+    }
+
+    /**
+     * Analyzes the given inputs on the given executor, and returns the debug report, which lists
+     * the resources marked reachable from code in the order they were found, followed by the
+     * resulting model.
+     */
+    private static String getReport(
+            File rDir,
+            File classes,
+            File mergedManifest,
+            @Nullable File mapping,
+            File resources,
+            ExecutorService executor)
+            throws Exception {
+        File reportFile = new File(sTemporaryFolder.newFolder(), "report.txt");
+        ResourceUsageAnalyzer analyzer =
+                new ResourceUsageAnalyzer(
+                        rDir,
+                        Collections.singleton(classes),
+                        mergedManifest,
+                        mapping,
+                        resources,
+                        reportFile,
+                        ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.setDebug(true);
+        analyzer.setExecutor(executor);
+        analyzer.analyze();
+        checkState(analyzer);
+        analyzer.dispose();
+        return Files.toString(reportFile, Charsets.UTF_8)
+                + analyzer.getModel().dumpResourceModel();
+    }
+
     private static void check(CodeInput codeInput, boolean inPlace) throws Exception {
         File dir = sTemporaryFolder.newFolder();
 